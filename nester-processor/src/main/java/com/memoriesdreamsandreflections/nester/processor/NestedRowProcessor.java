@@ -0,0 +1,443 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester.processor;
+
+
+import java.io.IOException ;
+import java.io.PrintWriter ;
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.Set ;
+
+import javax.annotation.processing.AbstractProcessor ;
+import javax.annotation.processing.RoundEnvironment ;
+import javax.annotation.processing.SupportedAnnotationTypes ;
+import javax.lang.model.SourceVersion ;
+import javax.lang.model.element.Element ;
+import javax.lang.model.element.ElementKind ;
+import javax.lang.model.element.ExecutableElement ;
+import javax.lang.model.element.Modifier ;
+import javax.lang.model.element.PackageElement ;
+import javax.lang.model.element.TypeElement ;
+import javax.lang.model.element.VariableElement ;
+import javax.lang.model.type.DeclaredType ;
+import javax.lang.model.type.TypeKind ;
+import javax.lang.model.type.TypeMirror ;
+import javax.lang.model.util.ElementFilter ;
+import javax.tools.Diagnostic ;
+import javax.tools.JavaFileObject ;
+
+import com.memoriesdreamsandreflections.nester.Category ;
+import com.memoriesdreamsandreflections.nester.NestedRow ;
+
+/**
+ * Annotation processor for {@link NestedRow}
+ *
+ * For each annotated row class <i>Row</i>, generates <i>Row</i>Nesting in the same package. Every category, 
+ * ancillary and detail name is resolved here, at compile time, with the same precedence as 
+ * ValueGetter.forName() (field, then getX(), isX(), x()), and emitted as a plain field read or method call. 
+ * Names that are missing or private are reported as compile errors on the row class.
+ * <br/>
+ * newNester() hands the Nester these getters rather than accessor(), so that it builds its own Accessor from them
+ * and reads primitive keys with getLong(); a supplied Accessor's values would be boxed and unboxed again.
+ *
+ * @author jgenoese
+ */
+@SupportedAnnotationTypes( "com.memoriesdreamsandreflections.nester.NestedRow" )
+public class NestedRowProcessor
+extends AbstractProcessor
+{
+	static final String SUFFIX = "Nesting";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion()
+	{
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment roundEnv )
+	{
+		for ( Element element : roundEnv.getElementsAnnotatedWith( NestedRow.class ) )
+		{
+			if ( element.getKind() != ElementKind.CLASS )
+			{
+				error( element, "@NestedRow applies to classes only" );
+				continue;
+			}
+			TypeElement row = (TypeElement)element;
+			if ( row.getModifiers().contains( Modifier.PRIVATE ) || !row.getTypeParameters().isEmpty() )
+			{
+				error( row, "@NestedRow class must not be private or generic" );
+				continue;
+			}
+			try
+			{
+				generate( row, row.getAnnotation( NestedRow.class ) );
+			}
+			catch ( UnresolvedNameException e )
+			{
+				error( row, e.getMessage() );
+			}
+			catch ( IOException e )
+			{
+				error( row, "cannot write " + generatedName( row ) + ": " + e );
+			}
+		}
+		return true;
+	}
+
+	void generate( TypeElement row, NestedRow nestedRow ) throws IOException, UnresolvedNameException
+	{
+		String pkg = packageOf( row ).getQualifiedName().toString();
+		String rowType = row.getQualifiedName().toString();
+		Category[] categories = nestedRow.categories();
+		if ( categories.length == 0 )
+		{
+			throw new UnresolvedNameException( "@NestedRow needs at least one category" );
+		}
+
+		// resolve everything before writing anything
+		List<Getter> categoryGetters = new ArrayList<>();
+		List<List<Getter>> ancillaryGetters = new ArrayList<>();
+		List<List<Getter>> aggregateGetters = new ArrayList<>();
+		for ( Category category : categories )
+		{
+			categoryGetters.add( resolve( row, category.field() ) );
+			List<Getter> ancillary = new ArrayList<>();
+			for ( String name : category.ancillary() )
+			{
+				ancillary.add( resolve( row, name ) );
+			}
+			ancillaryGetters.add( ancillary );
+			List<Getter> aggregate = new ArrayList<>();
+			for ( String name : category.aggregates() )
+			{
+				Getter getter = resolve( row, name );
+				if ( !getter.isNumeric() )
+				{
+					throw new UnresolvedNameException( "aggregate \"" + name + "\" is not numeric" );
+				}
+				aggregate.add( getter );
+			}
+			aggregateGetters.add( aggregate );
+		}
+		Getter detail = nestedRow.detail().isEmpty() ? null : resolve( row, nestedRow.detail() );
+
+		String simpleName = generatedSimpleName( row );
+		JavaFileObject file = processingEnv.getFiler().createSourceFile( generatedName( row ), row );
+		try ( PrintWriter out = new PrintWriter( file.openWriter() ) )
+		{
+			if ( !pkg.isEmpty() )
+			{
+				out.println( "package " + pkg + ";" );
+				out.println();
+			}
+			out.println( "import java.util.ArrayList ;" );
+			out.println( "import java.util.Arrays ;" );
+			out.println( "import java.util.List ;" );
+			out.println();
+			out.println( "import com.memoriesdreamsandreflections.nester.Accessor ;" );
+			out.println( "import com.memoriesdreamsandreflections.nester.CategoryDescriptor ;" );
+			out.println( "import com.memoriesdreamsandreflections.nester.Nester ;" );
+			out.println( "import com.memoriesdreamsandreflections.nester.ValueGetter ;" );
+			out.println();
+			out.println( "/**" );
+			out.println( " * Generated from @NestedRow on " + rowType + "; do not edit." );
+			out.println( " */" );
+			out.println( "@javax.annotation.processing.Generated( \"" + getClass().getName() + "\" )" );
+			out.println( "public final class " + simpleName );
+			out.println( "{" );
+			out.println( "\tprivate " + simpleName + "()" );
+			out.println( "\t{" );
+			out.println( "\t}" );
+			out.println();
+
+			out.println( "\tpublic static Accessor<" + rowType + "> accessor()" );
+			out.println( "\t{" );
+			out.println( "\t\treturn new Accessor<" + rowType + ">()" );
+			out.println( "\t\t{" );
+			out.println( "\t\t\t@Override" );
+			out.println( "\t\t\tpublic Object[] getCategoryValues( " + rowType + " row )" );
+			out.println( "\t\t\t{" );
+			StringBuilder values = new StringBuilder();
+			for ( Getter getter : categoryGetters )
+			{
+				values.append( values.length() == 0 ? "" : ", " ).append( getter.expression );
+			}
+			out.println( "\t\t\t\treturn new Object[] { " + values + " };" );
+			out.println( "\t\t\t}" );
+			out.println();
+			out.println( "\t\t\t@Override" );
+			out.println( "\t\t\tpublic Object[] getCategoryValues( " + rowType + " row, Object[] into )" );
+			out.println( "\t\t\t{" );
+			for ( int i = 0; i < categoryGetters.size(); i++ )
+			{
+				out.println( "\t\t\t\tinto[ " + i + " ] = " + categoryGetters.get( i ).expression + ";" );
+			}
+			out.println( "\t\t\t\treturn into;" );
+			out.println( "\t\t\t}" );
+			out.println();
+			out.println( "\t\t\t@Override" );
+			out.println( "\t\t\tpublic Object getDetail( " + rowType + " row )" );
+			out.println( "\t\t\t{" );
+			out.println( "\t\t\t\treturn " + ( detail == null ? "row" : detail.expression ) + ";" );
+			out.println( "\t\t\t}" );
+			out.println( "\t\t};" );
+			out.println( "\t}" );
+			out.println();
+
+			out.println( "\tpublic static List<CategoryDescriptor<" + rowType + ">> categoryDescriptors()" );
+			out.println( "\t{" );
+			out.println( "\t\tList<CategoryDescriptor<" + rowType + ">> descs = new ArrayList<>( " + categories.length + " );" );
+			for ( int i = 0; i < categories.length; i++ )
+			{
+				Category category = categories[ i ];
+				out.println( "\t\tdescs.add( CategoryDescriptor.newInstance( " + rowType + ".class )" );
+				out.print( "\t\t\t.withCategoryGetter( " + categoryGetters.get( i ).valueGetter( rowType ) + " )" );
+				if ( !category.collectionLabel().isEmpty() )
+				{
+					out.println();
+					out.print( "\t\t\t.withCollectionLabel( " + literal( category.collectionLabel() ) + " )" );
+				}
+				if ( !category.renderedName().isEmpty() )
+				{
+					out.println();
+					out.print( "\t\t\t.withCategoryFieldRenderedName( " + literal( category.renderedName() ) + " )" );
+				}
+				if ( !category.detailCollectionLabel().isEmpty() )
+				{
+					out.println();
+					out.print( "\t\t\t.withDetailCollectionLabel( " + literal( category.detailCollectionLabel() ) + " )" );
+				}
+				if ( category.primitiveKeys() )
+				{
+					if ( !categoryGetters.get( i ).isIntegral() )
+					{
+						error( row, "primitiveKeys needs an integral category field: " + category.field() );
+					}
+					out.println();
+					out.print( "\t\t\t.withPrimitiveKeys()" );
+				}
+				if ( category.dictionaryKeys() )
+				{
+					if ( category.primitiveKeys() )
+					{
+						error( row, "primitiveKeys and dictionaryKeys are exclusive: " + category.field() );
+					}
+					out.println();
+					out.print( "\t\t\t.withDictionaryKeys()" );
+				}
+				if ( !ancillaryGetters.get( i ).isEmpty() )
+				{
+					out.println();
+					out.print( "\t\t\t.withAncillaryGetters( Arrays.asList( " );
+					String separator = "";
+					for ( Getter getter : ancillaryGetters.get( i ) )
+					{
+						out.print( separator + getter.valueGetter( rowType ) );
+						separator = ", ";
+					}
+					out.print( " ) )" );
+				}
+				if ( category.count() || !aggregateGetters.get( i ).isEmpty() )
+				{
+					out.println();
+					out.print( "\t\t\t.withAggregateGetters( Arrays.asList( " );
+					String separator = "";
+					for ( Getter getter : aggregateGetters.get( i ) )
+					{
+						out.print( separator + getter.valueGetter( rowType ) );
+						separator = ", ";
+					}
+					out.print( " ) )" );
+				}
+				out.println( " );" );
+			}
+			out.println( "\t\treturn descs;" );
+			out.println( "\t}" );
+			out.println();
+
+			out.println( "\tpublic static Nester<" + rowType + "> newNester() throws NoSuchFieldException" );
+			out.println( "\t{" );
+			out.println( "\t\treturn Nester.newInstance( " + rowType + ".class )" );
+			if ( detail == null )
+			{
+				out.println( "\t\t\t.categoryDescriptors( categoryDescriptors() );" );
+			}
+			else
+			{
+				out.println( "\t\t\t.categoryDescriptors( categoryDescriptors() )" );
+				out.println( "\t\t\t.detailGetter( " + detail.valueGetter( rowType ) + " );" );
+			}
+			out.println( "\t}" );
+			out.println( "}" );
+		}
+	}
+
+	/*
+	 * Same precedence as ValueGetter.forName(): a field of the class or a superclass, then getX(), isX(), x().
+	 */
+	Getter resolve( TypeElement row, String name ) throws UnresolvedNameException
+	{
+		for ( TypeElement type = row; type != null; type = superclassOf( type ) )
+		{
+			for ( VariableElement field : ElementFilter.fieldsIn( type.getEnclosedElements() ) )
+			{
+				if ( field.getSimpleName().contentEquals( name ) && !field.getModifiers().contains( Modifier.STATIC ) )
+				{
+					if ( !accessible( row, field ) )
+					{
+						break; // fall through to accessor methods
+					}
+					return new Getter( name, field.asType(), "row." + name );
+				}
+			}
+		}
+
+		String capitalized = Character.toUpperCase( name.charAt( 0 ) ) + name.substring( 1 );
+		for ( String candidate : new String[] { "get" + capitalized, "is" + capitalized, name } )
+		{
+			for ( TypeElement type = row; type != null; type = superclassOf( type ) )
+			{
+				for ( ExecutableElement method : ElementFilter.methodsIn( type.getEnclosedElements() ) )
+				{
+					if ( method.getSimpleName().contentEquals( candidate ) && method.getParameters().isEmpty()
+						&& !method.getModifiers().contains( Modifier.STATIC ) && method.getReturnType().getKind() != TypeKind.VOID 
+						&& accessible( row, method ) )
+					{
+						return new Getter( name, method.getReturnType(), "row." + candidate + "()" );
+					}
+				}
+			}
+		}
+		throw new UnresolvedNameException( "no accessible field or accessor method for \"" + name + "\" in " + row.getQualifiedName() );
+	}
+
+	/*
+	 * The generated class shares the row's package, so anything but private members of same-package types will do.
+	 */
+	boolean accessible( TypeElement row, Element member )
+	{
+		Set<Modifier> modifiers = member.getModifiers();
+		if ( modifiers.contains( Modifier.PUBLIC ) )
+		{
+			return true;
+		}
+		return !modifiers.contains( Modifier.PRIVATE ) && packageOf( member ).equals( packageOf( row ) );
+	}
+
+	TypeElement superclassOf( TypeElement type )
+	{
+		TypeMirror superclass = type.getSuperclass();
+		if ( superclass.getKind() != TypeKind.DECLARED )
+		{
+			return null;
+		}
+		TypeElement element = (TypeElement)((DeclaredType)superclass).asElement();
+		return element.getQualifiedName().contentEquals( "java.lang.Object" ) ? null : element;
+	}
+
+	PackageElement packageOf( Element element )
+	{
+		return processingEnv.getElementUtils().getPackageOf( element );
+	}
+
+	String generatedSimpleName( TypeElement row )
+	{
+		// Outer.Inner becomes Outer_InnerNesting
+		String qualified = row.getQualifiedName().toString();
+		String pkg = packageOf( row ).getQualifiedName().toString();
+		String nested = pkg.isEmpty() ? qualified : qualified.substring( pkg.length() + 1 );
+		return nested.replace( '.', '_' ) + SUFFIX;
+	}
+
+	String generatedName( TypeElement row )
+	{
+		String pkg = packageOf( row ).getQualifiedName().toString();
+		return pkg.isEmpty() ? generatedSimpleName( row ) : pkg + "." + generatedSimpleName( row );
+	}
+
+	static String literal( String value )
+	{
+		return "\"" + value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ) + "\"";
+	}
+
+	void error( Element element, String message )
+	{
+		processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, message, element );
+	}
+
+	/*
+	 * A resolved name: Java expression reading it from a variable named row, and its declared type.
+	 */
+	class Getter
+	{
+		final String name;
+		final TypeMirror type;
+		final String expression;
+
+		Getter( String name, TypeMirror type, String expression )
+		{
+			this.name = name;
+			this.type = type;
+			this.expression = expression;
+		}
+
+		boolean isIntegral()
+		{
+			TypeKind kind = type.getKind();
+			return kind == TypeKind.LONG || kind == TypeKind.INT || kind == TypeKind.SHORT || kind == TypeKind.BYTE;
+		}
+
+		boolean isFloatingPoint()
+		{
+			return type.getKind() == TypeKind.DOUBLE || type.getKind() == TypeKind.FLOAT;
+		}
+
+		boolean isNumeric()
+		{
+			if ( isIntegral() || isFloatingPoint() )
+			{
+				return true;
+			}
+			TypeMirror number = processingEnv.getElementUtils().getTypeElement( "java.lang.Number" ).asType();
+			return processingEnv.getTypeUtils().isAssignable( type, number );
+		}
+
+		/*
+		 * Integral values get a ToLongFunction and floating point values a ToDoubleFunction, so getLong() and 
+		 * getDouble() do not box
+		 */
+		String valueGetter( String rowType )
+		{
+			String clazz = processingEnv.getTypeUtils().erasure( type ).toString();
+			String factory = isIntegral() ? "ofLong" : isFloatingPoint() ? "ofDouble" : "of";
+			return "ValueGetter.<" + rowType + ">" + factory + "( " + literal( name ) + ", " + clazz + ".class, row -> " + expression + " )";
+		}
+	}
+
+	static class UnresolvedNameException
+	extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+
+		UnresolvedNameException( String message )
+		{
+			super( message );
+		}
+	}
+}
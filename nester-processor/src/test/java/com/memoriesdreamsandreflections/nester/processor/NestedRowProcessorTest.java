@@ -0,0 +1,167 @@
+package com.memoriesdreamsandreflections.nester.processor;
+
+import static org.junit.Assert.assertArrayEquals ;
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertSame ;
+import static org.junit.Assert.assertTrue ;
+
+import java.io.File ;
+import java.net.URL ;
+import java.net.URLClassLoader ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.util.Arrays ;
+import java.util.List ;
+import java.util.Map ;
+
+import javax.tools.DiagnosticCollector ;
+import javax.tools.JavaCompiler ;
+import javax.tools.JavaFileObject ;
+import javax.tools.StandardJavaFileManager ;
+import javax.tools.ToolProvider ;
+
+import org.junit.Test ;
+
+import com.memoriesdreamsandreflections.nester.Accessor ;
+import com.memoriesdreamsandreflections.nester.Aggregates ;
+import com.memoriesdreamsandreflections.nester.CategoryDescriptor ;
+import com.memoriesdreamsandreflections.nester.LongKeyedMap ;
+import com.memoriesdreamsandreflections.nester.Nester ;
+
+public class NestedRowProcessorTest
+{
+	static final String ROW = 
+		"package test;\n" +
+		"import com.memoriesdreamsandreflections.nester.*;\n" +
+		"@NestedRow( categories = {\n" +
+		"	@Category( field = \"state\", collectionLabel = \"states\", ancillary = { \"capital\" } ),\n" +
+		"	@Category( field = \"city\", collectionLabel = \"cities\", renderedName = \"cityName\" ) },\n" +
+		"	detail = \"zip\" )\n" +
+		"public class Row\n" +
+		"{\n" +
+		"	String state;\n" +
+		"	private String city;\n" +
+		"	private int zip;\n" +
+		"	public Row( String state, String city, int zip ) { this.state = state; this.city = city; this.zip = zip; }\n" +
+		"	public String getCity() { return city; }\n" +
+		"	int zip() { return zip; }\n" +
+		"	public String getCapital() { return state + \"-capital\"; }\n" +
+		"}\n";
+
+	@Test
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public void testGeneratedNesting() throws Exception
+	{
+		ClassLoader loader = compile( "test.Row", ROW, true );
+		Class rowClass = loader.loadClass( "test.Row" );
+		Class nesting = loader.loadClass( "test.RowNesting" );
+
+		Object row = rowClass.getConstructor( String.class, String.class, int.class ).newInstance( "NY", "Albany", 12201 );
+		Accessor accessor = (Accessor)nesting.getMethod( "accessor" ).invoke( null );
+		assertArrayEquals( new Object[] { "NY", "Albany" }, accessor.getCategoryValues( row ) );
+		Object[] buffer = new Object[ 2 ];
+		assertSame( buffer, accessor.getCategoryValues( row, buffer ) );
+		assertArrayEquals( new Object[] { "NY", "Albany" }, buffer );
+		assertEquals( 12201, accessor.getDetail( row ) );
+
+		List<CategoryDescriptor> descs = (List<CategoryDescriptor>)nesting.getMethod( "categoryDescriptors" ).invoke( null );
+		assertEquals( 2, descs.size() );
+		assertNull( descs.get( 0 ).getCategoryField() ); // not resolved reflectively
+		assertEquals( "states", descs.get( 0 ).getCollectionLabel() );
+		assertEquals( "cityName", descs.get( 1 ).renderedCategoryFieldName() );
+		assertFalse( descs.get( 0 ).hasPrimitiveKeys() );
+		Map<String, Object> catAndAnc = descs.get( 0 ).mapCatAndAncFields( row );
+		assertEquals( "NY", catAndAnc.get( "state" ) );
+		assertEquals( "NY-capital", catAndAnc.get( "capital" ) );
+
+		Nester nester = (Nester)nesting.getMethod( "newNester" ).invoke( null );
+		Map result = nester.nest( Arrays.asList( row, rowClass.getConstructor( String.class, String.class, int.class )
+			.newInstance( "NY", "Albany", 12202 ) ) );
+		assertEquals( Arrays.asList( 12201, 12202 ), ((Map)result.get( "NY" )).get( "Albany" ) );
+
+		Map nameValue = ((Nester)nesting.getMethod( "newNester" ).invoke( null )).nameValueNest( Arrays.asList( row ) );
+		Map state = (Map)((List)nameValue.get( "states" )).get( 0 );
+		assertEquals( "NY-capital", state.get( "capital" ) );
+		assertEquals( Arrays.asList( "Albany" ), state.get( "cities" ) );
+	}
+
+	static final String ID_ROW = 
+		"package test;\n" +
+		"import com.memoriesdreamsandreflections.nester.*;\n" +
+		"@NestedRow( categories = { @Category( field = \"region\", primitiveKeys = true, aggregates = { \"amount\" } ),\n" +
+		"	@Category( field = \"account\", primitiveKeys = true, count = true ) } )\n" +
+		"public class IdRow\n" +
+		"{\n" +
+		"	int region;\n" +
+		"	private long account;\n" +
+		"	double amount = 2.5;\n" +
+		"	public IdRow( int region, long account ) { this.region = region; this.account = account; }\n" +
+		"	public long getAccount() { return account; }\n" +
+		"}\n";
+
+	@Test
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public void testPrimitiveKeys() throws Exception
+	{
+		ClassLoader loader = compile( "test.IdRow", ID_ROW, true );
+		Class rowClass = loader.loadClass( "test.IdRow" );
+		Class nesting = loader.loadClass( "test.IdRowNesting" );
+
+		List<CategoryDescriptor> descs = (List<CategoryDescriptor>)nesting.getMethod( "categoryDescriptors" ).invoke( null );
+		assertTrue( descs.get( 0 ).hasPrimitiveKeys() );
+		assertTrue( descs.get( 1 ).getCategoryGetter().isIntegral() );
+
+		Object row = rowClass.getConstructor( int.class, long.class ).newInstance( 7, 12345678901L );
+		assertEquals( 12345678901L, descs.get( 1 ).getCategoryGetter().getLong( row ) );
+		assertEquals( 7, descs.get( 0 ).getCategoryGetter().get( row ) );
+
+		// the Nester reads the getters itself, so primitive keys are not boxed through a supplied Accessor
+		String generated = new String( Files.readAllBytes( output.resolve( "test/IdRowNesting.java" ) ), "UTF-8" );
+		assertFalse( generated.contains( ".accessor( accessor() )" ) );
+		Map result = ((Nester)nesting.getMethod( "newNester" ).invoke( null )).nest( Arrays.asList( row ) );
+		assertTrue( result instanceof LongKeyedMap );
+		assertEquals( Arrays.asList( row ), ((Map)result.get( 7 )).get( 12345678901L ) );
+		assertEquals( 2.5, Aggregates.of( result.get( 7 ) ).getSum( "amount" ), 0 );
+		assertEquals( 1, Aggregates.of( ((Map)result.get( 7 )).get( 12345678901L ) ).getCount() );
+	}
+
+	@Test
+	public void testUnresolvedName() throws Exception
+	{
+		String source = ROW.replace( "detail = \"zip\"", "detail = \"noSuchThing\"" );
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		assertFalse( compile( "test.Row", source, diagnostics ) );
+		assertTrue( diagnostics.getDiagnostics().toString().contains( "noSuchThing" ) );
+	}
+
+	ClassLoader compile( String className, String source, boolean mustSucceed ) throws Exception
+	{
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		boolean ok = compile( className, source, diagnostics );
+		assertTrue( diagnostics.getDiagnostics().toString(), ok || !mustSucceed );
+		return new URLClassLoader( new URL[] { output.toUri().toURL() }, getClass().getClassLoader() );
+	}
+
+	Path output;
+
+	boolean compile( String className, String source, DiagnosticCollector<JavaFileObject> diagnostics ) throws Exception
+	{
+		Path sources = Files.createTempDirectory( "nester-processor-src" );
+		output = Files.createTempDirectory( "nester-processor-out" );
+		Path file = sources.resolve( className.replace( '.', File.separatorChar ) + ".java" );
+		Files.createDirectories( file.getParent() );
+		Files.write( file, source.getBytes( "UTF-8" ) );
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		try ( StandardJavaFileManager files = compiler.getStandardFileManager( diagnostics, null, null ) )
+		{
+			JavaCompiler.CompilationTask task = compiler.getTask( null, files, diagnostics, 
+				Arrays.asList( "-classpath", System.getProperty( "java.class.path" ), "-d", output.toString(), "-s", output.toString() ), 
+				null, files.getJavaFileObjects( file.toFile() ) );
+			task.setProcessors( Arrays.asList( new NestedRowProcessor() ) );
+			return task.call();
+		}
+	}
+}
@@ -31,6 +31,21 @@ public interface Accessor<R>
 	 * exactly to the order of specified categories. Failure to do this will produce "unpredictable results".   
 	 */
 	public Object[] getCategoryValues(R row);
+
+	/**
+	 * Obtain values for each category into a caller-owned buffer, so nesting does not allocate an array per row.
+	 * Nester reuses one buffer per run (per fork/join batch in parallel mode) and never keeps a reference to it.
+	 * <br/>
+	 * The default delegates to getCategoryValues(row) and returns that array, so existing implementations keep
+	 * working unchanged; callers must therefore use the returned array rather than assume <i>into</i> was filled.
+	 * @param row
+	 * @param into buffer with one element per category
+	 * @return Array holding the category values: <i>into</i>, or one the implementation allocated 
+	 */
+	default Object[] getCategoryValues(R row, Object[] into)
+	{
+		return getCategoryValues( row );
+	}
 	
 	/**
 	 * Return the desired detail value for each row. Ideally, this should be a class member wrapping all those fields
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.io.ByteArrayOutputStream ;
+import java.io.DataOutputStream ;
+import java.io.IOException ;
+import java.lang.invoke.CallSite ;
+import java.lang.invoke.ConstantCallSite ;
+import java.lang.invoke.MethodHandle ;
+import java.lang.invoke.MethodHandles ;
+import java.lang.invoke.MethodType ;
+import java.util.HashMap ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.concurrent.atomic.AtomicLong ;
+import java.util.function.Function ;
+
+/**
+ * Accessor factory
+ *
+ * Builds a concrete Accessor from the category descriptors, so rows can be read without hand-writing one.
+ * Each call defines a new class, for that configuration alone, whose getCategoryValues() (both the allocating 
+ * and the buffer-filling form) is straight-line code with one read per category and no loop. Each read is an 
+ * invokedynamic site linked, on first use, to a ConstantCallSite over the category getter's MethodHandle (the
+ * field or method handle itself when the getter has one), so the JIT inlines it as it would a hand-written
+ * Accessor. Since no two configurations share a class, no two share a call site either, and the sites stay 
+ * monomorphic however many Nesters run in the JVM.
+ * <br/>
+ * The class is defined by a class loader of its own, which holds the handles, so it is unloaded with the 
+ * last Accessor instance. Where classes cannot be defined, a loop over the getters is returned instead.
+ *
+ * @author jgenoese
+ */
+public final class AccessorFactory
+{
+	static final String GENERATED_PACKAGE = "com.memoriesdreamsandreflections.nester.generated";
+	static final AtomicLong generated = new AtomicLong();
+
+	private AccessorFactory()
+	{
+	}
+
+	/**
+	 * Generate an Accessor for initialized category descriptors
+	 * @param categoryDescriptors descriptors, outmost first, with their getters resolved (see CategoryDescriptor.initializeFields())
+	 * @param detailGetter detail value getter; when null the row itself is the detail
+	 * @return Accessor
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public static <R> Accessor<R> newAccessor( List<CategoryDescriptor<R>> categoryDescriptors, ValueGetter<R> detailGetter )
+	{
+		ValueGetter<R>[] getters = new ValueGetter[ categoryDescriptors.size() ];
+		for ( int i = 0; i < getters.length; i++ )
+		{
+			getters[ i ] = categoryDescriptors.get( i ).getCategoryGetter();
+			if ( getters[ i ] == null )
+			{
+				throw new IllegalArgumentException( "category descriptor " + i + " has no resolved category getter" );
+			}
+		}
+		try
+		{
+			MethodHandle[] handles = new MethodHandle[ getters.length + 1 ];
+			for ( int i = 0; i < getters.length; i++ )
+			{
+				handles[ i ] = getters[ i ].asHandle();
+			}
+			handles[ getters.length ] = detailGetter == null ? MethodHandles.identity( Object.class ) : detailGetter.asHandle();
+			String name = GENERATED_PACKAGE + ".Accessor" + generated.incrementAndGet();
+			Class<?> clazz = new AccessorLoader( handles ).define( name, classFile( name, getters.length ) );
+			return (Accessor<R>)clazz.getConstructor().newInstance();
+		}
+		catch ( ReflectiveOperationException | LinkageError | SecurityException | IllegalStateException e )
+		{
+			// classes cannot be defined here; the loop reads the same values
+		}
+		Function<R, Object>[] f = new Function[ getters.length ];
+		for ( int i = 0; i < f.length; i++ )
+		{
+			f[ i ] = getters[ i ].asFunction();
+		}
+		return new AccessorN<R>( f, detailGetter == null ? (Function<R, Object>)Function.identity() : detailGetter.asFunction() );
+	}
+
+	/**
+	 * Bootstrap method of the invokedynamic reads in generated Accessors; not for use by application code.
+	 * @param caller generated Accessor class
+	 * @param name unused
+	 * @param type (Object)Object
+	 * @param index category level, or the number of categories for the detail
+	 * @return call site bound to the getter handle
+	 */
+	public static CallSite bootstrap( MethodHandles.Lookup caller, String name, MethodType type, int index )
+	{
+		ClassLoader loader = caller.lookupClass().getClassLoader();
+		if ( !(loader instanceof AccessorLoader) )
+		{
+			throw new IllegalArgumentException( caller.lookupClass() + " is not a generated Accessor" );
+		}
+		return new ConstantCallSite( ((AccessorLoader)loader).handles[ index ].asType( type ) );
+	}
+
+	/**
+	 * Defines one generated Accessor class and holds the handles its call sites link to
+	 */
+	static final class AccessorLoader
+	extends ClassLoader
+	{
+		final MethodHandle[] handles;
+
+		AccessorLoader( MethodHandle[] handles )
+		{
+			super( AccessorFactory.class.getClassLoader() );
+			this.handles = handles;
+		}
+
+		Class<?> define( String name, byte[] classFile )
+		{
+			return defineClass( name, classFile, 0, classFile.length );
+		}
+	}
+
+	/*
+	 * Class file of a generated Accessor over <i>depth</i> categories:
+	 *
+	 * public final class <name> implements Accessor {
+	 *     public Object[] getCategoryValues( Object row ) { return new Object[] { get0( row ), ... }; }
+	 *     public Object[] getCategoryValues( Object row, Object[] into ) { into[ 0 ] = get0( row ); ...; return into; }
+	 *     public Object getDetail( Object row ) { return get<depth>( row ); }
+	 * }
+	 *
+	 * where get<i> is an invokedynamic bootstrapped by bootstrap( ..., i ). The code has no branches, so no
+	 * StackMapTable is needed.
+	 */
+	static byte[] classFile( String name, int depth )
+	{
+		ConstantPool pool = new ConstantPool();
+		int thisClass = pool.classInfo( name.replace( '.', '/' ) );
+		int objectClass = pool.classInfo( "java/lang/Object" );
+		int accessor = pool.classInfo( Accessor.class.getName().replace( '.', '/' ) );
+		int objectInit = pool.methodRef( objectClass, "<init>", "()V" );
+		int bootstrap = pool.methodHandle( 6, pool.methodRef( pool.classInfo( AccessorFactory.class.getName().replace( '.', '/' ) ), 
+			"bootstrap", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;I)Ljava/lang/invoke/CallSite;" ) );
+		int[] gets = new int[ depth + 1 ];
+		for ( int i = 0; i <= depth; i++ )
+		{
+			gets[ i ] = pool.invokeDynamic( i, "get" + i, "(Ljava/lang/Object;)Ljava/lang/Object;" );
+		}
+
+		ByteArrayOutputStream allocating = new ByteArrayOutputStream();
+		pushInt( allocating, depth );
+		allocating.write( 0xbd ); // anewarray
+		writeShort( allocating, objectClass );
+		ByteArrayOutputStream filling = new ByteArrayOutputStream();
+		filling.write( 0x2c ); // aload_2
+		for ( int i = 0; i < depth; i++ )
+		{
+			for ( ByteArrayOutputStream code : new ByteArrayOutputStream[] { allocating, filling } )
+			{
+				code.write( 0x59 ); // dup
+				pushInt( code, i );
+				code.write( 0x2b ); // aload_1
+				invokeDynamic( code, gets[ i ] );
+				code.write( 0x53 ); // aastore
+			}
+		}
+		allocating.write( 0xb0 ); // areturn
+		filling.write( 0xb0 );
+		ByteArrayOutputStream detail = new ByteArrayOutputStream();
+		detail.write( 0x2b );
+		invokeDynamic( detail, gets[ depth ] );
+		detail.write( 0xb0 );
+		ByteArrayOutputStream init = new ByteArrayOutputStream();
+		init.write( 0x2a ); // aload_0
+		init.write( 0xb7 ); // invokespecial
+		writeShort( init, objectInit );
+		init.write( 0xb1 ); // return
+
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream( bytes );
+			int code = pool.utf8( "Code" );
+			int bootstrapMethods = pool.utf8( "BootstrapMethods" );
+			int[][] methods = { 
+				{ pool.utf8( "<init>" ), pool.utf8( "()V" ), 1, 1 },
+				{ pool.utf8( "getCategoryValues" ), pool.utf8( "(Ljava/lang/Object;)[Ljava/lang/Object;" ), 4, 2 },
+				{ pool.utf8( "getCategoryValues" ), pool.utf8( "(Ljava/lang/Object;[Ljava/lang/Object;)[Ljava/lang/Object;" ), 4, 3 },
+				{ pool.utf8( "getDetail" ), pool.utf8( "(Ljava/lang/Object;)Ljava/lang/Object;" ), 1, 2 } };
+			byte[][] codes = { init.toByteArray(), allocating.toByteArray(), filling.toByteArray(), detail.toByteArray() };
+			int[] indexes = new int[ depth + 1 ];
+			for ( int i = 0; i <= depth; i++ )
+			{
+				indexes[ i ] = pool.integer( i );
+			}
+
+			out.writeInt( 0xcafebabe );
+			out.writeShort( 0 );
+			out.writeShort( 55 ); // Java 11
+			pool.write( out );
+			out.writeShort( 0x0001 | 0x0010 | 0x0020 ); // public final super
+			out.writeShort( thisClass );
+			out.writeShort( objectClass );
+			out.writeShort( 1 );
+			out.writeShort( accessor );
+			out.writeShort( 0 ); // fields
+			out.writeShort( methods.length );
+			for ( int m = 0; m < methods.length; m++ )
+			{
+				out.writeShort( 0x0001 ); // public
+				out.writeShort( methods[ m ][ 0 ] );
+				out.writeShort( methods[ m ][ 1 ] );
+				out.writeShort( 1 );
+				out.writeShort( code );
+				out.writeInt( 12 + codes[ m ].length );
+				out.writeShort( methods[ m ][ 2 ] ); // max stack
+				out.writeShort( methods[ m ][ 3 ] ); // max locals
+				out.writeInt( codes[ m ].length );
+				out.write( codes[ m ] );
+				out.writeShort( 0 ); // exception table
+				out.writeShort( 0 ); // attributes
+			}
+			out.writeShort( 1 );
+			out.writeShort( bootstrapMethods );
+			out.writeInt( 2 + (depth + 1) * 6 );
+			out.writeShort( depth + 1 );
+			for ( int i = 0; i <= depth; i++ )
+			{
+				out.writeShort( bootstrap );
+				out.writeShort( 1 );
+				out.writeShort( indexes[ i ] );
+			}
+			out.flush();
+			return bytes.toByteArray();
+		}
+		catch ( IOException e )
+		{
+			throw new IllegalStateException( e ); // not thrown by a ByteArrayOutputStream
+		}
+	}
+
+	static void pushInt( ByteArrayOutputStream code, int value )
+	{
+		if ( value <= 5 )
+		{
+			code.write( 0x03 + value ); // iconst_<value>
+		}
+		else if ( value <= Byte.MAX_VALUE )
+		{
+			code.write( 0x10 ); // bipush
+			code.write( value );
+		}
+		else
+		{
+			code.write( 0x11 ); // sipush
+			writeShort( code, value );
+		}
+	}
+
+	static void invokeDynamic( ByteArrayOutputStream code, int index )
+	{
+		code.write( 0xba );
+		writeShort( code, index );
+		code.write( 0 );
+		code.write( 0 );
+	}
+
+	static void writeShort( ByteArrayOutputStream code, int value )
+	{
+		code.write( value >>> 8 );
+		code.write( value & 0xff );
+	}
+
+	/**
+	 * Constant pool of a class file; each constant is added once
+	 */
+	static final class ConstantPool
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream( bytes );
+		final Map<String, Integer> indexes = new HashMap<>();
+		int count = 1;
+
+		int utf8( String value )
+		{
+			Integer index = indexes.get( "utf8:" + value );
+			if ( index != null )
+			{
+				return index;
+			}
+			try
+			{
+				out.writeByte( 1 );
+				out.writeUTF( value );
+			}
+			catch ( IOException e )
+			{
+				throw new IllegalStateException( e );
+			}
+			indexes.put( "utf8:" + value, count );
+			return count++;
+		}
+
+		int integer( int value )
+		{
+			return add( "int:" + value, 3, value >>> 16, value & 0xffff );
+		}
+
+		int classInfo( String internalName )
+		{
+			return add( "class:" + internalName, 7, utf8( internalName ) );
+		}
+
+		int nameAndType( String name, String descriptor )
+		{
+			return add( "nat:" + name + descriptor, 12, utf8( name ), utf8( descriptor ) );
+		}
+
+		int methodRef( int owner, String name, String descriptor )
+		{
+			return add( "method:" + owner + "." + name + descriptor, 10, owner, nameAndType( name, descriptor ) );
+		}
+
+		int methodHandle( int kind, int reference )
+		{
+			try
+			{
+				out.writeByte( 15 );
+				out.writeByte( kind );
+				out.writeShort( reference );
+			}
+			catch ( IOException e )
+			{
+				throw new IllegalStateException( e );
+			}
+			return count++;
+		}
+
+		int invokeDynamic( int bootstrapMethod, String name, String descriptor )
+		{
+			return add( "indy:" + bootstrapMethod + name + descriptor, 18, bootstrapMethod, nameAndType( name, descriptor ) );
+		}
+
+		/*
+		 * A constant of two u2 fields (an Integer is written as its two halves)
+		 */
+		int add( String key, int tag, int first, int second )
+		{
+			Integer index = indexes.get( key );
+			if ( index != null )
+			{
+				return index;
+			}
+			try
+			{
+				out.writeByte( tag );
+				out.writeShort( first );
+				out.writeShort( second );
+			}
+			catch ( IOException e )
+			{
+				throw new IllegalStateException( e );
+			}
+			indexes.put( key, count );
+			return count++;
+		}
+
+		int add( String key, int tag, int only )
+		{
+			Integer index = indexes.get( key );
+			if ( index != null )
+			{
+				return index;
+			}
+			try
+			{
+				out.writeByte( tag );
+				out.writeShort( only );
+			}
+			catch ( IOException e )
+			{
+				throw new IllegalStateException( e );
+			}
+			indexes.put( key, count );
+			return count++;
+		}
+
+		void write( DataOutputStream into ) throws IOException
+		{
+			out.flush();
+			into.writeShort( count );
+			bytes.writeTo( into );
+		}
+	}
+
+	/**
+	 * Loop over the getters, where no class could be generated
+	 */
+	static final class AccessorN<R>
+	implements Accessor<R>
+	{
+		final Function<R, Object>[] f;
+		final Function<R, Object> detail;
+
+		AccessorN( Function<R, Object>[] f, Function<R, Object> detail )
+		{
+			this.f = f;
+			this.detail = detail;
+		}
+
+		@Override
+		public Object[] getCategoryValues( R row )
+		{
+			Object[] results = new Object[ f.length ];
+			for ( int i = 0; i < f.length; i++ )
+			{
+				results[ i ] = f[ i ].apply( row );
+			}
+			return results;
+		}
+
+		@Override
+		public Object[] getCategoryValues( R row, Object[] into )
+		{
+			for ( int i = 0; i < f.length; i++ )
+			{
+				into[ i ] = f[ i ].apply( row );
+			}
+			return into;
+		}
+
+		@Override
+		public Object getDetail( R row )
+		{
+			return detail.apply( row );
+		}
+	}
+}
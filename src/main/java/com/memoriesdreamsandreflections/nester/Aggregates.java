@@ -0,0 +1,384 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.util.AbstractMap ;
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.LinkedHashMap ;
+import java.util.Map ;
+import java.util.Set ;
+
+/**
+ * Aggregates of one category node
+ *
+ * Row count plus count, sum, min, max and average of each aggregate field declared with 
+ * CategoryDescriptor.withAggregateFieldNames(), accumulated while the rows are nested. The accumulators are 
+ * primitive (long counts, double sums/min/max) and allocated once per node, so accumulating a row allocates
+ * nothing. Field values are read with ValueGetter.getDouble(); null values are skipped by that field's
+ * statistics, though the row is still counted. Rollup rows (any category value null) are never accumulated.
+ * <br/>
+ * As a Map, an Aggregates renders as 
+ * <pre>{ "count": 12, "amount": { "count": 11, "sum": 1.0E3, "min": 1.0, "max": 400.0, "avg": 90.9 }, ... }</pre>
+ * which is how nameValueNest() and NameValueEmitter output it. nest() nodes carry theirs; see of().
+ *
+ * @author jgenoese
+ *
+ * @param <T> row type
+ */
+public class Aggregates<T>
+extends AbstractMap<String, Object>
+{
+	public static final String COUNT = "count";
+	public static final String SUM = "sum";
+	public static final String MIN = "min";
+	public static final String MAX = "max";
+	public static final String AVG = "avg";
+
+	final String[] names;
+	final ValueGetter<T>[] getters;
+	long count;
+	final long[] counts;
+	final double[] sums;
+	final double[] mins;
+	final double[] maxs;
+	final boolean[] staleMins; // min no longer known, since a row holding it was retracted
+	final boolean[] staleMaxs;
+
+	Aggregates( String[] names, ValueGetter<T>[] getters )
+	{
+		this.names = names;
+		this.getters = getters;
+		counts = new long[ getters.length ];
+		sums = new double[ getters.length ];
+		mins = new double[ getters.length ];
+		maxs = new double[ getters.length ];
+		staleMins = new boolean[ getters.length ];
+		staleMaxs = new boolean[ getters.length ];
+		reset();
+	}
+
+	/**
+	 * Aggregates carried by a node of a nest() result
+	 * @param node Map or List found under a category value
+	 * @return Aggregates, or null when the node's category declares none
+	 */
+	public static Aggregates<?> of( Object node )
+	{
+		return node instanceof Holder ? ((Holder)node).getAggregates() : null;
+	}
+
+	public void accumulate( T row )
+	{
+		count++;
+		for ( int i = 0; i < getters.length; i++ )
+		{
+			double value = getters[ i ].getDouble( row );
+			if ( value == value ) // not NaN, i.e. not null
+			{
+				counts[ i ]++;
+				sums[ i ] += value;
+				if ( value < mins[ i ] )
+				{
+					mins[ i ] = value;
+				}
+				if ( value > maxs[ i ] )
+				{
+					maxs[ i ] = value;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add <i>other</i>'s rows to these, e.g. when partial trees of a parallel run are merged
+	 */
+	public void merge( Aggregates<?> other )
+	{
+		count += other.count;
+		for ( int i = 0; i < getters.length; i++ )
+		{
+			counts[ i ] += other.counts[ i ];
+			sums[ i ] += other.sums[ i ];
+			mins[ i ] = Math.min( mins[ i ], other.mins[ i ] );
+			maxs[ i ] = Math.max( maxs[ i ], other.maxs[ i ] );
+			staleMins[ i ] |= other.staleMins[ i ];
+			staleMaxs[ i ] |= other.staleMaxs[ i ];
+		}
+	}
+
+	/**
+	 * Take a row back out, e.g. when it is deleted. Counts and sums are exact. Retracting a value strictly 
+	 * between min and max leaves them exact; retracting the min (or the max) leaves it unknown, since it 
+	 * cannot be recomputed without the remaining rows: getMin() returns NaN and the rendered field has no min,
+	 * until the field or the node has no rows left and it resets.
+	 */
+	public void retract( T row )
+	{
+		if ( --count <= 0 )
+		{
+			reset();
+			return;
+		}
+		for ( int i = 0; i < getters.length; i++ )
+		{
+			double value = getters[ i ].getDouble( row );
+			if ( value == value )
+			{
+				sums[ i ] -= value;
+				if ( --counts[ i ] <= 0 )
+				{
+					counts[ i ] = 0;
+					sums[ i ] = 0;
+					mins[ i ] = Double.POSITIVE_INFINITY;
+					maxs[ i ] = Double.NEGATIVE_INFINITY;
+					staleMins[ i ] = false;
+					staleMaxs[ i ] = false;
+				}
+				else
+				{
+					staleMins[ i ] |= value <= mins[ i ];
+					staleMaxs[ i ] |= value >= maxs[ i ];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Continue from a rendered Aggregates, e.g. one read back from JSON by a rehydrated Nester. Fields missing
+	 * from <i>rendered</i> start empty; a field rendered without its min or max keeps it unknown.
+	 */
+	void restore( Map<?, ?> rendered )
+	{
+		reset();
+		count = rendered.get( COUNT ) == null ? 0 : ((Number)rendered.get( COUNT )).longValue();
+		for ( int i = 0; i < names.length; i++ )
+		{
+			Map<?, ?> field = (Map<?, ?>)rendered.get( names[ i ] );
+			if ( field == null || field.get( COUNT ) == null || ((Number)field.get( COUNT )).longValue() == 0 )
+			{
+				continue;
+			}
+			counts[ i ] = ((Number)field.get( COUNT )).longValue();
+			sums[ i ] = ((Number)field.get( SUM )).doubleValue();
+			staleMins[ i ] = field.get( MIN ) == null;
+			staleMaxs[ i ] = field.get( MAX ) == null;
+			mins[ i ] = staleMins[ i ] ? Double.POSITIVE_INFINITY : ((Number)field.get( MIN )).doubleValue();
+			maxs[ i ] = staleMaxs[ i ] ? Double.NEGATIVE_INFINITY : ((Number)field.get( MAX )).doubleValue();
+		}
+	}
+
+	public void reset()
+	{
+		count = 0;
+		Arrays.fill( counts, 0 );
+		Arrays.fill( sums, 0 );
+		Arrays.fill( mins, Double.POSITIVE_INFINITY );
+		Arrays.fill( maxs, Double.NEGATIVE_INFINITY );
+		Arrays.fill( staleMins, false );
+		Arrays.fill( staleMaxs, false );
+	}
+
+	/**
+	 * @return number of rows accumulated
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @return number of rows with a non-null value of field <i>name</i>
+	 */
+	public long getCount( String name )
+	{
+		return counts[ indexOf( name ) ];
+	}
+
+	public double getSum( String name )
+	{
+		return sums[ indexOf( name ) ];
+	}
+
+	/**
+	 * @return minimum, or NaN when no row had a value or the minimum was retracted
+	 */
+	public double getMin( String name )
+	{
+		int i = indexOf( name );
+		return counts[ i ] == 0 || staleMins[ i ] ? Double.NaN : mins[ i ];
+	}
+
+	/**
+	 * @return maximum, or NaN when no row had a value or the maximum was retracted
+	 */
+	public double getMax( String name )
+	{
+		int i = indexOf( name );
+		return counts[ i ] == 0 || staleMaxs[ i ] ? Double.NaN : maxs[ i ];
+	}
+
+	/**
+	 * @return average, or NaN when no row had a value
+	 */
+	public double getAverage( String name )
+	{
+		int i = indexOf( name );
+		return counts[ i ] == 0 ? Double.NaN : sums[ i ] / counts[ i ];
+	}
+
+	int indexOf( String name )
+	{
+		for ( int i = 0; i < names.length; i++ )
+		{
+			if ( names[ i ].equals( name ) )
+			{
+				return i;
+			}
+		}
+		throw new IllegalArgumentException( name + " is not an aggregate field" );
+	}
+
+	/**
+	 * Statistics of field <i>i</i> as a Map; min/max/avg are null when no row had a value, and min or max is
+	 * left out when a retraction made it unknown
+	 */
+	Map<String, Object> fieldMap( int i )
+	{
+		boolean empty = counts[ i ] == 0;
+		Map<String, Object> field = new LinkedHashMap<>( 8 );
+		field.put( COUNT, counts[ i ] );
+		field.put( SUM, sums[ i ] );
+		if ( !staleMins[ i ] )
+		{
+			field.put( MIN, empty ? null : mins[ i ] );
+		}
+		if ( !staleMaxs[ i ] )
+		{
+			field.put( MAX, empty ? null : maxs[ i ] );
+		}
+		field.put( AVG, empty ? null : sums[ i ] / counts[ i ] );
+		return field;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet()
+	{
+		Map<String, Object> rendered = new LinkedHashMap<>();
+		rendered.put( COUNT, count );
+		for ( int i = 0; i < names.length; i++ )
+		{
+			rendered.put( names[ i ], fieldMap( i ) );
+		}
+		return rendered.entrySet();
+	}
+
+	/**
+	 * A nest() node carrying the Aggregates of its category value
+	 */
+	public interface Holder
+	{
+		public Aggregates<?> getAggregates();
+	}
+
+	static class HolderMap
+	extends LinkedHashMap<Object, Object>
+	implements Holder
+	{
+		private static final long serialVersionUID = 1L;
+		final Aggregates<?> aggregates;
+
+		HolderMap( Aggregates<?> aggregates )
+		{
+			this.aggregates = aggregates;
+		}
+
+		HolderMap( Aggregates<?> aggregates, int initialCapacity )
+		{
+			super( initialCapacity );
+			this.aggregates = aggregates;
+		}
+
+		@Override
+		public Aggregates<?> getAggregates()
+		{
+			return aggregates;
+		}
+	}
+
+	static class HolderLongKeyedMap
+	extends LongKeyedMap<Object>
+	implements Holder
+	{
+		final Aggregates<?> aggregates;
+
+		HolderLongKeyedMap( Class<?> keyType, Aggregates<?> aggregates )
+		{
+			super( keyType );
+			this.aggregates = aggregates;
+		}
+
+		HolderLongKeyedMap( Class<?> keyType, Aggregates<?> aggregates, int expectedSize )
+		{
+			super( keyType, expectedSize );
+			this.aggregates = aggregates;
+		}
+
+		HolderLongKeyedMap( CategoryDictionary dictionary, Aggregates<?> aggregates )
+		{
+			super( dictionary );
+			this.aggregates = aggregates;
+		}
+
+		HolderLongKeyedMap( CategoryDictionary dictionary, Aggregates<?> aggregates, int expectedSize )
+		{
+			super( dictionary, expectedSize );
+			this.aggregates = aggregates;
+		}
+
+		@Override
+		public Aggregates<?> getAggregates()
+		{
+			return aggregates;
+		}
+	}
+
+	static class HolderList
+	extends ArrayList<Object>
+	implements Holder
+	{
+		private static final long serialVersionUID = 1L;
+		final Aggregates<?> aggregates;
+
+		HolderList( Aggregates<?> aggregates )
+		{
+			this.aggregates = aggregates;
+		}
+
+		HolderList( Aggregates<?> aggregates, int initialCapacity )
+		{
+			super( initialCapacity );
+			this.aggregates = aggregates;
+		}
+
+		@Override
+		public Aggregates<?> getAggregates()
+		{
+			return aggregates;
+		}
+	}
+}
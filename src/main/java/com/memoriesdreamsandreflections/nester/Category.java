@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+import java.lang.annotation.Documented ;
+import java.lang.annotation.Retention ;
+import java.lang.annotation.RetentionPolicy ;
+import java.lang.annotation.Target ;
+
+/**
+ * One category level of a {@link NestedRow}; mirrors the CategoryDescriptor builder methods.
+ *
+ * @author jgenoese
+ */
+@Documented
+@Retention( RetentionPolicy.CLASS )
+@Target( {} )
+public @interface Category
+{
+	/**
+	 * @return category field name (CategoryDescriptor.withCategoryFieldName())
+	 */
+	String field();
+
+	/**
+	 * @return collection label (CategoryDescriptor.withCollectionLabel())
+	 */
+	String collectionLabel() default "";
+
+	/**
+	 * @return rendered category field name (CategoryDescriptor.withCategoryFieldRenderedName())
+	 */
+	String renderedName() default "";
+
+	/**
+	 * @return ancillary field names (CategoryDescriptor.withAncillaryFieldNames())
+	 */
+	String[] ancillary() default {};
+
+	/**
+	 * @return key the level by the primitive value of an integral category field (CategoryDescriptor.withPrimitiveKeys())
+	 */
+	boolean primitiveKeys() default false;
+
+	/**
+	 * @return intern the level's values and key it by their codes (CategoryDescriptor.withDictionaryKeys())
+	 */
+	boolean dictionaryKeys() default false;
+
+	/**
+	 * @return numeric fields to aggregate (CategoryDescriptor.withAggregateFieldNames()); empty for none
+	 */
+	String[] aggregates() default {};
+
+	/**
+	 * @return aggregate the row count even without aggregate fields
+	 */
+	boolean count() default false;
+
+	/**
+	 * @return detail collection label, inmost category only (CategoryDescriptor.withDetailCollectionLabel())
+	 */
+	String detailCollectionLabel() default "";
+}
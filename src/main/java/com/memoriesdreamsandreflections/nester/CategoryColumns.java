@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.NoSuchElementException ;
+import java.util.Objects ;
+import java.util.concurrent.ForkJoinPool ;
+import java.util.concurrent.RecursiveAction ;
+
+/**
+ * Category values of an in-memory row list, read once into one column per level, for Nester.autoOrdered()
+ *
+ * Levels with long keys (primitive or dictionary) have a long[] column, compared as longs; the others an Object[]
+ * column, compared as in ExternalSort.categoryPathOrder(). While the columns fill, they note whether the rows are
+ * already in category path order and, if asked, estimate the number of distinct paths (leaves). sort() orders an
+ * int[] index of the rows with a stable merge sort on the columns, big halves forked in the common pool;
+ * iterator() then returns the rows in that order, and read() hands back the values of the row last returned, so
+ * they need not be read again.
+ *
+ * @author jgenoese
+ */
+class CategoryColumns<R>
+{
+	static final int INSERTION_SORT = 32; // runs this short are insertion sorted
+	static final int PARALLEL_SORT = 1 << 13; // runs this long fork their halves
+
+	final List<R> rows; // RandomAccess
+	final Object[][] values;
+	final long[][] longs;
+	final HyperLogLog leaves;
+	boolean sorted = true;
+	int[] order;
+	int current = -1;
+
+	/**
+	 * @param objectLevels levels whose values are kept as Objects
+	 * @param longLevels levels whose values are kept as longs; may be null
+	 * @param estimateLeaves whether to estimate distinct paths
+	 */
+	CategoryColumns( List<R> rows, boolean[] objectLevels, boolean[] longLevels, boolean estimateLeaves )
+	{
+		this.rows = rows;
+		this.values = new Object[ objectLevels.length ][];
+		this.longs = new long[ objectLevels.length ][];
+		for ( int level = 0; level < objectLevels.length; level++ )
+		{
+			if ( objectLevels[ level ] )
+			{
+				values[ level ] = new Object[ rows.size() ];
+			}
+			if ( longLevels != null && longLevels[ level ] )
+			{
+				longs[ level ] = new long[ rows.size() ];
+			}
+		}
+		this.leaves = estimateLeaves ? new HyperLogLog() : null;
+	}
+
+	/**
+	 * Store the category values of row <i>index</i>; rows are set in order, from 0
+	 */
+	void set( int index, Object[] rowValues, long[] rowLongs )
+	{
+		long path = 0;
+		for ( int level = 0; level < values.length; level++ )
+		{
+			if ( values[ level ] != null )
+			{
+				values[ level ][ index ] = rowValues[ level ];
+			}
+			if ( longs[ level ] != null )
+			{
+				longs[ level ][ index ] = rowLongs[ level ];
+			}
+			if ( leaves != null )
+			{
+				path = path * 0x9E3779B97F4A7C15L + (longs[ level ] != null ? Long.hashCode( rowLongs[ level ] )
+					: Objects.hashCode( rowValues[ level ] ));
+			}
+		}
+		if ( leaves != null )
+		{
+			leaves.addLong( path );
+		}
+		if ( sorted && index > 0 && compare( index - 1, index ) > 0 )
+		{
+			sorted = false;
+		}
+	}
+
+	int compare( int a, int b )
+	{
+		for ( int level = 0; level < values.length; level++ )
+		{
+			int c = longs[ level ] != null ? Long.compare( longs[ level ][ a ], longs[ level ][ b ] )
+				: ExternalSort.compareValues( values[ level ][ a ], values[ level ][ b ] );
+			if ( c != 0 )
+			{
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return whether the rows were already in category path order
+	 */
+	boolean isSorted()
+	{
+		return sorted;
+	}
+
+	/**
+	 * @return estimated distinct category paths; -1 when not estimated
+	 */
+	long estimateLeaves()
+	{
+		return leaves == null ? -1 : leaves.estimate();
+	}
+
+	/**
+	 * Order the rows by category path, unless they already are
+	 */
+	void sort()
+	{
+		if ( sorted )
+		{
+			return;
+		}
+		int[] index = new int[ rows.size() ];
+		for ( int i = 0; i < index.length; i++ )
+		{
+			index[ i ] = i;
+		}
+		ForkJoinPool.commonPool().invoke( new MergeSort( index.clone(), index, 0, index.length ) );
+		order = index;
+	}
+
+	/**
+	 * Sorts dst[lo, hi) into place, using src, which holds the same indexes there, as scratch; each half is
+	 * sorted into src and the halves merged back into dst
+	 */
+	@SuppressWarnings( "serial" )
+	class MergeSort
+	extends RecursiveAction
+	{
+		final int[] src;
+		final int[] dst;
+		final int lo;
+		final int hi;
+
+		MergeSort( int[] src, int[] dst, int lo, int hi )
+		{
+			this.src = src;
+			this.dst = dst;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ( hi - lo <= INSERTION_SORT )
+			{
+				for ( int i = lo + 1; i < hi; i++ )
+				{
+					int row = dst[ i ];
+					int j = i;
+					for ( ; j > lo && compare( dst[ j - 1 ], row ) > 0; j-- )
+					{
+						dst[ j ] = dst[ j - 1 ];
+					}
+					dst[ j ] = row;
+				}
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			MergeSort left = new MergeSort( dst, src, lo, mid );
+			MergeSort right = new MergeSort( dst, src, mid, hi );
+			if ( hi - lo >= PARALLEL_SORT )
+			{
+				invokeAll( left, right );
+			}
+			else
+			{
+				left.compute();
+				right.compute();
+			}
+			if ( compare( src[ mid - 1 ], src[ mid ] ) <= 0 )
+			{
+				System.arraycopy( src, lo, dst, lo, hi - lo ); // already in order
+				return;
+			}
+			for ( int k = lo, i = lo, j = mid; k < hi; k++ )
+			{
+				dst[ k ] = j >= hi || i < mid && compare( src[ i ], src[ j ] ) <= 0 ? src[ i++ ] : src[ j++ ];
+			}
+		}
+	}
+
+	/**
+	 * @return rows in category path order, once sort() was called
+	 */
+	Iterator<R> iterator()
+	{
+		current = -1;
+		return new Iterator<R>()
+		{
+			int next;
+
+			@Override
+			public boolean hasNext()
+			{
+				return next < rows.size();
+			}
+
+			@Override
+			public R next()
+			{
+				if ( next >= rows.size() )
+				{
+					throw new NoSuchElementException();
+				}
+				current = order == null ? next : order[ next ];
+				next++;
+				return rows.get( current );
+			}
+		};
+	}
+
+	/**
+	 * Category values of the row iterator() returned last, as Nester.readCategoryValues() would read them
+	 */
+	Object[] read( Object[] into, long[] longsInto )
+	{
+		for ( int level = 0; level < values.length; level++ )
+		{
+			if ( values[ level ] != null )
+			{
+				into[ level ] = values[ level ][ current ];
+			}
+			if ( longs[ level ] != null )
+			{
+				longsInto[ level ] = longs[ level ][ current ];
+			}
+		}
+		return into;
+	}
+}
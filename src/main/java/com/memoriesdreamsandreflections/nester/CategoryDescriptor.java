@@ -2,6 +2,7 @@ package com.memoriesdreamsandreflections.nester;
 
 import java.lang.reflect.Field ;
 import java.util.LinkedHashMap ;
+import java.util.List ;
 import java.util.Map ;
 import java.util.function.Function ;
 
@@ -17,7 +18,17 @@ public class CategoryDescriptor<T>
 	Function<T, Map<String, Object>> detailValueMappingFunction;
 	Field categoryfield;
 	Field[] ancillaryFields;
+	ValueGetter<T> categoryGetter;
+	ValueGetter<T>[] ancillaryGetters;
 	boolean hasAncillaryFields;
+	boolean primitiveKeys;
+	boolean dictionaryKeys;
+	final SchemaMap.Schema nodeSchema = new SchemaMap.Schema(); // keys of this category's name/value nodes
+	String[] aggregateFieldNames;
+	ValueGetter<T>[] aggregateGetters;
+	String aggregatesLabel = "aggregates";
+	Function<T, Map<String, Object>> rollupValueMappingFunction;
+	String rollupLabel = "rollup";
 	
 	/*
 	 * Query fields
@@ -44,6 +55,7 @@ public class CategoryDescriptor<T>
 		CategoryDescriptor desc = new CategoryDescriptor();
 		desc.collectionLabel = spec.get( "collectionLabel" );
 		desc.categoryFieldName = spec.get( "renderedCategoryFieldName" );
+		desc.rollupLabel = spec.get( "rollupLabel" );
 		return desc;
 	}
 	
@@ -72,6 +84,7 @@ public class CategoryDescriptor<T>
 	public CategoryDescriptor<T> withCategoryFieldName(String value)
 	{
 		this.categoryFieldName = value;
+		this.categoryGetter = null;
 		return this;
 	}
 	
@@ -81,13 +94,187 @@ public class CategoryDescriptor<T>
 		return this;
 	}
 
+	/**
+	 * Key this level by the primitive value of an integral (long, int, short or byte) category field: values are 
+	 * read without boxing, ordered mode detects value breaks with a primitive compare, and the containers holding 
+	 * this level's values are LongKeyedMaps rather than LinkedHashMaps. Applies to nest(); name/value output 
+	 * renders the values as Objects regardless.
+	 * @return this
+	 */
+	public CategoryDescriptor<T> withPrimitiveKeys()
+	{
+		this.primitiveKeys = true;
+		return this;
+	}
+
+	public boolean hasPrimitiveKeys()
+	{
+		return primitiveKeys;
+	}
+
+	/**
+	 * Intern this level's values in a CategoryDictionary. nest() keys the level by the values' int codes, as
+	 * withPrimitiveKeys() does by integral values, and shows the canonical instances as keys; name/value output 
+	 * renders the canonical instances. The dictionaries belong to the Nester, one per nest run; see 
+	 * Nester.getDictionary().
+	 * @return this
+	 */
+	public CategoryDescriptor<T> withDictionaryKeys()
+	{
+		this.dictionaryKeys = true;
+		return this;
+	}
+
+	public boolean hasDictionaryKeys()
+	{
+		return dictionaryKeys;
+	}
+
 	public CategoryDescriptor<T> withAncillaryFieldNames(String[] value)
 	{
 		this.ancillaryFieldNames = value;
+		this.ancillaryGetters = null;
 		hasAncillaryFields = ancillaryFieldNames != null && ancillaryFieldNames.length > 0;
 		return this;
 	}
 	
+	/**
+	 * Supply the category getter directly, e.g. from generated code, instead of having initializeFields() 
+	 * resolve categoryFieldName. The category field name becomes the getter's name.
+	 * @param value ValueGetter
+	 * @return this
+	 */
+	public CategoryDescriptor<T> withCategoryGetter(ValueGetter<T> value)
+	{
+		this.categoryGetter = value;
+		this.categoryFieldName = value.getName();
+		this.categoryfield = asField( value );
+		return this;
+	}
+
+	/**
+	 * Supply the ancillary getters directly, e.g. from generated code, instead of having initializeFields() 
+	 * resolve ancillaryFieldNames. The ancillary field names become the getters' names.
+	 * @param value ValueGetters, in rendering order
+	 * @return this
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public CategoryDescriptor<T> withAncillaryGetters(List<ValueGetter<T>> value)
+	{
+		ancillaryGetters = value.toArray( new ValueGetter[value.size()] );
+		ancillaryFieldNames = new String[ancillaryGetters.length];
+		ancillaryFields = new Field[ancillaryGetters.length];
+		for(int i=0; i<ancillaryGetters.length; i++)
+		{
+			ancillaryFieldNames[i] = ancillaryGetters[i].getName();
+			ancillaryFields[i] = asField( ancillaryGetters[i] );
+		}
+		hasAncillaryFields = ancillaryGetters.length > 0;
+		return this;
+	}
+
+	/**
+	 * Aggregate these numeric fields (count, sum, min, max, average; see {@link Aggregates}) per category value 
+	 * while nesting. An empty array aggregates the row count only. In name/value output the Aggregates appear 
+	 * under the aggregates label; nest() nodes carry them (Aggregates.of(node)). Only detail rows are aggregated: 
+	 * a row with a null category value is a rollup row (a GROUP BY ROLLUP subtotal) and counts nowhere.
+	 * @param value numeric field names (fields or accessor methods, as for ancillary fields)
+	 * @return this
+	 */
+	public CategoryDescriptor<T> withAggregateFieldNames(String[] value)
+	{
+		this.aggregateFieldNames = value;
+		this.aggregateGetters = null;
+		return this;
+	}
+
+	/**
+	 * Supply the aggregate getters directly, e.g. from generated code, instead of having initializeFields() 
+	 * resolve aggregateFieldNames.
+	 * @param value numeric ValueGetters
+	 * @return this
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public CategoryDescriptor<T> withAggregateGetters(List<ValueGetter<T>> value)
+	{
+		aggregateGetters = value.toArray( new ValueGetter[value.size()] );
+		aggregateFieldNames = new String[aggregateGetters.length];
+		for(int i=0; i<aggregateGetters.length; i++)
+		{
+			aggregateFieldNames[i] = aggregateGetters[i].getName();
+		}
+		return this;
+	}
+
+	/**
+	 * Key of the Aggregates in name/value output; "aggregates" by default
+	 * @param value label
+	 * @return this
+	 */
+	public CategoryDescriptor<T> withAggregatesLabel(String value)
+	{
+		this.aggregatesLabel = value;
+		return this;
+	}
+
+	public boolean hasAggregates()
+	{
+		return aggregateFieldNames != null;
+	}
+
+	public String getAggregatesLabel()
+	{
+		return aggregatesLabel;
+	}
+
+	/**
+	 * @return new, empty Aggregates for one value of this category, or null when none are declared
+	 */
+	public Aggregates<T> newAggregates()
+	{
+		return hasAggregates() ? new Aggregates<T>( aggregateFieldNames, aggregateGetters ) : null;
+	}
+
+	/**
+	 * Provide a function for mapping rollup rows of this category: in nameValueNest(), a row whose category
+	 * values stop (are null) below this level is attached, mapped by this function, to the node of its last 
+	 * non-null value under the rollup label. GROUP BY ROLLUP output thus nests in the same pass as the detail 
+	 * rows. Without a function, such rows are ignored, as before.
+	 * @param value Function instance
+	 * @return this
+	 */
+	public CategoryDescriptor<T> withRollupValueMappingFunction(Function<T, Map<String, Object>> value)
+	{
+		this.rollupValueMappingFunction = value;
+		return this;
+	}
+
+	/**
+	 * Key of the rollup in name/value output; "rollup" by default
+	 * @param value label
+	 * @return this
+	 */
+	public CategoryDescriptor<T> withRollupLabel(String value)
+	{
+		this.rollupLabel = value;
+		return this;
+	}
+
+	public boolean hasRollups()
+	{
+		return rollupValueMappingFunction != null;
+	}
+
+	public String getRollupLabel()
+	{
+		return rollupLabel;
+	}
+
+	Map<String, Object> mapRollup(T t)
+	{
+		return rollupValueMappingFunction == null ? null : rollupValueMappingFunction.apply( t );
+	}
+
 	public CategoryDescriptor<T> withAncillaryValueMappingFunction(Function<T, Map<String, Object>> value)
 	{
 		this.ancillaryValueMappingFunction = value;
@@ -112,21 +299,59 @@ public class CategoryDescriptor<T>
 		return this;
 	}
 	
+	/**
+	 * Resolve category and ancillary names into ValueGetters. Each name may be a field (declared by the
+	 * class or a superclass), a getter method or a record-style accessor method. Getters already supplied 
+	 * with withCategoryGetter() or withAncillaryGetters() are kept as they are.
+	 * @throws NoSuchFieldException when a name cannot be resolved
+	 * @throws SecurityException
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
 	public void initializeFields() throws NoSuchFieldException, SecurityException
 	{
-		if (categoryFieldName != null)
+		if (categoryFieldName != null && categoryGetter == null)
 		{
-			categoryfield = clazz.getDeclaredField( categoryFieldName );
+			categoryGetter = ValueGetter.forName( clazz, categoryFieldName );
+			categoryfield = asField( categoryGetter );
 		}
 		
-		if (ancillaryFieldNames != null && ancillaryFieldNames.length > 0)
+		if (ancillaryFieldNames != null && ancillaryFieldNames.length > 0 && ancillaryGetters == null)
 		{
 			ancillaryFields = new Field[ancillaryFieldNames.length];
+			ancillaryGetters = new ValueGetter[ancillaryFieldNames.length];
 			for(int i=0; i<ancillaryFieldNames.length; i++)
 			{
-				ancillaryFields[i] = clazz.getDeclaredField( ancillaryFieldNames[i] );
+				ancillaryGetters[i] = ValueGetter.forName( clazz, ancillaryFieldNames[i] );
+				ancillaryFields[i] = asField( ancillaryGetters[i] );
 			}
 		}
+
+		if (aggregateFieldNames != null && aggregateGetters == null)
+		{
+			aggregateGetters = new ValueGetter[aggregateFieldNames.length];
+			for(int i=0; i<aggregateFieldNames.length; i++)
+			{
+				aggregateGetters[i] = ValueGetter.forName( clazz, aggregateFieldNames[i] );
+				if (!aggregateGetters[i].isNumeric())
+				{
+					throw new IllegalArgumentException( "aggregate field is not numeric: " + aggregateFieldNames[i] );
+				}
+			}
+		}
+
+		if (primitiveKeys && (categoryGetter == null || !categoryGetter.isIntegral()))
+		{
+			throw new IllegalArgumentException( "primitive keys need an integral category field: " + categoryFieldName );
+		}
+		if (primitiveKeys && dictionaryKeys)
+		{
+			throw new IllegalArgumentException( "primitive keys and dictionary keys are exclusive: " + categoryFieldName );
+		}
+	}
+
+	private static Field asField( ValueGetter<?> getter )
+	{
+		return getter.getMember() instanceof Field ? (Field)getter.getMember() : null;
 	}
 
 	public Class<T> getClazz()
@@ -144,16 +369,32 @@ public class CategoryDescriptor<T>
 		return detailCollectionLabel ;
 	}
 
+	/**
+	 * @return category Field, or null when the category is read through an accessor method
+	 */
 	public Field getCategoryField()
 	{
 		return categoryfield ;
 	}
 
+	/**
+	 * @return ancillary Fields; an element is null when that value is read through an accessor method
+	 */
 	public Field[] getAncillaryFields()
 	{
 		return ancillaryFields ;
 	}
 
+	public ValueGetter<T> getCategoryGetter()
+	{
+		return categoryGetter ;
+	}
+
+	public ValueGetter<T>[] getAncillaryGetters()
+	{
+		return ancillaryGetters ;
+	}
+
 	/**
 	 * Function that will obtain the designated detail structure as name/value map. Note that this
 	 * is only relevant to the lowest level of category. 
@@ -179,21 +420,46 @@ public class CategoryDescriptor<T>
 	 */
 	public Map<String, Object> mapCatAndAncFields(T t) throws IllegalArgumentException, IllegalAccessException
 	{
-		
-		Map<String, Object> result = new LinkedHashMap<>();
-		result.put( renderedCategoryFieldName(), categoryfield.get( t ) );
+		return putCatAndAncFields( t, new LinkedHashMap<>() );
+	}
+
+	/**
+	 * Same fields as mapCatAndAncFields(), put straight into <i>into</i>
+	 * @param t raw data row|record
+	 * @param into node Map, e.g. from newNode()
+	 * @return <i>into</i>
+	 */
+	public Map<String, Object> putCatAndAncFields(T t, Map<String, Object> into)
+	{
+		return putCatAndAncFields( t, categoryGetter.get( t ), into );
+	}
+
+	/*
+	 * With the category value already read (and interned)
+	 */
+	Map<String, Object> putCatAndAncFields(T t, Object categoryValue, Map<String, Object> into)
+	{
+		into.put( renderedCategoryFieldName(), categoryValue );
 		if ( hasAncillaryFields )
 		{
-			for (Field ancField : ancillaryFields)
+			for (ValueGetter<T> ancGetter : ancillaryGetters)
 			{
-				result.put( ancField.getName(), ancField.get( t ) );
+				into.put( ancGetter.getName(), ancGetter.get( t ) );
 			}
 		}
 		if ( ancillaryValueMappingFunction != null )
 		{
-			result.putAll( ancillaryValueMappingFunction.apply( t ) );
+			into.putAll( ancillaryValueMappingFunction.apply( t ) );
 		}
-		return result;
+		return into;
+	}
+
+	/**
+	 * @return empty name/value node for a value of this category; all nodes of the category share one key layout
+	 */
+	public SchemaMap newNode()
+	{
+		return new SchemaMap( nodeSchema );
 	}
 	
 	/**
@@ -206,6 +472,7 @@ public class CategoryDescriptor<T>
 	 * <li> a <i>detailValueMappingFunction</i></li>
 	 * <li> an <i>ancillaryValueMappingFunction</i></li>
 	 * <li> <i>ancillaryFieldNames</i></li>
+	 * <li> <i>aggregateFieldNames</i></li>
 	 * </ul>
 	 * @return boolean true if the above condition is met.
 	 */
@@ -213,7 +480,8 @@ public class CategoryDescriptor<T>
 	{
 		return detailValueMappingFunction != null ||
 			ancillaryValueMappingFunction != null ||
-			(ancillaryFieldNames != null && ancillaryFieldNames.length > 0); 
+			(ancillaryFieldNames != null && ancillaryFieldNames.length > 0) ||
+			aggregateFieldNames != null; 
 			
 	}
 	
@@ -227,6 +495,10 @@ public class CategoryDescriptor<T>
 		Map<String,String> spec = new LinkedHashMap<>(2);
 		spec.put( "collectionLabel", collectionLabel );
 		spec.put( "renderedCategoryFieldName", renderedCategoryFieldName() );
+		if ( hasRollups() )
+		{
+			spec.put( "rollupLabel", rollupLabel );
+		}
 		return spec;
 	}
 }
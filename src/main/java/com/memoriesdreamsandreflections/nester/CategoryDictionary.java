@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.util.Arrays ;
+import java.util.concurrent.ConcurrentHashMap ;
+
+/**
+ * Interning dictionary of the values of one category level
+ *
+ * Each distinct value gets an int code, in order of first appearance, and the instance first seen becomes the
+ * canonical one. Levels keyed through a dictionary (CategoryDescriptor.withDictionaryKeys()) hold codes in
+ * LongKeyedMaps, so after one hash probe per row here, nesting finds, compares and orders values as ints, and
+ * every node shows the same key instance. Dictionaries are owned by the Nester, which starts fresh ones with each
+ * nest() or nameValueNest() run, so they grow with the distinct values of one run, not of every run before.
+ * append() and the parallel tasks of a run share its dictionaries; a result keeps decoding through its own
+ * after later runs.
+ *
+ * @author jgenoese
+ */
+public class CategoryDictionary
+{
+	static final Object NULL = new Object(); // stands in for null, which ConcurrentHashMap does not take
+
+	final ConcurrentHashMap<Object, Integer> codes = new ConcurrentHashMap<>();
+	volatile Object[] values = new Object[ 16 ];
+	int size;
+
+	/**
+	 * @return code of <i>value</i>, added if new
+	 */
+	public int code( Object value )
+	{
+		Object key = value == null ? NULL : value;
+		Integer code = codes.get( key );
+		return code != null ? code : codes.computeIfAbsent( key, this::add );
+	}
+
+	/**
+	 * @return code of <i>value</i>, or -1 if it has none
+	 */
+	public int lookup( Object value )
+	{
+		Integer code = codes.get( value == null ? NULL : value );
+		return code == null ? -1 : code;
+	}
+
+	/**
+	 * @return canonical value of <i>code</i>
+	 */
+	public Object value( int code )
+	{
+		return values[ code ];
+	}
+
+	/**
+	 * @return the canonical instance equal to <i>value</i>; null stays null
+	 */
+	public Object intern( Object value )
+	{
+		return value == null ? null : value( code( value ) );
+	}
+
+	/**
+	 * @return number of distinct values, null included if it was seen
+	 */
+	public int size()
+	{
+		return codes.size();
+	}
+
+	/*
+	 * The value is stored before computeIfAbsent() publishes its code, so any thread holding a code can read it
+	 */
+	synchronized Integer add( Object key )
+	{
+		Object[] current = values;
+		if ( size == current.length )
+		{
+			current = Arrays.copyOf( current, size * 2 );
+		}
+		current[ size ] = key == NULL ? null : key;
+		values = current;
+		return size++;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.io.ByteArrayInputStream ;
+import java.io.ByteArrayOutputStream ;
+import java.io.DataInput ;
+import java.io.DataInputStream ;
+import java.io.DataOutput ;
+import java.io.DataOutputStream ;
+import java.io.IOException ;
+import java.io.ObjectInputStream ;
+import java.io.ObjectOutputStream ;
+import java.io.UncheckedIOException ;
+import java.nio.charset.StandardCharsets ;
+
+/**
+ * Binary form of a value
+ *
+ * Used wherever values leave the heap: category keys and details of an OffHeapTree. Values are never null;
+ * callers record nulls themselves.
+ *
+ * @author jgenoese
+ *
+ * @param <T> value type
+ */
+public interface Codec<T>
+{
+	void encode( T value, DataOutput out ) throws IOException;
+
+	T decode( DataInput in ) throws IOException;
+
+	default byte[] toBytes( T value )
+	{
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			encode( value, new DataOutputStream( bytes ) );
+			return bytes.toByteArray();
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	default T fromBytes( byte[] bytes )
+	{
+		try
+		{
+			return decode( new DataInputStream( new ByteArrayInputStream( bytes ) ) );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	/**
+	 * UTF-8, length first; no 64K limit as with writeUTF()
+	 */
+	Codec<String> STRING = new Codec<String>()
+	{
+		@Override
+		public void encode( String value, DataOutput out ) throws IOException
+		{
+			byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+			out.writeInt( bytes.length );
+			out.write( bytes );
+		}
+
+		@Override
+		public String decode( DataInput in ) throws IOException
+		{
+			byte[] bytes = new byte[ in.readInt() ];
+			in.readFully( bytes );
+			return new String( bytes, StandardCharsets.UTF_8 );
+		}
+	};
+
+	Codec<Integer> INT = new Codec<Integer>()
+	{
+		@Override
+		public void encode( Integer value, DataOutput out ) throws IOException
+		{
+			out.writeInt( value );
+		}
+
+		@Override
+		public Integer decode( DataInput in ) throws IOException
+		{
+			return in.readInt();
+		}
+	};
+
+	Codec<Long> LONG = new Codec<Long>()
+	{
+		@Override
+		public void encode( Long value, DataOutput out ) throws IOException
+		{
+			out.writeLong( value );
+		}
+
+		@Override
+		public Long decode( DataInput in ) throws IOException
+		{
+			return in.readLong();
+		}
+	};
+
+	/**
+	 * Java serialization; works for any Serializable value, but is neither small nor fast
+	 */
+	Codec<Object> SERIALIZABLE = new Codec<Object>()
+	{
+		@Override
+		public void encode( Object value, DataOutput out ) throws IOException
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try ( ObjectOutputStream objects = new ObjectOutputStream( bytes ) )
+			{
+				objects.writeObject( value );
+			}
+			out.writeInt( bytes.size() );
+			out.write( bytes.toByteArray() );
+		}
+
+		@Override
+		public Object decode( DataInput in ) throws IOException
+		{
+			byte[] bytes = new byte[ in.readInt() ];
+			in.readFully( bytes );
+			try ( ObjectInputStream objects = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) )
+			{
+				return objects.readObject();
+			}
+			catch ( ClassNotFoundException e )
+			{
+				throw new IOException( e );
+			}
+		}
+	};
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.util.Collection ;
+import java.util.Map ;
+import java.util.Objects ;
+
+/**
+ * Compact, read-only nest() result
+ *
+ * The tree is stored level by level, CSR style. Level i holds the keys of every category i value in one array,
+ * grouped by parent, and an offsets array: the children of node j are nodes [offsets[j], offsets[j+1]) of
+ * level i + 1 or, at the inmost level, those details. Keys of a level that are all Long (or all Integer, Short,
+ * Byte) are kept in a long[]. There are no entry objects, table headers or spare capacity, so a node costs a
+ * key, an offset and two hash slots. Lookups go through a per-level open-addressing table of (parent, key).
+ * <br/>
+ * It is built from a nest() result by counting the children of each level, then filling the arrays; see
+ * Nester.compactNest(). asMap() is a read-only Map view with the structure, iteration order and Aggregates
+ * (see Aggregates.of()) of that result; see LevelTree.
+ *
+ * @author jgenoese
+ */
+public class CompactTree
+extends LevelTree
+{
+	final int depth;
+	final Object[] keys; // per level: Object[], or long[] when keyTypes[ level ] is set
+	final Class<?>[] keyTypes; // per level: long, int, short or byte for long[] keys, else null
+	final int[][] offsets; // per level: size + 1 offsets into the next level, or into details
+	final int[][] hashes; // per level: node + 1, 0 is empty
+	final Aggregates<?>[][] aggregates; // per level; null when the level has none
+	final Object[] details;
+
+	/**
+	 * @param root nest() result
+	 * @param depth number of categories it was nested by
+	 * @return compact copy of <i>root</i>
+	 */
+	public static CompactTree of( Map<?, ?> root, int depth )
+	{
+		return new CompactTree( root, depth );
+	}
+
+	CompactTree( Map<?, ?> root, int depth )
+	{
+		if ( depth < 1 )
+		{
+			throw new IllegalArgumentException( "depth must be at least 1" );
+		}
+		this.depth = depth;
+		keys = new Object[ depth ];
+		keyTypes = new Class<?>[ depth ];
+		offsets = new int[ depth ][];
+		hashes = new int[ depth ][];
+		aggregates = new Aggregates<?>[ depth ][];
+
+		Object[] containers = { root }; // the parents' Maps of this level's nodes
+		int count = root.size();
+		Object[] detailsFilled = null;
+		for ( int level = 0; level < depth; level++ )
+		{
+			Object[] levelKeys = new Object[ count ];
+			Object[] nodes = new Object[ count ];
+			int n = 0;
+			for ( Object container : containers )
+			{
+				for ( Map.Entry<?, ?> entry : ((Map<?, ?>)container).entrySet() )
+				{
+					levelKeys[ n ] = entry.getKey();
+					nodes[ n++ ] = entry.getValue();
+				}
+			}
+
+			/*
+			 * count the children, then fill the next level (or the details) in the same order
+			 */
+			int[] levelOffsets = new int[ count + 1 ];
+			for ( int i = 0; i < count; i++ )
+			{
+				levelOffsets[ i + 1 ] = levelOffsets[ i ] + (level == depth - 1 ? ((Collection<?>)nodes[ i ]).size() : ((Map<?, ?>)nodes[ i ]).size());
+			}
+			offsets[ level ] = levelOffsets;
+			aggregates[ level ] = levelAggregates( nodes );
+			keys[ level ] = compactKeys( level, levelKeys );
+			hashes[ level ] = hashLevel( level, count );
+
+			if ( level == depth - 1 )
+			{
+				detailsFilled = new Object[ levelOffsets[ count ] ];
+				for ( int i = 0; i < count; i++ )
+				{
+					int d = levelOffsets[ i ];
+					for ( Object detail : (Collection<?>)nodes[ i ] )
+					{
+						detailsFilled[ d++ ] = detail;
+					}
+				}
+			}
+			containers = nodes;
+			count = levelOffsets[ count ];
+		}
+		details = detailsFilled;
+	}
+
+	static Aggregates<?>[] levelAggregates( Object[] nodes )
+	{
+		Aggregates<?>[] result = null;
+		for ( int i = 0; i < nodes.length; i++ )
+		{
+			Aggregates<?> nodeAggregates = Aggregates.of( nodes[ i ] );
+			if ( nodeAggregates != null )
+			{
+				if ( result == null )
+				{
+					result = new Aggregates<?>[ nodes.length ];
+				}
+				result[ i ] = nodeAggregates;
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * long[] when every key is of one integral wrapper type, so they can be boxed back to it
+	 */
+	Object compactKeys( int level, Object[] levelKeys )
+	{
+		Class<?> wrapper = levelKeys.length == 0 || !LongKeyedMap.isIntegralKey( levelKeys[ 0 ] ) ? null : levelKeys[ 0 ].getClass();
+		for ( int i = 0; wrapper != null && i < levelKeys.length; i++ )
+		{
+			if ( levelKeys[ i ] == null || levelKeys[ i ].getClass() != wrapper )
+			{
+				wrapper = null;
+			}
+		}
+		if ( wrapper == null )
+		{
+			return levelKeys;
+		}
+		keyTypes[ level ] = wrapper == Integer.class ? int.class : wrapper == Short.class ? short.class : wrapper == Byte.class ? byte.class : long.class;
+		long[] longKeys = new long[ levelKeys.length ];
+		for ( int i = 0; i < levelKeys.length; i++ )
+		{
+			longKeys[ i ] = ((Number)levelKeys[ i ]).longValue();
+		}
+		return longKeys;
+	}
+
+	int[] hashLevel( int level, int count )
+	{
+		int[] table = new int[ LongKeyedMap.tableSize( Math.max( 2, count ) ) ];
+		int mask = table.length - 1;
+		int parents = level == 0 ? 1 : offsets[ level - 1 ].length - 1;
+		for ( int parent = 0; parent < parents; parent++ )
+		{
+			int from = level == 0 ? 0 : offsets[ level - 1 ][ parent ];
+			int to = level == 0 ? count : offsets[ level - 1 ][ parent + 1 ];
+			for ( int node = from; node < to; node++ )
+			{
+				int slot = hash( level == 0 ? -1 : parent, keyHash( level, node ) ) & mask;
+				while ( table[ slot ] != 0 )
+				{
+					slot = (slot + 1) & mask;
+				}
+				table[ slot ] = node + 1;
+			}
+		}
+		return table;
+	}
+
+	static int hash( int parent, int keyHash )
+	{
+		int h = (31 * parent + keyHash) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	int keyHash( int level, int node )
+	{
+		return keyTypes[ level ] != null ? Long.hashCode( ((long[])keys[ level ])[ node ] ) : Objects.hashCode( ((Object[])keys[ level ])[ node ] );
+	}
+
+	@Override
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	@Override
+	public int size( int level )
+	{
+		return offsets[ level ].length - 1;
+	}
+
+	@Override
+	public Object getKey( int level, int node )
+	{
+		return keyTypes[ level ] != null ? LongKeyedMap.box( keyTypes[ level ], ((long[])keys[ level ])[ node ] ) : ((Object[])keys[ level ])[ node ];
+	}
+
+	@Override
+	public int getChildFrom( int level, int node )
+	{
+		return offsets[ level ][ node ];
+	}
+
+	@Override
+	public int getChildTo( int level, int node )
+	{
+		return offsets[ level ][ node + 1 ];
+	}
+
+	@Override
+	public Object getDetail( int index )
+	{
+		return details[ index ];
+	}
+
+	@Override
+	public Aggregates<?> getAggregates( int level, int node )
+	{
+		return aggregates[ level ] == null ? null : aggregates[ level ][ node ];
+	}
+
+	@Override
+	public int find( int level, int parent, Object key )
+	{
+		long longKey = 0;
+		int keyHash;
+		if ( keyTypes[ level ] != null )
+		{
+			if ( !LongKeyedMap.isIntegralKey( key ) )
+			{
+				return -1;
+			}
+			longKey = ((Number)key).longValue();
+			keyHash = Long.hashCode( longKey );
+		}
+		else
+		{
+			keyHash = Objects.hashCode( key );
+		}
+		int from = level == 0 ? 0 : offsets[ level - 1 ][ parent ];
+		int to = level == 0 ? size( 0 ) : offsets[ level - 1 ][ parent + 1 ];
+		int[] table = hashes[ level ];
+		int mask = table.length - 1;
+		for ( int slot = hash( level == 0 ? -1 : parent, keyHash ) & mask; table[ slot ] != 0; slot = (slot + 1) & mask )
+		{
+			int node = table[ slot ] - 1;
+			if ( node >= from && node < to && (keyTypes[ level ] != null ? ((long[])keys[ level ])[ node ] == longKey
+				: Objects.equals( ((Object[])keys[ level ])[ node ], key )) )
+			{
+				return node;
+			}
+		}
+		return -1;
+	}
+}
@@ -27,7 +27,10 @@ import java.util.Objects;
 public abstract class ContainerLevel<T, C>
 {
 	CategoryDescriptor<T> descriptor;
+	CategoryDictionary dictionary; // of the current nest run, with dictionary keys
 	Object lastValue;
+	long lastLong; // lastValue of primitive levels
+	boolean primitive;
 	C container;
 	boolean valueBreak;
 	boolean reset = true;
@@ -35,11 +38,26 @@ public abstract class ContainerLevel<T, C>
 	public ContainerLevel( CategoryDescriptor<T> descriptor ) throws NoSuchFieldException, SecurityException
 	{
 		this.descriptor = descriptor;
+		this.primitive = descriptor != null && (descriptor.hasPrimitiveKeys() || descriptor.hasDictionaryKeys());
 	}
 
 	public Object getLastValue()
 	{
-		return lastValue;
+		if ( primitive && descriptor.hasDictionaryKeys() )
+		{
+			return dictionary.value( (int)lastLong );
+		}
+		return primitive ? LongKeyedMap.box( descriptor.getCategoryGetter().getType(), lastLong ) : lastValue;
+	}
+
+	public long getLastLong()
+	{
+		return lastLong;
+	}
+
+	public boolean isPrimitive()
+	{
+		return primitive;
 	}
 
 	public void setLastValue( Object lastValue )
@@ -52,6 +70,11 @@ public abstract class ContainerLevel<T, C>
 		return descriptor.getCategoryField();
 	}
 
+	public ValueGetter<T> getCategoryGetter()
+	{
+		return descriptor.getCategoryGetter();
+	}
+
 	public boolean isValueBreak()
 	{
 		return valueBreak;
@@ -70,7 +93,7 @@ public abstract class ContainerLevel<T, C>
 	public Object getAndTestFieldValue( T row )
 	throws IllegalAccessException
 	{
-		Object fieldValue = this.getCategoryField().get( row );
+		Object fieldValue = descriptor.getCategoryGetter().get( row );
 		if ( !Objects.equals( fieldValue, lastValue ) || reset )
 		{
 			valueBreak = true;
@@ -84,6 +107,41 @@ public abstract class ContainerLevel<T, C>
 		return fieldValue;
 	}
 
+	/**
+	 * Would testFieldValue() report a value break for this value? Does not change any state.
+	 * @param fieldValue candidate value
+	 * @return true if fieldValue starts a new container at this level
+	 */
+	public boolean breaksOn( Object fieldValue )
+	{
+		return reset || !Objects.equals( fieldValue, lastValue );
+	}
+
+	/**
+	 * breaksOn() for primitive levels
+	 */
+	public boolean breaksOnLong( long fieldValue )
+	{
+		return reset || fieldValue != lastLong;
+	}
+
+	/**
+	 * testFieldValue() for primitive levels: a primitive compare, no boxing or equals()
+	 */
+	public void testLongValue( long fieldValue )
+	{
+		if ( fieldValue != lastLong || reset )
+		{
+			valueBreak = true;
+			lastLong = fieldValue;
+		}
+		else
+		{
+			valueBreak = false;
+		}
+		reset = false;
+	}
+
 	public void testFieldValue( Object fieldValue )
 	throws IllegalAccessException
 	{
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.io.BufferedInputStream ;
+import java.io.BufferedOutputStream ;
+import java.io.Closeable ;
+import java.io.DataInputStream ;
+import java.io.DataOutputStream ;
+import java.io.EOFException ;
+import java.io.IOException ;
+import java.io.UncheckedIOException ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.util.ArrayList ;
+import java.util.Comparator ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.NoSuchElementException ;
+import java.util.PriorityQueue ;
+
+/**
+ * Sort of a row stream that need not fit on the heap
+ *
+ * Rows are read into runs of at most maxRowsInMemory, each run is sorted and, unless the input ends within the
+ * first run, spilled to a temporary file with the row Codec. The runs are then merged, at most MAX_FAN_IN at a
+ * time (in more than one pass when there are more runs), and the result is read back as an Iterator. Memory is
+ * bounded by one run of rows plus one read buffer per merged run. The sort is stable: rows that compare equal
+ * come back in input order.
+ *
+ * @author jgenoese
+ *
+ * @param <R> row type
+ */
+public class ExternalSort<R>
+{
+	public static final int MAX_FAN_IN = 64;
+	static final int BUFFER_SIZE = 1 << 16;
+
+	final Comparator<? super R> comparator;
+	final Codec<R> codec;
+	final int maxRowsInMemory;
+	final Path directory;
+
+	/**
+	 * @param comparator row order
+	 * @param codec writes and reads spilled rows
+	 * @param maxRowsInMemory rows per run: the memory budget
+	 * @param directory where run files go; null for the default temporary directory
+	 */
+	public ExternalSort( Comparator<? super R> comparator, Codec<R> codec, int maxRowsInMemory, Path directory )
+	{
+		if ( maxRowsInMemory < 1 )
+		{
+			throw new IllegalArgumentException( "maxRowsInMemory must be positive: " + maxRowsInMemory );
+		}
+		this.comparator = comparator;
+		this.codec = codec;
+		this.maxRowsInMemory = maxRowsInMemory;
+		this.directory = directory;
+	}
+
+	/**
+	 * Category path order of <i>descriptors</i>: the first level first. Primitive levels compare as longs; other
+	 * values compare naturally when Comparable and of one class, by class name and then toString() otherwise.
+	 * Nulls come first. Equal paths are adjacent, which is all ordered() nesting needs.
+	 */
+	public static <R> Comparator<R> categoryPathOrder( List<CategoryDescriptor<R>> descriptors )
+	{
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		ValueGetter<R>[] getters = new ValueGetter[ descriptors.size() ];
+		boolean[] primitive = new boolean[ getters.length ];
+		for ( int i = 0; i < getters.length; i++ )
+		{
+			getters[ i ] = descriptors.get( i ).getCategoryGetter();
+			primitive[ i ] = descriptors.get( i ).hasPrimitiveKeys();
+		}
+		return ( a, b ) -> {
+			for ( int i = 0; i < getters.length; i++ )
+			{
+				int c = primitive[ i ] ? Long.compare( getters[ i ].getLong( a ), getters[ i ].getLong( b ) )
+					: compareValues( getters[ i ].get( a ), getters[ i ].get( b ) );
+				if ( c != 0 )
+				{
+					return c;
+				}
+			}
+			return 0;
+		};
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	static int compareValues( Object a, Object b )
+	{
+		if ( a == b )
+		{
+			return 0;
+		}
+		if ( a == null || b == null )
+		{
+			return a == null ? -1 : 1;
+		}
+		if ( a.getClass() != b.getClass() )
+		{
+			return a.getClass().getName().compareTo( b.getClass().getName() );
+		}
+		if ( a instanceof Comparable )
+		{
+			return ((Comparable)a).compareTo( b );
+		}
+		return a.equals( b ) ? 0 : a.toString().compareTo( b.toString() );
+	}
+
+	/**
+	 * Sort <i>rows</i>. Run files are deleted when the result is exhausted or closed.
+	 * @param rows input, read to the end before the first row is returned
+	 * @return sorted rows
+	 * @throws IOException
+	 */
+	public Sorted sort( Iterator<R> rows )
+	throws IOException
+	{
+		List<Path> runs = new ArrayList<>();
+		List<Path> merged = new ArrayList<>(); // the merge pass in progress
+		List<R> run = new ArrayList<>( Math.min( maxRowsInMemory, 1 << 16 ) );
+		try
+		{
+			while ( rows.hasNext() )
+			{
+				R row = rows.next();
+				if ( run.size() == maxRowsInMemory )
+				{
+					run.sort( comparator );
+					runs.add( spill( run.iterator() ) );
+					run.clear();
+				}
+				run.add( row );
+			}
+			run.sort( comparator );
+			if ( runs.isEmpty() )
+			{
+				return new Sorted( run.iterator(), runs, null );
+			}
+			if ( !run.isEmpty() )
+			{
+				runs.add( spill( run.iterator() ) );
+			}
+			run = null;
+			while ( runs.size() > MAX_FAN_IN )
+			{
+				merged = new ArrayList<>();
+				for ( int from = 0; from < runs.size(); from += MAX_FAN_IN )
+				{
+					List<Path> group = runs.subList( from, Math.min( runs.size(), from + MAX_FAN_IN ) );
+					try ( Merge merge = new Merge( group ) )
+					{
+						merged.add( spill( merge ) );
+					}
+					for ( Path file : group )
+					{
+						Files.deleteIfExists( file );
+					}
+				}
+				runs = merged;
+				merged = new ArrayList<>();
+			}
+			Merge merge = new Merge( runs );
+			return new Sorted( merge, runs, merge );
+		}
+		catch ( IOException | RuntimeException e )
+		{
+			for ( Path file : runs )
+			{
+				Files.deleteIfExists( file );
+			}
+			for ( Path file : merged )
+			{
+				Files.deleteIfExists( file );
+			}
+			throw e;
+		}
+	}
+
+	Path spill( Iterator<R> rows )
+	throws IOException
+	{
+		Path file = directory == null ? Files.createTempFile( "nester", ".run" ) : Files.createTempFile( directory, "nester", ".run" );
+		try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( file ), BUFFER_SIZE ) ) )
+		{
+			while ( rows.hasNext() )
+			{
+				out.writeBoolean( true );
+				codec.encode( rows.next(), out );
+			}
+			out.writeBoolean( false );
+		}
+		catch ( IOException | RuntimeException e )
+		{
+			Files.deleteIfExists( file );
+			throw e;
+		}
+		return file;
+	}
+
+	/**
+	 * Sorted rows; close() it when abandoning it before the end
+	 */
+	public class Sorted
+	implements Iterator<R>, Closeable
+	{
+		final Iterator<R> rows;
+		final List<Path> files;
+		final Closeable resources;
+		boolean closed;
+
+		Sorted( Iterator<R> rows, List<Path> files, Closeable resources )
+		{
+			this.rows = rows;
+			this.files = files;
+			this.resources = resources;
+		}
+
+		/**
+		 * @return number of run files spilled (after merge passes); 0 when the input fit in memory
+		 */
+		public int getRunCount()
+		{
+			return files.size();
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			if ( closed )
+			{
+				return false;
+			}
+			boolean hasNext = rows.hasNext();
+			if ( !hasNext )
+			{
+				try
+				{
+					close();
+				}
+				catch ( IOException e )
+				{
+					throw new UncheckedIOException( e );
+				}
+			}
+			return hasNext;
+		}
+
+		@Override
+		public R next()
+		{
+			if ( !hasNext() )
+			{
+				throw new NoSuchElementException();
+			}
+			return rows.next();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if ( closed )
+			{
+				return;
+			}
+			closed = true;
+			if ( resources != null )
+			{
+				resources.close();
+			}
+			for ( Path file : files )
+			{
+				Files.deleteIfExists( file );
+			}
+		}
+	}
+
+	/**
+	 * k-way merge of run files; ties go to the earlier run, which keeps the sort stable
+	 */
+	class Merge
+	implements Iterator<R>, Closeable
+	{
+		final PriorityQueue<RunReader> queue;
+		final List<RunReader> readers = new ArrayList<>();
+
+		Merge( List<Path> runs )
+		throws IOException
+		{
+			queue = new PriorityQueue<>( Math.max( 1, runs.size() ), ( a, b ) -> {
+				int c = comparator.compare( a.head, b.head );
+				return c != 0 ? c : Integer.compare( a.index, b.index );
+			} );
+			try
+			{
+				for ( Path run : runs )
+				{
+					RunReader reader = new RunReader( run, readers.size() );
+					readers.add( reader );
+					if ( reader.advance() )
+					{
+						queue.add( reader );
+					}
+				}
+			}
+			catch ( IOException | RuntimeException e )
+			{
+				close();
+				throw e;
+			}
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public R next()
+		{
+			RunReader reader = queue.poll();
+			if ( reader == null )
+			{
+				throw new NoSuchElementException();
+			}
+			R row = reader.head;
+			try
+			{
+				if ( reader.advance() )
+				{
+					queue.add( reader );
+				}
+			}
+			catch ( IOException e )
+			{
+				throw new UncheckedIOException( e );
+			}
+			return row;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			for ( RunReader reader : readers )
+			{
+				reader.in.close();
+			}
+		}
+	}
+
+	class RunReader
+	{
+		final DataInputStream in;
+		final int index;
+		R head;
+
+		RunReader( Path file, int index )
+		throws IOException
+		{
+			this.in = new DataInputStream( new BufferedInputStream( Files.newInputStream( file ), BUFFER_SIZE ) );
+			this.index = index;
+		}
+
+		boolean advance()
+		throws IOException
+		{
+			try
+			{
+				if ( !in.readBoolean() )
+				{
+					head = null;
+					return false;
+				}
+			}
+			catch ( EOFException e )
+			{
+				throw new IOException( "truncated run file", e );
+			}
+			head = codec.decode( in );
+			return true;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+/**
+ * HyperLogLog distinct-count sketch
+ *
+ * 2^precision one-byte registers; the standard error is about 1.04 / sqrt(2^precision), i.e. 1.6% at the
+ * default precision of 12 (4K of registers). Values are hashed from their hashCode(), so values that are equal
+ * count once. Small counts use linear counting. Not thread-safe.
+ *
+ * @author jgenoese
+ */
+public class HyperLogLog
+{
+	public static final int DEFAULT_PRECISION = 12;
+
+	final int precision;
+	final byte[] registers;
+
+	public HyperLogLog()
+	{
+		this( DEFAULT_PRECISION );
+	}
+
+	/**
+	 * @param precision 4 to 18: log2 of the number of registers
+	 */
+	public HyperLogLog( int precision )
+	{
+		if ( precision < 4 || precision > 18 )
+		{
+			throw new IllegalArgumentException( "precision must be 4 to 18: " + precision );
+		}
+		this.precision = precision;
+		this.registers = new byte[ 1 << precision ];
+	}
+
+	public void add( Object value )
+	{
+		addHash( mix( value == null ? 0 : value.hashCode() ) );
+	}
+
+	public void addLong( long value )
+	{
+		addHash( mix( value ) );
+	}
+
+	void addHash( long hash )
+	{
+		int index = (int)(hash >>> (64 - precision));
+		int rank = Long.numberOfLeadingZeros( (hash << precision) | (1L << (precision - 1)) ) + 1;
+		if ( rank > registers[ index ] )
+		{
+			registers[ index ] = (byte)rank;
+		}
+	}
+
+	/**
+	 * Fold <i>other</i>, of the same precision, into this sketch: the result counts the union
+	 */
+	public void merge( HyperLogLog other )
+	{
+		if ( other.precision != precision )
+		{
+			throw new IllegalArgumentException( "precision " + other.precision + " is not " + precision );
+		}
+		for ( int i = 0; i < registers.length; i++ )
+		{
+			if ( other.registers[ i ] > registers[ i ] )
+			{
+				registers[ i ] = other.registers[ i ];
+			}
+		}
+	}
+
+	/**
+	 * @return estimated number of distinct values added
+	 */
+	public long estimate()
+	{
+		int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for ( byte register : registers )
+		{
+			sum += 1.0 / (1L << register);
+			if ( register == 0 )
+			{
+				zeros++;
+			}
+		}
+		double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+		if ( estimate <= 2.5 * m && zeros > 0 )
+		{
+			estimate = m * Math.log( (double)m / zeros );
+		}
+		return Math.round( estimate );
+	}
+
+	/*
+	 * MurmurHash3 finalizer: spreads hashCode()s that differ in few bits over all 64
+	 */
+	static long mix( long h )
+	{
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.io.IOException ;
+import java.io.UncheckedIOException ;
+import java.util.ArrayList ;
+import java.util.Iterator ;
+import java.util.LinkedHashMap ;
+import java.util.List ;
+import java.util.Map ;
+
+import com.fasterxml.jackson.core.JsonFactory ;
+import com.fasterxml.jackson.core.JsonParser ;
+import com.fasterxml.jackson.core.JsonToken ;
+
+/**
+ * Root of a lazily rehydrated name/value tree
+ *
+ * Holds the serialized dehydrated instance and, per outmost category value, the byte range of that node in it.
+ * Opening reads the specs and the root's own fields and skips over each node; a node is parsed the first time a
+ * query descends into it, and kept in an LRU cache bounded by the serialized size of the nodes it holds.
+ *
+ * @author jgenoese
+ */
+@SuppressWarnings( { "rawtypes", "unchecked" } )
+class LazyNameValueRoot
+{
+	final Nester<?> nester;
+	final byte[] document;
+	final JsonFactory factory;
+	final long cacheBytes;
+	final Map<String, Object> meta = new LinkedHashMap<>(); // top-level entries other than the root
+	final Map<String, Object> rootFields = new LinkedHashMap<>(); // the collection entry is a placeholder
+	final Map<Object, Object> nodes = new LinkedHashMap<>(); // category value -> Range, or the value itself when plain
+	final LinkedHashMap<Object, Object> cache = new LinkedHashMap<>( 16, 0.75f, true );
+	List<Map<String, String>> specs;
+	String collectionLabel;
+	long cachedBytes;
+
+	static class Range
+	{
+		final int from;
+		final int length;
+
+		Range( int from, int length )
+		{
+			this.from = from;
+			this.length = length;
+		}
+	}
+
+	LazyNameValueRoot( Nester<?> nester, byte[] document, JsonFactory factory, long cacheBytes )
+	{
+		this.nester = nester;
+		this.document = document;
+		this.factory = factory;
+		this.cacheBytes = cacheBytes;
+	}
+
+	/**
+	 * Single pass over the document. The specs must come before the root, as getDehydratedInstance() puts them.
+	 */
+	void scan()
+	throws IOException
+	{
+		try ( JsonParser parser = factory.createParser( document ) )
+		{
+			if ( parser.nextToken() != JsonToken.START_OBJECT )
+			{
+				throw new IllegalArgumentException( "invalid dehydrated instance" );
+			}
+			while ( parser.nextToken() == JsonToken.FIELD_NAME )
+			{
+				String name = parser.getCurrentName();
+				parser.nextToken();
+				if ( "root".equals( name ) )
+				{
+					if ( specs == null || specs.isEmpty() )
+					{
+						throw new IllegalArgumentException( "invalid dehydrated instance: specs must precede root" );
+					}
+					scanRoot( parser );
+				}
+				else
+				{
+					Object value = readValue( parser );
+					meta.put( name, value );
+					if ( "specs".equals( name ) )
+					{
+						specs = (List<Map<String, String>>)value;
+					}
+				}
+			}
+		}
+		if ( specs == null || collectionLabel == null )
+		{
+			throw new IllegalArgumentException( "invalid dehydrated instance" );
+		}
+	}
+
+	void scanRoot( JsonParser parser )
+	throws IOException
+	{
+		collectionLabel = specs.get( 0 ).get( "collectionLabel" );
+		String keyField = specs.get( 0 ).get( "renderedCategoryFieldName" );
+		while ( parser.nextToken() == JsonToken.FIELD_NAME )
+		{
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if ( !name.equals( collectionLabel ) || token != JsonToken.START_ARRAY )
+			{
+				rootFields.put( name, readValue( parser ) );
+				continue;
+			}
+			rootFields.put( name, null );
+			while ( (token = parser.nextToken()) != JsonToken.END_ARRAY )
+			{
+				if ( token != JsonToken.START_OBJECT )
+				{
+					Object value = scalar( parser );
+					nodes.put( value, value );
+					continue;
+				}
+				long from = parser.getTokenLocation().getByteOffset();
+				Object key = null;
+				while ( parser.nextToken() == JsonToken.FIELD_NAME )
+				{
+					boolean isKey = keyField.equals( parser.getCurrentName() );
+					parser.nextToken();
+					if ( isKey )
+					{
+						key = scalar( parser );
+					}
+					else
+					{
+						parser.skipChildren();
+					}
+				}
+				long to = parser.getCurrentLocation().getByteOffset();
+				if ( from < 0 || to < 0 )
+				{
+					throw new IllegalArgumentException( "parser does not report byte offsets" );
+				}
+				nodes.put( key, new Range( (int)from, (int)(to - from) ) );
+			}
+		}
+	}
+
+	/**
+	 * Value at the parser's current token as ObjectMapper would read it into Maps and Lists, so keys and values
+	 * match those of an eagerly rehydrated tree
+	 */
+	static Object readValue( JsonParser parser )
+	throws IOException
+	{
+		switch ( parser.currentToken() )
+		{
+			case START_OBJECT:
+			{
+				Map<String, Object> map = new LinkedHashMap<>();
+				while ( parser.nextToken() == JsonToken.FIELD_NAME )
+				{
+					String name = parser.getCurrentName();
+					parser.nextToken();
+					map.put( name, readValue( parser ) );
+				}
+				return map;
+			}
+			case START_ARRAY:
+			{
+				List<Object> list = new ArrayList<>();
+				while ( parser.nextToken() != JsonToken.END_ARRAY )
+				{
+					list.add( readValue( parser ) );
+				}
+				return list;
+			}
+			default:
+				return scalar( parser );
+		}
+	}
+
+	static Object scalar( JsonParser parser )
+	throws IOException
+	{
+		switch ( parser.currentToken() )
+		{
+			case VALUE_STRING:
+				return parser.getText();
+			case VALUE_NUMBER_INT:
+				return parser.getNumberValue();
+			case VALUE_NUMBER_FLOAT:
+				return parser.getDoubleValue();
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case VALUE_NULL:
+				return null;
+			default:
+				return parser.getEmbeddedObject();
+		}
+	}
+
+	/**
+	 * Same as NavHelper.get() on the root: the NavHelper of the outmost node with category value <i>key</i> or,
+	 * when the outmost level is the inmost, the node itself
+	 */
+	synchronized Object get( Object key )
+	{
+		Object entry = nodes.get( key );
+		if ( !(entry instanceof Range) )
+		{
+			return entry;
+		}
+		Object result = cache.get( key );
+		if ( result != null )
+		{
+			return result;
+		}
+		Range range = (Range)entry;
+		Map node = parse( range );
+		result = nester.inmostLevel == 0 ? node : nester.new NavHelper( 1, key, node, false );
+		cache.put( key, result );
+		cachedBytes += range.length;
+		Iterator<Map.Entry<Object, Object>> eldest = cache.entrySet().iterator();
+		while ( cachedBytes > cacheBytes && cache.size() > 1 )
+		{
+			Object evicted = eldest.next().getKey();
+			eldest.remove();
+			cachedBytes -= ((Range)nodes.get( evicted )).length;
+		}
+		return result;
+	}
+
+	Map parse( Range range )
+	{
+		try ( JsonParser parser = factory.createParser( document, range.from, range.length ) )
+		{
+			parser.nextToken();
+			return (Map)readValue( parser );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	/**
+	 * The whole root, every node parsed; cached nodes are reused but nothing is added to the cache
+	 */
+	synchronized Map materialize()
+	{
+		Map<String, Object> root = new LinkedHashMap<>( rootFields );
+		List<Object> collection = new ArrayList<>( nodes.size() );
+		for ( Map.Entry<Object, Object> entry : nodes.entrySet() )
+		{
+			if ( !(entry.getValue() instanceof Range) )
+			{
+				collection.add( entry.getValue() );
+				continue;
+			}
+			Object cached = cache.get( entry.getKey() );
+			if ( cached != null )
+			{
+				collection.add( cached instanceof Nester.NavHelper ? ((Nester.NavHelper)cached).node : cached );
+			}
+			else
+			{
+				collection.add( parse( (Range)entry.getValue() ) );
+			}
+		}
+		root.put( collectionLabel, collection );
+		return root;
+	}
+
+	synchronized int cachedNodes()
+	{
+		return cache.size();
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.util.AbstractList ;
+import java.util.AbstractMap ;
+import java.util.AbstractSet ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.NoSuchElementException ;
+import java.util.RandomAccess ;
+import java.util.Set ;
+
+/**
+ * Read-only nest() result stored by level
+ *
+ * Nodes are numbered per level, grouped by parent: the children of node j of level i are the nodes
+ * [getChildFrom(i, j), getChildTo(i, j)) of level i + 1 or, at the inmost level, those details. Subclasses
+ * decide where keys, offsets and details live (CompactTree: on-heap arrays, OffHeapTree: outside the heap);
+ * navigation by path and the Map view are common to both.
+ *
+ * @author jgenoese
+ */
+public abstract class LevelTree
+{
+	/**
+	 * @return number of category levels
+	 */
+	public abstract int getDepth();
+
+	/**
+	 * @return number of category values at <i>level</i>, across all parents
+	 */
+	public abstract int size( int level );
+
+	public abstract Object getKey( int level, int node );
+
+	/**
+	 * First child of <i>node</i>: a node of <i>level</i> + 1 or, at the inmost level, a detail index
+	 */
+	public abstract int getChildFrom( int level, int node );
+
+	/**
+	 * End (exclusive) of the children of <i>node</i>
+	 */
+	public abstract int getChildTo( int level, int node );
+
+	public abstract Object getDetail( int index );
+
+	/**
+	 * @return Aggregates of <i>node</i>, or null when there are none
+	 */
+	public abstract Aggregates<?> getAggregates( int level, int node );
+
+	/**
+	 * @param level category level of <i>key</i>
+	 * @param parent node of <i>level</i> - 1 to look under; ignored at level 0
+	 * @param key category value
+	 * @return node of <i>level</i>, or -1 if <i>parent</i> has no such child
+	 */
+	public abstract int find( int level, int parent, Object key );
+
+	/**
+	 * @param path category values, outmost first
+	 * @return node of level path.length - 1, or -1 if the path does not exist
+	 */
+	public int findPath( Object... path )
+	{
+		if ( path.length == 0 || path.length > getDepth() )
+		{
+			throw new IllegalArgumentException( "path must have 1 to " + getDepth() + " category values" );
+		}
+		int node = -1;
+		for ( int level = 0; level < path.length; level++ )
+		{
+			node = find( level, node, path[ level ] );
+			if ( node < 0 )
+			{
+				return -1;
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * @return the details of the node at <i>path</i> (a full category path), or null if there is none
+	 */
+	public List<Object> getDetails( Object... path )
+	{
+		if ( path.length != getDepth() )
+		{
+			throw new IllegalArgumentException( "path must have " + getDepth() + " category values" );
+		}
+		int node = findPath( path );
+		return node < 0 ? null : new DetailList( node );
+	}
+
+	/**
+	 * Same as Nester.query() on a name/value tree, over the nest() structure: the Map of children (or,
+	 * for a full path, the List of details) under a partial path
+	 * @param path category values, outmost first; none for the root
+	 * @return read-only Map or List view, or null if the path does not exist
+	 */
+	public Object query( Object... path )
+	{
+		if ( path == null || path.length == 0 )
+		{
+			return asMap();
+		}
+		int node = findPath( path );
+		return node < 0 ? null : value( path.length - 1, node );
+	}
+
+	/**
+	 * @return read-only view with the structure of the nest() result. Keys and details are read through
+	 * the getters on every access; nothing is cached.
+	 */
+	public Map<Object, Object> asMap()
+	{
+		return new NodeMap( 0, -1 );
+	}
+
+	Object value( int level, int node )
+	{
+		return level == getDepth() - 1 ? new DetailList( node ) : new NodeMap( level + 1, node );
+	}
+
+	/**
+	 * Children of one node (or the root) as a Map
+	 */
+	class NodeMap
+	extends AbstractMap<Object, Object>
+	implements Aggregates.Holder
+	{
+		final int level;
+		final int parent;
+		final int from;
+		final int to;
+
+		NodeMap( int level, int parent )
+		{
+			this.level = level;
+			this.parent = parent;
+			this.from = level == 0 ? 0 : getChildFrom( level - 1, parent );
+			this.to = level == 0 ? LevelTree.this.size( 0 ) : getChildTo( level - 1, parent );
+		}
+
+		@Override
+		public int size()
+		{
+			return to - from;
+		}
+
+		@Override
+		public Object get( Object key )
+		{
+			int node = find( level, parent, key );
+			return node < 0 ? null : value( level, node );
+		}
+
+		@Override
+		public boolean containsKey( Object key )
+		{
+			return find( level, parent, key ) >= 0;
+		}
+
+		@Override
+		public Aggregates<?> getAggregates()
+		{
+			return level == 0 ? null : LevelTree.this.getAggregates( level - 1, parent );
+		}
+
+		@Override
+		public Set<Map.Entry<Object, Object>> entrySet()
+		{
+			return new AbstractSet<Map.Entry<Object, Object>>()
+			{
+				@Override
+				public int size()
+				{
+					return to - from;
+				}
+
+				@Override
+				public Iterator<Map.Entry<Object, Object>> iterator()
+				{
+					return new Iterator<Map.Entry<Object, Object>>()
+					{
+						int next = from;
+
+						@Override
+						public boolean hasNext()
+						{
+							return next < to;
+						}
+
+						@Override
+						public Map.Entry<Object, Object> next()
+						{
+							if ( next >= to )
+							{
+								throw new NoSuchElementException();
+							}
+							int node = next++;
+							return new AbstractMap.SimpleImmutableEntry<>( getKey( level, node ), value( level, node ) );
+						}
+					};
+				}
+			};
+		}
+	}
+
+	/**
+	 * Details of one inmost node as a List
+	 */
+	class DetailList
+	extends AbstractList<Object>
+	implements Aggregates.Holder, RandomAccess
+	{
+		final int node;
+		final int from;
+		final int to;
+
+		DetailList( int node )
+		{
+			this.node = node;
+			this.from = getChildFrom( getDepth() - 1, node );
+			this.to = getChildTo( getDepth() - 1, node );
+		}
+
+		@Override
+		public Object get( int index )
+		{
+			if ( index < 0 || index >= to - from )
+			{
+				throw new IndexOutOfBoundsException( "index " + index + ", size " + (to - from) );
+			}
+			return getDetail( from + index );
+		}
+
+		@Override
+		public int size()
+		{
+			return to - from;
+		}
+
+		@Override
+		public Aggregates<?> getAggregates()
+		{
+			return LevelTree.this.getAggregates( getDepth() - 1, node );
+		}
+	}
+}
@@ -0,0 +1,479 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.util.AbstractMap ;
+import java.util.AbstractSet ;
+import java.util.Arrays ;
+import java.util.ConcurrentModificationException ;
+import java.util.Iterator ;
+import java.util.Map ;
+import java.util.NoSuchElementException ;
+import java.util.Objects ;
+import java.util.Set ;
+
+/**
+ * Insertion-ordered Map with integral keys held as primitive longs
+ *
+ * Container for primitive category levels (see CategoryDescriptor.withPrimitiveKeys()). Keys and values are kept in
+ * insertion order in parallel arrays and located through an open-addressing table of indexes, so getLong() and
+ * putLong() neither box nor call equals()/hashCode(). Through the Map interface it behaves like the 
+ * LinkedHashMap it replaces: keys are boxed (to the declared key type) only when iterated, and any integral 
+ * Number is accepted by get()/containsKey()/remove().
+ * <br/>
+ * Removal leaves a hole in the arrays, skipped when iterating, and closes the gap in the table by shifting the
+ * following entries of the probe run back, so it costs about as much as a put(). The holes are squeezed out 
+ * when the arrays fill. Nesting removes when flushing subtrees, and when deleting rows.
+ * <br/>
+ * Keyed through a CategoryDictionary, the longs are dictionary codes: keys are decoded to their canonical values
+ * when iterated, and get()/containsKey()/remove() take values and look up their codes.
+ *
+ * @author jgenoese
+ *
+ * @param <V> value type
+ */
+public class LongKeyedMap<V>
+extends AbstractMap<Object, V>
+{
+	final Class<?> keyType;
+	final CategoryDictionary dictionary; // null: keys are the integral values themselves
+	long[] keys;
+	Object[] values;
+	boolean[] removed; // holes in keys/values; null until the first removal
+	int used; // keys/values in use, holes included
+	int size;
+	int[] slots; // index + 1 into keys/values; 0 is empty
+	int mask;
+	int modCount;
+
+	/**
+	 * @param keyType declared key type: long, int, short or byte; keys are boxed to it when iterated
+	 */
+	public LongKeyedMap( Class<?> keyType )
+	{
+		this( keyType, 8 );
+	}
+
+	/**
+	 * @param keyType declared key type: long, int, short or byte; keys are boxed to it when iterated
+	 * @param expectedSize number of keys to size the table for
+	 */
+	public LongKeyedMap( Class<?> keyType, int expectedSize )
+	{
+		this( keyType, null, expectedSize );
+		if ( !ValueGetter.isIntegral( keyType ) )
+		{
+			throw new IllegalArgumentException( keyType + " is not an integral primitive type" );
+		}
+	}
+
+	/**
+	 * @param dictionary dictionary whose codes are the keys
+	 */
+	public LongKeyedMap( CategoryDictionary dictionary )
+	{
+		this( int.class, dictionary, 8 );
+	}
+
+	/**
+	 * @param dictionary dictionary whose codes are the keys
+	 * @param expectedSize number of keys to size the table for
+	 */
+	public LongKeyedMap( CategoryDictionary dictionary, int expectedSize )
+	{
+		this( int.class, dictionary, expectedSize );
+	}
+
+	LongKeyedMap( Class<?> keyType, CategoryDictionary dictionary, int expectedSize )
+	{
+		this.keyType = keyType;
+		this.dictionary = dictionary;
+		int capacity = Math.max( 4, expectedSize );
+		keys = new long[ capacity ];
+		values = new Object[ capacity ];
+		slots = new int[ tableSize( capacity ) ];
+		mask = slots.length - 1;
+	}
+
+	/**
+	 * Box <i>value</i> as <i>type</i> (long, int, short or byte)
+	 */
+	public static Object box( Class<?> type, long value )
+	{
+		if ( type == int.class )
+		{
+			return Integer.valueOf( (int)value );
+		}
+		if ( type == short.class )
+		{
+			return Short.valueOf( (short)value );
+		}
+		if ( type == byte.class )
+		{
+			return Byte.valueOf( (byte)value );
+		}
+		return Long.valueOf( value );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	public V getLong( long key )
+	{
+		int index = indexOf( key );
+		return index < 0 ? null : (V)values[ index ];
+	}
+
+	public boolean containsLong( long key )
+	{
+		return indexOf( key ) >= 0;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	public V putLong( long key, V value )
+	{
+		int slot = slotOf( key );
+		if ( slots[ slot ] != 0 )
+		{
+			int index = slots[ slot ] - 1;
+			V old = (V)values[ index ];
+			values[ index ] = value;
+			return old;
+		}
+		if ( used == keys.length )
+		{
+			grow();
+			slot = slotOf( key );
+		}
+		keys[ used ] = key;
+		values[ used ] = value;
+		slots[ slot ] = ++used;
+		size++;
+		modCount++;
+		return null;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	public V removeLong( long key )
+	{
+		int index = indexOf( key );
+		if ( index < 0 )
+		{
+			return null;
+		}
+		V old = (V)values[ index ];
+		removeAt( index );
+		return old;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public V get( Object key )
+	{
+		if ( dictionary != null )
+		{
+			return getLong( dictionary.lookup( key ) );
+		}
+		return isIntegralKey( key ) ? getLong( ((Number)key).longValue() ) : null;
+	}
+
+	@Override
+	public boolean containsKey( Object key )
+	{
+		if ( dictionary != null )
+		{
+			return containsLong( dictionary.lookup( key ) );
+		}
+		return isIntegralKey( key ) && containsLong( ((Number)key).longValue() );
+	}
+
+	@Override
+	public V put( Object key, V value )
+	{
+		if ( dictionary != null )
+		{
+			return putLong( dictionary.code( key ), value );
+		}
+		if ( !isIntegralKey( key ) )
+		{
+			throw new IllegalArgumentException( "key " + key + " is not an integral number" );
+		}
+		return putLong( ((Number)key).longValue(), value );
+	}
+
+	@Override
+	public V remove( Object key )
+	{
+		if ( dictionary != null )
+		{
+			return removeLong( dictionary.lookup( key ) );
+		}
+		return isIntegralKey( key ) ? removeLong( ((Number)key).longValue() ) : null;
+	}
+
+	@Override
+	public void clear()
+	{
+		Arrays.fill( values, 0, used, null );
+		Arrays.fill( slots, 0 );
+		removed = null;
+		used = 0;
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public Set<Map.Entry<Object, V>> entrySet()
+	{
+		return new AbstractSet<Map.Entry<Object, V>>()
+		{
+			@Override
+			public int size()
+			{
+				return size;
+			}
+
+			@Override
+			public Iterator<Map.Entry<Object, V>> iterator()
+			{
+				return new EntryIterator();
+			}
+		};
+	}
+
+	static boolean isIntegralKey( Object key )
+	{
+		return key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte;
+	}
+
+	static int tableSize( int capacity )
+	{
+		return Integer.highestOneBit( capacity * 2 - 1 ) << 1; // load factor at most 1/2
+	}
+
+	int homeSlot( long key )
+	{
+		int h = (int)(key ^ (key >>> 32)) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	int slotOf( long key )
+	{
+		int slot = homeSlot( key );
+		while ( slots[ slot ] != 0 && keys[ slots[ slot ] - 1 ] != key )
+		{
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	int indexOf( long key )
+	{
+		return slots[ slotOf( key ) ] - 1;
+	}
+
+	/*
+	 * Make room for one more key: squeeze out the holes, doubling the arrays unless that frees at least half
+	 */
+	void grow()
+	{
+		int capacity = size < keys.length / 2 ? keys.length : keys.length * 2;
+		if ( size < used )
+		{
+			long[] liveKeys = new long[ capacity ];
+			Object[] liveValues = new Object[ capacity ];
+			int live = 0;
+			for ( int i = 0; i < used; i++ )
+			{
+				if ( !removed[ i ] )
+				{
+					liveKeys[ live ] = keys[ i ];
+					liveValues[ live++ ] = values[ i ];
+				}
+			}
+			keys = liveKeys;
+			values = liveValues;
+			used = size;
+		}
+		else
+		{
+			keys = Arrays.copyOf( keys, capacity );
+			values = Arrays.copyOf( values, capacity );
+		}
+		removed = null;
+		rehash( tableSize( capacity ) );
+	}
+
+	void rehash( int tableSize )
+	{
+		slots = new int[ tableSize ];
+		mask = tableSize - 1;
+		for ( int i = 0; i < used; i++ )
+		{
+			slots[ slotOf( keys[ i ] ) ] = i + 1;
+		}
+	}
+
+	boolean isRemoved( int index )
+	{
+		return removed != null && removed[ index ];
+	}
+
+	void removeAt( int index )
+	{
+		int hole = slotOf( keys[ index ] );
+		/*
+		 * Backward shift: move each following entry of the probe run whose home slot is not between the hole 
+		 * and itself back into the hole, so lookups never need tombstones in the table
+		 */
+		for ( int next = (hole + 1) & mask; slots[ next ] != 0; next = (next + 1) & mask )
+		{
+			int home = homeSlot( keys[ slots[ next ] - 1 ] );
+			if ( ((next - home) & mask) >= ((next - hole) & mask) )
+			{
+				slots[ hole ] = slots[ next ];
+				hole = next;
+			}
+		}
+		slots[ hole ] = 0;
+		values[ index ] = null;
+		if ( index == used - 1 )
+		{
+			used--;
+		}
+		else
+		{
+			if ( removed == null )
+			{
+				removed = new boolean[ keys.length ];
+			}
+			removed[ index ] = true;
+		}
+		size--;
+		modCount++;
+	}
+
+	class EntryIterator
+	implements Iterator<Map.Entry<Object, V>>
+	{
+		int next;
+		int last = -1;
+		int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext()
+		{
+			while ( next < used && isRemoved( next ) )
+			{
+				next++;
+			}
+			return next < used;
+		}
+
+		@Override
+		public Map.Entry<Object, V> next()
+		{
+			if ( modCount != expectedModCount )
+			{
+				throw new ConcurrentModificationException();
+			}
+			if ( !hasNext() )
+			{
+				throw new NoSuchElementException();
+			}
+			last = next++;
+			return new Entry( last );
+		}
+
+		@Override
+		public void remove()
+		{
+			if ( last < 0 )
+			{
+				throw new IllegalStateException();
+			}
+			if ( modCount != expectedModCount )
+			{
+				throw new ConcurrentModificationException();
+			}
+			removeAt( last );
+			last = -1;
+			expectedModCount = modCount;
+		}
+	}
+
+	class Entry
+	implements Map.Entry<Object, V>
+	{
+		final int index;
+		final long key;
+
+		Entry( int index )
+		{
+			this.index = index;
+			this.key = keys[ index ];
+		}
+
+		@Override
+		public Object getKey()
+		{
+			return dictionary != null ? dictionary.value( (int)key ) : box( keyType, key );
+		}
+
+		@SuppressWarnings( "unchecked" )
+		@Override
+		public V getValue()
+		{
+			return (V)values[ index ];
+		}
+
+		@SuppressWarnings( "unchecked" )
+		@Override
+		public V setValue( V value )
+		{
+			V old = (V)values[ index ];
+			values[ index ] = value;
+			return old;
+		}
+
+		@Override
+		public boolean equals( Object o )
+		{
+			if ( !(o instanceof Map.Entry) )
+			{
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+			return Objects.equals( getKey(), e.getKey() ) && Objects.equals( getValue(), e.getValue() );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return getKey().hashCode() ^ Objects.hashCode( getValue() );
+		}
+
+		@Override
+		public String toString()
+		{
+			return getKey() + "=" + getValue();
+		}
+	}
+}
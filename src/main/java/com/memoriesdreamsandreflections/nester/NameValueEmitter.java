@@ -0,0 +1,333 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.io.IOException ;
+import java.util.Arrays ;
+import java.util.Collection ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.Objects ;
+import java.util.function.Function ;
+
+import com.fasterxml.jackson.core.JsonGenerator ;
+
+/**
+ * Streaming name/value emitter
+ *
+ * Writes the same structure nameValueNest() builds, directly to a Jackson JsonGenerator (JSON, Smile, ...)
+ * while the rows are scanned. No intermediate Maps are built, so output starts with the first row and
+ * memory use does not grow with the result.
+ * <br/>
+ * Rows <b>must</b> arrive ordered by the category path, as for Nester.ordered(). Rows are pushed with
+ * row(); start() and finish() bracket the document.
+ *
+ * @author jgenoese
+ */
+@SuppressWarnings( { "rawtypes" } )
+public class NameValueEmitter<R>
+{
+	List<CategoryDescriptor<R>> categoryDescriptors;
+	JsonGenerator generator;
+	int inmostLevel;
+	Object[] openValues;
+	int openDepth;
+	Object[] categoryValues;
+	Aggregates<R>[] aggregates; // of the open node at each level; reset when a node opens
+	Object[] rollups; // mapped rollup row of the open node at each level, written when it closes
+	Object[][] pendingPaths; // path of a rollup row that arrived before its node opened, at each level
+	Object[] pendingRollups; // its mapped rollup row
+	Object globalRollup;
+	String globalRollupLabel;
+	Function<R, Map<String, Object>> globalRollupValueMappingFunction;
+
+	@SuppressWarnings( "unchecked" )
+	NameValueEmitter( List<CategoryDescriptor<R>> categoryDescriptors, JsonGenerator generator )
+	{
+		this.categoryDescriptors = categoryDescriptors;
+		this.generator = generator;
+		this.inmostLevel = categoryDescriptors.size() - 1;
+		this.openValues = new Object[ categoryDescriptors.size() ];
+		this.categoryValues = new Object[ categoryDescriptors.size() ];
+		this.aggregates = new Aggregates[ categoryDescriptors.size() ];
+		this.rollups = new Object[ categoryDescriptors.size() ];
+		this.pendingPaths = new Object[ categoryDescriptors.size() ][];
+		this.pendingRollups = new Object[ categoryDescriptors.size() ];
+		for ( int i = 0; i < aggregates.length; i++ )
+		{
+			aggregates[ i ] = categoryDescriptors.get( i ).newAggregates();
+		}
+	}
+
+	public void start() throws IOException
+	{
+		generator.writeStartObject();
+		generator.writeFieldName( categoryDescriptors.get( 0 ).getCollectionLabel() );
+		generator.writeStartArray();
+		openDepth = 0;
+		globalRollup = null;
+	}
+
+	/**
+	 * Emit one row. As with nameValueNest(), category levels below the first null category value are ignored,
+	 * and the row is a rollup of the last non-null level: it is written, mapped, when that node closes, and it
+	 * is not accumulated into any aggregates. A rollup row opens no nodes; one that arrives before its node
+	 * is held until the node opens, and is dropped if another path opens instead.
+	 * @param row next row in category path order
+	 * @throws IOException
+	 */
+	public void row( R row ) throws IOException
+	{
+		int depth = 0;
+		while ( depth <= inmostLevel )
+		{
+			categoryValues[ depth ] = categoryDescriptors.get( depth ).getCategoryGetter().get( row );
+			if ( categoryValues[ depth ] == null )
+			{
+				break;
+			}
+			depth++;
+		}
+
+		int breakLevel = 0;
+		while ( breakLevel < depth && breakLevel < openDepth && Objects.equals( categoryValues[ breakLevel ], openValues[ breakLevel ] ) )
+		{
+			breakLevel++;
+		}
+
+		if ( depth <= inmostLevel )
+		{
+			rollup( depth, breakLevel == depth, row );
+			return;
+		}
+		if ( breakLevel == depth )
+		{
+			if ( depth == inmostLevel + 1 && openDepth == depth )
+			{
+				CategoryDescriptor<R> inmost = categoryDescriptors.get( inmostLevel );
+				if ( inmost.categoryRequiresListOfMaps() && inmost.getDetailCollectionLabel() != null )
+				{
+					writeValue( inmost.mapDetail( row ) );
+				}
+			}
+		}
+		else
+		{
+			while ( openDepth > breakLevel )
+			{
+				closeNode( --openDepth );
+			}
+			while ( openDepth < depth )
+			{
+				openNode( openDepth, row );
+				openValues[ openDepth ] = categoryValues[ openDepth ];
+				openDepth++;
+			}
+		}
+		accumulate( row );
+	}
+
+	/*
+	 * Rollup of the node at the path of the first depth category values: attached when that node is open, 
+	 * otherwise held until it opens
+	 */
+	void rollup( int depth, boolean open, R row )
+	{
+		if ( depth == 0 )
+		{
+			if ( globalRollupValueMappingFunction != null )
+			{
+				globalRollup = globalRollupValueMappingFunction.apply( row );
+			}
+			return;
+		}
+		int level = depth - 1;
+		if ( !categoryDescriptors.get( level ).hasRollups() )
+		{
+			return;
+		}
+		if ( open )
+		{
+			rollups[ level ] = categoryDescriptors.get( level ).mapRollup( row );
+		}
+		else
+		{
+			pendingPaths[ level ] = Arrays.copyOf( categoryValues, depth );
+			pendingRollups[ level ] = categoryDescriptors.get( level ).mapRollup( row );
+		}
+	}
+
+	/*
+	 * Aggregates are written when their node closes, so they accumulate here, one detail row at a time; 
+	 * rollup rows are not accumulated
+	 */
+	void accumulate( R row )
+	{
+		for ( int level = 0; level <= inmostLevel; level++ )
+		{
+			if ( aggregates[ level ] != null )
+			{
+				aggregates[ level ].accumulate( row );
+			}
+		}
+	}
+
+	public void finish() throws IOException
+	{
+		while ( openDepth > 0 )
+		{
+			closeNode( --openDepth );
+		}
+		generator.writeEndArray();
+		if ( globalRollup != null )
+		{
+			generator.writeFieldName( globalRollupLabel );
+			writeValue( globalRollup );
+		}
+		generator.writeEndObject();
+		generator.flush();
+	}
+
+	void openNode( int level, R row ) throws IOException
+	{
+		CategoryDescriptor<R> desc = categoryDescriptors.get( level );
+		if ( level == inmostLevel && !desc.categoryRequiresListOfMaps() )
+		{
+			writeValue( categoryValues[ level ] );
+			return;
+		}
+		if ( aggregates[ level ] != null )
+		{
+			aggregates[ level ].reset();
+		}
+		if ( pendingPaths[ level ] != null )
+		{
+			if ( Arrays.equals( pendingPaths[ level ], 0, level + 1, categoryValues, 0, level + 1 ) )
+			{
+				rollups[ level ] = pendingRollups[ level ];
+			}
+			pendingPaths[ level ] = null;
+			pendingRollups[ level ] = null;
+		}
+		generator.writeStartObject();
+		writeCatAndAncFields( desc, row, categoryValues[ level ] );
+		if ( level != inmostLevel )
+		{
+			generator.writeFieldName( categoryDescriptors.get( level + 1 ).getCollectionLabel() );
+			generator.writeStartArray();
+		}
+		else if ( desc.getDetailCollectionLabel() != null )
+		{
+			generator.writeFieldName( desc.getDetailCollectionLabel() );
+			generator.writeStartArray();
+			writeValue( desc.mapDetail( row ) );
+		}
+	}
+
+	void closeNode( int level ) throws IOException
+	{
+		CategoryDescriptor<R> desc = categoryDescriptors.get( level );
+		if ( level == inmostLevel )
+		{
+			if ( !desc.categoryRequiresListOfMaps() )
+			{
+				return;
+			}
+			if ( desc.getDetailCollectionLabel() != null )
+			{
+				generator.writeEndArray();
+			}
+		}
+		else
+		{
+			generator.writeEndArray();
+		}
+		if ( aggregates[ level ] != null )
+		{
+			generator.writeFieldName( desc.getAggregatesLabel() );
+			writeValue( aggregates[ level ] );
+		}
+		if ( rollups[ level ] != null )
+		{
+			generator.writeFieldName( desc.getRollupLabel() );
+			writeValue( rollups[ level ] );
+			rollups[ level ] = null;
+		}
+		generator.writeEndObject();
+	}
+
+	/*
+	 * Same fields, in the same order, as CategoryDescriptor.mapCatAndAncFields(), without the Map.
+	 */
+	void writeCatAndAncFields( CategoryDescriptor<R> desc, R row, Object categoryValue ) throws IOException
+	{
+		generator.writeFieldName( desc.renderedCategoryFieldName() );
+		writeValue( categoryValue );
+		if ( desc.hasAncillaryFields )
+		{
+			for ( ValueGetter<R> ancGetter : desc.getAncillaryGetters() )
+			{
+				generator.writeFieldName( ancGetter.getName() );
+				writeValue( ancGetter.get( row ) );
+			}
+		}
+		if ( desc.ancillaryValueMappingFunction != null )
+		{
+			for ( Map.Entry<String, Object> entry : desc.ancillaryValueMappingFunction.apply( row ).entrySet() )
+			{
+				generator.writeFieldName( entry.getKey() );
+				writeValue( entry.getValue() );
+			}
+		}
+	}
+
+	void writeValue( Object value ) throws IOException
+	{
+		if ( value == null )
+		{
+			generator.writeNull();
+		}
+		else if ( value instanceof Map )
+		{
+			generator.writeStartObject();
+			for ( Object o : ((Map)value).entrySet() )
+			{
+				Map.Entry entry = (Map.Entry)o;
+				generator.writeFieldName( String.valueOf( entry.getKey() ) );
+				writeValue( entry.getValue() );
+			}
+			generator.writeEndObject();
+		}
+		else if ( value instanceof Collection )
+		{
+			generator.writeStartArray();
+			for ( Object element : (Collection)value )
+			{
+				writeValue( element );
+			}
+			generator.writeEndArray();
+		}
+		else if ( value instanceof String || value instanceof Number || value instanceof Boolean || generator.getCodec() != null )
+		{
+			generator.writeObject( value );
+		}
+		else
+		{
+			generator.writeString( value.toString() );
+		}
+	}
+}
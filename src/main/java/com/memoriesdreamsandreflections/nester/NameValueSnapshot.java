@@ -0,0 +1,821 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.io.BufferedOutputStream ;
+import java.io.ByteArrayOutputStream ;
+import java.io.Closeable ;
+import java.io.DataOutput ;
+import java.io.DataOutputStream ;
+import java.io.FilterOutputStream ;
+import java.io.IOException ;
+import java.io.OutputStream ;
+import java.io.RandomAccessFile ;
+import java.nio.ByteBuffer ;
+import java.nio.IntBuffer ;
+import java.nio.LongBuffer ;
+import java.nio.channels.FileChannel ;
+import java.nio.charset.StandardCharsets ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.nio.file.StandardOpenOption ;
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.Collection ;
+import java.util.HashMap ;
+import java.util.HashSet ;
+import java.util.LinkedHashMap ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.Set ;
+
+/**
+ * Memory-mappable binary snapshot of a dehydrated name/value tree
+ *
+ * write() stores what getDehydratedInstance() returns in one file; open() maps it and answers query() without
+ * parsing it, so opening costs a few mmap calls whatever the size. The file holds
+ * <ul>
+ * <li> a string dictionary: every distinct String in the tree, sorted, so a String is an int id and ids
+ * compare as the Strings do</li>
+ * <li> per category level: the key of each node as (type, long) blocks, the offsets of each node's children in
+ * the next level, a permutation sorting each node's children by key (a query binary-searches it), and the
+ * position of each node's fields</li>
+ * <li> the fields of each node (category and ancillary fields, details, aggregates, rollups), tagged and
+ * dictionary encoded</li>
+ * <li> the specs and any other top-level entries of the dehydrated instance</li>
+ * </ul>
+ * query() materializes only the node it returns, i.e. that node's subtree, as ordinary Maps and Lists. Numbers
+ * come back as Integer, Long or Double, and values of other types as their toString().
+ *
+ * @author jgenoese
+ */
+@SuppressWarnings( { "rawtypes", "unchecked" } )
+public class NameValueSnapshot
+implements Closeable
+{
+	static final int MAGIC = 0x4E534E50; // "NSNP"
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 16;
+	static final long WINDOW = 1L << 30; // node fields never span a window, so each window is one mapping
+
+	static final byte NULL = 0;
+	static final byte STRING = 1;
+	static final byte INT = 2;
+	static final byte LONG = 3;
+	static final byte DOUBLE = 4;
+	static final byte FALSE = 5;
+	static final byte TRUE = 6;
+	static final byte MAP = 7;
+	static final byte LIST = 8;
+	static final byte CHILDREN = 9; // the node's child collection, stored as the next level
+
+	final FileChannel channel;
+	final Map<String, Object> meta; // dehydrated instance less its root
+	final List<Map<String, String>> specs;
+	final int depth;
+	final int[] counts;
+	final boolean[] plain; // level's nodes are bare category values
+	final ByteBuffer[] keyTags;
+	final LongBuffer[] keyValues;
+	final IntBuffer[] offsets; // levels above the inmost
+	final IntBuffer[] permutations;
+	final LongBuffer[] fieldPositions;
+	final long rootPosition;
+	final int dictionarySize;
+	final IntBuffer dictionaryOffsets;
+	final ByteBuffer dictionaryBytes;
+	final ByteBuffer[] windows;
+
+	/**
+	 * Write <i>dehydrated</i>, as returned by Nester.getDehydratedInstance(), to <i>file</i>
+	 * @param dehydrated specs, root, and any other top-level entries
+	 * @param file created or truncated
+	 * @throws IOException
+	 */
+	public static void write( Map<?, ?> dehydrated, Path file )
+	throws IOException
+	{
+		if ( !(dehydrated.get( "specs" ) instanceof List) || !(dehydrated.get( "root" ) instanceof Map) )
+		{
+			throw new IllegalArgumentException( "invalid dehydrated instance" );
+		}
+		new Writer( dehydrated ).write( file );
+	}
+
+	/**
+	 * Map a snapshot written by write(). Nothing is read beyond the section table.
+	 * @param file snapshot
+	 * @return open snapshot; close() it when done
+	 * @throws IOException
+	 */
+	public static NameValueSnapshot open( Path file )
+	throws IOException
+	{
+		FileChannel channel = FileChannel.open( file, StandardOpenOption.READ );
+		try
+		{
+			return new NameValueSnapshot( channel );
+		}
+		catch ( IOException | RuntimeException e )
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	NameValueSnapshot( FileChannel channel )
+	throws IOException
+	{
+		this.channel = channel;
+		ByteBuffer header = map( 0, HEADER_LENGTH );
+		if ( header.getInt( 0 ) != MAGIC || header.getInt( 4 ) != VERSION )
+		{
+			throw new IOException( "not a name/value snapshot, or an unsupported version" );
+		}
+		long tablePosition = header.getLong( 8 );
+		ByteBuffer table = map( tablePosition, channel.size() - tablePosition );
+
+		long dataStart = table.getLong();
+		long dataLength = table.getLong();
+		windows = new ByteBuffer[ (int)((dataLength + WINDOW - 1) / WINDOW) ];
+		for ( int w = 0; w < windows.length; w++ )
+		{
+			windows[ w ] = map( dataStart + w * WINDOW, Math.min( WINDOW, dataLength - w * WINDOW ) );
+		}
+		long metaPosition = table.getLong();
+		rootPosition = table.getLong();
+
+		dictionarySize = table.getInt();
+		dictionaryOffsets = map( table.getLong(), 4L * (dictionarySize + 1) ).asIntBuffer();
+		dictionaryBytes = map( table.getLong(), dictionaryOffsets.get( dictionarySize ) );
+
+		depth = table.getInt();
+		counts = new int[ depth ];
+		plain = new boolean[ depth ];
+		keyTags = new ByteBuffer[ depth ];
+		keyValues = new LongBuffer[ depth ];
+		offsets = new IntBuffer[ depth ];
+		permutations = new IntBuffer[ depth ];
+		fieldPositions = new LongBuffer[ depth ];
+		for ( int level = 0; level < depth; level++ )
+		{
+			int count = counts[ level ] = table.getInt();
+			plain[ level ] = table.get() != 0;
+			keyTags[ level ] = map( table.getLong(), count );
+			keyValues[ level ] = map( table.getLong(), 8L * count ).asLongBuffer();
+			long offsetsPosition = table.getLong();
+			offsets[ level ] = level == depth - 1 ? null : map( offsetsPosition, 4L * (count + 1) ).asIntBuffer();
+			permutations[ level ] = map( table.getLong(), 4L * count ).asIntBuffer();
+			fieldPositions[ level ] = map( table.getLong(), 8L * count ).asLongBuffer();
+		}
+
+		meta = (Map<String, Object>)readValue( data( metaPosition ), -2, -1 );
+		specs = (List<Map<String, String>>)meta.get( "specs" );
+	}
+
+	ByteBuffer map( long position, long length )
+	throws IOException
+	{
+		return channel.map( FileChannel.MapMode.READ_ONLY, position, length );
+	}
+
+	/**
+	 * @return category specs, as in the dehydrated instance
+	 */
+	public List<Map<String, String>> getSpecs()
+	{
+		return specs;
+	}
+
+	/**
+	 * Top-level entries of the dehydrated instance other than the root, e.g. specs and globalRollupLabel
+	 */
+	public Map<String, Object> getMeta()
+	{
+		return meta;
+	}
+
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	/**
+	 * Same as Nester.query() on the tree the snapshot was written from
+	 * @param path category values, outmost first; none for the root
+	 * @return the node at <i>path</i> with its subtree, or null if there is none
+	 */
+	public Object query( Object... path )
+	{
+		if ( path != null && path.length > depth )
+		{
+			throw new IllegalArgumentException();
+		}
+		if ( path == null || path.length == 0 )
+		{
+			return readValue( data( rootPosition ), -1, -1 );
+		}
+		int node = -1;
+		for ( int level = 0; level < path.length; level++ )
+		{
+			node = find( level, node, path[ level ] );
+			if ( node < 0 )
+			{
+				return null;
+			}
+		}
+		return materialize( path.length - 1, node );
+	}
+
+	/**
+	 * Binary search of <i>parent</i>'s children, through the level's permutation
+	 */
+	int find( int level, int parent, Object key )
+	{
+		byte tag = keyTag( key );
+		long value;
+		if ( tag == STRING )
+		{
+			value = stringId( key.toString() );
+			if ( value < 0 )
+			{
+				return -1;
+			}
+		}
+		else
+		{
+			value = keyValue( tag, key );
+		}
+		int low = parent < 0 ? 0 : offsets[ level - 1 ].get( parent );
+		int high = (parent < 0 ? counts[ 0 ] : offsets[ level - 1 ].get( parent + 1 )) - 1;
+		IntBuffer permutation = permutations[ level ];
+		while ( low <= high )
+		{
+			int middle = (low + high) >>> 1;
+			int node = permutation.get( middle );
+			int c = compare( keyTags[ level ].get( node ), keyValues[ level ].get( node ), tag, value );
+			if ( c < 0 )
+			{
+				low = middle + 1;
+			}
+			else if ( c > 0 )
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return node;
+			}
+		}
+		return -1;
+	}
+
+	static int compare( byte tag1, long value1, byte tag2, long value2 )
+	{
+		return tag1 != tag2 ? Byte.compare( tag1, tag2 ) : Long.compare( value1, value2 );
+	}
+
+	Object materialize( int level, int node )
+	{
+		if ( plain[ level ] )
+		{
+			return readKey( level, node );
+		}
+		return readValue( data( fieldPositions[ level ].get( node ) ), level, node );
+	}
+
+	Object readKey( int level, int node )
+	{
+		long value = keyValues[ level ].get( node );
+		switch ( keyTags[ level ].get( node ) )
+		{
+			case STRING:
+				return string( (int)value );
+			case INT:
+				return (int)value;
+			case LONG:
+				return value;
+			case DOUBLE:
+				return Double.longBitsToDouble( value );
+			case FALSE:
+				return Boolean.FALSE;
+			case TRUE:
+				return Boolean.TRUE;
+			default:
+				return null;
+		}
+	}
+
+	ByteBuffer data( long position )
+	{
+		ByteBuffer window = windows[ (int)(position / WINDOW) ].duplicate();
+		window.position( (int)(position % WINDOW) );
+		return window;
+	}
+
+	/**
+	 * @param level, node the node whose fields are being read (level -1: the root), for CHILDREN
+	 */
+	Object readValue( ByteBuffer in, int level, int node )
+	{
+		byte tag = in.get();
+		switch ( tag )
+		{
+			case NULL:
+				return null;
+			case STRING:
+				return string( in.getInt() );
+			case INT:
+				return in.getInt();
+			case LONG:
+				return in.getLong();
+			case DOUBLE:
+				return in.getDouble();
+			case FALSE:
+				return Boolean.FALSE;
+			case TRUE:
+				return Boolean.TRUE;
+			case MAP:
+			{
+				int size = in.getInt();
+				Map<String, Object> map = new LinkedHashMap<>( size * 4 / 3 + 1 );
+				for ( int i = 0; i < size; i++ )
+				{
+					String key = string( in.getInt() );
+					map.put( key, readValue( in, level, node ) );
+				}
+				return map;
+			}
+			case LIST:
+			{
+				int size = in.getInt();
+				List<Object> list = new ArrayList<>( size );
+				for ( int i = 0; i < size; i++ )
+				{
+					list.add( readValue( in, level, node ) );
+				}
+				return list;
+			}
+			case CHILDREN:
+			{
+				int childLevel = level + 1;
+				int from = level < 0 ? 0 : offsets[ level ].get( node );
+				int to = level < 0 ? counts[ 0 ] : offsets[ level ].get( node + 1 );
+				List<Object> children = new ArrayList<>( to - from );
+				for ( int child = from; child < to; child++ )
+				{
+					children.add( materialize( childLevel, child ) );
+				}
+				return children;
+			}
+			default:
+				throw new IllegalStateException( "corrupt snapshot: tag " + tag );
+		}
+	}
+
+	String string( int id )
+	{
+		int from = dictionaryOffsets.get( id );
+		byte[] bytes = new byte[ dictionaryOffsets.get( id + 1 ) - from ];
+		ByteBuffer source = dictionaryBytes.duplicate();
+		source.position( from );
+		source.get( bytes );
+		return new String( bytes, StandardCharsets.UTF_8 );
+	}
+
+	int stringId( String value )
+	{
+		int low = 0;
+		int high = dictionarySize - 1;
+		while ( low <= high )
+		{
+			int middle = (low + high) >>> 1;
+			int c = string( middle ).compareTo( value );
+			if ( c < 0 )
+			{
+				low = middle + 1;
+			}
+			else if ( c > 0 )
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	static byte keyTag( Object key )
+	{
+		if ( key == null )
+		{
+			return NULL;
+		}
+		if ( key instanceof Integer || key instanceof Short || key instanceof Byte )
+		{
+			return INT;
+		}
+		if ( key instanceof Long )
+		{
+			return LONG;
+		}
+		if ( key instanceof Double || key instanceof Float )
+		{
+			return DOUBLE;
+		}
+		if ( key instanceof Boolean )
+		{
+			return (Boolean)key ? TRUE : FALSE;
+		}
+		return STRING;
+	}
+
+	static long keyValue( byte tag, Object key )
+	{
+		switch ( tag )
+		{
+			case INT:
+			case LONG:
+				return ((Number)key).longValue();
+			case DOUBLE:
+				return Double.doubleToLongBits( ((Number)key).doubleValue() );
+			default:
+				return 0;
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	/**
+	 * Lays the tree out level by level, as CompactTree does, then writes the sections
+	 */
+	static class Writer
+	{
+		final Map<?, ?> dehydrated;
+		final List<Map<String, String>> specs;
+		final int depth;
+		final Object[][] levels;
+		final Map<String, Integer> stringIds = new HashMap<>();
+		String[] strings;
+
+		Writer( Map<?, ?> dehydrated )
+		{
+			this.dehydrated = dehydrated;
+			this.specs = (List<Map<String, String>>)dehydrated.get( "specs" );
+			this.depth = specs.size();
+			this.levels = new Object[ depth ][];
+			Collection<?> parents = Arrays.asList( dehydrated.get( "root" ) );
+			for ( int level = 0; level < depth; level++ )
+			{
+				List<Object> nodes = new ArrayList<>();
+				for ( Object parent : parents )
+				{
+					List<?> children = (List<?>)((Map)parent).get( specs.get( level ).get( "collectionLabel" ) );
+					if ( children != null )
+					{
+						nodes.addAll( children );
+					}
+				}
+				levels[ level ] = nodes.toArray();
+				parents = nodes;
+			}
+		}
+
+		void write( Path file )
+		throws IOException
+		{
+			Set<String> distinct = new HashSet<>();
+			collectStrings( dehydrated, distinct );
+			strings = distinct.toArray( new String[ distinct.size() ] );
+			Arrays.sort( strings );
+			for ( int i = 0; i < strings.length; i++ )
+			{
+				stringIds.put( strings[ i ], i );
+			}
+
+			long tablePosition;
+			try ( CountingOutputStream counter = new CountingOutputStream( new BufferedOutputStream( Files.newOutputStream( file ), 1 << 16 ) ) )
+			{
+				DataOutputStream out = new DataOutputStream( counter );
+				out.writeInt( MAGIC );
+				out.writeInt( VERSION );
+				out.writeLong( 0 ); // section table position, patched below
+
+				/*
+				 * data: node fields, which must not span a window
+				 */
+				long dataStart = counter.count;
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				DataOutputStream bufferOut = new DataOutputStream( buffer );
+				Map<Object, Object> meta = new LinkedHashMap<>( dehydrated );
+				meta.remove( "root" );
+				long metaPosition = writeData( counter, out, dataStart, buffer, bufferOut, meta, null );
+				long rootPosition = writeData( counter, out, dataStart, buffer, bufferOut, dehydrated.get( "root" ), specs.get( 0 ).get( "collectionLabel" ) );
+				long[][] fieldPositions = new long[ depth ][];
+				boolean[] plain = new boolean[ depth ];
+				for ( int level = 0; level < depth; level++ )
+				{
+					Object[] nodes = levels[ level ];
+					plain[ level ] = nodes.length > 0 && !(nodes[ 0 ] instanceof Map);
+					fieldPositions[ level ] = new long[ nodes.length ];
+					String childLabel = level == depth - 1 ? null : specs.get( level + 1 ).get( "collectionLabel" );
+					for ( int node = 0; plain[ level ] == false && node < nodes.length; node++ )
+					{
+						fieldPositions[ level ][ node ] = writeData( counter, out, dataStart, buffer, bufferOut, nodes[ node ], childLabel );
+					}
+				}
+				long dataLength = counter.count - dataStart;
+
+				/*
+				 * per-level blocks
+				 */
+				long[][] sections = new long[ depth ][ 5 ];
+				for ( int level = 0; level < depth; level++ )
+				{
+					Object[] nodes = levels[ level ];
+					String keyField = specs.get( level ).get( "renderedCategoryFieldName" );
+					byte[] tags = new byte[ nodes.length ];
+					long[] values = new long[ nodes.length ];
+					for ( int node = 0; node < nodes.length; node++ )
+					{
+						Object key = plain[ level ] ? nodes[ node ] : ((Map)nodes[ node ]).get( keyField );
+						tags[ node ] = keyTag( key );
+						values[ node ] = tags[ node ] == STRING ? stringIds.get( key.toString() ) : keyValue( tags[ node ], key );
+					}
+					sections[ level ][ 0 ] = counter.count;
+					out.write( tags );
+					sections[ level ][ 1 ] = counter.count;
+					for ( long value : values )
+					{
+						out.writeLong( value );
+					}
+
+					int[] levelOffsets = new int[ nodes.length + 1 ];
+					if ( level < depth - 1 )
+					{
+						String childLabel = specs.get( level + 1 ).get( "collectionLabel" );
+						for ( int node = 0; node < nodes.length; node++ )
+						{
+							List<?> children = (List<?>)((Map)nodes[ node ]).get( childLabel );
+							levelOffsets[ node + 1 ] = levelOffsets[ node ] + (children == null ? 0 : children.size());
+						}
+						sections[ level ][ 2 ] = counter.count;
+						for ( int offset : levelOffsets )
+						{
+							out.writeInt( offset );
+						}
+					}
+
+					sections[ level ][ 3 ] = counter.count;
+					int[] parentOffsets = level == 0 ? new int[] { 0, nodes.length } : parentOffsets( level );
+					for ( int parent = 0; parent < parentOffsets.length - 1; parent++ )
+					{
+						for ( int node : sortedRange( tags, values, parentOffsets[ parent ], parentOffsets[ parent + 1 ] ) )
+						{
+							out.writeInt( node );
+						}
+					}
+					sections[ level ][ 4 ] = counter.count;
+					for ( long position : fieldPositions[ level ] )
+					{
+						out.writeLong( position );
+					}
+				}
+
+				/*
+				 * dictionary
+				 */
+				long dictionaryOffsetsPosition = counter.count;
+				byte[][] encoded = new byte[ strings.length ][];
+				long total = 0;
+				for ( int i = 0; i < strings.length; i++ )
+				{
+					encoded[ i ] = strings[ i ].getBytes( StandardCharsets.UTF_8 );
+					out.writeInt( (int)total );
+					total += encoded[ i ].length;
+					if ( total > Integer.MAX_VALUE )
+					{
+						throw new IllegalArgumentException( "string dictionary exceeds 2GB" );
+					}
+				}
+				out.writeInt( (int)total );
+				long dictionaryBytesPosition = counter.count;
+				for ( byte[] bytes : encoded )
+				{
+					out.write( bytes );
+				}
+
+				/*
+				 * section table
+				 */
+				tablePosition = counter.count;
+				out.writeLong( dataStart );
+				out.writeLong( dataLength );
+				out.writeLong( metaPosition );
+				out.writeLong( rootPosition );
+				out.writeInt( strings.length );
+				out.writeLong( dictionaryOffsetsPosition );
+				out.writeLong( dictionaryBytesPosition );
+				out.writeInt( depth );
+				for ( int level = 0; level < depth; level++ )
+				{
+					out.writeInt( levels[ level ].length );
+					out.writeByte( plain[ level ] ? 1 : 0 );
+					for ( long position : sections[ level ] )
+					{
+						out.writeLong( position );
+					}
+				}
+				out.flush();
+			}
+			try ( RandomAccessFile patch = new RandomAccessFile( file.toFile(), "rw" ) )
+			{
+				patch.seek( 8 );
+				patch.writeLong( tablePosition );
+			}
+		}
+
+		/*
+		 * Offsets of each level - 1 node's children in this level
+		 */
+		int[] parentOffsets( int level )
+		{
+			Object[] parents = levels[ level - 1 ];
+			String label = specs.get( level ).get( "collectionLabel" );
+			int[] result = new int[ parents.length + 1 ];
+			for ( int parent = 0; parent < parents.length; parent++ )
+			{
+				List<?> children = (List<?>)((Map)parents[ parent ]).get( label );
+				result[ parent + 1 ] = result[ parent ] + (children == null ? 0 : children.size());
+			}
+			return result;
+		}
+
+		static int[] sortedRange( byte[] tags, long[] values, int from, int to )
+		{
+			Integer[] range = new Integer[ to - from ];
+			for ( int i = 0; i < range.length; i++ )
+			{
+				range[ i ] = from + i;
+			}
+			Arrays.sort( range, ( a, b ) -> compare( tags[ a ], values[ a ], tags[ b ], values[ b ] ) );
+			int[] result = new int[ range.length ];
+			for ( int i = 0; i < range.length; i++ )
+			{
+				result[ i ] = range[ i ];
+			}
+			return result;
+		}
+
+		/**
+		 * @return position of <i>value</i> relative to the data section
+		 */
+		long writeData( CountingOutputStream counter, DataOutput out, long dataStart, ByteArrayOutputStream buffer, DataOutputStream bufferOut,
+			Object value, String childLabel )
+		throws IOException
+		{
+			buffer.reset();
+			writeValue( bufferOut, value, childLabel );
+			bufferOut.flush();
+			if ( buffer.size() > WINDOW )
+			{
+				throw new IllegalArgumentException( "node fields exceed " + WINDOW + " bytes" );
+			}
+			long position = counter.count - dataStart;
+			long room = WINDOW - position % WINDOW;
+			if ( buffer.size() > room )
+			{
+				out.write( new byte[ (int)room ] );
+				position += room;
+			}
+			buffer.writeTo( counter );
+			return position;
+		}
+
+		/**
+		 * @param childLabel the entry of a node Map that holds its children, written as CHILDREN; null for none
+		 */
+		void writeValue( DataOutput out, Object value, String childLabel )
+		throws IOException
+		{
+			if ( value instanceof Map )
+			{
+				Map<?, ?> map = (Map<?, ?>)value;
+				out.writeByte( MAP );
+				out.writeInt( map.size() );
+				for ( Map.Entry<?, ?> entry : map.entrySet() )
+				{
+					String key = String.valueOf( entry.getKey() );
+					out.writeInt( stringIds.get( key ) );
+					if ( key.equals( childLabel ) && entry.getValue() instanceof List )
+					{
+						out.writeByte( CHILDREN );
+					}
+					else
+					{
+						writeValue( out, entry.getValue(), null );
+					}
+				}
+				return;
+			}
+			if ( value instanceof Collection )
+			{
+				Collection<?> collection = (Collection<?>)value;
+				out.writeByte( LIST );
+				out.writeInt( collection.size() );
+				for ( Object element : collection )
+				{
+					writeValue( out, element, null );
+				}
+				return;
+			}
+			byte tag = keyTag( value );
+			out.writeByte( tag );
+			switch ( tag )
+			{
+				case STRING:
+					out.writeInt( stringIds.get( value.toString() ) );
+					break;
+				case INT:
+					out.writeInt( ((Number)value).intValue() );
+					break;
+				case LONG:
+					out.writeLong( (Long)value );
+					break;
+				case DOUBLE:
+					out.writeDouble( ((Number)value).doubleValue() );
+					break;
+				default:
+					break;
+			}
+		}
+
+		static void collectStrings( Object value, Set<String> into )
+		{
+			if ( value instanceof Map )
+			{
+				for ( Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet() )
+				{
+					into.add( String.valueOf( entry.getKey() ) );
+					collectStrings( entry.getValue(), into );
+				}
+			}
+			else if ( value instanceof Collection )
+			{
+				for ( Object element : (Collection<?>)value )
+				{
+					collectStrings( element, into );
+				}
+			}
+			else if ( value != null && keyTag( value ) == STRING )
+			{
+				into.add( value.toString() );
+			}
+		}
+	}
+
+	static class CountingOutputStream
+	extends FilterOutputStream
+	{
+		long count;
+
+		CountingOutputStream( OutputStream out )
+		{
+			super( out );
+		}
+
+		@Override
+		public void write( int b ) throws IOException
+		{
+			out.write( b );
+			count++;
+		}
+
+		@Override
+		public void write( byte[] b, int off, int len ) throws IOException
+		{
+			out.write( b, off, len );
+			count += len;
+		}
+	}
+}
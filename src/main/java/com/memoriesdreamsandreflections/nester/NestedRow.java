@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+import java.lang.annotation.Documented ;
+import java.lang.annotation.ElementType ;
+import java.lang.annotation.Retention ;
+import java.lang.annotation.RetentionPolicy ;
+import java.lang.annotation.Target ;
+
+/**
+ * Declares the category path of a row class for the nester-processor annotation processor, which generates
+ * a <i>RowName</i>Nesting class next to the row class with:
+ * <ul>
+ * <li>accessor(): an Accessor reading the category and detail values with plain field reads/method calls</li>
+ * <li>categoryDescriptors(): CategoryDescriptors with their getters already resolved</li>
+ * <li>newNester(): a Nester configured with both</li>
+ * </ul>
+ * so neither initializeFields() nor detailFieldName() has to look anything up by reflection.
+ * <br/>
+ * Each name may be a field or an accessor method (getX(), isX(), x()) that the generated class can reach, 
+ * i.e. not private.
+ *
+ * @author jgenoese
+ */
+@Documented
+@Retention( RetentionPolicy.CLASS )
+@Target( ElementType.TYPE )
+public @interface NestedRow
+{
+	/**
+	 * @return categories, outmost first
+	 */
+	Category[] categories();
+
+	/**
+	 * @return detail field name; when empty the row itself is the detail
+	 */
+	String detail() default "";
+}
@@ -16,20 +16,33 @@
 package com.memoriesdreamsandreflections.nester;
 
 
+import java.io.IOException ;
 import java.io.Serializable ;
 import java.lang.reflect.Field;
+import java.nio.file.Path ;
 import java.util.ArrayList;
+import java.util.Arrays ;
 import java.util.HashMap ;
 import java.util.LinkedHashMap;
+import java.util.Iterator ;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects ;
-import java.util.function.Function;
+import java.util.RandomAccess ;
+import java.util.Spliterator ;
+import java.util.Spliterators ;
+import java.util.concurrent.ForkJoinPool ;
+import java.util.concurrent.RecursiveTask ;
+import java.util.function.Function ;
 import java.util.stream.Collectors;
+import java.util.stream.Stream ;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonFactory ;
+import com.fasterxml.jackson.core.JsonGenerator ;
+
 /**
  * Nested Map builder
  * 
@@ -42,19 +55,46 @@ public class Nester<R>
 {
 	static Logger log = LoggerFactory.getLogger( Nester.class );
 	List<CategoryDescriptor<R>> categoryDescriptors;
-	Object[] categoryValues;
+	Object[] categoryValues; // category value buffer reused by sequential runs
+	long[] categoryLongs; // same, for primitive levels
+	boolean[] primitiveLevels; // null unless some category has primitive or dictionary keys
+	CategoryDictionary[] dictionaries; // of the current nest run, per level; null entries for levels without dictionary keys
+	boolean[] aggregateLevels; // null unless some category has aggregates
 	List<ContainerLevel> fields = null; // for reflection
 	String detailFieldName;
 	Field detailField;
+	ValueGetter<R> detailGetter;
 	Class<R> rowClazz;
 	Accessor<R> accessor;
+	boolean accessorGenerated;
 	int inmostLevel;
 	boolean ordered;
+	boolean autoOrdered; // nest( List ): sort by category path first when that beats hashing
+	int autoMinRows;
+	long autoMinLeaves;
+	CategoryColumns<R> presorted; // autoOrdered() run in progress: category values already read
 	long nanos;
 	long[] levelClocks;
 	boolean collectDetails = true;
 	Map nameValueRoot;
+	NavHelper navRoot;
+	LazyNameValueRoot lazyRoot; // getLazyRehydratedInstance(): outmost nodes parsed on demand
+	Map nestRoot; // last nest() result, for append()
+	NesterStatistics statistics; // observed after each run, presizes containers
+	Path spillDirectory; // externalSortNest() run files
 	boolean queryOnly;
+	ForkJoinPool forkJoinPool;
+	boolean deterministicOrder = true;
+	int parallelBatchSize = DEFAULT_PARALLEL_BATCH_SIZE;
+	int flushLevel = -1;
+	SubtreeSink subtreeSink;
+	Function<Object, Object> detailIdentity; // for delete() and upsert(); null: the detail itself
+	Function<R, Map<String, Object>> globalRollupValueMappingFunction;
+	String globalRollupLabel;
+
+	static final int DEFAULT_PARALLEL_BATCH_SIZE = 16384;
+	static final int DEFAULT_AUTO_MIN_ROWS = 4096;
+	static final long DEFAULT_AUTO_MIN_LEAVES = 4096;
 
 	public static <R> Nester<R> newInstance( Class<R> rowClass )
 	{
@@ -75,6 +115,79 @@ public class Nester<R>
 		return result;
 	}
 
+	/**
+	 * Rehydrate a dehydrated instance for nameValueAppend() as well as query(). The descriptors must be 
+	 * the ones the dehydrated tree was built with; their collection labels and rendered category field names 
+	 * are checked against its specs. Category values must read back from the dehydrated form as the same 
+	 * type the getters return (e.g. a long category stored as JSON reads back as Integer when small).
+	 * @param dehydrated result of getDehydratedInstance()
+	 * @param rowClass row class
+	 * @param categoryDescriptors full descriptors, as passed to categoryDescriptors()
+	 * @return Nester over the dehydrated tree
+	 * @throws NoSuchFieldException
+	 * @throws SecurityException
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static <R> Nester<R> getRehydratedInstance( Map dehydrated, Class<R> rowClass, List<CategoryDescriptor<R>> categoryDescriptors )
+	throws NoSuchFieldException, SecurityException
+	{
+		Nester<R> result = getRehydratedInstance( dehydrated );
+		if ( result.categoryDescriptors.size() != categoryDescriptors.size() )
+		{
+			throw new IllegalArgumentException( "dehydrated instance has " + result.categoryDescriptors.size() + " categories, not " 
+				+ categoryDescriptors.size() );
+		}
+		for ( int i = 0; i < categoryDescriptors.size(); i++ )
+		{
+			CategoryDescriptor<R> spec = result.categoryDescriptors.get( i );
+			CategoryDescriptor<R> desc = categoryDescriptors.get( i );
+			if ( !Objects.equals( spec.getCollectionLabel(), desc.getCollectionLabel() ) 
+				|| !Objects.equals( spec.renderedCategoryFieldName(), desc.renderedCategoryFieldName() ) )
+			{
+				throw new IllegalArgumentException( "category " + i + " does not match the dehydrated spec" );
+			}
+		}
+		result.rowClazz = rowClass;
+		result.categoryDescriptors( categoryDescriptors );
+		result.queryOnly = false;
+		return result;
+	}
+
+	/**
+	 * Rehydrate a serialized dehydrated instance for query() without parsing it up front. Opening makes one
+	 * pass that reads the specs and skips over each outmost node, recording its byte range; a node is parsed
+	 * when a query first descends into it and is then cached. Cached nodes are evicted, least recently used
+	 * first, once their serialized size exceeds <i>cacheBytes</i>. query() with no path parses the whole tree
+	 * (without caching it).
+	 * <br/>
+	 * The specs must precede the root, as they do in getDehydratedInstance(). Each node's bytes must parse on
+	 * their own: for Smile, write with shared names and values disabled and pass a factory that does not
+	 * require the header.
+	 * @param document serialized dehydrated instance
+	 * @param factory factory of the format <i>document</i> is in
+	 * @param cacheBytes bound on the serialized size of the parsed nodes kept
+	 * @return query-only Nester
+	 * @throws IOException
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static Nester getLazyRehydratedInstance( byte[] document, JsonFactory factory, long cacheBytes )
+	throws IOException
+	{
+		Nester result = new Nester();
+		LazyNameValueRoot lazyRoot = new LazyNameValueRoot( result, document, factory, cacheBytes );
+		lazyRoot.scan();
+		result.categoryDescriptors = new ArrayList<>( lazyRoot.specs.size() );
+		for ( Map<String, String> spec : lazyRoot.specs )
+		{
+			result.categoryDescriptors.add( CategoryDescriptor.newQueryInstance( spec ) );
+		}
+		result.inmostLevel = result.categoryDescriptors.size() - 1;
+		result.globalRollupLabel = (String)lazyRoot.meta.get( "globalRollupLabel" );
+		result.lazyRoot = lazyRoot;
+		result.queryOnly = true;
+		return result;
+	}
+
 	protected Nester()
 	{
 	}
@@ -106,6 +219,8 @@ public class Nester<R>
 				categoryDescriptors.add( CategoryDescriptor.newQueryInstance(spec));
 			}
 			inmostLevel = categoryDescriptors.size() - 1;
+			navRoot = new NavHelper( 0, null, nameValueRoot, false );
+			globalRollupLabel = (String)dehydrated.get( "globalRollupLabel" );
 		}
 		catch(IllegalArgumentException e)
 		{
@@ -128,6 +243,10 @@ public class Nester<R>
 		List<Map<String,String>>specList = new ArrayList<>(categoryDescriptors.size());
 		result.put( "specs", specList );
 		result.put( "root", nameValueRoot );
+		if ( globalRollupLabel != null )
+		{
+			result.put( "globalRollupLabel", globalRollupLabel );
+		}
 		for (CategoryDescriptor< ? > desc : categoryDescriptors)
 		{
 			specList.add( desc.specMap() );
@@ -135,6 +254,18 @@ public class Nester<R>
 		return result;
 	}
 
+	/**
+	 * Write getDehydratedInstance() as a NameValueSnapshot, which NameValueSnapshot.open() maps and queries
+	 * without parsing
+	 * @param file created or truncated
+	 * @throws IOException
+	 */
+	public void writeSnapshot( Path file )
+	throws IOException
+	{
+		NameValueSnapshot.write( getDehydratedInstance(), file );
+	}
+
 	public Nester<R> categoryDescriptors( List<CategoryDescriptor<R>> categoryDescriptors )
 	throws NoSuchFieldException, SecurityException
 	{
@@ -157,6 +288,7 @@ public class Nester<R>
 			log.warn( "When both accessor() and detailFieldName() are specified, accessor() takes precedence." );
 			this.detailFieldName = null;
 			this.detailField = null;
+			this.detailGetter = null;
 			return this;
 		}
 		this.detailFieldName = detailFieldName;
@@ -164,6 +296,24 @@ public class Nester<R>
 		return this;
 	}
 
+	/**
+	 * Supply the detail getter directly, e.g. from generated code, instead of resolving detailFieldName().
+	 * @param detailGetter ValueGetter for the detail value
+	 * @return this
+	 */
+	public Nester<R> detailGetter( ValueGetter<R> detailGetter )
+	{
+		if ( accessor != null )
+		{
+			log.warn( "When both accessor() and detailGetter() are specified, accessor() takes precedence." );
+			return this;
+		}
+		this.detailGetter = detailGetter;
+		this.detailFieldName = detailGetter.getName();
+		this.detailField = detailGetter.getMember() instanceof Field ? (Field)detailGetter.getMember() : null;
+		return this;
+	}
+
 	public Nester<R> ordered()
 	throws NoSuchFieldException, SecurityException
 	{
@@ -171,6 +321,43 @@ public class Nester<R>
 		return this;
 	}
 
+	/**
+	 * autoOrdered( DEFAULT_AUTO_MIN_ROWS, DEFAULT_AUTO_MIN_LEAVES )
+	 * @return this
+	 * @see #autoOrdered(int, long)
+	 */
+	public Nester<R> autoOrdered()
+	{
+		return autoOrdered( DEFAULT_AUTO_MIN_ROWS, DEFAULT_AUTO_MIN_LEAVES );
+	}
+
+	/**
+	 * Let nest( List ) choose between the unordered (hash) algorithm and sorting the rows by category path and 
+	 * nesting them with the ordered one. The category values are read once into arrays; if the rows turn out to 
+	 * be in category path order already they are nested as they are, otherwise an int[] index of the rows is 
+	 * sorted when the list has at least <i>minRows</i> rows and at least <i>minLeaves</i> distinct category 
+	 * paths, the point at which hash lookups in ever bigger maps cost more than the sort. The paths are those of 
+	 * the last run observed by statistics() when given, and are estimated while reading the values otherwise.
+	 * <br/>
+	 * The sort is a stable merge sort on the value arrays, forked in the common pool (see CategoryColumns). 
+	 * Arrays.parallelSort() takes a Comparator only for an Object[], which would box every row index into an 
+	 * Integer. A row whose detail or aggregates cannot be read fails the nest, as in the hash algorithm.
+	 * <br/>
+	 * The result is Map-equal to that of the hash algorithm. When the rows are sorted, keys come out in category 
+	 * path order (see ExternalSort.categoryPathOrder(); dictionary levels in order of first appearance) and 
+	 * details keep their input order within a leaf. Ignored with ordered(), flushSubtrees() and parallel().
+	 * @param minRows smallest list worth sorting
+	 * @param minLeaves fewest distinct category paths worth sorting for
+	 * @return this
+	 */
+	public Nester<R> autoOrdered( int minRows, long minLeaves )
+	{
+		this.autoOrdered = true;
+		this.autoMinRows = minRows;
+		this.autoMinLeaves = minLeaves;
+		return this;
+	}
+
 	public Nester<R> accessor( Accessor<R> accessor )
 	{
 		if ( detailFieldName != null )
@@ -178,47 +365,341 @@ public class Nester<R>
 			log.warn( "When both accessor() and detailFieldName() are specified, accessor() takes precedence." );
 		}
 		this.accessor = accessor;
+		this.accessorGenerated = false;
 		this.detailField = null;
+		this.detailGetter = null;
 		this.detailFieldName = null;
 		return this;
 	}
 
+	/**
+	 * Attach rows whose category values are all null (the grand total of GROUP BY ROLLUP) to the name/value 
+	 * root, mapped by <i>mapping</i>, under <i>label</i>. Rollups of the category levels are declared with 
+	 * CategoryDescriptor.withRollupValueMappingFunction().
+	 * @param label key of the rollup in the root Map
+	 * @param mapping rollup row mapping
+	 * @return this
+	 */
+	public Nester<R> globalRollup( String label, Function<R, Map<String, Object>> mapping )
+	{
+		this.globalRollupLabel = label;
+		this.globalRollupValueMappingFunction = mapping;
+		return this;
+	}
+
+	/**
+	 * Observe each result into <i>statistics</i> and presize new containers from what earlier runs observed.
+	 * Share one instance among the runs (and Nesters) of the same configuration. Only full nests are observed;
+	 * append() and nameValueAppend() leave the statistics alone rather than walk the whole tree again.
+	 * @param statistics per-level fan-out and distinct counts; see NesterStatistics
+	 * @return this
+	 */
+	public Nester<R> statistics( NesterStatistics statistics )
+	{
+		this.statistics = statistics;
+		return this;
+	}
+
+	public NesterStatistics getStatistics()
+	{
+		return statistics;
+	}
+
+	void observe()
+	{
+		if ( statistics != null )
+		{
+			statistics.observe( nestRoot, categoryDescriptors.size() );
+		}
+	}
+
+	void observeNameValue()
+	{
+		if ( statistics != null )
+		{
+			statistics.observeNameValue( nameValueRoot, categoryDescriptors );
+		}
+	}
+
+	/**
+	 * Identity of a stored detail, used by delete() and upsert() to find a row's detail in its leaf: 
+	 * details with equal identities are the same row. Details are passed as they are stored, i.e. the 
+	 * detail field value (or the row) in a nest() result and the mapped detail Map in a nameValueNest() 
+	 * result. Without it, details themselves are compared with equals().
+	 * @param identity e.g. detail -> ((Map)detail).get( "id" )
+	 * @return this
+	 */
+	public Nester<R> detailIdentity( Function<Object, Object> identity )
+	{
+		this.detailIdentity = identity;
+		return this;
+	}
+
 	public Nester<R> collectDetails(boolean value)
 	{
 		this.collectDetails = value;
 		return this;
 	}
 
+	/**
+	 * Ordered mode with bounded memory. As soon as the subtree under a category value at 
+	 * <i>level</i> is complete (i.e. a value break occurs at that level or above) it is handed to 
+	 * the sink and released, so peak memory is one subtree rather than the whole result. Implies 
+	 * ordered(); input must be sorted by the category path. nest() then returns an empty Map. It runs 
+	 * sequentially even when parallel() was specified, since partial trees would hold whole subtrees.
+	 * Aggregates of the categories above <i>level</i> are handed to SubtreeSink.acceptAggregates() as
+	 * their nodes close.
+	 * @param level category level (0 = outermost) whose subtrees are flushed
+	 * @param sink receiver of completed subtrees
+	 * @return this
+	 */
+	public Nester<R> flushSubtrees(int level, SubtreeSink sink)
+	{
+		if ( level < 0 || sink == null )
+		{
+			throw new IllegalArgumentException("flush level must be >= 0 and sink must be specified");
+		}
+		this.ordered = true;
+		this.flushLevel = level;
+		this.subtreeSink = sink;
+		return this;
+	}
+
+	/**
+	 * Nest in parallel on the common ForkJoinPool, keeping first-seen key order.
+	 * @return this
+	 * @see #parallel(ForkJoinPool, boolean)
+	 */
+	public Nester<R> parallel()
+	{
+		return parallel( ForkJoinPool.commonPool(), true );
+	}
+
+	/**
+	 * Nest in parallel: the input is split into batches, each batch is nested into its own partial
+	 * tree with the unordered (hash) algorithm, and the partial trees are merged level by level. 
+	 * This applies whether or not ordered() was specified, and to both nest() and nameValueNest(), but not
+	 * to flushSubtrees(), which nests sequentially.
+	 * 
+	 * @param pool ForkJoinPool to run on
+	 * @param deterministicOrder when true, keys and details appear in exactly the order a sequential
+	 * run would produce. When false, nest() always merges the smaller partial tree into the larger one, 
+	 * which is cheaper but leaves key and detail order up to the scheduler. nameValueNest() output
+	 * is always in sequential order, so that cached JSON stays stable.
+	 * @return this
+	 */
+	public Nester<R> parallel(ForkJoinPool pool, boolean deterministicOrder)
+	{
+		this.forkJoinPool = pool;
+		this.deterministicOrder = deterministicOrder;
+		return this;
+	}
+
+	/**
+	 * Number of rows below which a parallel run stops splitting its input.
+	 * @param value batch size
+	 * @return this
+	 */
+	public Nester<R> parallelBatchSize(int value)
+	{
+		this.parallelBatchSize = Math.max( 1, value );
+		return this;
+	}
+
 	public Map nest( List<R> rows )
 	throws Exception
+	{
+		if ( autoOrdered && !ordered && forkJoinPool == null && rows.size() >= autoMinRows )
+		{
+			return autoOrderedNest( rows );
+		}
+		return nest( rows.spliterator() );
+	}
+
+	/**
+	 * See autoOrdered()
+	 */
+	Map autoOrderedNest( List<R> rows )
+	throws Exception
+	{
+		long start = System.nanoTime();
+		if ( accessor == null )
+		{
+			accessor = AccessorFactory.newAccessor( categoryDescriptors, detailGetter );
+			accessorGenerated = true;
+		}
+		long leaves = statistics == null || statistics.getRuns() == 0 ? -1 : statistics.getNodes( inmostLevel );
+		if ( leaves >= 0 && leaves < autoMinLeaves )
+		{
+			return nest( rows.spliterator() );
+		}
+
+		newDictionaries(); // the columns hold this run's codes
+		CategoryColumns<R> columns = readCategoryColumns( rows instanceof RandomAccess ? rows : new ArrayList<>( rows ), leaves < 0 );
+		if ( !columns.isSorted() && leaves < 0 && columns.estimateLeaves() < autoMinLeaves )
+		{
+			return nest( rows.spliterator() );
+		}
+		columns.sort();
+		try
+		{
+			ordered = true;
+			presorted = columns;
+			Map masterNode = nest( columns.iterator() );
+			nanos = System.nanoTime() - start;
+			return masterNode;
+		}
+		finally
+		{
+			ordered = false;
+			presorted = null;
+		}
+	}
+
+	/*
+	 * Fresh dictionaries for a new nest run; earlier results keep theirs
+	 */
+	void newDictionaries()
+	{
+		dictionaries = null;
+		for ( int i = 0; i <= inmostLevel; i++ )
+		{
+			if ( categoryDescriptors.get( i ).hasDictionaryKeys() )
+			{
+				if ( dictionaries == null )
+				{
+					dictionaries = new CategoryDictionary[ categoryDescriptors.size() ];
+				}
+				dictionaries[ i ] = new CategoryDictionary();
+				fields.get( i ).dictionary = dictionaries[ i ];
+			}
+		}
+	}
+
+	/**
+	 * @param level category level
+	 * @return dictionary of the <i>level</i> values of the last nest() or nameValueNest() run, and of what was 
+	 * appended to it since; null when the level has no dictionary keys (see CategoryDescriptor.withDictionaryKeys())
+	 * or nothing was nested yet
+	 */
+	public CategoryDictionary getDictionary( int level )
+	{
+		return dictionaries == null ? null : dictionaries[ level ];
+	}
+
+	CategoryColumns<R> readCategoryColumns( List<R> rows, boolean estimateLeaves )
+	{
+		boolean[] objectLevels = new boolean[ fields.size() ];
+		for ( int i = 0; i < objectLevels.length; i++ )
+		{
+			objectLevels[ i ] = primitiveLevels == null || !primitiveLevels[ i ] || categoryDescriptors.get( i ).hasDictionaryKeys();
+		}
+		CategoryColumns<R> columns = new CategoryColumns<>( rows, objectLevels, primitiveLevels, estimateLeaves );
+		Object[] values = new Object[ fields.size() ];
+		long[] longs = primitiveLevels == null ? null : new long[ fields.size() ];
+		for ( int i = 0; i < rows.size(); i++ )
+		{
+			columns.set( i, readCategoryValues( rows.get( i ), values, longs ), longs );
+		}
+		return columns;
+	}
+
+	/**
+	 * Nest rows taken one at a time from an Iterator, e.g. a lazy database cursor.
+	 * @param rows row source
+	 * @return nested Map
+	 * @throws Exception
+	 */
+	public Map nest( Iterator<R> rows )
+	throws Exception
+	{
+		return nest( Spliterators.spliteratorUnknownSize( rows, Spliterator.ORDERED ) );
+	}
+
+	/**
+	 * Nest rows taken one at a time from a Stream. The stream is not collected first.
+	 * @param rows row source
+	 * @return nested Map
+	 * @throws Exception
+	 */
+	public Map nest( Stream<R> rows )
+	throws Exception
+	{
+		return nest( rows.spliterator() );
+	}
+
+	/**
+	 * Nest rows taken one at a time from a Spliterator. In parallel() mode the Spliterator 
+	 * is split with trySplit(), so a sized, splittable source parallelizes best.
+	 * @param rows row source
+	 * @return nested Map
+	 * @throws Exception
+	 */
+	public Map nest( Spliterator<R> rows )
+	throws Exception
 	{
 		nanos = System.nanoTime();
 		if ( accessor == null )
 		{
-			accessor = new DefaultAccessor( fields, detailField );
+			accessor = AccessorFactory.newAccessor( categoryDescriptors, detailGetter );
+			accessorGenerated = true;
+		}
+		if ( presorted == null )
+		{
+			newDictionaries();
+		}
+
+		if ( forkJoinPool != null && subtreeSink == null ) // flushSubtrees() runs sequentially, as it must to flush
+		{
+			Map masterNode = forkJoinPool.invoke( new NestTask( rows ) );
+			nestRoot = masterNode;
+			observe();
+			nanos = System.nanoTime() - nanos;
+			return masterNode;
 		}
 
-		Map masterNode = new LinkedHashMap<Object, Object>();
+		Map masterNode = newNodeMap( 0 );
+		categoryValues = new Object[ fields.size() ];
+		categoryLongs = primitiveLevels == null ? null : new long[ fields.size() ];
 		
 		if ( ordered )
 		{
-			rows.stream().forEach( row -> {
+			if ( subtreeSink != null && flushLevel > inmostLevel )
+			{
+				throw new IllegalStateException("flush level " + flushLevel + " is deeper than the inmost category");
+			}
+			for ( ContainerLevel cl : fields )
+			{
+				cl.reset();
+			}
+			rows.forEachRemaining( row -> {
 				try
 				{
 					processOrderedRow( row, masterNode );
 				}
 				catch ( Exception e )
 				{
-					log.error( "processUnorderedRow error,", e );
+					log.error( "processOrderedRow error,", e );
+					if ( presorted != null )
+					{
+						throw new RuntimeException( e ); // autoOrdered(): fail as the unordered nest it stands in for would
+					}
 				}
 			} );
+			if ( subtreeSink != null )
+			{
+				flushSubtree( masterNode, 0 );
+				nestRoot = null; // flushed; nothing to append to
+				nanos = System.nanoTime() - nanos;
+				return masterNode;
+			}
 		}
 		else
 		{
-			rows.stream().forEach( row -> {
+			rows.forEachRemaining( row -> {
 				try
 				{
-					processUnorderedRow( row, masterNode );
+					processUnorderedRow( row, masterNode, categoryValues, categoryLongs );
 				}
 				catch ( Exception e )
 				{
@@ -228,120 +709,1074 @@ public class Nester<R>
 			} );
 		}
 
+		nestRoot = masterNode;
+		observe();
 		nanos = System.nanoTime() - nanos;
 
 		return masterNode;
 
 	}
 
-	@SuppressWarnings( "unchecked" )
-	public Map<?,?> nameValueNest(List<R> rows) throws IllegalArgumentException, IllegalAccessException
+	public Map externalSortNest( Stream<R> rows, Codec<R> rowCodec, int maxRowsInMemory )
+	throws Exception
 	{
-		nanos = System.nanoTime();
-		if ( accessor == null )
+		return externalSortNest( rows.iterator(), rowCodec, maxRowsInMemory );
+	}
+
+	/**
+	 * nest() rows in any order, through the ordered algorithm, with bounded memory: the rows are sorted by 
+	 * category path in runs of <i>maxRowsInMemory</i>, each run is spilled to a temporary file (in 
+	 * spillDirectory(), if given) with <i>rowCodec</i>, and the runs are merged straight into the ordered 
+	 * nesting. Input that fits in one run is never written. See ExternalSort.
+	 * <br/>
+	 * Details within a leaf keep their input order; keys come out in category path order. Runs sequentially, 
+	 * whether or not parallel() was specified; flushSubtrees() applies as for ordered().
+	 * @param rows row source, read to the end before nesting starts
+	 * @param rowCodec writes and reads spilled rows
+	 * @param maxRowsInMemory rows sorted in memory at a time
+	 * @return nested Map
+	 * @throws Exception
+	 */
+	public Map externalSortNest( Iterator<R> rows, Codec<R> rowCodec, int maxRowsInMemory )
+	throws Exception
+	{
+		ExternalSort<R> sort = new ExternalSort<>( ExternalSort.categoryPathOrder( categoryDescriptors ), rowCodec, maxRowsInMemory, 
+			spillDirectory );
+		boolean wasOrdered = ordered;
+		ForkJoinPool pool = forkJoinPool;
+		try ( ExternalSort<R>.Sorted sorted = sort.sort( rows ) )
 		{
-			accessor = new DefaultAccessor( fields, detailField );
+			ordered = true;
+			forkJoinPool = null;
+			return nest( sorted );
 		}
-		
-		CategoryDescriptor<R> top = categoryDescriptors.get(0);
-		
-		nameValueRoot = new HashMap<>();
-//		NavHelper navRoot = new NavHelper(0, null, 0 == inmostLevel);
-		nameValueRoot.put( top.getCollectionLabel(), new ArrayList<Map>() );
-	
-		for (R row : rows)
+		finally
 		{
-			processUnorderedNameValueMapRow(row, nameValueRoot); 
+			ordered = wasOrdered;
+			forkJoinPool = pool;
 		}
-		nanos = System.nanoTime() - nanos;
-		
-		return nameValueRoot;
 	}
-	
-	public Object query(Object...queryKeyValues )
+
+	/**
+	 * @param directory where externalSortNest() spills its runs; default: the temporary directory
+	 * @return this
+	 */
+	public Nester<R> spillDirectory( Path directory )
 	{
-		Object result = null; 
-		if (nameValueRoot == null)
+		this.spillDirectory = directory;
+		return this;
+	}
+
+	public CompactTree compactNest( List<R> rows )
+	throws Exception
+	{
+		return compactNest( rows.spliterator() );
+	}
+
+	/**
+	 * nest() the rows, then convert the result to a CompactTree and drop the Map tree, so only the 
+	 * compact form is retained. append(), delete() and upsert() do not apply to it.
+	 * @param rows row source
+	 * @return compact result
+	 * @throws Exception
+	 */
+	public CompactTree compactNest( Spliterator<R> rows )
+	throws Exception
+	{
+		CompactTree tree = CompactTree.of( nest( rows ), categoryDescriptors.size() );
+		nestRoot = null;
+		return tree;
+	}
+
+	/**
+	 * nest() the rows, then write the result off the heap, into direct ByteBuffers, one level at a time, and
+	 * drop the Map tree. Aggregates are carried over. append(), delete() and upsert() do not apply to it.
+	 * @param rows row source
+	 * @param keyCodecs one per category
+	 * @param detailCodec codec of the details
+	 * @return off-heap result
+	 * @throws Exception
+	 * @see OffHeapTree
+	 */
+	public OffHeapTree offHeapNest( List<R> rows, Codec<?>[] keyCodecs, Codec<?> detailCodec )
+	throws Exception
+	{
+		OffHeapTree tree = OffHeapTree.of( nest( rows ), categoryDescriptors.size(), keyCodecs, detailCodec );
+		nestRoot = null;
+		return tree;
+	}
+
+	/**
+	 * As offHeapNest(), into a memory-mapped file; OffHeapTree.open() maps it again later
+	 * @param rows row source
+	 * @param keyCodecs one per category
+	 * @param detailCodec codec of the details
+	 * @param file backing file, created or truncated
+	 * @return mapped result
+	 * @throws Exception
+	 */
+	public OffHeapTree offHeapNest( List<R> rows, Codec<?>[] keyCodecs, Codec<?> detailCodec, Path file )
+	throws Exception
+	{
+		OffHeapTree tree = OffHeapTree.of( nest( rows ), categoryDescriptors.size(), keyCodecs, detailCodec, file );
+		nestRoot = null;
+		return tree;
+	}
+
+	public Map append( List<R> rows )
+	throws Exception
+	{
+		return append( rows.spliterator() );
+	}
+
+	public Map append( Iterator<R> rows )
+	throws Exception
+	{
+		return append( Spliterators.spliteratorUnknownSize( rows, Spliterator.ORDERED ) );
+	}
+
+	public Map append( Stream<R> rows )
+	throws Exception
+	{
+		return append( rows.spliterator() );
+	}
+
+	/**
+	 * Merge more rows into the result of the last nest(). Each row is nested with the unordered (hash) 
+	 * algorithm, whether or not ordered() was specified, so the cost follows the number of new rows rather 
+	 * than the size of the tree: existing keys are found by hash probe and nothing already nested is 
+	 * revisited, nor is the tree observed into statistics(). New keys go after the existing ones; details of 
+	 * existing keys are appended to their Lists.
+	 * In parallel() mode the new rows are nested into a partial tree, which is then merged in.
+	 * @param rows new rows
+	 * @return the updated result. With parallel(pool, false) this may be a different Map than nest() returned.
+	 * @throws Exception
+	 */
+	public Map append( Spliterator<R> rows )
+	throws Exception
+	{
+		if ( nestRoot == null )
 		{
-			throw new UnsupportedOperationException();
+			throw new IllegalStateException( "no nest() result to append to" );
 		}
-		if (queryKeyValues != null && queryKeyValues.length > categoryDescriptors.size())
+		nanos = System.nanoTime();
+		if ( forkJoinPool != null )
 		{
-			throw new IllegalArgumentException();
+			nestRoot = mergeNodes( nestRoot, forkJoinPool.invoke( new NestTask( rows ) ), 0 );
+			nanos = System.nanoTime() - nanos;
+			return nestRoot;
 		}
-		if (queryKeyValues == null || queryKeyValues.length == 0)
+
+		if ( categoryValues == null )
 		{
-			return nameValueRoot;
+			categoryValues = new Object[ fields.size() ];
+			categoryLongs = primitiveLevels == null ? null : new long[ fields.size() ];
 		}
-		List parent = (List)nameValueRoot.get( categoryDescriptors.get( 0 ).getCollectionLabel() );
-		for (int i=0; i<queryKeyValues.length; i++)
-		{
-			result = lookupInParent(parent, queryKeyValues[i], categoryDescriptors.get( i ));
-			if (result == null)
+		Map masterNode = nestRoot;
+		rows.forEachRemaining( row -> {
+			try
 			{
-				return null; // you have your answer -- NO RESULTS FOR QUERY
+				processUnorderedRow( row, masterNode, categoryValues, categoryLongs );
 			}
-			if (i < inmostLevel)
+			catch ( Exception e )
 			{
-				parent = (List)((Map)result).get( categoryDescriptors.get( i+1 ).getCollectionLabel() );
+				log.error( "processUnorderedRow error,", e );
+				throw new RuntimeException(e);
 			}
-		}
-		return result;
+		} );
+		nanos = System.nanoTime() - nanos;
+		return nestRoot;
 	}
-	
-	private Object lookupInParent(List parent, Object queryKeyValue, CategoryDescriptor<R> categoryDescriptor)
+
+	/**
+	 * Remove <i>row</i> from the result of the last nest(): its detail is removed from the leaf List 
+	 * found by its category path, category nodes left empty are pruned up the path, and the row is 
+	 * retracted from the Aggregates along the path (see Aggregates.retract()), unless it is a rollup row. The cost is one hash probe 
+	 * per level plus a scan of the one leaf List.
+	 * @param row row as it was nested; its detail is matched by detailIdentity()
+	 * @return false when no such detail was found, in which case nothing changes
+	 * @throws IllegalStateException when nest() has not run
+	 * @throws Exception
+	 */
+	public boolean delete( R row )
+	throws Exception
 	{
-		Object storedKey = null;
-		for(Object element : parent)
+		checkNestResult();
+		long[] longs = primitiveLevels == null ? null : new long[ fields.size() ];
+		Object[] values = readCategoryValues( row, new Object[ fields.size() ], longs );
+		Object[] path = nestPath( values, longs );
+		if ( path == null )
+		{
+			return false;
+		}
+		List details = (List)path[ inmostLevel ];
+		int at = indexOfDetail( details, accessor.getDetail( row ) );
+		if ( at < 0 )
+		{
+			return false;
+		}
+		details.remove( at );
+		if ( !isRollup( values ) )
+		{
+			for ( Object node : path )
+			{
+				retract( node, row );
+			}
+		}
+		for ( int i = inmostLevel; i >= 0 && (i == inmostLevel ? details.isEmpty() : ((Map)path[ i ]).isEmpty()); i-- )
 		{
-			if (element instanceof Map)
+			Map parent = i == 0 ? nestRoot : (Map)path[ i - 1 ];
+			if ( primitiveLevels != null && primitiveLevels[ i ] )
 			{
-				storedKey = ((Map)element).get( categoryDescriptor.renderedCategoryFieldName() );
+				((LongKeyedMap)parent).removeLong( longs[ i ] );
 			}
 			else
 			{
-				storedKey = element;
+				parent.remove( values[ i ] );
 			}
-			if (Objects.equals( queryKeyValue, storedKey ) )
+		}
+		return true;
+	}
+
+	/**
+	 * Insert or replace <i>row</i> in the result of the last nest(). A detail with the same identity (see
+	 * detailIdentity()) in the row's leaf is replaced in place; otherwise the row is added as append() 
+	 * would add it. A row whose category path changed must be delete()d under its old path instead.
+	 * <br/>
+	 * Aggregates along the path are kept exact only if the replaced detail is a row, i.e. no detail field
+	 * was specified. Otherwise replacing under a category with aggregates throws 
+	 * UnsupportedOperationException and nothing changes: delete() the previous row, then append() the new one.
+	 * @param row new version of the row
+	 * @return true when a detail was replaced, false when the row was added
+	 * @throws IllegalStateException when nest() has not run
+	 * @throws Exception
+	 */
+	@SuppressWarnings( "unchecked" )
+	public boolean upsert( R row )
+	throws Exception
+	{
+		checkNestResult();
+		long[] longs = primitiveLevels == null ? null : new long[ fields.size() ];
+		Object[] values = readCategoryValues( row, new Object[ fields.size() ], longs );
+		Object[] path = nestPath( values, longs );
+		List details = path == null ? null : (List)path[ inmostLevel ];
+		Object detail = accessor.getDetail( row );
+		int at = details == null ? -1 : indexOfDetail( details, detail );
+		if ( at < 0 )
+		{
+			processUnorderedRow( row, nestRoot, values, longs );
+			return false;
+		}
+		Object replaced = details.get( at );
+		boolean aggregated = aggregateLevels != null && !isRollup( values );
+		if ( aggregated && !rowClazz.isInstance( replaced ) )
+		{
+			throw new UnsupportedOperationException( "replaced detail is not a row, so it cannot be retracted from the aggregates" );
+		}
+		details.set( at, detail );
+		for ( Object node : path )
+		{
+			if ( aggregated && Aggregates.of( node ) != null )
 			{
-				return element;
+				retract( node, (R)replaced );
+				accumulate( node, row );
 			}
 		}
-		return null;
+		return true;
 	}
-	
-	
-	
-	class NavHelper
+
+	/*
+	 * Before anything reads the row: the fields and accessor are set up by nest()
+	 */
+	void checkNestResult()
 	{
-		int idx;
-		Object key;
-		Map navMap;
-		
-		public NavHelper(int idx, Object key, boolean lowest)
+		if ( nestRoot == null )
 		{
-			this.idx = idx;
-			this.key = key;
-			this.navMap = new HashMap<>();
+			throw new IllegalStateException( "no nest() result to change" );
 		}
 	}
-	
+
+	/**
+	 * Nodes of a category path in the last nest() result, outmost first; null if the path does not exist
+	 */
+	Object[] nestPath( Object[] values, long[] longs )
+	{
+		if ( !collectDetails )
+		{
+			throw new UnsupportedOperationException( "details are not collected, so rows cannot be found" );
+		}
+		Object[] path = new Object[ fields.size() ];
+		Map parent = nestRoot;
+		for ( int i = 0; i < path.length; i++ )
+		{
+			Object node = primitiveLevels != null && primitiveLevels[ i ] ? ((LongKeyedMap)parent).getLong( longs[ i ] ) : parent.get( values[ i ] );
+			if ( node == null )
+			{
+				return null;
+			}
+			path[ i ] = node;
+			parent = i == inmostLevel ? null : (Map)node;
+		}
+		return path;
+	}
+
+	int indexOfDetail( List details, Object detail )
+	{
+		Object identity = detailIdentity == null ? detail : detailIdentity.apply( detail );
+		for ( int i = 0; i < details.size(); i++ )
+		{
+			Object candidate = details.get( i );
+			if ( Objects.equals( identity, detailIdentity == null ? candidate : detailIdentity.apply( candidate ) ) )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	void retract( Object node, R row )
+	{
+		Aggregates<R> aggregates = (Aggregates<R>)Aggregates.of( node );
+		if ( aggregates != null )
+		{
+			aggregates.retract( row );
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	public Map<?,?> nameValueNest(List<R> rows) throws IllegalArgumentException, IllegalAccessException
+	{
+		return nameValueNest( rows.spliterator() );
+	}
+
+	/**
+	 * Name/value nest rows taken one at a time from an Iterator, e.g. a lazy database cursor.
+	 * @param rows row source
+	 * @return name/value root Map
+	 * @throws IllegalArgumentException
+	 * @throws IllegalAccessException
+	 */
+	public Map<?,?> nameValueNest(Iterator<R> rows) throws IllegalArgumentException, IllegalAccessException
+	{
+		return nameValueNest( Spliterators.spliteratorUnknownSize( rows, Spliterator.ORDERED ) );
+	}
+
+	/**
+	 * Name/value nest rows taken one at a time from a Stream. The stream is not collected first.
+	 * @param rows row source
+	 * @return name/value root Map
+	 * @throws IllegalArgumentException
+	 * @throws IllegalAccessException
+	 */
+	public Map<?,?> nameValueNest(Stream<R> rows) throws IllegalArgumentException, IllegalAccessException
+	{
+		return nameValueNest( rows.spliterator() );
+	}
+
+	/**
+	 * Name/value nest rows taken one at a time from a Spliterator. 
+	 * @param rows row source
+	 * @return name/value root Map
+	 * @throws IllegalArgumentException
+	 * @throws IllegalAccessException
+	 */
+	public Map<?,?> nameValueNest(Spliterator<R> rows) throws IllegalArgumentException, IllegalAccessException
+	{
+		nanos = System.nanoTime();
+		if ( accessor == null )
+		{
+			accessor = AccessorFactory.newAccessor( categoryDescriptors, detailGetter );
+			accessorGenerated = true;
+		}
+		newDictionaries();
+		
+		if ( forkJoinPool != null )
+		{
+			navRoot = forkJoinPool.invoke( new NameValueNestTask( rows ) );
+			nameValueRoot = (Map)navRoot.node;
+			observeNameValue();
+			nanos = System.nanoTime() - nanos;
+			return nameValueRoot;
+		}
+
+		navRoot = newNameValueRoot();
+		nameValueRoot = (Map)navRoot.node;
+		categoryValues = new Object[ categoryDescriptors.size() ];
+	
+		Iterator<R> rowIterator = Spliterators.iterator( rows );
+		while ( rowIterator.hasNext() )
+		{
+			processUnorderedNameValueMapRow(rowIterator.next(), navRoot, categoryValues); 
+		}
+		observeNameValue();
+		nanos = System.nanoTime() - nanos;
+		
+		return nameValueRoot;
+	}
+
+	public Map<?,?> nameValueAppend(List<R> rows) throws IllegalArgumentException, IllegalAccessException
+	{
+		return nameValueAppend( rows.spliterator() );
+	}
+
+	public Map<?,?> nameValueAppend(Iterator<R> rows) throws IllegalArgumentException, IllegalAccessException
+	{
+		return nameValueAppend( Spliterators.spliteratorUnknownSize( rows, Spliterator.ORDERED ) );
+	}
+
+	public Map<?,?> nameValueAppend(Stream<R> rows) throws IllegalArgumentException, IllegalAccessException
+	{
+		return nameValueAppend( rows.spliterator() );
+	}
+
+	/**
+	 * Merge more rows into the result of the last nameValueNest(), or into a tree rehydrated with
+	 * getRehydratedInstance(Map, Class, List). Existing nodes are found through the NavHelper side index,
+	 * so the cost follows the number of new rows; the name/value lists are never scanned, and a rehydrated
+	 * tree only indexes the nodes the new rows touch. The result is what nameValueNest() over the old rows 
+	 * followed by the new ones would have built.
+	 * @param rows new rows
+	 * @return name/value root Map, updated in place
+	 * @throws IllegalArgumentException
+	 * @throws IllegalAccessException
+	 */
+	public Map<?,?> nameValueAppend(Spliterator<R> rows) throws IllegalArgumentException, IllegalAccessException
+	{
+		if ( navRoot == null )
+		{
+			throw new IllegalStateException( "no nameValueNest() result to append to" );
+		}
+		if ( queryOnly )
+		{
+			throw new UnsupportedOperationException( "rehydrated for query only; rehydrate with the category descriptors to append" );
+		}
+		nanos = System.nanoTime();
+		if ( dictionaries == null )
+		{
+			newDictionaries(); // rehydrated
+		}
+		if ( forkJoinPool != null )
+		{
+			mergeNameValueNodes( navRoot, forkJoinPool.invoke( new NameValueNestTask( rows ) ) );
+			nanos = System.nanoTime() - nanos;
+			return nameValueRoot;
+		}
+
+		if ( categoryValues == null )
+		{
+			categoryValues = new Object[ categoryDescriptors.size() ];
+		}
+		Iterator<R> rowIterator = Spliterators.iterator( rows );
+		while ( rowIterator.hasNext() )
+		{
+			processUnorderedNameValueMapRow(rowIterator.next(), navRoot, categoryValues); 
+		}
+		nanos = System.nanoTime() - nanos;
+		return nameValueRoot;
+	}
+
+	/**
+	 * Remove <i>row</i> from the name/value tree, as delete() does for nest(). Its mapped detail is removed
+	 * from the detail collection of its inmost node, nodes left without children are pruned up the path
+	 * (and dropped from the side index), and the row is retracted from the aggregates along the path. 
+	 * Finding the node is one index probe per level; pruning a node also removes it from its parent's List.
+	 * @param row row as it was nested; its mapped detail is matched by detailIdentity()
+	 * @return false when no such detail was found, in which case nothing changes
+	 */
+	public boolean nameValueDelete( R row )
+	{
+		Object[] values = new Object[ categoryDescriptors.size() ];
+		NavHelper[] navs = nameValuePath( row, values );
+		if ( navs == null )
+		{
+			return false;
+		}
+		CategoryDescriptor<R> inmost = categoryDescriptors.get( inmostLevel );
+		Map leaf = (Map)navs[ inmostLevel ].get( values[ inmostLevel ] );
+		List details = (List)leaf.get( inmost.getDetailCollectionLabel() );
+		int at = indexOfDetail( details, inmost.mapDetail( row ) );
+		if ( at < 0 )
+		{
+			return false;
+		}
+		details.remove( at );
+		for ( int i = 0; i <= inmostLevel; i++ )
+		{
+			CategoryDescriptor<R> desc = categoryDescriptors.get( i );
+			if ( desc.hasAggregates() )
+			{
+				nodeAggregates( desc, i == inmostLevel ? leaf : (Map)navs[ i + 1 ].node ).retract( row );
+			}
+		}
+		boolean empty = details.isEmpty();
+		for ( int i = inmostLevel; i >= 0 && empty; i-- )
+		{
+			NavHelper parent = navs[ i ];
+			Object node = i == inmostLevel ? leaf : navs[ i + 1 ].node;
+			List siblings = (List)((Map)parent.node).get( categoryDescriptors.get( i ).getCollectionLabel() );
+			for ( int j = 0; j < siblings.size(); j++ )
+			{
+				if ( siblings.get( j ) == node )
+				{
+					siblings.remove( j );
+					break;
+				}
+			}
+			parent.remove( values[ i ] );
+			empty = siblings.isEmpty();
+		}
+		return true;
+	}
+
+	/**
+	 * Insert or replace <i>row</i> in the name/value tree. A mapped detail with the same identity in the
+	 * row's inmost node is replaced in place; otherwise the row is added as nameValueAppend() would add it.
+	 * Since stored details are mapped, the replaced row is not available to retract from aggregates: under 
+	 * a category with aggregates, replacing throws UnsupportedOperationException and nothing changes; 
+	 * nameValueDelete() the previous row and nameValueAppend() the new one instead.
+	 * @param row new version of the row
+	 * @return true when a detail was replaced, false when the row was added
+	 * @throws IllegalAccessException
+	 */
+	@SuppressWarnings( "unchecked" )
+	public boolean nameValueUpsert( R row ) throws IllegalAccessException
+	{
+		Object[] values = new Object[ categoryDescriptors.size() ];
+		NavHelper[] navs = nameValuePath( row, values );
+		CategoryDescriptor<R> inmost = categoryDescriptors.get( inmostLevel );
+		Object detail = inmost.mapDetail( row );
+		Map leaf = navs == null ? null : (Map)navs[ inmostLevel ].get( values[ inmostLevel ] );
+		List details = leaf == null ? null : (List)leaf.get( inmost.getDetailCollectionLabel() );
+		int at = details == null ? -1 : indexOfDetail( details, detail );
+		if ( at < 0 )
+		{
+			processUnorderedNameValueMapRow( row, navRoot );
+			return false;
+		}
+		for ( CategoryDescriptor<R> desc : categoryDescriptors )
+		{
+			if ( desc.hasAggregates() )
+			{
+				throw new UnsupportedOperationException( "replaced detail is mapped, so it cannot be retracted from the aggregates" );
+			}
+		}
+		details.set( at, detail );
+		return true;
+	}
+
+	/**
+	 * NavHelpers along the category path of <i>row</i>: element i indexes the children of category i, so 
+	 * the node of value i is navs[i].get(values[i]). Null when the path does not exist or has a null value.
+	 */
+	@SuppressWarnings( "unchecked" )
+	NavHelper[] nameValuePath( R row, Object[] values )
+	{
+		if ( navRoot == null )
+		{
+			throw new IllegalStateException( "no nameValueNest() result to change" );
+		}
+		if ( queryOnly )
+		{
+			throw new UnsupportedOperationException( "rehydrated for query only; rehydrate with the category descriptors to change" );
+		}
+		if ( categoryDescriptors.get( inmostLevel ).getDetailCollectionLabel() == null )
+		{
+			throw new UnsupportedOperationException( "no detail collection, so rows cannot be found" );
+		}
+		NavHelper[] navs = new Nester.NavHelper[ categoryDescriptors.size() ];
+		NavHelper nav = navRoot;
+		for ( int i = 0; i <= inmostLevel; i++ )
+		{
+			values[ i ] = categoryDescriptors.get( i ).getCategoryGetter().get( row );
+			navs[ i ] = nav;
+			Object target = values[ i ] == null ? null : nav.get( values[ i ] );
+			if ( target == null )
+			{
+				return null;
+			}
+			if ( i < inmostLevel )
+			{
+				nav = (NavHelper)target;
+			}
+		}
+		return navs;
+	}
+	
+	/**
+	 * Emitter that writes the nameValueNest() structure straight to <i>generator</i> as rows are pushed
+	 * into it. Rows must be ordered by the category path.
+	 * @param generator JSON, Smile, or other Jackson generator
+	 * @return emitter; call start(), row() for each row, then finish()
+	 */
+	public NameValueEmitter<R> nameValueEmitter( JsonGenerator generator )
+	{
+		NameValueEmitter<R> emitter = new NameValueEmitter<R>( categoryDescriptors, generator );
+		emitter.globalRollupLabel = globalRollupLabel;
+		emitter.globalRollupValueMappingFunction = globalRollupValueMappingFunction;
+		return emitter;
+	}
+
+	public void nameValueEmit( List<R> rows, JsonGenerator generator ) throws IOException
+	{
+		nameValueEmit( rows.iterator(), generator );
+	}
+
+	public void nameValueEmit( Stream<R> rows, JsonGenerator generator ) throws IOException
+	{
+		nameValueEmit( rows.iterator(), generator );
+	}
+
+	/**
+	 * Write the nameValueNest() structure for <i>rows</i> straight to <i>generator</i>, without building
+	 * the Map tree. Rows must be ordered by the category path. Nothing is retained for query().
+	 * @param rows ordered row source
+	 * @param generator JSON, Smile, or other Jackson generator; flushed but not closed
+	 * @throws IOException
+	 */
+	public void nameValueEmit( Iterator<R> rows, JsonGenerator generator ) throws IOException
+	{
+		nanos = System.nanoTime();
+		NameValueEmitter<R> emitter = nameValueEmitter( generator );
+		emitter.start();
+		while ( rows.hasNext() )
+		{
+			emitter.row( rows.next() );
+		}
+		emitter.finish();
+		nanos = System.nanoTime() - nanos;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	NavHelper newNameValueRoot()
+	{
+		Map root = new HashMap<>();
+		root.put( categoryDescriptors.get(0).getCollectionLabel(), newNameValueList( 0 ) );
+		return new NavHelper( 0, null, root );
+	}
+
+	/**
+	 * Merge the name/value tree under <i>right</i> into the one under <i>left</i>, where <i>right</i> 
+	 * was built from rows that follow <i>left</i>'s rows. New children are appended in <i>right</i>'s 
+	 * order, existing nodes keep <i>left</i>'s ancillary fields (first row wins) and detail collections 
+	 * are concatenated, so the result is the tree a sequential run would have built.
+	 */
+	@SuppressWarnings( "unchecked" )
+	void mergeNameValueNodes( NavHelper left, NavHelper right )
+	{
+		String rollupLabel = left.idx == 0 ? globalRollupLabel : categoryDescriptors.get( left.idx - 1 ).getRollupLabel();
+		if ( rollupLabel != null && ((Map)right.node).containsKey( rollupLabel ) )
+		{
+			// the later rollup row wins, as in a sequential run
+			((Map)left.node).put( rollupLabel, ((Map)right.node).get( rollupLabel ) );
+		}
+		CategoryDescriptor<R> desc = categoryDescriptors.get( left.idx );
+		List leftList = (List)((Map)left.node).get( desc.getCollectionLabel() );
+		List rightList = (List)((Map)right.node).get( desc.getCollectionLabel() );
+		boolean inmost = left.idx == inmostLevel;
+		for ( Object child : rightList )
+		{
+			Object key = child instanceof Map ? ((Map)child).get( desc.renderedCategoryFieldName() ) : child;
+			Object existing = left.get( key );
+			if ( existing == null )
+			{
+				leftList.add( child );
+				left.put( key, right.get( key ) );
+			}
+			else if ( !inmost )
+			{
+				mergeNameValueNodes( (NavHelper)existing, (NavHelper)right.get( key ) );
+				mergeNameValueAggregates( desc, (Map)((NavHelper)existing).node, (Map)child );
+			}
+			else
+			{
+				if ( desc.categoryRequiresListOfMaps() && desc.getDetailCollectionLabel() != null )
+				{
+					List details = (List)((Map)existing).get( desc.getDetailCollectionLabel() );
+					details.addAll( (List)((Map)child).get( desc.getDetailCollectionLabel() ) );
+				}
+				if ( desc.hasAggregates() ) // nodes are Maps then; otherwise they may be plain category values
+				{
+					mergeNameValueAggregates( desc, (Map)existing, (Map)child );
+				}
+			}
+		}
+		if ( left.idx == 0 && (left.pendingRollups != null || right.pendingRollups != null) )
+		{
+			mergePendingRollups( left, right );
+		}
+	}
+
+	/**
+	 * Merge the pending rollups (see attachRollup()) of two merged roots, <i>right</i>'s rows following 
+	 * <i>left</i>'s. A pending rollup whose node the other side created is attached to it, unless a later
+	 * rollup row already was; the others stay pending, the later one winning.
+	 */
+	@SuppressWarnings( "unchecked" )
+	void mergePendingRollups( NavHelper left, NavHelper right )
+	{
+		Map<List<Object>, Object> pending = new HashMap<>();
+		for ( Map<List<Object>, Object> rollups : List.of( left.pendingRollups == null ? Map.<List<Object>, Object>of() : left.pendingRollups, 
+			right.pendingRollups == null ? Map.<List<Object>, Object>of() : right.pendingRollups ) )
+		{
+			boolean later = rollups == right.pendingRollups;
+			for ( Map.Entry<List<Object>, Object> entry : rollups.entrySet() )
+			{
+				Object[] path = entry.getKey().toArray();
+				String label = categoryDescriptors.get( path.length - 1 ).getRollupLabel();
+				Map node = nameValueNode( left, path, path.length );
+				if ( node == null )
+				{
+					pending.put( entry.getKey(), entry.getValue() );
+				}
+				else if ( later || !node.containsKey( label ) )
+				{
+					node.put( label, entry.getValue() );
+				}
+			}
+		}
+		left.pendingRollups = pending.isEmpty() ? null : pending;
+	}
+
+	void mergeNameValueAggregates( CategoryDescriptor<R> desc, Map into, Map from )
+	{
+		if ( desc.hasAggregates() )
+		{
+			nodeAggregates( desc, into ).merge( (Aggregates)from.get( desc.getAggregatesLabel() ) );
+		}
+	}
+
+	/**
+	 * Aggregates of a name/value node. In a rehydrated tree they are plain Maps until the node is 
+	 * appended to; they are then replaced, in place, by Aggregates that continue from them.
+	 */
+	@SuppressWarnings( "unchecked" )
+	Aggregates<R> nodeAggregates( CategoryDescriptor<R> desc, Map node )
+	{
+		Object aggregates = node.get( desc.getAggregatesLabel() );
+		if ( aggregates instanceof Aggregates )
+		{
+			return (Aggregates<R>)aggregates;
+		}
+		Aggregates<R> restored = desc.newAggregates();
+		if ( aggregates instanceof Map )
+		{
+			restored.restore( (Map)aggregates );
+		}
+		node.put( desc.getAggregatesLabel(), restored );
+		return restored;
+	}
+
+	/**
+	 * Fork/join task for parallel nameValueNest(). Same splitting as NestTask; partial name/value trees
+	 * are merged with mergeNameValueNodes(), which always preserves sequential order.
+	 */
+	class NameValueNestTask
+	extends RecursiveTask<NavHelper>
+	{
+		private static final long serialVersionUID = 1L;
+		Spliterator<R> rows;
+
+		NameValueNestTask( Spliterator<R> rows )
+		{
+			this.rows = rows;
+		}
+
+		@Override
+		protected NavHelper compute()
+		{
+			Spliterator<R> prefix;
+			if ( rows.estimateSize() > parallelBatchSize && (prefix = rows.trySplit()) != null )
+			{
+				NameValueNestTask left = new NameValueNestTask( prefix );
+				left.fork();
+				NavHelper right = new NameValueNestTask( rows ).compute();
+				NavHelper merged = left.join();
+				mergeNameValueNodes( merged, right );
+				return merged;
+			}
+			NavHelper root = newNameValueRoot();
+			Object[] buffer = new Object[ categoryDescriptors.size() ];
+			long[] clocks = new long[ levelClocks.length ];
+			rows.forEachRemaining( row -> {
+				try
+				{
+					processUnorderedNameValueMapRow( row, root, buffer, clocks );
+				}
+				catch ( IllegalAccessException e )
+				{
+					log.error( "processUnorderedNameValueMapRow error,", e );
+					throw new RuntimeException(e);
+				}
+			} );
+			addLevelClocks( clocks );
+			return root;
+		}
+	}
+
+	/**
+	 * Attach a rollup row, whose first <i>depth</i> category values are not null, to the name/value node of 
+	 * category depth - 1 (the root when depth is 0), if that level maps rollups. Rollup rows create no nodes:
+	 * when the node does not exist yet, the mapped rollup is held on the root until a detail row creates it, 
+	 * so a path that no detail row reaches gets neither a node nor a rollup. The last rollup row of a path wins.
+	 */
+	@SuppressWarnings( "unchecked" )
+	void attachRollup( R row, Object[] values, int depth, NavHelper root )
+	{
+		if ( depth == 0 )
+		{
+			if ( globalRollupValueMappingFunction != null )
+			{
+				((Map)root.node).put( globalRollupLabel, globalRollupValueMappingFunction.apply( row ) );
+			}
+			return;
+		}
+		CategoryDescriptor<R> desc = categoryDescriptors.get( depth - 1 );
+		if ( !desc.hasRollups() )
+		{
+			return;
+		}
+		Object rollup = desc.mapRollup( row );
+		Map node = nameValueNode( root, values, depth );
+		if ( node != null )
+		{
+			node.put( desc.getRollupLabel(), rollup );
+			return;
+		}
+		if ( root.pendingRollups == null )
+		{
+			root.pendingRollups = new HashMap<>();
+		}
+		root.pendingRollups.put( Arrays.asList( Arrays.copyOf( values, depth ) ), rollup );
+	}
+
+	/**
+	 * Attach the rollup held for a node just created at the path of the first <i>depth</i> of <i>values</i>, if any
+	 */
+	@SuppressWarnings( "unchecked" )
+	void attachPendingRollup( NavHelper root, Map node, Object[] values, int depth )
+	{
+		Object rollup = root.pendingRollups.remove( Arrays.asList( Arrays.copyOf( values, depth ) ) );
+		if ( rollup != null )
+		{
+			node.put( categoryDescriptors.get( depth - 1 ).getRollupLabel(), rollup );
+		}
+		if ( root.pendingRollups.isEmpty() )
+		{
+			root.pendingRollups = null;
+		}
+	}
+
+	/**
+	 * Name/value node at the path of the first <i>depth</i> of <i>values</i>, above the inmost level; null 
+	 * when there is none
+	 */
+	@SuppressWarnings( "unchecked" )
+	Map nameValueNode( NavHelper root, Object[] values, int depth )
+	{
+		NavHelper nav = root;
+		for ( int i = 0; i < depth; i++ )
+		{
+			nav = (NavHelper)nav.get( values[ i ] );
+			if ( nav == null )
+			{
+				return null;
+			}
+		}
+		return (Map)nav.node;
+	}
+
+	/**
+	 * Rollup attached to the node at a (partial) category path
+	 * @param queryKeyValues category values, outmost first; none for the global rollup
+	 * @return rollup Map, or null when the path does not exist or has no rollup
+	 */
+	public Object queryRollup( Object... queryKeyValues )
+	{
+		int depth = queryKeyValues == null ? 0 : queryKeyValues.length;
+		if ( depth == 0 && lazyRoot != null )
+		{
+			return globalRollupLabel == null ? null : lazyRoot.rootFields.get( globalRollupLabel );
+		}
+		Object node = query( queryKeyValues );
+		String label = depth == 0 ? globalRollupLabel : categoryDescriptors.get( depth - 1 ).getRollupLabel();
+		return node instanceof Map && label != null ? ((Map)node).get( label ) : null;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	public Object query(Object...queryKeyValues )
+	{
+		Object result = null; 
+		if (nameValueRoot == null && lazyRoot == null)
+		{
+			throw new UnsupportedOperationException();
+		}
+		if (queryKeyValues != null && queryKeyValues.length > categoryDescriptors.size())
+		{
+			throw new IllegalArgumentException();
+		}
+		if (queryKeyValues == null || queryKeyValues.length == 0)
+		{
+			return lazyRoot != null ? lazyRoot.materialize() : nameValueRoot;
+		}
+		NavHelper nav = navRoot;
+		for (int i=0; i<queryKeyValues.length; i++)
+		{
+			result = i == 0 && lazyRoot != null ? lazyRoot.get( queryKeyValues[i] ) : nav.get( queryKeyValues[i] );
+			if (result == null)
+			{
+				return null; // you have your answer -- NO RESULTS FOR QUERY
+			}
+			if (i < inmostLevel)
+			{
+				nav = (NavHelper)result;
+				result = nav.node;
+			}
+		}
+		return result;
+	}
+	
+	
+	
+	/**
+	 * Side index kept behind one name/value node. Maps each category value found in the node's
+	 * child collection (level <i>idx</i>) to either the NavHelper of that child or, at the inmost
+	 * level, to the child itself (a Map, or the plain category value). This makes finding an
+	 * existing child a hash probe rather than a scan of the List.
+	 * <br/>
+	 * Nodes built by nameValueNest() are indexed as they are created. Nodes of a rehydrated tree
+	 * are indexed on first touch, one node at a time, so only the paths actually queried pay for it.
+	 */
+	class NavHelper
+	{
+		int idx;
+		Object key;
+		Object node;
+		volatile Map<Object, Object> navMap;
+		Map<List<Object>, Object> pendingRollups; // root only: rollups of nodes not created yet
+
+		public NavHelper(int idx, Object key, Object node)
+		{
+			this(idx, key, node, true);
+		}
+
+		public NavHelper(int idx, Object key, Object node, boolean indexed)
+		{
+			this.idx = idx;
+			this.key = key;
+			this.node = node;
+			int expected = expectedSize( idx );
+			this.navMap = !indexed ? null : expected < 0 ? new HashMap<>() : new HashMap<>( hashCapacity( expected ) );
+		}
+
+		Object get(Object categoryValue)
+		{
+			Map<Object, Object> index = navMap;
+			if ( index == null )
+			{
+				index = buildIndex();
+			}
+			return index.get( categoryValue );
+		}
+
+		void put(Object categoryValue, Object child)
+		{
+			Map<Object, Object> index = navMap;
+			if ( index == null )
+			{
+				index = buildIndex();
+			}
+			index.put( categoryValue, child );
+		}
+
+		void remove(Object categoryValue)
+		{
+			Map<Object, Object> index = navMap;
+			if ( index == null )
+			{
+				index = buildIndex();
+			}
+			index.remove( categoryValue );
+		}
+
+		/*
+		 * Concurrent queries may race to build the same index; each builds an identical
+		 * map and the last one published wins, which is harmless.
+		 */
+		private Map<Object, Object> buildIndex()
+		{
+			CategoryDescriptor<R> desc = categoryDescriptors.get( idx );
+			List children = (List)((Map)node).get( desc.getCollectionLabel() );
+			Map<Object, Object> index = new HashMap<>( children == null ? 16 : children.size() * 4 / 3 + 1 );
+			if ( children != null )
+			{
+				for ( Object child : children )
+				{
+					Object childKey = child instanceof Map ? ((Map)child).get( desc.renderedCategoryFieldName() ) : child;
+					if ( index.containsKey( childKey ) )
+					{
+						continue; // first one wins, as with a scan
+					}
+					index.put( childKey, idx == inmostLevel ? child : new NavHelper( idx + 1, childKey, child, false ) );
+				}
+			}
+			navMap = index;
+			return index;
+		}
+	}
+
+	protected void processUnorderedNameValueMapRow(R row, NavHelper navRoot) throws IllegalArgumentException, IllegalAccessException
+	{
+		processUnorderedNameValueMapRow( row, navRoot, new Object[ categoryDescriptors.size() ] );
+	}
+
+	/**
+	 * @param categoryValuesBuffer reused for this row's category values; owned by the caller, one per thread
+	 */
+	protected void processUnorderedNameValueMapRow(R row, NavHelper navRoot, Object[] categoryValuesBuffer) throws IllegalArgumentException, IllegalAccessException
+	{
+		processUnorderedNameValueMapRow( row, navRoot, categoryValuesBuffer, levelClocks );
+	}
+
+	/**
+	 * @param clocks per-level nanos to add to; a parallel task's own, levelClocks otherwise
+	 */
 	@SuppressWarnings( "unchecked" )
-	protected void processUnorderedNameValueMapRow(R row, Map root) throws IllegalArgumentException, IllegalAccessException
+	void processUnorderedNameValueMapRow(R row, NavHelper navRoot, Object[] categoryValuesBuffer, long[] clocks) throws IllegalArgumentException, IllegalAccessException
 	{
 		long clock = System.nanoTime();
 		Object categoryValue = null;
-		Map parent = root;
+		NavHelper parentNav = navRoot;
+		Map parent = (Map)navRoot.node;
 		List listForCurrentCatDesc = null;
-		for ( int i = 0; i < categoryDescriptors.size(); i++ )
+
+		/*
+		 * All values first: a row with a null value is a rollup of the last non-null level; it neither
+		 * creates nodes nor is accumulated into the aggregates of the levels above it
+		 */
+		int depth = 0;
+		while ( depth <= inmostLevel )
 		{
-			clock = System.nanoTime();
-			CategoryDescriptor<R> desc = categoryDescriptors.get( i );
-			categoryValue = desc.getCategoryField().get( row );
-			if (categoryValue == null)
+			CategoryDescriptor<R> desc = categoryDescriptors.get( depth );
+			categoryValue = desc.getCategoryGetter().get( row );
+			if ( categoryValue == null )
 			{
-				return; // no rollups for now
+				break;
 			}
+			categoryValuesBuffer[ depth ] = desc.hasDictionaryKeys() ? dictionaries[ depth ].intern( categoryValue ) : categoryValue;
+			depth++;
+		}
+		if ( depth <= inmostLevel )
+		{
+			attachRollup( row, categoryValuesBuffer, depth, navRoot );
+			return;
+		}
+
+		for ( int i = 0; i <= inmostLevel; i++ )
+		{
+			clock = System.nanoTime();
+			CategoryDescriptor<R> desc = categoryDescriptors.get( i );
+			categoryValue = categoryValuesBuffer[ i ];
 			
 			/*
 			 * The parent is actually one level above the current category. Hence, 
@@ -352,38 +1787,56 @@ public class Nester<R>
 			listForCurrentCatDesc = (List)parent.get(desc.getCollectionLabel());
 			
 			
-			Object target = lookup( desc, categoryValue, listForCurrentCatDesc, i == inmostLevel );
+			Object target = parentNav.get( categoryValue );
+			Map nodeMap = null; // this category value's Map, for its aggregates
 			if ( target == null )
 			{
 				try
 				{
 					if ( i != inmostLevel)
 					{
-						Map newMapForCategoryValue = new LinkedHashMap();
-						List newListForNextLowerCategory = new ArrayList();
-						newMapForCategoryValue.putAll(desc.mapCatAndAncFields( row )); // will include category Value, of course
+						Map newMapForCategoryValue = desc.putCatAndAncFields( row, categoryValue, desc.newNode() ); // will include category Value, of course
+						List newListForNextLowerCategory = newNameValueList( i + 1 );
 						newMapForCategoryValue.put( categoryDescriptors.get(i+1).getCollectionLabel(), newListForNextLowerCategory );
+						if ( desc.hasAggregates() )
+						{
+							newMapForCategoryValue.put( desc.getAggregatesLabel(), desc.newAggregates() );
+						}
+						if ( navRoot.pendingRollups != null )
+						{
+							attachPendingRollup( navRoot, newMapForCategoryValue, categoryValuesBuffer, i + 1 );
+						}
 						listForCurrentCatDesc.add( newMapForCategoryValue );
+						nodeMap = newMapForCategoryValue;
 						
+						NavHelper newNav = new NavHelper( i+1, categoryValue, newMapForCategoryValue );
+						parentNav.put( categoryValue, newNav );
+						parentNav = newNav;
 						parent = newMapForCategoryValue;
 					}
 					else
 					{
 						if ( desc.categoryRequiresListOfMaps() )
 						{
-							Map newMapForCategoryValue = new LinkedHashMap();
-							newMapForCategoryValue.putAll(desc.mapCatAndAncFields( row )); // will include category Value, of course
+							Map newMapForCategoryValue = desc.putCatAndAncFields( row, categoryValue, desc.newNode() ); // will include category Value, of course
 							if (desc.getDetailCollectionLabel() != null)
 							{
-								List newListForDetailMaps = new ArrayList();
+								List newListForDetailMaps = newNameValueList( i + 1 );
 								newMapForCategoryValue.put( desc.getDetailCollectionLabel(), newListForDetailMaps );
 								newListForDetailMaps.add( desc.mapDetail( row ) );
 							}
+							if ( desc.hasAggregates() )
+							{
+								newMapForCategoryValue.put( desc.getAggregatesLabel(), desc.newAggregates() );
+							}
 							listForCurrentCatDesc.add( newMapForCategoryValue );
+							parentNav.put( categoryValue, newMapForCategoryValue );
+							nodeMap = newMapForCategoryValue;
 						}
 						else
 						{
 							listForCurrentCatDesc.add(categoryValue);
+							parentNav.put( categoryValue, categoryValue );
 						}
 					}
 				}
@@ -395,7 +1848,7 @@ public class Nester<R>
 				finally
 				{
 					clock = System.nanoTime();
-					levelClocks[ i ] += System.nanoTime() - clock;
+					clocks[ i ] += System.nanoTime() - clock;
 				}
 			}
 			else // target found
@@ -423,104 +1876,108 @@ public class Nester<R>
 
 				if ( i == inmostLevel )
 				{
-					if (desc.categoryRequiresListOfMaps())
+					if (desc.categoryRequiresListOfMaps() && desc.getDetailCollectionLabel() != null)
 					{
 						Map targetMap = (Map)target;
 						List targetList = (List)targetMap.get( desc.getDetailCollectionLabel() );
 						targetList.add( desc.mapDetail( row ) );
 					}
+					if ( desc.hasAggregates() )
+					{
+						nodeMap = (Map)target;
+					}
 				}
 				else
 				{
-					parent = (Map)target;
+					parentNav = (NavHelper)target;
+					parent = (Map)parentNav.node;
+					nodeMap = parent;
 				}
 			}
+			if ( desc.hasAggregates() )
+			{
+				nodeAggregates( desc, nodeMap ).accumulate( row );
+			}
 		}
-
-		
 	}
 	
 	
-	private Object lookup( CategoryDescriptor<R> desc, Object categoryValue, List parentList, boolean atInmostLevel )
+	public long getNanos()
 	{
-		/*
-		 * Inmost level contains
-		 * 		either a List of category value objects 
-		 * 			(when desc.detailCollectionLabel is null)
-		 * 		or a List of Maps containing key/value pairs
-		 * 		{
-		 * 			categoryFieldName: categoryFieldValue,
-		 * 			detailCollectionLabel : [
-		 * 					list of detail maps
-		 * 			]
-		 * 		}
-		 * 
-		 * Every other level contains key/value pairs
-		 * 		{
-		 * 			categoryFieldName: categoryFieldValue,
-		 * 			collectionLabel (of next level) : [
-		 * 					list of category maps
-		 * 			]
-		 * 		}
-		 */
-		if (!atInmostLevel || desc.getDetailCollectionLabel() != null)
+		return nanos;
+	}
+
+	/**
+	 * @return nanos spent per category level, across runs. Parallel tasks keep their own clocks and add them 
+	 * in as each batch is done, so the sum is of all threads' time, not elapsed time.
+	 */
+	public long[] getLevelClocks()
+	{
+		if ( levelClocks == null )
 		{
-			Map possibleTargetMap = null;
-			Object possibleTargetCategoryValue = null;
-			
-			for (int i=0; i<parentList.size(); i++)
-			{
-				possibleTargetMap = (Map)parentList.get( i );
-				possibleTargetCategoryValue = possibleTargetMap.get(desc.renderedCategoryFieldName());
-				if (categoryValue.equals( possibleTargetCategoryValue ))
-				{
-					return possibleTargetMap; // we found it
-				}
-			}
 			return null;
 		}
-		else
+		synchronized ( levelClocks )
+		{
+			return levelClocks.clone();
+		}
+	}
+
+	/*
+	 * Add the clocks of a parallel task, which must not update levelClocks row by row: the tasks would race
+	 */
+	void addLevelClocks( long[] clocks )
+	{
+		synchronized ( levelClocks )
 		{
-			for (int i=0; i<parentList.size(); i++)
+			for ( int i = 0; i < clocks.length; i++ )
 			{
-				if (categoryValue.equals( parentList.get( i ) ))
-				{
-					return parentList.get( i );
-				}
+				levelClocks[ i ] += clocks[ i ];
 			}
-			return null;
 		}
 	}
 
-	public long getNanos()
+	protected void processUnorderedRow( R row, Map masterNode )
+	throws Exception
 	{
-		return nanos;
+		processUnorderedRow( row, masterNode, new Object[ fields.size() ], primitiveLevels == null ? null : new long[ fields.size() ] );
 	}
 
-	public long[] getLevelClocks()
+	/**
+	 * @param categoryValuesBuffer reused for this row's category values; owned by the caller, one per thread
+	 * @param categoryLongsBuffer same, for primitive levels; null when there are none
+	 */
+	protected void processUnorderedRow( R row, Map masterNode, Object[] categoryValuesBuffer, long[] categoryLongsBuffer )
+	throws Exception
 	{
-		return levelClocks;
+		processUnorderedRow( row, masterNode, categoryValuesBuffer, categoryLongsBuffer, levelClocks );
 	}
 
+	/**
+	 * @param clocks per-level nanos to add to; a parallel task's own, levelClocks otherwise
+	 */
 	@SuppressWarnings( { "unchecked" } )
-	protected void processUnorderedRow( R row, Map masterNode )
+	void processUnorderedRow( R row, Map masterNode, Object[] categoryValuesBuffer, long[] categoryLongsBuffer, long[] clocks )
 	throws Exception
 	{
 		ListLevel listHelper = new ListLevel(null); 
-		MapLevel mapHelper = new MapLevel(null); 
 		Map<Object, Object> parentNode = masterNode;
 		Map<Object, Object> parent = masterNode;
 		Object categoryValue = null;
 		long clock = 0l;
 
-		Object[] categoryValues = accessor.getCategoryValues( row );
+		Object[] categoryValues = readCategoryValues( row, categoryValuesBuffer, categoryLongsBuffer );
+		boolean accumulate = aggregateLevels != null && !isRollup( categoryValues );
 
 		for ( int i = 0; i < fields.size(); i++ )
 		{
 			clock = System.nanoTime();
 			parent = parentNode;
+			boolean primitive = primitiveLevels != null && primitiveLevels[ i ];
 			categoryValue = categoryValues[ i ];
-			Object objectForCurrentCatValue = parent == null ? null : parent.get( categoryValue );
+			Object objectForCurrentCatValue = parent == null ? null 
+				: primitive ? ((LongKeyedMap)parent).getLong( categoryLongsBuffer[ i ] ) : parent.get( categoryValue );
+			Object node = objectForCurrentCatValue;
 			if ( objectForCurrentCatValue == null )
 			{
 				try
@@ -530,18 +1987,20 @@ public class Nester<R>
 						List l = listHelper.newContainer();
 						if (parent != null)
 						{
-							parent.put( categoryValue, l );
+							putNode( parent, primitive, categoryValue, categoryLongsBuffer, i, l );
 						}
 						listHelper.addDetail( l, row );
+						node = l;
 					}
 					else
 					{
-						Map m = mapHelper.newContainer();
+						Map m = newNodeMap( i + 1 );
 						if (parent != null)
 						{
-							parent.put( categoryValue, m );
+							putNode( parent, primitive, categoryValue, categoryLongsBuffer, i, m );
 						}
 						parentNode = m;
+						node = m;
 					}
 				}
 				catch ( Exception e )
@@ -551,7 +2010,7 @@ public class Nester<R>
 				finally
 				{
 					clock = System.nanoTime();
-					levelClocks[ i ] += System.nanoTime() - clock;
+					clocks[ i ] += System.nanoTime() - clock;
 				}
 			}
 			else
@@ -566,10 +2025,109 @@ public class Nester<R>
 					parentNode = (Map)objectForCurrentCatValue;
 				}
 			}
+			if ( accumulate && aggregateLevels[ i ] )
+			{
+				accumulate( node, row );
+			}
+		}
+
+	}
+
+
+	/**
+	 * Merge partial tree <i>right</i> into partial tree <i>left</i>, where both hold keys of category
+	 * <i>level</i>. Returns whichever Map now holds the merged result.
+	 */
+	@SuppressWarnings( { "unchecked" } )
+	Map mergeNodes( Map left, Map right, int level )
+	{
+		Map into = left;
+		Map from = right;
+		if ( !deterministicOrder && right.size() > left.size() )
+		{
+			into = right;
+			from = left;
+		}
+		for ( Object o : from.entrySet() )
+		{
+			Map.Entry entry = (Map.Entry)o;
+			Object existing = into.get( entry.getKey() );
+			if ( existing == null )
+			{
+				into.put( entry.getKey(), entry.getValue() );
+			}
+			else
+			{
+				Object merged = level == inmostLevel ? mergeLists( (List)existing, (List)entry.getValue() ) 
+					: mergeNodes( (Map)existing, (Map)entry.getValue(), level + 1 );
+				if ( merged instanceof Aggregates.Holder )
+				{
+					Object other = merged == existing ? entry.getValue() : existing;
+					((Aggregates.Holder)merged).getAggregates().merge( ((Aggregates.Holder)other).getAggregates() );
+				}
+				into.put( entry.getKey(), merged );
+			}
 		}
+		return into;
+	}
 
+	@SuppressWarnings( { "unchecked" } )
+	List mergeLists( List left, List right )
+	{
+		if ( !deterministicOrder && right.size() > left.size() )
+		{
+			right.addAll( left );
+			return right;
+		}
+		left.addAll( right );
+		return left;
 	}
 
+	/**
+	 * Fork/join task for parallel nest(). Splits its rows until a batch is small enough, nests the batch
+	 * into a partial tree, and merges the partial trees of the two halves (prefix first).
+	 */
+	class NestTask
+	extends RecursiveTask<Map>
+	{
+		private static final long serialVersionUID = 1L;
+		Spliterator<R> rows;
+
+		NestTask( Spliterator<R> rows )
+		{
+			this.rows = rows;
+		}
+
+		@Override
+		protected Map compute()
+		{
+			Spliterator<R> prefix;
+			if ( rows.estimateSize() > parallelBatchSize && (prefix = rows.trySplit()) != null )
+			{
+				NestTask left = new NestTask( prefix );
+				left.fork();
+				Map right = new NestTask( rows ).compute();
+				return mergeNodes( left.join(), right, 0 );
+			}
+			Map node = newNodeMap( 0 );
+			Object[] buffer = new Object[ fields.size() ];
+			long[] longBuffer = primitiveLevels == null ? null : new long[ fields.size() ];
+			long[] clocks = new long[ levelClocks.length ];
+			rows.forEachRemaining( row -> {
+				try
+				{
+					processUnorderedRow( row, node, buffer, longBuffer, clocks );
+				}
+				catch ( Exception e )
+				{
+					log.error( "processUnorderedRow error,", e );
+					throw new RuntimeException(e);
+				}
+			} );
+			addLevelClocks( clocks );
+			return node;
+		}
+	}
 
 	@SuppressWarnings( { "unchecked" } )
 	protected void processOrderedRow( R row, Map<?,?> masterNode )
@@ -580,7 +2138,23 @@ public class Nester<R>
 		Object categoryValue = null;
 		long clock = 0l;
 
-		Object[] categoryValues = accessor.getCategoryValues( row );
+		if ( this.categoryValues == null )
+		{
+			this.categoryValues = new Object[ fields.size() ];
+			this.categoryLongs = primitiveLevels == null ? null : new long[ fields.size() ];
+		}
+		Object[] categoryValues = presorted != null ? presorted.read( this.categoryValues, categoryLongs )
+			: readCategoryValues( row, this.categoryValues, categoryLongs );
+		boolean accumulate = aggregateLevels != null && !isRollup( categoryValues );
+
+		if ( subtreeSink != null )
+		{
+			int breakLevel = breakLevel( categoryValues, categoryLongs );
+			if ( breakLevel <= flushLevel )
+			{
+				flushSubtree( masterNode, breakLevel );
+			}
+		}
 
 		for ( int categoryIdx = 0; categoryIdx < fields.size(); categoryIdx++ )
 		{
@@ -588,9 +2162,17 @@ public class Nester<R>
 			parent = parentNode;
 			categoryValue = categoryValues[ categoryIdx ];
 			ContainerLevel cl = fields.get( categoryIdx );
+			boolean primitive = cl.isPrimitive();
 			try
 			{
-				cl.testFieldValue( categoryValue );
+				if ( primitive )
+				{
+					cl.testLongValue( categoryLongs[ categoryIdx ] );
+				}
+				else
+				{
+					cl.testFieldValue( categoryValue );
+				}
 				if ( categoryIdx == inmostLevel )
 				{
 					ListLevel ll = (ListLevel) cl;
@@ -605,7 +2187,7 @@ public class Nester<R>
 					{
 						ll.newContainer();
 						List list = ll.getList();
-						parent.put( categoryValue, ll.getContainer() );
+						putNode( parent, primitive, categoryValue, categoryLongs, categoryIdx, ll.getContainer() );
 						if (collectDetails)
 						{
 							list.add( accessor.getDetail( row ) );
@@ -618,7 +2200,7 @@ public class Nester<R>
 					if ( ml.isValueBreak() )
 					{
 						ml.newContainer();
-						parent.put( categoryValue, ml.getContainer() );
+						putNode( parent, primitive, categoryValue, categoryLongs, categoryIdx, ml.getContainer() );
 						for ( int j = categoryIdx + 1; j <= inmostLevel; j++ )
 						{
 							fields.get( j ).reset();
@@ -626,9 +2208,17 @@ public class Nester<R>
 					}
 					parentNode = ml.getContainer();
 				}
+				if ( accumulate && aggregateLevels[ categoryIdx ] )
+				{
+					accumulate( cl.getContainer(), row );
+				}
 			}
 			catch ( Exception e )
 			{
+				if ( presorted != null )
+				{
+					throw e; // autoOrdered(): the caller logs and rethrows
+				}
 				log.error( "Exception processing row", e );
 			}
 			levelClocks[ categoryIdx ] += System.nanoTime() - clock;
@@ -636,18 +2226,246 @@ public class Nester<R>
 
 	}
 
+	/**
+	 * Outermost level at which this row's category values differ from the previous row's.
+	 */
+	int breakLevel( Object[] categoryValues, long[] categoryLongs )
+	{
+		for ( int i = 0; i < fields.size(); i++ )
+		{
+			ContainerLevel cl = fields.get( i );
+			if ( cl.isPrimitive() ? cl.breaksOnLong( categoryLongs[ i ] ) : cl.breaksOn( categoryValues[ i ] ) )
+			{
+				return i;
+			}
+		}
+		return fields.size();
+	}
+
+	/**
+	 * Is the row whose values readCategoryValues() returned a rollup row (e.g. a GROUP BY ROLLUP subtotal), i.e.
+	 * is one of its category values null? Primitive levels are never null. Rollup rows are nested as any other,
+	 * but not accumulated into Aggregates, which count detail rows only.
+	 */
+	boolean isRollup( Object[] categoryValues )
+	{
+		for ( int i = 0; i < categoryValues.length; i++ )
+		{
+			if ( categoryValues[ i ] == null && (primitiveLevels == null || !primitiveLevels[ i ] || categoryDescriptors.get( i ).hasDictionaryKeys()) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Category values of <i>row</i>; for primitive levels the value goes to <i>longsInto</i> instead. With a
+	 * generated accessor the getters are read directly, so primitive levels are never boxed; a supplied 
+	 * Accessor's values are unboxed. Dictionary levels put the value's code in <i>longsInto</i>.
+	 */
+	Object[] readCategoryValues( R row, Object[] into, long[] longsInto )
+	{
+		if ( primitiveLevels == null )
+		{
+			return accessor.getCategoryValues( row, into );
+		}
+		if ( !accessorGenerated )
+		{
+			Object[] values = accessor.getCategoryValues( row, into );
+			for ( int i = 0; i < primitiveLevels.length; i++ )
+			{
+				if ( primitiveLevels[ i ] )
+				{
+					longsInto[ i ] = dictionaries != null && dictionaries[ i ] != null ? dictionaries[ i ].code( values[ i ] ) 
+						: ((Number)values[ i ]).longValue();
+				}
+			}
+			return values;
+		}
+		for ( int i = 0; i < primitiveLevels.length; i++ )
+		{
+			CategoryDescriptor<R> desc = categoryDescriptors.get( i );
+			ValueGetter<R> getter = desc.getCategoryGetter();
+			if ( desc.hasDictionaryKeys() )
+			{
+				into[ i ] = getter.get( row );
+				longsInto[ i ] = dictionaries[ i ].code( into[ i ] );
+			}
+			else if ( primitiveLevels[ i ] )
+			{
+				longsInto[ i ] = getter.getLong( row );
+			}
+			else
+			{
+				into[ i ] = getter.get( row );
+			}
+		}
+		return into;
+	}
+
+	/**
+	 * Container for the values of category <i>level</i>; below the root it is the node of a category 
+	 * <i>level - 1</i> value and carries that category's Aggregates, if any.
+	 */
+	@SuppressWarnings( "unchecked" )
+	Map newNodeMap( int level )
+	{
+		Aggregates aggregates = level > 0 && aggregateLevels != null ? categoryDescriptors.get( level - 1 ).newAggregates() : null;
+		CategoryDictionary dictionary = getDictionary( level );
+		int expected = expectedSize( level );
+		if ( dictionary != null )
+		{
+			int size = expected < 0 ? 8 : expected;
+			return aggregates == null ? new LongKeyedMap( dictionary, size ) : new Aggregates.HolderLongKeyedMap( dictionary, aggregates, size );
+		}
+		if ( primitiveLevels != null && primitiveLevels[ level ] )
+		{
+			Class<?> keyType = categoryDescriptors.get( level ).getCategoryGetter().getType();
+			int size = expected < 0 ? 8 : expected;
+			return aggregates == null ? new LongKeyedMap( keyType, size ) : new Aggregates.HolderLongKeyedMap( keyType, aggregates, size );
+		}
+		int capacity = expected < 0 ? 16 : hashCapacity( expected );
+		return aggregates == null ? new LinkedHashMap<Object, Object>( capacity ) : new Aggregates.HolderMap( aggregates, capacity );
+	}
+
+	/**
+	 * Entries a new container of <i>level</i> is expected to get, from statistics(); -1 when unknown. Level
+	 * categoryDescriptors.size() is the details.
+	 */
+	int expectedSize( int level )
+	{
+		return statistics == null ? -1 : statistics.expectedSize( level );
+	}
+
+	/**
+	 * HashMap capacity that holds <i>expected</i> entries without a resize
+	 */
+	static int hashCapacity( int expected )
+	{
+		return expected * 4 / 3 + 1;
+	}
+
+	/**
+	 * Name/value collection of <i>level</i>'s nodes (or details)
+	 */
+	List newNameValueList( int level )
+	{
+		int expected = expectedSize( level );
+		return expected < 0 ? new ArrayList() : new ArrayList( expected );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	void accumulate( Object node, R row )
+	{
+		((Aggregates<R>)Aggregates.of( node )).accumulate( row );
+	}
+
+	/**
+	 * Detail list: the node of an inmost category value
+	 */
+	List newDetailList()
+	{
+		Aggregates aggregates = aggregateLevels != null ? categoryDescriptors.get( inmostLevel ).newAggregates() : null;
+		int expected = expectedSize( inmostLevel + 1 );
+		int capacity = expected < 0 ? 10 : expected;
+		return aggregates == null ? new ArrayList( capacity ) : new Aggregates.HolderList( aggregates, capacity );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	void putNode( Map parent, boolean primitive, Object categoryValue, long[] categoryLongs, int level, Object node )
+	{
+		if ( primitive )
+		{
+			((LongKeyedMap)parent).putLong( categoryLongs[ level ], node );
+		}
+		else
+		{
+			parent.put( categoryValue, node );
+		}
+	}
+
+	/**
+	 * Hand the current subtree at flushLevel to the sink and detach it (and any ancestors it leaves
+	 * empty) from the result, so it can be collected. Ancestors at <i>closedLevel</i> and below are
+	 * complete as well, so their Aggregates go to the sink too.
+	 */
+	@SuppressWarnings( "unchecked" )
+	void flushSubtree( Map masterNode, int closedLevel )
+	{
+		ContainerLevel flushed = fields.get( flushLevel );
+		Object subtree = flushed.getContainer();
+		if ( subtree == null )
+		{
+			return; // nothing collected since the last flush
+		}
+		Object[] path = new Object[ flushLevel + 1 ];
+		for ( int j = 0; j <= flushLevel; j++ )
+		{
+			path[ j ] = fields.get( j ).getLastValue();
+		}
+		for ( int j = flushLevel; j >= 0; j-- )
+		{
+			if ( j < flushLevel && !((Map)fields.get( j ).getContainer()).isEmpty() )
+			{
+				break;
+			}
+			Map parent = j == 0 ? masterNode : (Map)fields.get( j - 1 ).getContainer();
+			parent.remove( path[ j ] );
+		}
+		flushed.setContainer( null );
+		subtreeSink.accept( path, subtree );
+		for ( int j = flushLevel - 1; j >= closedLevel; j-- )
+		{
+			if ( aggregateLevels != null && aggregateLevels[ j ] )
+			{
+				subtreeSink.acceptAggregates( Arrays.copyOf( path, j + 1 ), Aggregates.of( fields.get( j ).getContainer() ) );
+			}
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
 	private void initializeFields()
 	throws NoSuchFieldException, SecurityException
 	{
 		fields = categoryDescriptors.subList( 0, categoryDescriptors.size() - 1 ).stream().map( s -> field( s ) ).collect( Collectors.toList() );
 
 		fields.add( new ListLevel( categoryDescriptors.get( inmostLevel ) ) );
+
+		primitiveLevels = null;
+		aggregateLevels = null;
+		dictionaries = null;
+		categoryValues = null;
+		for ( int i = 0; i <= inmostLevel; i++ )
+		{
+			if ( categoryDescriptors.get( i ).hasPrimitiveKeys() || categoryDescriptors.get( i ).hasDictionaryKeys() )
+			{
+				if ( primitiveLevels == null )
+				{
+					primitiveLevels = new boolean[ categoryDescriptors.size() ];
+				}
+				primitiveLevels[ i ] = true;
+			}
+			if ( categoryDescriptors.get( i ).hasAggregates() )
+			{
+				if ( aggregateLevels == null )
+				{
+					aggregateLevels = new boolean[ categoryDescriptors.size() ];
+				}
+				aggregateLevels[ i ] = true;
+			}
+		}
+		for ( int i = 0; i < inmostLevel; i++ )
+		{
+			((MapLevel)fields.get( i )).childLevel = i + 1;
+		}
 	}
 
 	private void initializeDetailField()
 	throws NoSuchFieldException, SecurityException
 	{
-		detailField = rowClazz.getDeclaredField( detailFieldName );
+		detailGetter = ValueGetter.forName( rowClazz, detailFieldName );
+		detailField = detailGetter.getMember() instanceof Field ? (Field)detailGetter.getMember() : null;
 	}
 
 	private ContainerLevel field( CategoryDescriptor<R> descriptor )
@@ -658,7 +2476,7 @@ public class Nester<R>
 		}
 		catch ( Exception e )
 		{
-			log.error( descriptor.getCategoryField().getName() + " is not a valid category descriptor.", e );
+			log.error( descriptor.categoryFieldName + " is not a valid category descriptor.", e );
 			return null;
 		}
 	}
@@ -677,6 +2495,8 @@ public class Nester<R>
 	extends ContainerLevel<R, Map>
 	{
 		
+		int childLevel; // category level of the values this level's containers hold
+
 		public MapLevel( CategoryDescriptor<R> descriptor ) throws NoSuchFieldException, SecurityException
 		{
 			super( descriptor );
@@ -685,7 +2505,7 @@ public class Nester<R>
 		@Override
 		public Map< ? , ? > newContainer()
 		{
-			return (container = new LinkedHashMap<Object, Object>() );
+			return (container = newNodeMap( childLevel ) );
 		}
 		
 		public Map< ? , ? > getMap()
@@ -706,7 +2526,7 @@ public class Nester<R>
 		@Override
 		public List<Serializable> newContainer()
 		{
-			return (container = new ArrayList());
+			return (container = newDetailList());
 		}
 		
 		public List getList()
@@ -724,73 +2544,4 @@ public class Nester<R>
 		}
 	}
 
-	class DefaultAccessor
-	implements Accessor<R>
-	{
-		Field[] rowFields;
-		Field detailField;
-		Function<R, Object> detailAccessor;
-
-		public DefaultAccessor( List<ContainerLevel> fields, Field detailField )
-		{
-			rowFields = new Field[ fields.size() ];
-			for ( int i = 0; i < rowFields.length; i++ )
-			{
-				rowFields[ i ] = fields.get( i ).getCategoryField();
-			}
-			this.detailField = detailField;
-			detailAccessor = ( detailField == null ) ?
-				new Function<R, Object>()
-				{
-					public R apply( R row )
-					{
-						return row;
-					}
-				} 
-				: 
-				new Function<R, Object>()
-				{
-					public Object apply( R row )
-					{
-						try
-						{
-							return (Object)detailField.get( row );
-						}
-						catch ( Exception e )
-						{
-							log.error( "Field access error", e );
-							return null;
-						}
-					}
-				}
-			;
-
-		}
-
-		@Override
-		public Object[] getCategoryValues( R row )
-		{
-			Object[] results = new Object[ rowFields.length ];
-			for ( int i = 0; i < rowFields.length; i++ )
-			{
-				try
-				{
-					results[ i ] = rowFields[ i ].get( row );
-				}
-				catch ( Exception e )
-				{
-					log.error( "Field access error", e );
-				}
-			}
-			return results;
-		}
-
-		@Override
-		public Object getDetail( R row )
-		{
-			return detailAccessor.apply( row );
-		}
-
-	}
-
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.util.ArrayList ;
+import java.util.Collection ;
+import java.util.LinkedHashMap ;
+import java.util.List ;
+import java.util.Map ;
+
+/**
+ * Shape of the results of one Nester configuration, observed across runs
+ *
+ * Give the same instance to Nester.statistics() on every run. After each nest() or nameValueNest() the result is
+ * walked once and, per level, the node count, mean and maximum fan-out are
+ * recorded and the category values are added to a HyperLogLog sketch. The next run presizes each new container
+ * for the mean fan-out of its level in the last run, so big levels neither rehash nor regrow.
+ * <br/>
+ * Level i holds the values of category i; level getDepth() holds the details of the inmost category (name/value
+ * results: its detail collection, if any). Fan-out of level i is the number of its nodes per node of level
+ * i - 1 (per root at level 0). A flushSubtrees() run is not observed, as its result is handed away; nor is an
+ * append() or nameValueAppend(), which would walk the whole tree again for a few rows and count it as a run.
+ *
+ * @author jgenoese
+ */
+public class NesterStatistics
+{
+	static final int MAX_PRESIZE = 1 << 16; // a hint, not a reservation: skewed levels should not overallocate
+
+	int depth = -1;
+	int runs;
+	long[] nodes;
+	int[] maxFanOut;
+	HyperLogLog[] distinct;
+	volatile int[] expectedSizes; // from the last run; null before the first
+
+	/**
+	 * @return number of results observed
+	 */
+	public synchronized int getRuns()
+	{
+		return runs;
+	}
+
+	/**
+	 * @return number of category levels; -1 before the first run
+	 */
+	public synchronized int getDepth()
+	{
+		return depth;
+	}
+
+	/**
+	 * @return nodes (or, at getDepth(), details) of <i>level</i> in the last run
+	 */
+	public synchronized long getNodes( int level )
+	{
+		return nodes[ level ];
+	}
+
+	/**
+	 * @return children per node of <i>level</i> - 1 in the last run
+	 */
+	public synchronized double getMeanFanOut( int level )
+	{
+		long parents = level == 0 ? 1 : nodes[ level - 1 ];
+		return parents == 0 ? 0 : (double)nodes[ level ] / parents;
+	}
+
+	/**
+	 * @return most children of any node of <i>level</i> - 1 in the last run
+	 */
+	public synchronized int getMaxFanOut( int level )
+	{
+		return maxFanOut[ level ];
+	}
+
+	/**
+	 * @return estimated distinct values of category <i>level</i> across all runs, whatever their parents
+	 */
+	public synchronized long getDistinct( int level )
+	{
+		return distinct[ level ].estimate();
+	}
+
+	/**
+	 * Capacity hint for a new container of <i>level</i>'s nodes
+	 * @return expected entries, or -1 when nothing was observed yet
+	 */
+	public int expectedSize( int level )
+	{
+		int[] sizes = expectedSizes;
+		return sizes == null || level >= sizes.length ? -1 : sizes[ level ];
+	}
+
+	/**
+	 * @return per level: nodes, meanFanOut, maxFanOut and (category levels) distinct, for capacity planning
+	 */
+	public synchronized List<Map<String, Object>> summary()
+	{
+		List<Map<String, Object>> result = new ArrayList<>( depth + 1 );
+		for ( int level = 0; level <= depth; level++ )
+		{
+			Map<String, Object> stats = new LinkedHashMap<>();
+			stats.put( "level", level == depth ? "details" : level );
+			stats.put( "nodes", nodes[ level ] );
+			stats.put( "meanFanOut", getMeanFanOut( level ) );
+			stats.put( "maxFanOut", maxFanOut[ level ] );
+			if ( level < depth )
+			{
+				stats.put( "distinct", getDistinct( level ) );
+			}
+			result.add( stats );
+		}
+		return result;
+	}
+
+	/**
+	 * Observe a nest() result
+	 */
+	synchronized void observe( Map<?, ?> root, int depth )
+	{
+		start( depth );
+		observeMap( root, 0 );
+		finish();
+	}
+
+	void observeMap( Map<?, ?> node, int level )
+	{
+		count( level, node.size() );
+		for ( Map.Entry<?, ?> entry : node.entrySet() )
+		{
+			distinct[ level ].add( entry.getKey() );
+			if ( level < depth - 1 )
+			{
+				observeMap( (Map<?, ?>)entry.getValue(), level + 1 );
+			}
+			else
+			{
+				count( depth, ((Collection<?>)entry.getValue()).size() );
+			}
+		}
+	}
+
+	/**
+	 * Observe a nameValueNest() result
+	 */
+	synchronized <R> void observeNameValue( Map<?, ?> root, List<CategoryDescriptor<R>> descriptors )
+	{
+		start( descriptors.size() );
+		observeCollection( root.get( descriptors.get( 0 ).getCollectionLabel() ), 0, descriptors );
+		finish();
+	}
+
+	<R> void observeCollection( Object collection, int level, List<CategoryDescriptor<R>> descriptors )
+	{
+		if ( !(collection instanceof Collection) )
+		{
+			return;
+		}
+		Collection<?> nodeList = (Collection<?>)collection;
+		count( level, nodeList.size() );
+		CategoryDescriptor<R> desc = descriptors.get( level );
+		for ( Object node : nodeList )
+		{
+			if ( !(node instanceof Map) )
+			{
+				distinct[ level ].add( node );
+				continue;
+			}
+			Map<?, ?> nodeMap = (Map<?, ?>)node;
+			distinct[ level ].add( nodeMap.get( desc.renderedCategoryFieldName() ) );
+			if ( level < depth - 1 )
+			{
+				observeCollection( nodeMap.get( descriptors.get( level + 1 ).getCollectionLabel() ), level + 1, descriptors );
+			}
+			else if ( desc.getDetailCollectionLabel() != null && nodeMap.get( desc.getDetailCollectionLabel() ) instanceof Collection )
+			{
+				count( depth, ((Collection<?>)nodeMap.get( desc.getDetailCollectionLabel() )).size() );
+			}
+		}
+	}
+
+	void start( int depth )
+	{
+		if ( this.depth != depth )
+		{
+			if ( this.depth >= 0 )
+			{
+				throw new IllegalArgumentException( "statistics are for " + this.depth + " categories, not " + depth );
+			}
+			this.depth = depth;
+			distinct = new HyperLogLog[ depth ];
+			for ( int level = 0; level < depth; level++ )
+			{
+				distinct[ level ] = new HyperLogLog();
+			}
+		}
+		nodes = new long[ depth + 1 ];
+		maxFanOut = new int[ depth + 1 ];
+	}
+
+	void count( int level, int fanOut )
+	{
+		nodes[ level ] += fanOut;
+		maxFanOut[ level ] = Math.max( maxFanOut[ level ], fanOut );
+	}
+
+	void finish()
+	{
+		runs++;
+		int[] sizes = new int[ depth + 1 ];
+		for ( int level = 0; level <= depth; level++ )
+		{
+			sizes[ level ] = (int)Math.min( MAX_PRESIZE, Math.ceil( getMeanFanOut( level ) ) );
+		}
+		expectedSizes = sizes;
+	}
+}
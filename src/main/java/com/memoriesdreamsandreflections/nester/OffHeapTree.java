@@ -0,0 +1,704 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.io.ByteArrayInputStream ;
+import java.io.ByteArrayOutputStream ;
+import java.io.Closeable ;
+import java.io.DataInputStream ;
+import java.io.DataOutputStream ;
+import java.io.IOException ;
+import java.io.UncheckedIOException ;
+import java.nio.ByteBuffer ;
+import java.nio.ByteOrder ;
+import java.nio.DoubleBuffer ;
+import java.nio.IntBuffer ;
+import java.nio.LongBuffer ;
+import java.nio.channels.FileChannel ;
+import java.nio.file.Path ;
+import java.nio.file.StandardOpenOption ;
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.Collection ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.function.IntFunction ;
+
+/**
+ * Off-heap nest() result
+ *
+ * The level/offset layout of CompactTree, kept in direct ByteBuffers or in a memory-mapped file instead of on
+ * the heap, so a tree of any size adds nothing for the garbage collector to trace. Keys are dictionary encoded
+ * per level: each distinct key is stored once, encoded by that level's Codec, and nodes hold its int id. Details
+ * are stored encoded by the detail Codec. Keys and details are decoded only when read, so traversal, query()
+ * and the asMap() view materialize just what they touch.
+ * <br/>
+ * It is written level by level straight from a nest() result (or any LevelTree), so no on-heap copy of the tree
+ * is built on the way. Aggregates are carried over as primitive counts and statistics, and decoded into a new
+ * Aggregates by each getAggregates(). A mapped tree ends with a directory of its regions, so open() can map the
+ * file again, e.g. in another process.
+ * <br/>
+ * Each level holds at most Integer.MAX_VALUE / 8 nodes. Direct buffers are released when the tree is collected;
+ * close() also closes the file of a mapped tree.
+ *
+ * @author jgenoese
+ */
+@SuppressWarnings( { "rawtypes", "unchecked" } )
+public class OffHeapTree
+extends LevelTree
+implements Closeable
+{
+	static final int MIN_SEGMENT = 1 << 16;
+	static final int MAX_SEGMENT = 1 << 28;
+	static final int MAGIC = 0x4E455354; // "NEST", the last int of a mapped tree's file
+
+	final int depth;
+	final Codec[] keyCodecs;
+	final Codec detailCodec;
+	final IntFunction<ByteBuffer> allocator;
+	final IntBuffer[] nodeKeys; // per level: dictionary id of each node's key, -1 for null
+	final IntBuffer[] offsets; // per level: size + 1 offsets into the next level, or into details
+	final IntBuffer[] nodeHashes; // per level: (parent, key id) -> node + 1, 0 is empty
+	final Blob[] dictionaries; // per level: each distinct key, encoded
+	final IntBuffer[] dictionaryHashes; // per level: encoded key -> id + 1, 0 is empty
+	final String[][] aggregateNames; // per level: aggregate fields; null when the level has no Aggregates
+	final LongBuffer[] aggregateCounts; // per level and node: row count (-1: no Aggregates), then each field's count
+	final DoubleBuffer[] aggregateStats; // per level and node: sum, min, max of each field; NaN for an unknown min/max
+	Blob details;
+	FileChannel channel; // of a mapped tree
+
+	/**
+	 * Copy <i>tree</i> into direct ByteBuffers
+	 * @param tree e.g. from Nester.compactNest()
+	 * @param keyCodecs one per level
+	 * @param detailCodec codec of the details
+	 * @return off-heap copy
+	 */
+	public static OffHeapTree of( LevelTree tree, Codec<?>[] keyCodecs, Codec<?> detailCodec )
+	{
+		return of( tree.asMap(), tree.getDepth(), keyCodecs, detailCodec );
+	}
+
+	/**
+	 * Copy <i>tree</i> into a memory-mapped file, which is created or truncated. The OS pages it in and out,
+	 * so the tree may be larger than physical memory.
+	 * @param tree e.g. from Nester.compactNest()
+	 * @param keyCodecs one per level
+	 * @param detailCodec codec of the details
+	 * @param file backing file
+	 * @return off-heap copy
+	 * @throws IOException
+	 */
+	public static OffHeapTree of( LevelTree tree, Codec<?>[] keyCodecs, Codec<?> detailCodec, Path file )
+	throws IOException
+	{
+		return of( tree.asMap(), tree.getDepth(), keyCodecs, detailCodec, file );
+	}
+
+	/**
+	 * Copy a nest() result into direct ByteBuffers, one level at a time
+	 * @param root nest() result
+	 * @param depth number of categories it was nested by
+	 * @param keyCodecs one per level
+	 * @param detailCodec codec of the details
+	 * @return off-heap copy
+	 */
+	public static OffHeapTree of( Map<?, ?> root, int depth, Codec<?>[] keyCodecs, Codec<?> detailCodec )
+	{
+		OffHeapTree result = new OffHeapTree( depth, keyCodecs, detailCodec, ByteBuffer::allocateDirect );
+		result.copy( root );
+		return result;
+	}
+
+	/**
+	 * Copy a nest() result into a memory-mapped file, one level at a time; see of(LevelTree, Codec[], Codec, Path)
+	 * @param root nest() result
+	 * @param depth number of categories it was nested by
+	 * @param keyCodecs one per level
+	 * @param detailCodec codec of the details
+	 * @param file backing file
+	 * @return off-heap copy
+	 * @throws IOException
+	 */
+	public static OffHeapTree of( Map<?, ?> root, int depth, Codec<?>[] keyCodecs, Codec<?> detailCodec, Path file )
+	throws IOException
+	{
+		FileChannel channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING );
+		try
+		{
+			Regions regions = new Regions( channel, FileChannel.MapMode.READ_WRITE );
+			OffHeapTree result = new OffHeapTree( depth, keyCodecs, detailCodec, regions );
+			result.copy( root );
+			result.writeDirectory( regions );
+			result.channel = channel;
+			return result;
+		}
+		catch ( IOException | RuntimeException e )
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Map a tree written by of(..., Path) again, read-only
+	 * @param file backing file of a mapped tree
+	 * @param keyCodecs one per level, as it was written with
+	 * @param detailCodec codec of the details, as it was written with
+	 * @return mapped tree; close() it to close the file
+	 * @throws IOException also when the file is not a complete mapped tree
+	 */
+	public static OffHeapTree open( Path file, Codec<?>[] keyCodecs, Codec<?> detailCodec )
+	throws IOException
+	{
+		FileChannel channel = FileChannel.open( file, StandardOpenOption.READ );
+		try
+		{
+			ByteBuffer trailer = ByteBuffer.allocate( 12 );
+			if ( channel.size() < trailer.capacity() || channel.read( trailer, channel.size() - trailer.capacity() ) != trailer.capacity()
+				|| trailer.getInt( 8 ) != MAGIC )
+			{
+				throw new IOException( file + " is not a mapped tree" );
+			}
+			long position = trailer.getLong( 0 );
+			ByteBuffer directory = channel.map( FileChannel.MapMode.READ_ONLY, position, channel.size() - trailer.capacity() - position );
+			DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes( directory ) ) );
+			int depth = in.readInt();
+			int[] dictionarySizes = new int[ depth ];
+			int[] dictionarySegments = new int[ depth ];
+			String[][] names = new String[ depth ][];
+			for ( int level = 0; level < depth; level++ )
+			{
+				dictionarySizes[ level ] = in.readInt();
+				dictionarySegments[ level ] = in.readInt();
+				int fields = in.readInt();
+				if ( fields >= 0 )
+				{
+					names[ level ] = new String[ fields ];
+					for ( int i = 0; i < fields; i++ )
+					{
+						names[ level ][ i ] = in.readUTF();
+					}
+				}
+			}
+			int detailCount = in.readInt();
+			int detailSegments = in.readInt();
+			Regions regions = new Regions( channel, FileChannel.MapMode.READ_ONLY );
+			for ( int i = in.readInt(); i > 0; i-- )
+			{
+				regions.recorded.add( new long[] { in.readLong(), in.readInt() } );
+			}
+
+			/*
+			 * the allocations of copy(), in the same order, each getting the region it got then
+			 */
+			OffHeapTree result = new OffHeapTree( depth, keyCodecs, detailCodec, regions );
+			for ( int level = 0; level < depth; level++ )
+			{
+				result.nodeKeys[ level ] = result.ints( 0 );
+				result.offsets[ level ] = result.ints( 0 );
+				result.dictionaries[ level ] = new Blob( regions, 0 );
+				result.dictionaryHashes[ level ] = result.ints( 0 );
+				if ( names[ level ] != null )
+				{
+					result.allocateAggregates( level, 0, names[ level ] );
+				}
+				result.dictionaries[ level ].reopen( dictionarySizes[ level ], dictionarySegments[ level ] );
+				result.nodeHashes[ level ] = result.ints( 0 );
+			}
+			result.details = new Blob( regions, 0 );
+			result.details.reopen( detailCount, detailSegments );
+			result.channel = channel;
+			return result;
+		}
+		catch ( IOException | RuntimeException e )
+		{
+			channel.close();
+			throw e instanceof IOException ? (IOException)e : new IOException( file + " is not a complete mapped tree", e );
+		}
+	}
+
+	static byte[] bytes( ByteBuffer buffer )
+	{
+		byte[] bytes = new byte[ buffer.remaining() ];
+		buffer.get( bytes );
+		return bytes;
+	}
+
+	OffHeapTree( int depth, Codec<?>[] keyCodecs, Codec<?> detailCodec, IntFunction<ByteBuffer> allocator )
+	{
+		if ( keyCodecs.length != depth )
+		{
+			throw new IllegalArgumentException( "need " + depth + " key codecs, not " + keyCodecs.length );
+		}
+		this.depth = depth;
+		this.keyCodecs = keyCodecs;
+		this.detailCodec = detailCodec;
+		this.allocator = allocator;
+		nodeKeys = new IntBuffer[ depth ];
+		offsets = new IntBuffer[ depth ];
+		nodeHashes = new IntBuffer[ depth ];
+		dictionaries = new Blob[ depth ];
+		dictionaryHashes = new IntBuffer[ depth ];
+		aggregateNames = new String[ depth ][];
+		aggregateCounts = new LongBuffer[ depth ];
+		aggregateStats = new DoubleBuffer[ depth ];
+	}
+
+	/*
+	 * Level by level, as CompactTree is built: a first pass over the parents' Maps counts the children and
+	 * collects the nodes (the next level's parents), a second encodes the keys. Only the references to the
+	 * nodes of the level being copied are held on the heap.
+	 */
+	void copy( Map<?, ?> root )
+	{
+		Object[] containers = { root };
+		int count = root.size();
+		for ( int level = 0; level < depth; level++ )
+		{
+			IntBuffer levelKeys = ints( count );
+			IntBuffer levelOffsets = ints( count + 1 );
+			dictionaries[ level ] = new Blob( allocator, count );
+			dictionaryHashes[ level ] = ints( LongKeyedMap.tableSize( Math.max( 2, count ) ) );
+			nodeKeys[ level ] = levelKeys;
+			offsets[ level ] = levelOffsets;
+
+			Object[] nodes = new Object[ count ];
+			Aggregates<?> first = null;
+			int n = 0;
+			int children = 0;
+			for ( Object container : containers )
+			{
+				for ( Object node : ((Map<?, ?>)container).values() )
+				{
+					levelOffsets.put( n, children );
+					children += level == depth - 1 ? ((Collection<?>)node).size() : ((Map<?, ?>)node).size();
+					first = first != null ? first : Aggregates.of( node );
+					nodes[ n++ ] = node;
+				}
+			}
+			levelOffsets.put( count, children );
+			if ( first != null )
+			{
+				allocateAggregates( level, count, first.names );
+				for ( int i = 0; i < count; i++ )
+				{
+					putAggregates( level, i, Aggregates.of( nodes[ i ] ) );
+				}
+			}
+			n = 0;
+			for ( Object container : containers )
+			{
+				for ( Object key : ((Map<?, ?>)container).keySet() )
+				{
+					levelKeys.put( n++, key == null ? -1 : intern( level, keyCodecs[ level ].toBytes( key ) ) );
+				}
+			}
+			nodeHashes[ level ] = hashLevel( level, count );
+
+			if ( level == depth - 1 )
+			{
+				details = new Blob( allocator, children );
+				for ( Object node : nodes )
+				{
+					for ( Object detail : (Collection<?>)node )
+					{
+						details.add( detail == null ? null : detailCodec.toBytes( detail ) );
+					}
+				}
+			}
+			containers = nodes;
+			count = children;
+		}
+	}
+
+	IntBuffer ints( int count )
+	{
+		return allocate( count, 4 ).asIntBuffer();
+	}
+
+	ByteBuffer allocate( int count, int width )
+	{
+		if ( width > 0 && count > Integer.MAX_VALUE / 2 / width )
+		{
+			throw new IllegalArgumentException( count + " entries do not fit one buffer" );
+		}
+		return allocator.apply( count * width ).order( ByteOrder.nativeOrder() );
+	}
+
+	void allocateAggregates( int level, int count, String[] names )
+	{
+		aggregateNames[ level ] = names;
+		aggregateCounts[ level ] = allocate( count, 8 * (names.length + 1) ).asLongBuffer();
+		aggregateStats[ level ] = allocate( count, 8 * 3 * names.length ).asDoubleBuffer();
+	}
+
+	void putAggregates( int level, int node, Aggregates<?> aggregates )
+	{
+		int fields = aggregateNames[ level ].length;
+		LongBuffer counts = aggregateCounts[ level ];
+		DoubleBuffer stats = aggregateStats[ level ];
+		counts.put( node * (fields + 1), aggregates == null ? -1 : aggregates.count );
+		for ( int i = 0; aggregates != null && i < fields; i++ )
+		{
+			counts.put( node * (fields + 1) + 1 + i, aggregates.counts[ i ] );
+			stats.put( (node * fields + i) * 3, aggregates.sums[ i ] );
+			stats.put( (node * fields + i) * 3 + 1, aggregates.staleMins[ i ] ? Double.NaN : aggregates.mins[ i ] );
+			stats.put( (node * fields + i) * 3 + 2, aggregates.staleMaxs[ i ] ? Double.NaN : aggregates.maxs[ i ] );
+		}
+	}
+
+	/*
+	 * What open() needs besides the regions: entry counts that are not buffer capacities, and the aggregate
+	 * fields. The directory follows the last region; the file ends with its position and MAGIC.
+	 */
+	void writeDirectory( Regions regions )
+	throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( bytes );
+		out.writeInt( depth );
+		for ( int level = 0; level < depth; level++ )
+		{
+			out.writeInt( dictionaries[ level ].size );
+			out.writeInt( dictionaries[ level ].segments.size() );
+			out.writeInt( aggregateNames[ level ] == null ? -1 : aggregateNames[ level ].length );
+			for ( int i = 0; aggregateNames[ level ] != null && i < aggregateNames[ level ].length; i++ )
+			{
+				out.writeUTF( aggregateNames[ level ][ i ] );
+			}
+		}
+		out.writeInt( details.size );
+		out.writeInt( details.segments.size() );
+		out.writeInt( regions.recorded.size() );
+		for ( long[] region : regions.recorded )
+		{
+			out.writeLong( region[ 0 ] );
+			out.writeInt( (int)region[ 1 ] );
+		}
+		out.writeLong( regions.position );
+		out.writeInt( MAGIC );
+		ByteBuffer directory = ByteBuffer.wrap( bytes.toByteArray() );
+		for ( long position = regions.position; directory.hasRemaining(); )
+		{
+			position += regions.channel.write( directory, position );
+		}
+	}
+
+	/*
+	 * Dictionary id of an encoded key, adding it if new
+	 */
+	int intern( int level, byte[] bytes )
+	{
+		IntBuffer table = dictionaryHashes[ level ];
+		int mask = table.capacity() - 1;
+		int slot = CompactTree.hash( level, Arrays.hashCode( bytes ) ) & mask;
+		for ( ; table.get( slot ) != 0; slot = (slot + 1) & mask )
+		{
+			if ( dictionaries[ level ].equalsAt( table.get( slot ) - 1, bytes ) )
+			{
+				return table.get( slot ) - 1;
+			}
+		}
+		int id = dictionaries[ level ].add( bytes );
+		table.put( slot, id + 1 );
+		return id;
+	}
+
+	int dictionaryId( int level, byte[] bytes )
+	{
+		IntBuffer table = dictionaryHashes[ level ];
+		int mask = table.capacity() - 1;
+		for ( int slot = CompactTree.hash( level, Arrays.hashCode( bytes ) ) & mask; table.get( slot ) != 0; slot = (slot + 1) & mask )
+		{
+			if ( dictionaries[ level ].equalsAt( table.get( slot ) - 1, bytes ) )
+			{
+				return table.get( slot ) - 1;
+			}
+		}
+		return -2;
+	}
+
+	IntBuffer hashLevel( int level, int count )
+	{
+		IntBuffer table = ints( LongKeyedMap.tableSize( Math.max( 2, count ) ) );
+		int mask = table.capacity() - 1;
+		int parents = level == 0 ? 1 : size( level - 1 );
+		for ( int parent = 0; parent < parents; parent++ )
+		{
+			int from = level == 0 ? 0 : getChildFrom( level - 1, parent );
+			int to = level == 0 ? count : getChildTo( level - 1, parent );
+			for ( int node = from; node < to; node++ )
+			{
+				int slot = CompactTree.hash( level == 0 ? -1 : parent, nodeKeys[ level ].get( node ) ) & mask;
+				while ( table.get( slot ) != 0 )
+				{
+					slot = (slot + 1) & mask;
+				}
+				table.put( slot, node + 1 );
+			}
+		}
+		return table;
+	}
+
+	@Override
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	@Override
+	public int size( int level )
+	{
+		return offsets[ level ].capacity() - 1;
+	}
+
+	@Override
+	public Object getKey( int level, int node )
+	{
+		int id = nodeKeys[ level ].get( node );
+		return id < 0 ? null : keyCodecs[ level ].fromBytes( dictionaries[ level ].get( id ) );
+	}
+
+	@Override
+	public int getChildFrom( int level, int node )
+	{
+		return offsets[ level ].get( node );
+	}
+
+	@Override
+	public int getChildTo( int level, int node )
+	{
+		return offsets[ level ].get( node + 1 );
+	}
+
+	@Override
+	public Object getDetail( int index )
+	{
+		byte[] bytes = details.get( index );
+		return bytes == null ? null : detailCodec.fromBytes( bytes );
+	}
+
+	/**
+	 * @return a new Aggregates decoded from the level's buffers; it reads back as the original did, but
+	 * accumulating rows into it is not supported
+	 */
+	@Override
+	public Aggregates<?> getAggregates( int level, int node )
+	{
+		String[] names = aggregateNames[ level ];
+		if ( names == null || aggregateCounts[ level ].get( node * (names.length + 1) ) < 0 )
+		{
+			return null;
+		}
+		LongBuffer counts = aggregateCounts[ level ];
+		DoubleBuffer stats = aggregateStats[ level ];
+		Aggregates<Object> result = new Aggregates<>( names, new ValueGetter[ names.length ] );
+		result.count = counts.get( node * (names.length + 1) );
+		for ( int i = 0; i < names.length; i++ )
+		{
+			result.counts[ i ] = counts.get( node * (names.length + 1) + 1 + i );
+			result.sums[ i ] = stats.get( (node * names.length + i) * 3 );
+			double min = stats.get( (node * names.length + i) * 3 + 1 );
+			double max = stats.get( (node * names.length + i) * 3 + 2 );
+			result.staleMins[ i ] = min != min;
+			result.staleMaxs[ i ] = max != max;
+			result.mins[ i ] = result.staleMins[ i ] ? Double.POSITIVE_INFINITY : min;
+			result.maxs[ i ] = result.staleMaxs[ i ] ? Double.NEGATIVE_INFINITY : max;
+		}
+		return result;
+	}
+
+	/**
+	 * The key is encoded and looked up in the level's dictionary, then (parent, id) in the node table; only
+	 * the candidate key's bytes are compared, nothing is decoded.
+	 */
+	@Override
+	public int find( int level, int parent, Object key )
+	{
+		int id = -1;
+		if ( key != null )
+		{
+			try
+			{
+				id = dictionaryId( level, keyCodecs[ level ].toBytes( key ) );
+			}
+			catch ( ClassCastException e )
+			{
+				return -1; // not of this level's key type, as with Map.get()
+			}
+			if ( id < -1 )
+			{
+				return -1;
+			}
+		}
+		int from = level == 0 ? 0 : getChildFrom( level - 1, parent );
+		int to = level == 0 ? size( 0 ) : getChildTo( level - 1, parent );
+		IntBuffer table = nodeHashes[ level ];
+		int mask = table.capacity() - 1;
+		for ( int slot = CompactTree.hash( level == 0 ? -1 : parent, id ) & mask; table.get( slot ) != 0; slot = (slot + 1) & mask )
+		{
+			int node = table.get( slot ) - 1;
+			if ( node >= from && node < to && nodeKeys[ level ].get( node ) == id )
+			{
+				return node;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if ( channel != null )
+		{
+			channel.close();
+		}
+	}
+
+	/**
+	 * Successive regions of a file, mapped. Writing, each region is recorded; reopening, the recorded regions
+	 * are handed out again in the same order, whatever size is asked for.
+	 */
+	static class Regions
+	implements IntFunction<ByteBuffer>
+	{
+		final FileChannel channel;
+		final FileChannel.MapMode mode;
+		final List<long[]> recorded = new ArrayList<>(); // position, size
+		long position;
+		int replayed;
+
+		Regions( FileChannel channel, FileChannel.MapMode mode )
+		{
+			this.channel = channel;
+			this.mode = mode;
+		}
+
+		@Override
+		public ByteBuffer apply( int size )
+		{
+			try
+			{
+				if ( mode == FileChannel.MapMode.READ_ONLY )
+				{
+					long[] region = recorded.get( replayed++ );
+					return channel.map( mode, region[ 0 ], region[ 1 ] );
+				}
+				ByteBuffer region = channel.map( mode, position, Math.max( 1, size ) );
+				recorded.add( new long[] { position, Math.max( 1, size ) } );
+				position += Math.max( 1, size );
+				return region;
+			}
+			catch ( IOException e )
+			{
+				throw new UncheckedIOException( e );
+			}
+		}
+	}
+
+	/**
+	 * Variable-length entries in off-heap segments. An entry never spans segments; segments grow from 64K to
+	 * 256M, so small trees stay small and large ones do not need one huge buffer.
+	 */
+	static class Blob
+	{
+		final IntFunction<ByteBuffer> allocator;
+		final List<ByteBuffer> segments = new ArrayList<>();
+		final LongBuffer addresses; // segment << 32 | position
+		final IntBuffer lengths; // -1 for null
+		ByteBuffer current;
+		int size;
+
+		Blob( IntFunction<ByteBuffer> allocator, int capacity )
+		{
+			if ( capacity > Integer.MAX_VALUE / 8 )
+			{
+				throw new IllegalArgumentException( capacity + " entries do not fit one buffer" );
+			}
+			this.allocator = allocator;
+			addresses = allocator.apply( capacity * 8 ).order( ByteOrder.nativeOrder() ).asLongBuffer();
+			lengths = allocator.apply( capacity * 4 ).order( ByteOrder.nativeOrder() ).asIntBuffer();
+		}
+
+		int add( byte[] bytes )
+		{
+			if ( bytes == null )
+			{
+				lengths.put( size, -1 );
+				return size++;
+			}
+			if ( current == null || current.remaining() < bytes.length )
+			{
+				int segmentSize = current == null ? MIN_SEGMENT : Math.min( MAX_SEGMENT, current.capacity() * 2 );
+				current = allocator.apply( Math.max( segmentSize, bytes.length ) );
+				segments.add( current );
+			}
+			addresses.put( size, (long)(segments.size() - 1) << 32 | current.position() );
+			lengths.put( size, bytes.length );
+			current.put( bytes );
+			return size++;
+		}
+
+		byte[] get( int i )
+		{
+			int length = lengths.get( i );
+			if ( length < 0 )
+			{
+				return null;
+			}
+			long address = addresses.get( i );
+			ByteBuffer segment = segments.get( (int)(address >>> 32) ).duplicate();
+			segment.position( (int)address );
+			byte[] bytes = new byte[ length ];
+			segment.get( bytes );
+			return bytes;
+		}
+
+		/*
+		 * Take back the segments of <i>size</i> entries written earlier, from a Regions replaying them
+		 */
+		void reopen( int size, int segmentCount )
+		{
+			for ( int i = 0; i < segmentCount; i++ )
+			{
+				segments.add( allocator.apply( 0 ) );
+			}
+			this.size = size;
+		}
+
+		boolean equalsAt( int i, byte[] bytes )
+		{
+			if ( lengths.get( i ) != bytes.length )
+			{
+				return false;
+			}
+			long address = addresses.get( i );
+			ByteBuffer segment = segments.get( (int)(address >>> 32) );
+			int position = (int)address;
+			for ( int k = 0; k < bytes.length; k++ )
+			{
+				if ( segment.get( position + k ) != bytes[ k ] )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.util.AbstractMap ;
+import java.util.AbstractSet ;
+import java.util.Arrays ;
+import java.util.ConcurrentModificationException ;
+import java.util.Iterator ;
+import java.util.Map ;
+import java.util.NoSuchElementException ;
+import java.util.Set ;
+import java.util.concurrent.ConcurrentHashMap ;
+
+/**
+ * Name/value node Map whose keys live in a Schema shared by all nodes of a category level
+ *
+ * A node holds only an Object[] of values, one slot per schema key; a key the schema has not seen is added to it,
+ * so every node of the level has the same layout. Keys may be null, as in a LinkedHashMap.
+ * <br/>
+ * Entries iterate in schema order, i.e. in the order the keys were first put into any node of the level. This is 
+ * where it differs from the LinkedHashMap it replaces: for nodes built field by field, as nameValueNest() builds 
+ * them, schema order is their insertion order, but a node that puts its keys in another order than the first node
+ * did, or puts back a removed key, still iterates in schema order. To Jackson and everyone else it is otherwise an
+ * ordinary Map.
+ *
+ * @author jgenoese
+ */
+public class SchemaMap
+extends AbstractMap<String, Object>
+{
+	static final Object ABSENT = new Object();
+	static final Object NULL = new Object(); // stands in for a null key, which ConcurrentHashMap does not take
+
+	final Schema schema;
+	Object[] values;
+	int size;
+	int modCount;
+
+	/**
+	 * Key layout shared by the nodes of one level; keys are only ever added, so slots stay valid
+	 */
+	public static class Schema
+	{
+		final ConcurrentHashMap<Object, Integer> slots = new ConcurrentHashMap<>();
+		volatile String[] keys = new String[ 0 ];
+
+		/**
+		 * @return slot of <i>key</i>, or -1 if no node has it
+		 */
+		int slotOf( Object key )
+		{
+			Integer slot = slots.get( key == null ? NULL : key );
+			return slot == null ? -1 : slot;
+		}
+
+		/**
+		 * @return slot of <i>key</i>, added if new
+		 */
+		int add( String key )
+		{
+			Object slotKey = key == null ? NULL : key;
+			Integer slot = slots.get( slotKey );
+			return slot != null ? slot : slots.computeIfAbsent( slotKey, k -> append( key ) );
+		}
+
+		synchronized Integer append( String key )
+		{
+			String[] current = Arrays.copyOf( keys, keys.length + 1 );
+			current[ keys.length ] = key;
+			keys = current;
+			return current.length - 1;
+		}
+
+		public int size()
+		{
+			return keys.length;
+		}
+	}
+
+	public SchemaMap( Schema schema )
+	{
+		this.schema = schema;
+		this.values = new Object[ schema.size() ];
+		Arrays.fill( values, ABSENT );
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public Object get( Object key )
+	{
+		int slot = schema.slotOf( key );
+		return slot < 0 || slot >= values.length || values[ slot ] == ABSENT ? null : values[ slot ];
+	}
+
+	@Override
+	public boolean containsKey( Object key )
+	{
+		int slot = schema.slotOf( key );
+		return slot >= 0 && slot < values.length && values[ slot ] != ABSENT;
+	}
+
+	@Override
+	public Object put( String key, Object value )
+	{
+		int slot = schema.add( key );
+		if ( slot >= values.length )
+		{
+			int length = values.length;
+			values = Arrays.copyOf( values, Math.max( slot + 1, schema.size() ) );
+			Arrays.fill( values, length, values.length, ABSENT );
+		}
+		Object old = values[ slot ];
+		values[ slot ] = value;
+		if ( old == ABSENT )
+		{
+			size++;
+			modCount++;
+			return null;
+		}
+		return old;
+	}
+
+	@Override
+	public Object remove( Object key )
+	{
+		int slot = schema.slotOf( key );
+		if ( slot < 0 || slot >= values.length || values[ slot ] == ABSENT )
+		{
+			return null;
+		}
+		return removeAt( slot );
+	}
+
+	Object removeAt( int slot )
+	{
+		Object old = values[ slot ];
+		values[ slot ] = ABSENT;
+		size--;
+		modCount++;
+		return old;
+	}
+
+	@Override
+	public void clear()
+	{
+		Arrays.fill( values, ABSENT );
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet()
+	{
+		return new AbstractSet<Map.Entry<String, Object>>()
+		{
+			@Override
+			public int size()
+			{
+				return size;
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator()
+			{
+				return new EntryIterator();
+			}
+		};
+	}
+
+	class EntryIterator
+	implements Iterator<Map.Entry<String, Object>>
+	{
+		final String[] keys = schema.keys;
+		int next = advance( 0 );
+		int last = -1;
+		int expectedModCount = modCount;
+
+		int advance( int from )
+		{
+			while ( from < values.length && values[ from ] == ABSENT )
+			{
+				from++;
+			}
+			return from;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return next < values.length;
+		}
+
+		@Override
+		public Map.Entry<String, Object> next()
+		{
+			if ( modCount != expectedModCount )
+			{
+				throw new ConcurrentModificationException();
+			}
+			if ( next >= values.length )
+			{
+				throw new NoSuchElementException();
+			}
+			last = next;
+			next = advance( next + 1 );
+			return new Entry( keys[ last ], last );
+		}
+
+		@Override
+		public void remove()
+		{
+			if ( last < 0 )
+			{
+				throw new IllegalStateException();
+			}
+			if ( modCount != expectedModCount )
+			{
+				throw new ConcurrentModificationException();
+			}
+			removeAt( last );
+			last = -1;
+			expectedModCount = modCount;
+		}
+	}
+
+	class Entry
+	extends AbstractMap.SimpleEntry<String, Object>
+	{
+		private static final long serialVersionUID = 1L;
+		final int slot;
+
+		Entry( String key, int slot )
+		{
+			super( key, values[ slot ] );
+			this.slot = slot;
+		}
+
+		@Override
+		public Object setValue( Object value )
+		{
+			values[ slot ] = value;
+			return super.setValue( value );
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+/**
+ * Receives completed subtrees from an ordered Nester running with flushSubtrees(). Once a subtree
+ * has been handed over, the Nester keeps no reference to it.
+ * @author jgenoese
+ *
+ */
+public interface SubtreeSink
+{
+	/**
+	 * Accept one completed subtree
+	 * @param categoryValues values of the categories on the path to the subtree, outermost first. 
+	 * Its length is the flush level plus one.
+	 * @param subtree the completed subtree: a Map for an outer category level, or the List of details
+	 * for the inmost level
+	 */
+	public void accept(Object[] categoryValues, Object subtree);
+
+	/**
+	 * Accept the Aggregates of a category value above the flush level, once the last of its subtrees 
+	 * has been flushed. Its own node is released with its subtrees, so this is the only place its totals 
+	 * are reported. Called after the accept() of that last subtree, inner levels first, and only for 
+	 * categories that declare aggregates. Does nothing unless overridden.
+	 * @param categoryValues values of the categories on the path to the closed node, outermost first
+	 * @param aggregates the node's completed Aggregates
+	 */
+	public default void acceptAggregates(Object[] categoryValues, Aggregates<?> aggregates)
+	{
+	}
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright 2016 Memories, Dreams, and Reflections LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.memoriesdreamsandreflections.nester;
+
+
+import java.lang.invoke.CallSite ;
+import java.lang.invoke.LambdaMetafactory ;
+import java.lang.invoke.MethodHandle ;
+import java.lang.invoke.MethodHandles ;
+import java.lang.invoke.MethodType ;
+import java.lang.reflect.Field ;
+import java.lang.reflect.Member ;
+import java.lang.reflect.Method ;
+import java.lang.reflect.Modifier ;
+import java.util.function.Function ;
+import java.util.function.ToDoubleFunction ;
+import java.util.function.ToLongFunction ;
+
+/**
+ * Compiled access to one named value of a row: a declared field, a getter method (getX()/isX()), or a
+ * record-style accessor (x()). Resolved once, when descriptors are initialized, into a MethodHandle,
+ * so the per-row cost is a handle invocation rather than a reflective Field.get().
+ *
+ * @author jgenoese
+ *
+ * @param <T> row type
+ */
+public abstract class ValueGetter<T>
+{
+	final String name;
+	final Class<?> type;
+	final Member member;
+
+	protected ValueGetter( String name, Class<?> type, Member member )
+	{
+		this.name = name;
+		this.type = type;
+		this.member = member;
+	}
+
+	/**
+	 * Obtain the value from a row
+	 * @param row row instance
+	 * @return value, boxed if the underlying field or method is primitive
+	 */
+	public abstract Object get( T row );
+
+	/**
+	 * Obtain an integral value without boxing. Only meaningful when isIntegral(); the default unboxes get().
+	 * @param row row instance
+	 * @return value widened to long
+	 */
+	public long getLong( T row )
+	{
+		return ((Number)get( row )).longValue();
+	}
+
+	/**
+	 * Obtain a numeric value without boxing when the declared type is a numeric primitive; the default unboxes get().
+	 * @param row row instance
+	 * @return value as double, NaN when null
+	 */
+	public double getDouble( T row )
+	{
+		Number value = (Number)get( row );
+		return value == null ? Double.NaN : value.doubleValue();
+	}
+
+	/**
+	 * @return true when getDouble() applies: a numeric primitive or Number type
+	 */
+	public boolean isNumeric()
+	{
+		return isNumericPrimitive( type ) || Number.class.isAssignableFrom( type );
+	}
+
+	static boolean isNumericPrimitive( Class<?> type )
+	{
+		return isIntegral( type ) || type == double.class || type == float.class;
+	}
+
+	/**
+	 * @return true when the declared type is long, int, short or byte, so getLong() reads without boxing
+	 */
+	public boolean isIntegral()
+	{
+		return isIntegral( type );
+	}
+
+	static boolean isIntegral( Class<?> type )
+	{
+		return type == long.class || type == int.class || type == short.class || type == byte.class;
+	}
+
+	/**
+	 * This getter as a Function, e.g. for the accessor AccessorFactory falls back to. The default wraps get().
+	 * @return Function reading the same value
+	 */
+	public Function<T, Object> asFunction()
+	{
+		return this::get;
+	}
+
+	/**
+	 * This getter as a (Object)Object MethodHandle, for generated accessors, which bind it to a constant call 
+	 * site. The default binds get() to this getter; getters backed by a field or method return the getter 
+	 * handle itself.
+	 */
+	MethodHandle asHandle()
+	{
+		try
+		{
+			return MethodHandles.lookup().findVirtual( ValueGetter.class, "get", MethodType.methodType( Object.class, Object.class ) )
+				.bindTo( this );
+		}
+		catch ( NoSuchMethodException | IllegalAccessException e )
+		{
+			throw new IllegalStateException( e );
+		}
+	}
+
+	/**
+	 * @return name the value was resolved by (field name, or the property name for getter methods)
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return declared type of the underlying field or method
+	 */
+	public Class<?> getType()
+	{
+		return type;
+	}
+
+	/**
+	 * @return underlying Field or Method, or null when backed by a function
+	 */
+	public Member getMember()
+	{
+		return member;
+	}
+
+	/**
+	 * Resolve <i>name</i> on <i>clazz</i>: a field declared by the class or a superclass first, then a
+	 * no-argument method named getName(), isName() or name().
+	 * @param clazz row class
+	 * @param name field or property name
+	 * @return ValueGetter
+	 * @throws NoSuchFieldException when neither a field nor an accessor method exists
+	 */
+	public static <T> ValueGetter<T> forName( Class<T> clazz, String name ) throws NoSuchFieldException
+	{
+		Field field = findField( clazz, name );
+		if ( field != null )
+		{
+			return new HandleGetter<T>( name, field.getType(), field, unreflectRaw( field ) );
+		}
+		Method method = findAccessorMethod( clazz, name );
+		if ( method != null )
+		{
+			return new HandleGetter<T>( name, method.getReturnType(), method, unreflectRaw( method ) );
+		}
+		throw new NoSuchFieldException( name );
+	}
+
+	/**
+	 * ValueGetter backed by a plain function, e.g. generated code that reads the field directly.
+	 * @param name name the value is rendered as
+	 * @param type value type
+	 * @param function getter
+	 * @return ValueGetter
+	 */
+	public static <T> ValueGetter<T> of( String name, Class<?> type, Function<T, Object> function )
+	{
+		return new FunctionGetter<T>( name, type, function );
+	}
+
+	/**
+	 * ValueGetter for an integral value backed by a primitive function, so getLong() does not box.
+	 * @param name name the value is rendered as
+	 * @param type value type: long, int, short or byte
+	 * @param function getter
+	 * @return ValueGetter
+	 */
+	public static <T> ValueGetter<T> ofLong( String name, Class<?> type, ToLongFunction<T> function )
+	{
+		if ( !isIntegral( type ) )
+		{
+			throw new IllegalArgumentException( name + ": " + type + " is not an integral primitive type" );
+		}
+		return new LongFunctionGetter<T>( name, type, function );
+	}
+
+	/**
+	 * ValueGetter for a floating point value backed by a primitive function, so getDouble() does not box.
+	 * @param name name the value is rendered as
+	 * @param type value type: double or float
+	 * @param function getter
+	 * @return ValueGetter
+	 */
+	public static <T> ValueGetter<T> ofDouble( String name, Class<?> type, ToDoubleFunction<T> function )
+	{
+		if ( type != double.class && type != float.class )
+		{
+			throw new IllegalArgumentException( name + ": " + type + " is not a floating point primitive type" );
+		}
+		return new DoubleFunctionGetter<T>( name, type, function );
+	}
+
+	static Field findField( Class<?> clazz, String name )
+	{
+		for ( Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass() )
+		{
+			try
+			{
+				Field field = c.getDeclaredField( name );
+				if ( !Modifier.isStatic( field.getModifiers() ) )
+				{
+					return field;
+				}
+			}
+			catch ( NoSuchFieldException e )
+			{
+				// keep looking
+			}
+		}
+		return null;
+	}
+
+	static Method findAccessorMethod( Class<?> clazz, String name )
+	{
+		String capitalized = Character.toUpperCase( name.charAt( 0 ) ) + name.substring( 1 );
+		String[] candidates = { "get" + capitalized, "is" + capitalized, name };
+		for ( String candidate : candidates )
+		{
+			for ( Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass() )
+			{
+				try
+				{
+					Method method = c.getDeclaredMethod( candidate );
+					if ( !Modifier.isStatic( method.getModifiers() ) && method.getReturnType() != void.class )
+					{
+						return method;
+					}
+				}
+				catch ( NoSuchMethodException e )
+				{
+					// keep looking
+				}
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Unadapted getter handle; HandleGetter adapts it once per call shape so it can use invokeExact.
+	 */
+	static MethodHandle unreflectRaw( Member member ) throws NoSuchFieldException
+	{
+		MethodHandle handle;
+		try
+		{
+			MethodHandles.Lookup lookup = MethodHandles.privateLookupIn( member.getDeclaringClass(), MethodHandles.lookup() );
+			handle = member instanceof Field ? lookup.unreflectGetter( (Field)member ) : lookup.unreflect( (Method)member );
+		}
+		catch ( IllegalAccessException | SecurityException e )
+		{
+			try
+			{
+				if ( member instanceof Field )
+				{
+					((Field)member).setAccessible( true );
+					handle = MethodHandles.lookup().unreflectGetter( (Field)member );
+				}
+				else
+				{
+					((Method)member).setAccessible( true );
+					handle = MethodHandles.lookup().unreflect( (Method)member );
+				}
+			}
+			catch ( Exception e2 )
+			{
+				NoSuchFieldException nsfe = new NoSuchFieldException( member.getName() + " is not accessible" );
+				nsfe.initCause( e2 );
+				throw nsfe;
+			}
+		}
+		return handle;
+	}
+
+	/**
+	 * Spin a dedicated Function class that calls <i>method</i> directly, exactly like the class javac 
+	 * generates for a method reference (Row::getX). LambdaMetafactory cannot target field reads, 
+	 * so this applies to accessor methods only.
+	 */
+	@SuppressWarnings( "unchecked" )
+	static <T> Function<T, Object> spinFunction( Method method ) throws Throwable
+	{
+		MethodHandles.Lookup lookup = MethodHandles.privateLookupIn( method.getDeclaringClass(), MethodHandles.lookup() );
+		MethodHandle target = lookup.unreflect( method );
+		Class<?> returnType = MethodType.methodType( method.getReturnType() ).wrap().returnType();
+		CallSite site = LambdaMetafactory.metafactory( lookup, 
+			"apply", 
+			MethodType.methodType( Function.class ),
+			MethodType.methodType( Object.class, Object.class ),
+			target,
+			MethodType.methodType( returnType, method.getDeclaringClass() ) );
+		return (Function<T, Object>)site.getTarget().invoke();
+	}
+
+	static class HandleGetter<T>
+	extends ValueGetter<T>
+	{
+		final MethodHandle handle;
+		final MethodHandle longHandle;
+		final MethodHandle doubleHandle;
+
+		HandleGetter( String name, Class<?> type, Member member, MethodHandle raw )
+		{
+			super( name, type, member );
+			this.handle = raw.asType( MethodType.methodType( Object.class, Object.class ) );
+			this.longHandle = isIntegral( type ) ? raw.asType( MethodType.methodType( long.class, Object.class ) ) : null;
+			this.doubleHandle = isNumericPrimitive( type ) ? raw.asType( MethodType.methodType( double.class, Object.class ) ) : null;
+		}
+
+		@Override
+		MethodHandle asHandle()
+		{
+			return handle;
+		}
+
+		@Override
+		public Function<T, Object> asFunction()
+		{
+			if ( member instanceof Method )
+			{
+				try
+				{
+					return spinFunction( (Method)member );
+				}
+				catch ( Throwable t )
+				{
+					// not spinnable (e.g. inaccessible declaring class); the handle still works
+				}
+			}
+			return super.asFunction();
+		}
+
+		@Override
+		public Object get( T row )
+		{
+			try
+			{
+				return (Object)handle.invokeExact( (Object)row );
+			}
+			catch ( RuntimeException | Error e )
+			{
+				throw e;
+			}
+			catch ( Throwable t )
+			{
+				throw new IllegalStateException( "access to " + name + " failed", t );
+			}
+		}
+
+		@Override
+		public long getLong( T row )
+		{
+			if ( longHandle == null )
+			{
+				return super.getLong( row );
+			}
+			try
+			{
+				return (long)longHandle.invokeExact( (Object)row );
+			}
+			catch ( RuntimeException | Error e )
+			{
+				throw e;
+			}
+			catch ( Throwable t )
+			{
+				throw new IllegalStateException( "access to " + name + " failed", t );
+			}
+		}
+
+		@Override
+		public double getDouble( T row )
+		{
+			if ( doubleHandle == null )
+			{
+				return super.getDouble( row );
+			}
+			try
+			{
+				return (double)doubleHandle.invokeExact( (Object)row );
+			}
+			catch ( RuntimeException | Error e )
+			{
+				throw e;
+			}
+			catch ( Throwable t )
+			{
+				throw new IllegalStateException( "access to " + name + " failed", t );
+			}
+		}
+	}
+
+	static class FunctionGetter<T>
+	extends ValueGetter<T>
+	{
+		final Function<T, Object> function;
+
+		FunctionGetter( String name, Class<?> type, Function<T, Object> function )
+		{
+			super( name, type, null );
+			this.function = function;
+		}
+
+		@Override
+		public Object get( T row )
+		{
+			return function.apply( row );
+		}
+
+		@Override
+		public Function<T, Object> asFunction()
+		{
+			return function;
+		}
+
+		@Override
+		MethodHandle asHandle()
+		{
+			try
+			{
+				return MethodHandles.publicLookup().findVirtual( Function.class, "apply", MethodType.methodType( Object.class, Object.class ) )
+					.bindTo( function );
+			}
+			catch ( NoSuchMethodException | IllegalAccessException e )
+			{
+				throw new IllegalStateException( e );
+			}
+		}
+	}
+
+	static class LongFunctionGetter<T>
+	extends ValueGetter<T>
+	{
+		final ToLongFunction<T> function;
+
+		LongFunctionGetter( String name, Class<?> type, ToLongFunction<T> function )
+		{
+			super( name, type, null );
+			this.function = function;
+		}
+
+		@Override
+		public Object get( T row )
+		{
+			return LongKeyedMap.box( type, function.applyAsLong( row ) );
+		}
+
+		@Override
+		public long getLong( T row )
+		{
+			return function.applyAsLong( row );
+		}
+
+		@Override
+		public double getDouble( T row )
+		{
+			return function.applyAsLong( row );
+		}
+	}
+
+	static class DoubleFunctionGetter<T>
+	extends ValueGetter<T>
+	{
+		final ToDoubleFunction<T> function;
+
+		DoubleFunctionGetter( String name, Class<?> type, ToDoubleFunction<T> function )
+		{
+			super( name, type, null );
+			this.function = function;
+		}
+
+		@Override
+		public Object get( T row )
+		{
+			double value = function.applyAsDouble( row );
+			return type == float.class ? (Object)Float.valueOf( (float)value ) : (Object)Double.valueOf( value );
+		}
+
+		@Override
+		public double getDouble( T row )
+		{
+			return function.applyAsDouble( row );
+		}
+	}
+}
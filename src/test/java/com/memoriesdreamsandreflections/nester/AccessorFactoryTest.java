@@ -0,0 +1,114 @@
+package com.memoriesdreamsandreflections.nester;
+
+import static org.junit.Assert.assertArrayEquals ;
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNotSame ;
+import static org.junit.Assert.assertSame ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.ArrayList ;
+import java.util.List ;
+
+import org.junit.Test ;
+
+import com.memoriesdreamsandreflections.nester.CategoryDescriptorTest.AccessorTestClass ;
+
+public class AccessorFactoryTest
+{
+	@Test
+	public void testAccessorMethods() throws NoSuchFieldException, SecurityException
+	{
+		List<CategoryDescriptor<AccessorTestClass>> descs = descriptors( "category", "region", "active", "code" );
+		Accessor<AccessorTestClass> subject = AccessorFactory.newAccessor( descs, null );
+		assertTrue( subject.getClass().getClassLoader() instanceof AccessorFactory.AccessorLoader );
+
+		AccessorTestClass row = new AccessorTestClass();
+		assertArrayEquals( new Object[] { "CAT", "EAST", Boolean.TRUE, 42 }, subject.getCategoryValues( row ) );
+		assertSame( row, subject.getDetail( row ) );
+
+		Object[] buffer = new Object[ 4 ];
+		assertSame( buffer, subject.getCategoryValues( row, buffer ) );
+		assertArrayEquals( new Object[] { "CAT", "EAST", Boolean.TRUE, 42 }, buffer );
+	}
+
+	@Test
+	public void testSpunFunction() throws NoSuchFieldException, SecurityException
+	{
+		ValueGetter<AccessorTestClass> getter = ValueGetter.forName( AccessorTestClass.class, "code" );
+		// a LambdaMetafactory class, not the handle-invoking default
+		assertTrue( getter.asFunction().getClass().isSynthetic() );
+		assertEquals( 42, getter.asFunction().apply( new AccessorTestClass() ) );
+	}
+
+	@Test
+	public void testFieldsAndDetail() throws NoSuchFieldException, SecurityException
+	{
+		List<CategoryDescriptor<TestStruct>> descs = new ArrayList<>();
+		for ( String name : new String[] { "state", "city", "zip" } )
+		{
+			CategoryDescriptor<TestStruct> desc = CategoryDescriptor.newInstance( TestStruct.class ).withCategoryFieldName( name );
+			desc.initializeFields();
+			descs.add( desc );
+		}
+		TestStruct row = new TestStruct( "NY", "Brooklyn", "11201", "IBM" );
+		Accessor<TestStruct> subject = AccessorFactory.newAccessor( descs, ValueGetter.forName( TestStruct.class, "detail" ) );
+		assertArrayEquals( new Object[] { "NY", "Brooklyn", "11201" }, subject.getCategoryValues( row ) );
+		assertSame( row.detail, subject.getDetail( row ) );
+	}
+
+	@Test
+	public void testDeepCategoryList() throws NoSuchFieldException, SecurityException
+	{
+		List<CategoryDescriptor<AccessorTestClass>> descs = descriptors( "category", "region", "active", "code", 
+			"category", "region", "active", "code" );
+		Accessor<AccessorTestClass> subject = AccessorFactory.newAccessor( descs, null );
+		assertFalse( subject instanceof AccessorFactory.AccessorN );
+		assertArrayEquals( new Object[] { "CAT", "EAST", Boolean.TRUE, 42, "CAT", "EAST", Boolean.TRUE, 42 }, 
+			subject.getCategoryValues( new AccessorTestClass() ) );
+		assertArrayEquals( new Object[] { "CAT", "EAST", Boolean.TRUE, 42, "CAT", "EAST", Boolean.TRUE, 42 }, 
+			subject.getCategoryValues( new AccessorTestClass(), new Object[ 8 ] ) );
+	}
+
+	@Test
+	public void testClassPerConfiguration() throws NoSuchFieldException, SecurityException
+	{
+		Accessor<AccessorTestClass> first = AccessorFactory.newAccessor( descriptors( "category", "region" ), null );
+		Accessor<AccessorTestClass> second = AccessorFactory.newAccessor( descriptors( "region", "category" ), null );
+		assertNotSame( first.getClass(), second.getClass() );
+		assertArrayEquals( new Object[] { "CAT", "EAST" }, first.getCategoryValues( new AccessorTestClass() ) );
+		assertArrayEquals( new Object[] { "EAST", "CAT" }, second.getCategoryValues( new AccessorTestClass() ) );
+	}
+
+	List<CategoryDescriptor<AccessorTestClass>> descriptors( String... names ) throws NoSuchFieldException, SecurityException
+	{
+		List<CategoryDescriptor<AccessorTestClass>> descs = new ArrayList<>();
+		for ( String name : names )
+		{
+			CategoryDescriptor<AccessorTestClass> desc = CategoryDescriptor.newInstance( AccessorTestClass.class ).withCategoryFieldName( name );
+			desc.initializeFields();
+			descs.add( desc );
+		}
+		return descs;
+	}
+
+	@Test
+	public void testLegacyAccessorIgnoresBuffer()
+	{
+		Accessor<String> legacy = new Accessor<String>()
+		{
+			@Override
+			public Object[] getCategoryValues( String row )
+			{
+				return new Object[] { row };
+			}
+
+			@Override
+			public Object getDetail( String row )
+			{
+				return row;
+			}
+		};
+		assertArrayEquals( new Object[] { "x" }, legacy.getCategoryValues( "x", new Object[ 1 ] ) );
+	}
+}
@@ -181,6 +181,59 @@ public class CategoryDescriptorTest
 		assertEquals("ancillaryField2Value", result.get( "ancillaryField2" ));
 	}
 	
+	@Test
+	public void testMapAllFieldsFromAccessorMethods() 
+	throws NoSuchFieldException, SecurityException, IllegalArgumentException, IllegalAccessException
+	{
+		CategoryDescriptor<AccessorTestClass> subject = CategoryDescriptor.newInstance(AccessorTestClass.class)
+			.withCategoryFieldName( "category" )
+			.withAncillaryFieldNames( new String[] {"region", "active", "code"} ); 
+		subject.initializeFields();
+		assertNull(subject.getCategoryField());
+		assertEquals("category", subject.getCategoryGetter().getName());
+		assertEquals(int.class, subject.getAncillaryGetters()[2].getType());
+		Map<String, Object> result = subject.mapCatAndAncFields( new AccessorTestClass() );
+		assertEquals(4, result.size());
+		assertEquals("CAT", result.get( "category" ));
+		assertEquals("EAST", result.get( "region" ));
+		assertEquals(Boolean.TRUE, result.get( "active" ));
+		assertEquals(42, result.get( "code" ));
+	}
+
+	@Test(expected = NoSuchFieldException.class)
+	public void testInitializeFieldsUnknownName() throws NoSuchFieldException, SecurityException
+	{
+		CategoryDescriptor.newInstance(AccessorTestClass.class)
+			.withCategoryFieldName( "noSuchThing" )
+			.initializeFields();
+	}
+
+	/*
+	 * Values reachable only through a getter, an "is" getter, and record-style accessors
+	 */
+	static class AccessorTestClass
+	{
+		private String cat = "CAT";
+		private int c = 42;
+
+		public String getCategory()
+		{
+			return cat ;
+		}
+		public String region()
+		{
+			return "EAST" ;
+		}
+		public boolean isActive()
+		{
+			return true ;
+		}
+		public int code()
+		{
+			return c ;
+		}
+	}
+
 	class TestClass
 	{
 		String categoryField;
@@ -0,0 +1,59 @@
+package com.memoriesdreamsandreflections.nester;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertSame ;
+
+import java.util.stream.IntStream ;
+
+import org.junit.Test ;
+
+public class CategoryDictionaryTest
+{
+
+	@Test
+	public void testCodesAndInterning()
+	{
+		CategoryDictionary subject = new CategoryDictionary();
+		String ny = new String( "NY" );
+		assertEquals( 0, subject.code( ny ) );
+		assertEquals( 1, subject.code( "NJ" ) );
+		assertEquals( 0, subject.code( new String( "NY" ) ) );
+		assertSame( ny, subject.intern( new String( "NY" ) ) );
+		assertSame( ny, subject.value( 0 ) );
+		assertEquals( -1, subject.lookup( "PA" ) );
+		assertEquals( 2, subject.size() );
+		assertNull( subject.intern( null ) );
+		assertEquals( 2, subject.code( null ) );
+		assertNull( subject.value( 2 ) );
+		assertEquals( 2, subject.lookup( null ) );
+	}
+
+	@Test
+	public void testConcurrentGrowth()
+	{
+		CategoryDictionary subject = new CategoryDictionary();
+		IntStream.range( 0, 100_000 ).parallel().forEach( i -> subject.code( "v" + (i % 10_000) ) );
+		assertEquals( 10_000, subject.size() );
+		for ( int i = 0; i < 10_000; i++ )
+		{
+			String value = "v" + i;
+			assertEquals( value, subject.value( subject.lookup( value ) ) );
+		}
+	}
+
+	@Test
+	public void testLongKeyedMap()
+	{
+		CategoryDictionary dictionary = new CategoryDictionary();
+		LongKeyedMap<Integer> subject = new LongKeyedMap<>( dictionary );
+		subject.put( "b", 1 );
+		subject.putLong( dictionary.code( "a" ), 2 );
+		assertEquals( Integer.valueOf( 1 ), subject.get( new String( "b" ) ) );
+		assertEquals( Integer.valueOf( 2 ), subject.getLong( dictionary.lookup( "a" ) ) );
+		assertNull( subject.get( "c" ) );
+		assertEquals( "[b, a]", subject.keySet().toString() );
+		assertEquals( Integer.valueOf( 1 ), subject.remove( "b" ) );
+		assertEquals( 1, subject.size() );
+	}
+}
@@ -0,0 +1,99 @@
+package com.memoriesdreamsandreflections.nester;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.ArrayList ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.Map ;
+
+import org.junit.Test ;
+
+public class CompactTreeTest
+{
+
+	static List<CategoryDescriptor<NesterTest.IdRow>> descriptors( boolean names )
+	{
+		List<CategoryDescriptor<NesterTest.IdRow>> descs = new ArrayList<>();
+		descs.add( CategoryDescriptor.newInstance( NesterTest.IdRow.class ).withCategoryFieldName( "region" ) );
+		descs.add( CategoryDescriptor.newInstance( NesterTest.IdRow.class ).withCategoryFieldName( names ? "detail" : "account" ) );
+		return descs;
+	}
+
+	@Test
+	public void testMapViewMatchesNest()
+	throws Exception
+	{
+		List<NesterTest.IdRow> rows = NesterTest.idRows();
+		Map nested = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( descriptors( false ) ).detailFieldName( "detail" )
+			.nest( rows );
+		CompactTree tree = CompactTree.of( nested, 2 );
+
+		assertEquals( 20, tree.size( 0 ) );
+		assertEquals( 20 * 50, tree.size( 1 ) );
+		assertEquals( nested, tree.asMap() );
+		assertEquals( tree.asMap(), nested );
+		assertEquals( new ArrayList<>( nested.keySet() ), new ArrayList<>( tree.asMap().keySet() ) );
+		assertEquals( Integer.class, tree.asMap().keySet().iterator().next().getClass() );
+		Map region7 = (Map)tree.asMap().get( 7 );
+		assertEquals( Long.class, region7.keySet().iterator().next().getClass() );
+		assertEquals( ((Map)nested.get( 7 )).get( 12L ), region7.get( 12L ) );
+		assertNull( region7.get( "12" ) );
+		assertNull( tree.asMap().get( 20 ) );
+	}
+
+	@Test
+	public void testNavigation()
+	throws Exception
+	{
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( descriptors( true ) );
+		CompactTree tree = nester.compactNest( NesterTest.idRows() );
+
+		int region = tree.findPath( 3 );
+		assertEquals( 3, tree.getKey( 0, region ) );
+		assertEquals( 150, tree.getChildTo( 0, region ) - tree.getChildFrom( 0, region ) );
+		int detail = tree.find( 1, region, "3/17/2" );
+		assertEquals( "3/17/2", tree.getKey( 1, detail ) );
+		assertEquals( detail, tree.findPath( 3, "3/17/2" ) );
+		assertEquals( -1, tree.find( 1, region, "4/17/2" ) ); // exists, but under another region
+		assertEquals( -1, tree.findPath( 3, "3/99/0" ) );
+		assertEquals( -1, tree.findPath( "3" ) );
+
+		List<Object> details = tree.getDetails( 3, "3/17/2" );
+		assertEquals( 1, details.size() );
+		assertEquals( "3/17/2", ((NesterTest.IdRow)details.get( 0 )).detail );
+		assertEquals( details.get( 0 ), tree.getDetail( tree.getChildFrom( 1, detail ) ) );
+		assertNull( tree.getDetails( 3, "nope" ) );
+	}
+
+	@Test
+	public void testAggregatesAndPrimitiveKeys()
+	throws Exception
+	{
+		List<CategoryDescriptor<NesterTest.IdRow>> descs = NesterTest.aggregateDescriptors();
+		descs.get( 0 ).withPrimitiveKeys();
+		descs.get( 1 ).withPrimitiveKeys();
+		Map nested = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( descs ).nest( NesterTest.idRows() );
+		CompactTree tree = CompactTree.of( nested, 2 );
+
+		assertEquals( nested, tree.asMap() );
+		NesterTest.assertRegionAggregates( tree.getAggregates( 0, tree.findPath( 7 ) ) );
+		NesterTest.assertRegionAggregates( Aggregates.of( tree.asMap().get( 7 ) ) );
+		assertEquals( 3, Aggregates.of( ((Map)tree.asMap().get( 7 )).get( 12L ) ).getCount() );
+		assertEquals( 3, Aggregates.of( ((Map)tree.asMap().get( 7 )).get( 12 ) ).getCount() ); // any integral Number, as LongKeyedMap
+		assertNull( Aggregates.of( tree.asMap() ) );
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		CompactTree tree = CompactTree.of( new java.util.LinkedHashMap<>(), 3 );
+		assertTrue( tree.asMap().isEmpty() );
+		assertEquals( -1, tree.findPath( "x" ) );
+		Iterator<?> entries = tree.asMap().entrySet().iterator();
+		assertFalse( entries.hasNext() );
+	}
+}
@@ -0,0 +1,189 @@
+package com.memoriesdreamsandreflections.nester;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.fail ;
+
+import java.io.DataInput ;
+import java.io.DataOutput ;
+import java.io.IOException ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.Comparator ;
+import java.util.List ;
+import java.util.Random ;
+import java.util.stream.Stream ;
+
+import org.junit.Test ;
+
+public class ExternalSortTest
+{
+	/*
+	 * key, then the input position, to check stability
+	 */
+	static final Codec<int[]> PAIR = new Codec<int[]>()
+	{
+		@Override
+		public void encode( int[] value, DataOutput out ) throws IOException
+		{
+			out.writeInt( value[ 0 ] );
+			out.writeInt( value[ 1 ] );
+		}
+
+		@Override
+		public int[] decode( DataInput in ) throws IOException
+		{
+			return new int[] { in.readInt(), in.readInt() };
+		}
+	};
+
+	static List<int[]> pairs( int count )
+	{
+		Random random = new Random( 42 );
+		List<int[]> pairs = new ArrayList<>();
+		for ( int i = 0; i < count; i++ )
+		{
+			pairs.add( new int[] { random.nextInt( 500 ), i } );
+		}
+		return pairs;
+	}
+
+	static void assertSorted( List<int[]> input, ExternalSort<int[]>.Sorted sorted )
+	{
+		List<int[]> expected = new ArrayList<>( input );
+		expected.sort( Comparator.comparingInt( p -> p[ 0 ] ) );
+		int i = 0;
+		while ( sorted.hasNext() )
+		{
+			int[] pair = sorted.next();
+			assertEquals( expected.get( i )[ 0 ], pair[ 0 ] );
+			assertEquals( expected.get( i )[ 1 ], pair[ 1 ] );
+			i++;
+		}
+		assertEquals( expected.size(), i );
+	}
+
+	@Test
+	public void testMultiPassMerge()
+	throws Exception
+	{
+		Path directory = Files.createTempDirectory( "nester" );
+		try
+		{
+			List<int[]> input = pairs( 10_000 );
+			ExternalSort<int[]> sort = new ExternalSort<>( Comparator.comparingInt( p -> p[ 0 ] ), PAIR, 100, directory );
+			ExternalSort<int[]>.Sorted sorted = sort.sort( input.iterator() );
+			assertEquals( 2, sorted.getRunCount() ); // 100 runs, merged 64 at a time
+			assertSorted( input, sorted );
+			try ( Stream<Path> files = Files.list( directory ) )
+			{
+				assertEquals( 0, files.count() );
+			}
+		}
+		finally
+		{
+			Files.delete( directory );
+		}
+	}
+
+	@Test
+	public void testInMemory()
+	throws Exception
+	{
+		List<int[]> input = pairs( 1000 );
+		ExternalSort<int[]>.Sorted sorted = new ExternalSort<>( Comparator.comparingInt( ( int[] p ) -> p[ 0 ] ), PAIR, 1000, null )
+			.sort( input.iterator() );
+		assertEquals( 0, sorted.getRunCount() );
+		assertSorted( input, sorted );
+		assertFalse( new ExternalSort<>( Comparator.comparingInt( ( int[] p ) -> p[ 0 ] ), PAIR, 10, null )
+			.sort( Collections.<int[]>emptyIterator() ).hasNext() );
+	}
+
+	@Test
+	public void testCloseDeletesRuns()
+	throws Exception
+	{
+		Path directory = Files.createTempDirectory( "nester" );
+		try
+		{
+			ExternalSort<int[]>.Sorted sorted = new ExternalSort<>( Comparator.comparingInt( ( int[] p ) -> p[ 0 ] ), PAIR, 10, directory )
+				.sort( pairs( 100 ).iterator() );
+			sorted.next();
+			sorted.close();
+			assertFalse( sorted.hasNext() );
+			try ( Stream<Path> files = Files.list( directory ) )
+			{
+				assertEquals( 0, files.count() );
+			}
+		}
+		finally
+		{
+			Files.delete( directory );
+		}
+	}
+
+	@Test
+	public void testFailedMergeDeletesRuns()
+	throws Exception
+	{
+		Path directory = Files.createTempDirectory( "nester" );
+		try
+		{
+			int[] encoded = { 0 };
+			Codec<int[]> failing = new Codec<int[]>()
+			{
+				@Override
+				public void encode( int[] value, DataOutput out ) throws IOException
+				{
+					if ( ++encoded[ 0 ] > 650 + 645 ) // runs, then into the second merged file
+					{
+						throw new IOException( "disk full" );
+					}
+					PAIR.encode( value, out );
+				}
+
+				@Override
+				public int[] decode( DataInput in ) throws IOException
+				{
+					return PAIR.decode( in );
+				}
+			};
+			try
+			{
+				new ExternalSort<>( Comparator.comparingInt( ( int[] p ) -> p[ 0 ] ), failing, 10, directory ).sort( pairs( 650 ).iterator() );
+				fail( "expected IOException" );
+			}
+			catch ( IOException e )
+			{
+				assertEquals( "disk full", e.getMessage() );
+			}
+			try ( Stream<Path> files = Files.list( directory ) )
+			{
+				assertEquals( 0, files.count() );
+			}
+		}
+		finally
+		{
+			Files.delete( directory );
+		}
+	}
+
+	@Test
+	public void testCategoryPathOrder()
+	throws Exception
+	{
+		List<CategoryDescriptor<NesterTest.IdRow>> descs = NesterTest.aggregateDescriptors();
+		for ( CategoryDescriptor<NesterTest.IdRow> desc : descs )
+		{
+			desc.initializeFields();
+		}
+		Comparator<NesterTest.IdRow> order = ExternalSort.categoryPathOrder( descs );
+		NesterTest.IdRow a = new NesterTest.IdRow( 1, 5, "a" );
+		assertEquals( 0, order.compare( a, new NesterTest.IdRow( 1, 5, "b" ) ) );
+		assertEquals( -1, Integer.signum( order.compare( a, new NesterTest.IdRow( 1, 6, "a" ) ) ) );
+		assertEquals( 1, Integer.signum( order.compare( a, new NesterTest.IdRow( 0, 9, "a" ) ) ) );
+		assertEquals( -1, ExternalSort.compareValues( null, "x" ) );
+	}
+}
@@ -0,0 +1,52 @@
+package com.memoriesdreamsandreflections.nester;
+
+import static org.junit.Assert.assertEquals ;
+
+import org.junit.Test ;
+
+public class HyperLogLogTest
+{
+
+	@Test
+	public void testSmallCountsAreExact()
+	{
+		HyperLogLog subject = new HyperLogLog();
+		for ( int i = 0; i < 1000; i++ )
+		{
+			subject.add( "v" + (i % 50) );
+		}
+		assertEquals( 50, subject.estimate() );
+		assertEquals( 0, new HyperLogLog().estimate() );
+	}
+
+	@Test
+	public void testLargeCountWithinError()
+	{
+		HyperLogLog subject = new HyperLogLog();
+		for ( long i = 0; i < 1_000_000; i++ )
+		{
+			subject.addLong( i );
+		}
+		assertEquals( 1_000_000, subject.estimate(), 1_000_000 * 0.05 );
+	}
+
+	@Test
+	public void testMerge()
+	{
+		HyperLogLog left = new HyperLogLog();
+		HyperLogLog right = new HyperLogLog();
+		for ( int i = 0; i < 20_000; i++ )
+		{
+			left.add( i );
+			right.add( i + 10_000 );
+		}
+		left.merge( right );
+		assertEquals( 30_000, left.estimate(), 30_000 * 0.05 );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testMergePrecisionMismatch()
+	{
+		new HyperLogLog( 10 ).merge( new HyperLogLog( 12 ) );
+	}
+}
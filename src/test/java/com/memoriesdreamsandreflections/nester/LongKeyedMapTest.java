@@ -0,0 +1,119 @@
+package com.memoriesdreamsandreflections.nester;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.ArrayList ;
+import java.util.Iterator ;
+import java.util.LinkedHashMap ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.Random ;
+
+import org.junit.Test ;
+
+public class LongKeyedMapTest
+{
+
+	@Test
+	public void testPutGetGrowth()
+	{
+		LongKeyedMap<String> subject = new LongKeyedMap<>( long.class );
+		for ( long k = 0; k < 10_000; k++ )
+		{
+			assertNull( subject.putLong( k * 7919, "v" + k ) );
+		}
+		assertEquals( 10_000, subject.size() );
+		assertEquals( "v42", subject.getLong( 42 * 7919 ) );
+		assertEquals( "v42", subject.get( 42L * 7919 ) );
+		assertEquals( "v42", subject.get( 42 * 7919 ) ); // any integral Number
+		assertNull( subject.get( "42" ) );
+		assertFalse( subject.containsLong( 1 ) );
+		assertEquals( "v42", subject.putLong( 42 * 7919, "x" ) );
+		assertEquals( "x", subject.getLong( 42 * 7919 ) );
+		assertEquals( 10_000, subject.size() );
+	}
+
+	@Test
+	public void testInsertionOrderAndBoxing()
+	{
+		LongKeyedMap<String> subject = new LongKeyedMap<>( int.class );
+		Map<Integer, String> expected = new LinkedHashMap<>();
+		for ( int k : new int[] { 5, -3, 1_000_000, 0, 17 } )
+		{
+			subject.put( k, "v" + k );
+			expected.put( k, "v" + k );
+		}
+		assertEquals( new ArrayList<>( expected.keySet() ), new ArrayList<>( subject.keySet() ) );
+		assertEquals( Integer.class, subject.keySet().iterator().next().getClass() );
+		assertEquals( expected, subject );
+		assertEquals( subject, expected );
+		assertEquals( expected.hashCode(), subject.hashCode() );
+	}
+
+	@Test
+	public void testRemove()
+	{
+		LongKeyedMap<String> subject = new LongKeyedMap<>( long.class );
+		for ( long k = 0; k < 10; k++ )
+		{
+			subject.putLong( k, "v" + k );
+		}
+		assertEquals( "v3", subject.remove( 3L ) );
+		assertNull( subject.removeLong( 3 ) );
+		assertEquals( 9, subject.size() );
+		assertEquals( "v9", subject.getLong( 9 ) );
+
+		Iterator<Map.Entry<Object, String>> it = subject.entrySet().iterator();
+		while ( it.hasNext() )
+		{
+			if ( ((Long)it.next().getKey()) % 2 == 0 )
+			{
+				it.remove();
+			}
+		}
+		List<Object> keys = new ArrayList<>( subject.keySet() );
+		assertEquals( List.of( 1L, 5L, 7L, 9L ), keys );
+		assertTrue( subject.containsKey( 7L ) );
+		subject.clear();
+		assertTrue( subject.isEmpty() );
+		assertNull( subject.getLong( 7 ) );
+	}
+
+	/*
+	 * Removals in any order, interleaved with puts that refill the holes, against a LinkedHashMap
+	 */
+	@Test
+	public void testRemoveAgainstLinkedHashMap()
+	{
+		LongKeyedMap<String> subject = new LongKeyedMap<>( long.class );
+		Map<Long, String> expected = new LinkedHashMap<>();
+		Random random = new Random( 42 );
+		for ( int i = 0; i < 50_000; i++ )
+		{
+			long key = random.nextInt( 2_000 ) * 31L;
+			if ( random.nextInt( 3 ) == 0 )
+			{
+				assertEquals( expected.remove( key ), subject.removeLong( key ) );
+			}
+			else
+			{
+				assertEquals( expected.put( key, "v" + i ), subject.putLong( key, "v" + i ) );
+			}
+		}
+		assertEquals( expected.size(), subject.size() );
+		assertEquals( new ArrayList<>( expected.keySet() ), new ArrayList<>( subject.keySet() ) );
+		for ( long key = 0; key < 2_000 * 31L; key += 31 )
+		{
+			assertEquals( expected.get( key ), subject.getLong( key ) );
+		}
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testNonIntegralKey()
+	{
+		new LongKeyedMap<String>( int.class ).put( "x", "y" );
+	}
+}
@@ -0,0 +1,160 @@
+package com.memoriesdreamsandreflections.nester;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNull ;
+
+import java.io.IOException ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.util.ArrayList ;
+import java.util.LinkedHashMap ;
+import java.util.List ;
+import java.util.Map ;
+
+import org.junit.Test ;
+
+import com.fasterxml.jackson.databind.ObjectMapper ;
+
+@SuppressWarnings( "rawtypes" )
+public class NameValueSnapshotTest
+{
+	static final ObjectMapper MAPPER = new ObjectMapper();
+
+	static List<TestNameValueStruct> rows()
+	{
+		List<TestNameValueStruct> rows = new ArrayList<>();
+		for ( String state : NesterNameValueTest.states )
+		{
+			for ( String city : NesterNameValueTest.cities )
+			{
+				for ( String zip : NesterNameValueTest.zips )
+				{
+					rows.add( new TestNameValueStruct( state, city, zip, state + city + zip ) );
+				}
+			}
+		}
+		return rows;
+	}
+
+	static void assertSameJson( Object expected, Object actual )
+	throws IOException
+	{
+		assertEquals( MAPPER.writeValueAsString( expected ), MAPPER.writeValueAsString( actual ) );
+	}
+
+	@Test
+	public void testDetailsAndRollup()
+	throws Exception
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> descs = new ArrayList<>();
+		descs.add( CategoryDescriptor.newInstance( TestNameValueStruct.class ).withCategoryFieldName( "state" ).withCollectionLabel( "states" ) );
+		descs.add( CategoryDescriptor.newInstance( TestNameValueStruct.class ).withCategoryFieldName( "city" ).withCollectionLabel( "cities" ) );
+		descs.add( CategoryDescriptor.newInstance( TestNameValueStruct.class ).withCategoryFieldName( "zip" ).withCollectionLabel( "zips" )
+			.withDetailCollectionLabel( "details" )
+			.withDetailValueMappingFunction( ( row ) -> {
+				Map<String, Object> result = new LinkedHashMap<>();
+				result.put( "sec", row.getSecurity() );
+				result.put( "length", row.getSecurity().length() );
+				return result;
+			} ) );
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( descs );
+		Map tree = nester.nameValueNest( rows() );
+
+		Path file = Files.createTempFile( "nester", ".snapshot" );
+		try
+		{
+			nester.writeSnapshot( file );
+			try ( NameValueSnapshot snapshot = NameValueSnapshot.open( file ) )
+			{
+				assertEquals( 3, snapshot.getDepth() );
+				assertEquals( nester.getDehydratedInstance().get( "specs" ), snapshot.getSpecs() );
+				assertSameJson( tree, snapshot.query() );
+				assertSameJson( nester.query( "NY" ), snapshot.query( "NY" ) );
+				assertSameJson( nester.query( "NY", "CITY03" ), snapshot.query( "NY", "CITY03" ) );
+				assertSameJson( nester.query( "TN", "CITY10", "00007" ), snapshot.query( "TN", "CITY10", "00007" ) );
+				assertNull( snapshot.query( "XX" ) );
+				assertNull( snapshot.query( "NY", "CITY99" ) );
+				assertNull( snapshot.query( "NY", "CITY03", 7 ) );
+			}
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	@Test
+	public void testAggregatesAndPrimitiveKeys()
+	throws Exception
+	{
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() );
+		nester.nameValueNest( NesterTest.idRows() );
+
+		Path file = Files.createTempFile( "nester", ".snapshot" );
+		try
+		{
+			NameValueSnapshot.write( nester.getDehydratedInstance(), file );
+			try ( NameValueSnapshot snapshot = NameValueSnapshot.open( file ) )
+			{
+				assertSameJson( nester.query(), snapshot.query() );
+				assertSameJson( nester.query( 7 ), snapshot.query( 7 ) );
+				assertSameJson( nester.query( 7, 12L ), snapshot.query( 7, 12L ) );
+				assertNull( snapshot.query( 7, 12 ) ); // an Integer is not the Long 12
+				assertNull( snapshot.query( 7L ) );
+			}
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	@Test
+	public void testPlainInmostValues()
+	throws Exception
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> descs = new ArrayList<>();
+		descs.add( CategoryDescriptor.newInstance( TestNameValueStruct.class ).withCategoryFieldName( "state" ).withCollectionLabel( "states" ) );
+		descs.add( CategoryDescriptor.newInstance( TestNameValueStruct.class ).withCategoryFieldName( "zip" ).withCollectionLabel( "zips" ) );
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( descs );
+		nester.nameValueNest( rows() );
+
+		Path file = Files.createTempFile( "nester", ".snapshot" );
+		try
+		{
+			nester.writeSnapshot( file );
+			try ( NameValueSnapshot snapshot = NameValueSnapshot.open( file ) )
+			{
+				assertSameJson( nester.query(), snapshot.query() );
+				assertEquals( nester.query( "VT", "00004" ), snapshot.query( "VT", "00004" ) );
+			}
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	@Test
+	public void testEmpty()
+	throws Exception
+	{
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() );
+		nester.nameValueNest( new ArrayList<>() );
+
+		Path file = Files.createTempFile( "nester", ".snapshot" );
+		try
+		{
+			nester.writeSnapshot( file );
+			try ( NameValueSnapshot snapshot = NameValueSnapshot.open( file ) )
+			{
+				assertSameJson( nester.query(), snapshot.query() );
+				assertNull( snapshot.query( 1 ) );
+			}
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+}
@@ -17,12 +17,15 @@ package com.memoriesdreamsandreflections.nester;
 
 
 import java.io.BufferedWriter ;
+import java.io.ByteArrayOutputStream ;
 import java.io.File ;
 import java.io.FileWriter ;
+import java.io.StringWriter ;
 import java.util.ArrayList ;
 import java.util.LinkedHashMap ;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool ;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -32,8 +35,12 @@ import org.junit.Test;
 import org.slf4j.Logger ;
 import org.slf4j.LoggerFactory ;
 
+import com.fasterxml.jackson.core.JsonGenerator ;
 import com.fasterxml.jackson.core.JsonProcessingException ;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory ;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator ;
+import com.fasterxml.jackson.dataformat.smile.SmileParser ;
 
 @SuppressWarnings( "rawtypes" )
 public class NesterNameValueTest
@@ -607,6 +614,707 @@ public class NesterNameValueTest
 		
 	}
 
+	@Test
+	public void mungeTestRepeatedRows()
+	throws Exception
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> categoryDescriptors = new ArrayList<>(4);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "state" )
+				.withCollectionLabel("states")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "city" )
+				.withCollectionLabel("cities")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "zip" )
+				.withCollectionLabel("zips")
+				.withDetailCollectionLabel( "synthesizedDetails" )
+				.withDetailValueMappingFunction( (row) -> {
+					Map<String, Object> result = new LinkedHashMap<>();
+					result.put( "detailSec", row.getSecurity() );
+					return result;
+				}
+				)
+			);
+
+		List<TestNameValueStruct> rows = new ArrayList<>( testListNoNulls );
+		rows.addAll( testListNoNulls );
+
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors );
+		Map result = nester.nameValueNest( rows );
+
+		Assert.assertEquals( states.length, ((List)result.get( "states" )).size() );
+		Map ny = (Map)nester.query( "NY" );
+		Assert.assertEquals( cities.length, ((List)ny.get( "cities" )).size() );
+		Map zip = (Map)nester.query( "NY", "CITY01", "00001" );
+		Assert.assertEquals( 2 * secs.length, ((List)zip.get( "synthesizedDetails" )).size() );
+	}
+
+	@Test
+	public void mungeRehydratedFromJsonTest()
+	throws Exception
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> categoryDescriptors = new ArrayList<>(4);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "state" )
+				.withAncillaryFieldNames( new String[]{"ancState"} )
+				.withCollectionLabel("states")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "city" )
+				.withCollectionLabel("cities")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "zip" )
+				.withCollectionLabel("zips")
+			);
+
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors );
+		nester.nameValueNest( testListNoNulls );
+
+		ObjectMapper mapper = new ObjectMapper();
+		String json = mapper.writeValueAsString( nester.getDehydratedInstance() );
+		Nester rehydrated = Nester.getRehydratedInstance( mapper.readValue( json, Map.class ) );
+
+		Map ny = (Map)rehydrated.query( "NY" );
+		Assert.assertEquals( "NYANC", ny.get( "ancState" ) );
+		Assert.assertEquals( "00007", rehydrated.query( "NY", "CITY03", "00007" ) );
+		Assert.assertNull( rehydrated.query( "NY", "CITY99" ) );
+		Assert.assertNull( rehydrated.query( "ZZ", "CITY01", "00001" ) );
+		Assert.assertEquals( nester.query( "NJ", "CITY02" ), rehydrated.query( "NJ", "CITY02" ) );
+	}
+
+	@Test
+	public void appendTest()
+	throws Exception
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> categoryDescriptors = new ArrayList<>(4);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "state" )
+				.withAncillaryFieldNames( new String[]{"ancState"} )
+				.withCollectionLabel("states")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "city" )
+				.withCollectionLabel("cities")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "zip" )
+				.withCollectionLabel("zips")
+				.withDetailCollectionLabel( "synthesizedDetails" )
+				.withDetailValueMappingFunction( (row) -> {
+					Map<String, Object> result = new LinkedHashMap<>();
+					result.put( "detailSec", row.getSecurity() );
+					return result;
+				}
+				)
+			);
+
+		/*
+		 * The delta both adds details to existing zips and brings new states
+		 */
+		List<TestNameValueStruct> base = new ArrayList<>();
+		List<TestNameValueStruct> delta = new ArrayList<>();
+		for ( TestNameValueStruct row : testListNoNulls )
+		{
+			(row.getState().equals( "KY" ) || row.getState().equals( "TN" ) || row.getSecurity().equals( "SEC-010" ) ? delta : base).add( row );
+		}
+		List<TestNameValueStruct> all = new ArrayList<>( base );
+		all.addAll( delta );
+		Map expected = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors )
+			.nameValueNest( all );
+
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors );
+		Map result = nester.nameValueNest( base );
+		Assert.assertNull( nester.query( "TN" ) );
+		Assert.assertSame( result, nester.nameValueAppend( delta ) );
+		Assert.assertEquals( expected, result );
+		Map zip = (Map)nester.query( "NY", "CITY01", "00001" );
+		Assert.assertEquals( secs.length, ((List)zip.get( "synthesizedDetails" )).size() );
+
+		Nester<TestNameValueStruct> parallel = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors )
+			.parallel( ForkJoinPool.commonPool(), true )
+			.parallelBatchSize( 300 );
+		parallel.nameValueNest( base );
+		Assert.assertEquals( expected, parallel.nameValueAppend( delta ) );
+
+		ObjectMapper mapper = new ObjectMapper();
+		Nester<TestNameValueStruct> baseNester = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors );
+		baseNester.nameValueNest( base );
+		String json = mapper.writeValueAsString( baseNester.getDehydratedInstance() );
+		Nester<TestNameValueStruct> rehydrated = Nester.getRehydratedInstance( mapper.readValue( json, Map.class ), 
+			TestNameValueStruct.class, categoryDescriptors );
+		Assert.assertEquals( expected, rehydrated.nameValueAppend( delta ) );
+		Assert.assertEquals( secs.length, ((List)((Map)rehydrated.query( "NY", "CITY01", "00001" )).get( "synthesizedDetails" )).size() );
+		Assert.assertNotNull( rehydrated.query( "TN", "CITY01" ) );
+
+		try
+		{
+			Nester.getRehydratedInstance( mapper.readValue( json, Map.class ) ).nameValueAppend( delta );
+			Assert.fail( "query-only instance appended" );
+		}
+		catch ( UnsupportedOperationException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void appendAggregatesRehydratedTest()
+	throws Exception
+	{
+		List<NesterTest.IdRow> base = new ArrayList<>();
+		List<NesterTest.IdRow> delta = new ArrayList<>();
+		for ( NesterTest.IdRow row : NesterTest.idRows() )
+		{
+			(row.region >= 18 || row.detail.endsWith( "/2" ) ? delta : base).add( row );
+		}
+		List<NesterTest.IdRow> all = new ArrayList<>( base );
+		all.addAll( delta );
+		Map expected = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() )
+			.nameValueNest( all );
+
+		/*
+		 * convertValue() keeps int and long category values apart, as they are in the live tree
+		 */
+		ObjectMapper mapper = new ObjectMapper();
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() );
+		nester.nameValueNest( base );
+		Map dehydrated = mapper.convertValue( nester.getDehydratedInstance(), Map.class );
+		Nester<NesterTest.IdRow> rehydrated = Nester.getRehydratedInstance( dehydrated, NesterTest.IdRow.class, 
+			NesterTest.aggregateDescriptors() );
+		Map result = rehydrated.nameValueAppend( delta );
+
+		Assert.assertEquals( mapper.writeValueAsString( expected ), mapper.writeValueAsString( result ) );
+		NesterTest.assertRegionAggregates( (Aggregates<?>)((Map)rehydrated.query( 7 )).get( "aggregates" ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void appendRehydratedMismatchTest()
+	throws Exception
+	{
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() );
+		nester.nameValueNest( NesterTest.idRows() );
+		List<CategoryDescriptor<NesterTest.IdRow>> descs = NesterTest.aggregateDescriptors();
+		descs.get( 1 ).withCollectionLabel( "ledgers" );
+		Nester.getRehydratedInstance( nester.getDehydratedInstance(), NesterTest.IdRow.class, descs );
+	}
+
+	@Test
+	public void deleteUpsertTest()
+	throws Exception
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> categoryDescriptors = new ArrayList<>(4);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "state" )
+				.withCollectionLabel("states")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "city" )
+				.withCollectionLabel("cities")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "zip" )
+				.withCollectionLabel("zips")
+				.withDetailCollectionLabel( "synthesizedDetails" )
+				.withDetailValueMappingFunction( (row) -> {
+					Map<String, Object> result = new LinkedHashMap<>();
+					result.put( "detailSec", row.getSecurity() );
+					result.put( "detailAnc", row.getAncCity() );
+					return result;
+				}
+				)
+			);
+
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors )
+			.detailIdentity( detail -> ((Map)detail).get( "detailSec" ) );
+		Map result = nester.nameValueNest( testListNoNulls );
+
+		List<TestNameValueStruct> remaining = new ArrayList<>();
+		for ( TestNameValueStruct row : testListNoNulls )
+		{
+			if ( row.getState().equals( "TN" ) || (row.getState().equals( "NY" ) && row.getCity().equals( "CITY03" )) 
+				|| (row.getZip().equals( "00004" ) && row.getSecurity().equals( "SEC-002" )) )
+			{
+				Assert.assertTrue( nester.nameValueDelete( row ) );
+			}
+			else
+			{
+				remaining.add( row );
+			}
+		}
+		Assert.assertFalse( nester.nameValueDelete( new TestNameValueStruct( "TN", "CITY01", "00001", "SEC-001" ) ) );
+		Map expected = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors )
+			.nameValueNest( remaining );
+		Assert.assertEquals( expected, result );
+		Assert.assertNull( nester.query( "TN" ) );
+		Assert.assertNull( nester.query( "NY", "CITY03" ) );
+		Assert.assertNotNull( nester.query( "NY", "CITY04" ) );
+
+		TestNameValueStruct changed = new TestNameValueStruct( "NY", "CITY01", "00001", "SEC-003" );
+		changed.setAncCity( "CHANGED" );
+		Assert.assertTrue( nester.nameValueUpsert( changed ) );
+		List details = (List)((Map)nester.query( "NY", "CITY01", "00001" )).get( "synthesizedDetails" );
+		Assert.assertEquals( secs.length, details.size() );
+		Assert.assertEquals( "CHANGED", ((Map)details.get( 2 )).get( "detailAnc" ) );
+
+		Assert.assertFalse( nester.nameValueUpsert( new TestNameValueStruct( "TN", "CITY01", "00001", "SEC-001" ) ) );
+		Assert.assertEquals( 1, ((List)((Map)nester.query( "TN", "CITY01", "00001" )).get( "synthesizedDetails" )).size() );
+	}
+
+	@Test
+	public void deleteAggregatesTest()
+	throws Exception
+	{
+		List<NesterTest.IdRow> rows = NesterTest.idRows();
+		List<CategoryDescriptor<NesterTest.IdRow>> descs = NesterTest.aggregateDescriptors();
+		descs.get( 1 ).withDetailCollectionLabel( "entries" ).withDetailValueMappingFunction( (row) -> {
+			Map<String, Object> result = new LinkedHashMap<>();
+			result.put( "detail", row.detail );
+			return result;
+		} );
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( descs );
+		nester.nameValueNest( rows );
+
+		List<NesterTest.IdRow> remaining = new ArrayList<>();
+		for ( NesterTest.IdRow row : rows )
+		{
+			if ( row.region == 7 && row.account == 12 )
+			{
+				Assert.assertTrue( nester.nameValueDelete( row ) );
+			}
+			else
+			{
+				remaining.add( row );
+			}
+		}
+		Assert.assertNull( nester.query( 7, 12L ) );
+		Aggregates<?> region7 = (Aggregates<?>)((Map)nester.query( 7 )).get( "aggregates" );
+		Assert.assertEquals( 147, region7.getCount() );
+		Assert.assertEquals( 3 * (49 * 50 / 2 + 50 * 0.5) - 3 * 12.5, region7.getSum( "amount" ), 1e-9 );
+
+		ObjectMapper mapper = new ObjectMapper();
+		Map expected = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( descs ).nameValueNest( remaining );
+		Assert.assertEquals( mapper.writeValueAsString( expected ), mapper.writeValueAsString( nester.query() ) );
+		try
+		{
+			nester.nameValueUpsert( rows.get( 0 ) );
+			Assert.fail( "replaced a detail under aggregates" );
+		}
+		catch ( UnsupportedOperationException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void mungeTestParallel()
+	throws Exception
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> categoryDescriptors = new ArrayList<>(4);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "state" )
+				.withAncillaryFieldNames( new String[]{"ancState"} )
+				.withCollectionLabel("states")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "city" )
+				.withAncillaryFieldNames( new String[]{"ancState", "ancCity"} )
+				.withCollectionLabel("cities")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "zip" )
+				.withCollectionLabel("zips")
+				.withDetailCollectionLabel( "synthesizedDetails" )
+				.withDetailValueMappingFunction( (row) -> {
+					Map<String, Object> result = new LinkedHashMap<>();
+					result.put( "detailSec", row.getSecurity() );
+					return result;
+				}
+				)
+			);
+
+		/*
+		 * Interleave the input so that every batch touches every state.
+		 */
+		List<TestNameValueStruct> rows = new ArrayList<>( testListNoNulls.size() );
+		int stride = secs.length;
+		for ( int offset = 0; offset < stride; offset++ )
+		{
+			for ( int i = offset; i < testListNoNulls.size(); i += stride )
+			{
+				rows.add( testListNoNulls.get( i ) );
+			}
+		}
+
+		Map sequential = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors )
+			.nameValueNest( rows );
+
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors )
+			.parallel( ForkJoinPool.commonPool(), false )
+			.parallelBatchSize( 300 );
+		Map result = nester.nameValueNest( rows );
+
+		Assert.assertEquals( sequential, result );
+		Map zip = (Map)nester.query( "NY", "CITY01", "00001" );
+		Assert.assertEquals( secs.length, ((List)zip.get( "synthesizedDetails" )).size() );
+	}
+
+	@Test
+	public void mungeTestStreaming()
+	throws Exception
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> categoryDescriptors = new ArrayList<>(4);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "state" )
+				.withCollectionLabel("states")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "city" )
+				.withCollectionLabel("cities")
+			);
+
+		Map fromList = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors )
+			.nameValueNest( testListNoNulls );
+
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors );
+		Assert.assertEquals( fromList, nester.nameValueNest( testListNoNulls.stream() ) );
+		Assert.assertEquals( fromList, nester.nameValueNest( testListNoNulls.iterator() ) );
+		Assert.assertEquals( "CITY04", nester.query( "NY", "CITY04" ) );
+	}
+
+	@Test
+	public void emitTest()
+	throws Exception
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> categoryDescriptors = new ArrayList<>(4);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "state" )
+				.withAncillaryFieldNames( new String[]{"ancState"} )
+				.withAncillaryValueMappingFunction( (row) -> {
+					Map<String, Object> ancMap = new LinkedHashMap<>();
+					ancMap.put( "stateUrl", "http://ohcrap.com?state="  + row.getState());
+					return ancMap;
+				} )
+				.withCollectionLabel("states")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "city" )
+				.withCategoryFieldRenderedName( "rendered_city" )
+				.withCollectionLabel("cities")
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "zip" )
+				.withCollectionLabel("zips")
+				.withDetailCollectionLabel( "synthesizedDetails" )
+				.withDetailValueMappingFunction( (row) -> {
+					Map<String, Object> result = new LinkedHashMap<>();
+					result.put( "detailZip", row.getZip() );
+					result.put( "detailSec", row.getSecurity() );
+					return result;
+				}
+				)
+			);
+
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors );
+		Map expected = nester.nameValueNest( testListNoNulls );
+
+		ObjectMapper mapper = new ObjectMapper();
+		StringWriter json = new StringWriter();
+		try ( JsonGenerator generator = mapper.getFactory().createGenerator( json ) )
+		{
+			nester.nameValueEmit( testListNoNulls, generator );
+		}
+		Assert.assertEquals( expected, mapper.readValue( json.toString(), Map.class ) );
+
+		ObjectMapper smileMapper = new ObjectMapper( new SmileFactory() );
+		ByteArrayOutputStream smile = new ByteArrayOutputStream();
+		try ( JsonGenerator generator = smileMapper.getFactory().createGenerator( smile ) )
+		{
+			nester.nameValueEmit( testListNoNulls.stream(), generator );
+		}
+		Assert.assertEquals( expected, smileMapper.readValue( smile.toByteArray(), Map.class ) );
+	}
+
+	@Test
+	@SuppressWarnings( "unchecked" )
+	public void aggregatesTest()
+	throws Exception
+	{
+		List<NesterTest.IdRow> rows = NesterTest.idRows();
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class )
+			.categoryDescriptors( NesterTest.aggregateDescriptors() );
+		Map expected = nester.nameValueNest( rows );
+		Map region7 = (Map)((List)expected.get( "regions" )).get( 7 );
+		NesterTest.assertRegionAggregates( (Aggregates<?>)region7.get( "aggregates" ) );
+		Map account12 = (Map)((List)region7.get( "accounts" )).get( 12 );
+		Assert.assertEquals( 3L, ((Map)account12.get( "aggregates" )).get( Aggregates.COUNT ) );
+		Assert.assertSame( account12, nester.query( 7, 12L ) );
+
+		Map parallel = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() )
+			.parallel( ForkJoinPool.commonPool(), true ).parallelBatchSize( 64 ).nameValueNest( rows );
+		Assert.assertEquals( expected, parallel );
+
+		ObjectMapper mapper = new ObjectMapper();
+		StringWriter json = new StringWriter();
+		try ( JsonGenerator generator = mapper.getFactory().createGenerator( json ) )
+		{
+			nester.nameValueEmit( rows, generator );
+		}
+		Assert.assertEquals( mapper.writeValueAsString( expected ), json.toString() );
+	}
+
+	@Test
+	public void rollupTest()
+	throws Exception
+	{
+		/*
+		 * Ordered, with each rollup row ahead of the rows it summarizes, as a GROUP BY ROLLUP would return them
+		 */
+		List<TestNameValueStruct> rows = new ArrayList<>();
+		rows.add( new TestNameValueStruct( null, null, null, "GLOBAL_ROLLUP" ) );
+		for ( String state : states )
+		{
+			rows.add( new TestNameValueStruct( state, null, null, state + "|STATE_ROLLUP" ) );
+			for ( String city : cities )
+			{
+				rows.add( new TestNameValueStruct( state, city, null, state + "|" + city + "|CITY_ROLLUP" ) );
+				for ( String zip : zips )
+				{
+					rows.add( new TestNameValueStruct( state, city, zip, secs[ 0 ] ) );
+				}
+			}
+		}
+
+		List<CategoryDescriptor<TestNameValueStruct>> categoryDescriptors = new ArrayList<>(4);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "state" )
+				.withCollectionLabel("states")
+				.withRollupValueMappingFunction( (row) -> {
+					Map<String, Object> result = new LinkedHashMap<>();
+					result.put( "total", row.getSecurity() );
+					return result;
+				} )
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "city" )
+				.withCollectionLabel("cities")
+				.withRollupLabel( "cityTotal" )
+				.withRollupValueMappingFunction( (row) -> {
+					Map<String, Object> result = new LinkedHashMap<>();
+					result.put( "total", row.getSecurity() );
+					return result;
+				} )
+			);
+			categoryDescriptors.add( CategoryDescriptor.newInstance( TestNameValueStruct.class )
+				.withCategoryFieldName( "zip" )
+				.withCollectionLabel("zips")
+			);
+
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors )
+			.globalRollup( "grandTotal", (row) -> {
+				Map<String, Object> result = new LinkedHashMap<>();
+				result.put( "total", row.getSecurity() );
+				return result;
+			} );
+		Map expected = nester.nameValueNest( rows );
+
+		Assert.assertEquals( states.length, ((List)expected.get( "states" )).size() );
+		Assert.assertEquals( "GLOBAL_ROLLUP", ((Map)expected.get( "grandTotal" )).get( "total" ) );
+		Assert.assertEquals( "GLOBAL_ROLLUP", ((Map)nester.queryRollup()).get( "total" ) );
+		Assert.assertEquals( "NY|STATE_ROLLUP", ((Map)nester.queryRollup( "NY" )).get( "total" ) );
+		Assert.assertEquals( "NY|CITY03|CITY_ROLLUP", ((Map)nester.queryRollup( "NY", "CITY03" )).get( "total" ) );
+		Map city = (Map)nester.query( "NY", "CITY03" );
+		Assert.assertEquals( zips.length, ((List)city.get( "zips" )).size() );
+		Assert.assertEquals( "NY|CITY03|CITY_ROLLUP", ((Map)city.get( "cityTotal" )).get( "total" ) );
+		Assert.assertNull( nester.queryRollup( "NY", "CITY03", "00001" ) );
+		Assert.assertNull( nester.queryRollup( "ZZ" ) );
+
+		Map parallel = Nester.newInstance( TestNameValueStruct.class )
+			.categoryDescriptors( categoryDescriptors )
+			.globalRollup( "grandTotal", (row) -> {
+				Map<String, Object> result = new LinkedHashMap<>();
+				result.put( "total", row.getSecurity() );
+				return result;
+			} )
+			.parallel( ForkJoinPool.commonPool(), true )
+			.parallelBatchSize( 64 )
+			.nameValueNest( rows );
+		Assert.assertEquals( expected, parallel );
+
+		ObjectMapper mapper = new ObjectMapper();
+		StringWriter json = new StringWriter();
+		try ( JsonGenerator generator = mapper.getFactory().createGenerator( json ) )
+		{
+			nester.nameValueEmit( rows, generator );
+		}
+		Assert.assertEquals( expected, mapper.readValue( json.toString(), Map.class ) );
+	}
+
+	static List<CategoryDescriptor<TestNameValueStruct>> rollupAggregateDescriptors()
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> descs = new ArrayList<>();
+		descs.add( CategoryDescriptor.newInstance( TestNameValueStruct.class ).withCategoryFieldName( "state" ).withCollectionLabel( "states" )
+			.withAggregateFieldNames( new String[0] )
+			.withRollupValueMappingFunction( (row) -> {
+				Map<String, Object> result = new LinkedHashMap<>();
+				result.put( "total", row.getSecurity() );
+				return result;
+			} ) );
+		descs.add( CategoryDescriptor.newInstance( TestNameValueStruct.class ).withCategoryFieldName( "city" ).withCollectionLabel( "cities" )
+			.withAggregateFieldNames( new String[0] ) );
+		descs.add( CategoryDescriptor.newInstance( TestNameValueStruct.class ).withCategoryFieldName( "zip" ).withCollectionLabel( "zips" )
+			.withAggregateFieldNames( new String[0] ) );
+		return descs;
+	}
+
+	/*
+	 * Rollup rows are not detail rows, so they count in no aggregates
+	 */
+	@Test
+	@SuppressWarnings( "unchecked" )
+	public void rollupAggregatesTest()
+	throws Exception
+	{
+		List<TestNameValueStruct> rows = new ArrayList<>();
+		rows.add( new TestNameValueStruct( "NY", null, null, "NY|STATE_ROLLUP" ) );
+		rows.add( new TestNameValueStruct( "NY", "C1", "Z1", secs[ 0 ] ) );
+		rows.add( new TestNameValueStruct( "NY", "C1", "Z2", secs[ 1 ] ) );
+		rows.add( new TestNameValueStruct( "NY", "C2", null, "NY|C2|CITY_ROLLUP" ) );
+		rows.add( new TestNameValueStruct( "NY", "C2", "Z1", secs[ 2 ] ) );
+
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( rollupAggregateDescriptors() );
+		Map expected = nester.nameValueNest( rows );
+		Map ny = (Map)nester.query( "NY" );
+		Assert.assertEquals( 3L, ((Map)ny.get( "aggregates" )).get( Aggregates.COUNT ) );
+		Assert.assertEquals( 1L, ((Map)((Map)nester.query( "NY", "C2" )).get( "aggregates" )).get( Aggregates.COUNT ) );
+		Assert.assertEquals( "NY|STATE_ROLLUP", ((Map)nester.queryRollup( "NY" )).get( "total" ) );
+
+		Map parallel = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( rollupAggregateDescriptors() )
+			.parallel( ForkJoinPool.commonPool(), true ).parallelBatchSize( 1 ).nameValueNest( rows );
+		Assert.assertEquals( expected, parallel );
+
+		ObjectMapper mapper = new ObjectMapper();
+		StringWriter json = new StringWriter();
+		try ( JsonGenerator generator = mapper.getFactory().createGenerator( json ) )
+		{
+			nester.nameValueEmit( rows, generator );
+		}
+		Assert.assertEquals( mapper.readValue( mapper.writeValueAsString( expected ), Map.class ), mapper.readValue( json.toString(), Map.class ) );
+	}
+
+	/*
+	 * Rollup rows create no nodes: a rollup of a path no detail row reaches is not rendered, and one that
+	 * comes before its details is attached when they create the node
+	 */
+	@Test
+	@SuppressWarnings( "unchecked" )
+	public void rollupCreatesNoNodesTest()
+	throws Exception
+	{
+		List<TestNameValueStruct> rows = new ArrayList<>();
+		rows.add( new TestNameValueStruct( "NJ", null, null, "NJ|STATE_ROLLUP" ) );
+		rows.add( new TestNameValueStruct( "NY", null, null, "NY|STATE_ROLLUP" ) );
+		rows.add( new TestNameValueStruct( "NY", "C1", "Z1", secs[ 0 ] ) );
+		rows.add( new TestNameValueStruct( "PA", "C1", null, "PA|C1|CITY_ROLLUP" ) );
+		rows.add( new TestNameValueStruct( "PA", "C2", "Z1", secs[ 1 ] ) );
+
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( rollupAggregateDescriptors() );
+		Map expected = nester.nameValueNest( rows );
+		Assert.assertEquals( 2, ((List)expected.get( "states" )).size() );
+		Assert.assertNull( nester.query( "NJ" ) );
+		Assert.assertNull( nester.queryRollup( "NJ" ) );
+		Assert.assertNull( nester.query( "PA", "C1" ) );
+		Assert.assertEquals( 1L, ((Map)((Map)nester.query( "PA" )).get( "aggregates" )).get( Aggregates.COUNT ) );
+		Assert.assertEquals( "NY|STATE_ROLLUP", ((Map)nester.queryRollup( "NY" )).get( "total" ) );
+		Assert.assertEquals( 1L, ((Map)((Map)nester.query( "NY" )).get( "aggregates" )).get( Aggregates.COUNT ) );
+
+		Map parallel = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( rollupAggregateDescriptors() )
+			.parallel( ForkJoinPool.commonPool(), true ).parallelBatchSize( 1 ).nameValueNest( rows );
+		Assert.assertEquals( expected, parallel );
+
+		ObjectMapper mapper = new ObjectMapper();
+		StringWriter json = new StringWriter();
+		try ( JsonGenerator generator = mapper.getFactory().createGenerator( json ) )
+		{
+			nester.nameValueEmit( rows, generator );
+		}
+		Assert.assertEquals( mapper.readValue( mapper.writeValueAsString( expected ), Map.class ), mapper.readValue( json.toString(), Map.class ) );
+
+		/*
+		 * appended rollup rows replace the rollup and leave the aggregates alone; the held NJ rollup is
+		 * attached once a detail row creates NJ
+		 */
+		nester.nameValueAppend( List.of( new TestNameValueStruct( "NY", null, null, "NY|STATE_ROLLUP2" ) ) );
+		Assert.assertEquals( "NY|STATE_ROLLUP2", ((Map)nester.queryRollup( "NY" )).get( "total" ) );
+		Assert.assertEquals( 1L, ((Map)((Map)nester.query( "NY" )).get( "aggregates" )).get( Aggregates.COUNT ) );
+		nester.nameValueAppend( List.of( new TestNameValueStruct( "NJ", "C1", "Z1", secs[ 2 ] ) ) );
+		Assert.assertEquals( "NJ|STATE_ROLLUP", ((Map)nester.queryRollup( "NJ" )).get( "total" ) );
+		Assert.assertEquals( 1L, ((Map)((Map)nester.query( "NJ" )).get( "aggregates" )).get( Aggregates.COUNT ) );
+	}
+
+	@Test
+	public void lazyRehydratedTest()
+	throws Exception
+	{
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() );
+		nester.nameValueNest( NesterTest.idRows() );
+		ObjectMapper mapper = new ObjectMapper();
+		byte[] json = mapper.writeValueAsBytes( nester.getDehydratedInstance() );
+
+		/*
+		 * Smile nodes are parsed on their own, so no back references and no header on each range
+		 */
+		SmileFactory smileFactory = new SmileFactory()
+			.disable( SmileGenerator.Feature.CHECK_SHARED_NAMES )
+			.disable( SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES )
+			.disable( SmileParser.Feature.REQUIRE_HEADER );
+		byte[] smile = new ObjectMapper( smileFactory ).writeValueAsBytes( nester.getDehydratedInstance() );
+
+		Nester eager = Nester.getRehydratedInstance( mapper.readValue( json, Map.class ) );
+		for ( Nester lazy : new Nester[] { Nester.getLazyRehydratedInstance( json, mapper.getFactory(), 1 << 20 ),
+			Nester.getLazyRehydratedInstance( smile, smileFactory, 1 << 20 ) } )
+		{
+			Assert.assertEquals( 0, lazy.lazyRoot.cachedNodes() );
+			Assert.assertEquals( eager.query( 7, 12 ), lazy.query( 7, 12 ) );
+			Assert.assertEquals( 1, lazy.lazyRoot.cachedNodes() );
+			Assert.assertEquals( eager.query( 7 ), lazy.query( 7 ) );
+			Assert.assertEquals( eager.query( 19 ), lazy.query( 19 ) );
+			Assert.assertNull( lazy.query( 21 ) );
+			Assert.assertNull( lazy.query( 7, 99 ) );
+			Assert.assertNull( lazy.queryRollup() );
+			Assert.assertEquals( 2, lazy.lazyRoot.cachedNodes() );
+			Assert.assertEquals( eager.query(), lazy.query() );
+			Assert.assertEquals( 2, lazy.lazyRoot.cachedNodes() );
+		}
+
+		/*
+		 * a bound below one node's size keeps only the node last used
+		 */
+		Nester small = Nester.getLazyRehydratedInstance( json, mapper.getFactory(), 1 );
+		for ( int region = 0; region < 20; region++ )
+		{
+			Assert.assertEquals( eager.query( region ), small.query( region ) );
+			Assert.assertEquals( 1, small.lazyRoot.cachedNodes() );
+		}
+	}
+
 	private void dumpToJsonFile(Object object, String fileName) throws Exception
 	{
 		ObjectMapper ser = new ObjectMapper();
@@ -620,4 +1328,19 @@ public class NesterNameValueTest
 		wrt.flush();
 	}
 
+
+	@Test
+	public void parallelPlainInmostTest()
+	throws Exception
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> descs = new ArrayList<>();
+		descs.add( CategoryDescriptor.newInstance( TestNameValueStruct.class ).withCategoryFieldName( "state" ).withCollectionLabel( "states" ) );
+		descs.add( CategoryDescriptor.newInstance( TestNameValueStruct.class ).withCategoryFieldName( "zip" ).withCollectionLabel( "zips" ) );
+		Map expected = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( descs ).nameValueNest( testListNoNulls );
+		Assert.assertEquals( zips[ 0 ], ((List)((Map)((List)expected.get( "states" )).get( 0 )).get( "zips" )).get( 0 ) );
+		Map parallel = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( descs )
+			.parallel( ForkJoinPool.commonPool(), true ).parallelBatchSize( 100 ).nameValueNest( testListNoNulls );
+		Assert.assertEquals( expected, parallel );
+	}
+
 }
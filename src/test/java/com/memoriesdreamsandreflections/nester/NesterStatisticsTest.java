@@ -0,0 +1,95 @@
+package com.memoriesdreamsandreflections.nester;
+
+import static org.junit.Assert.assertEquals ;
+
+import java.util.List ;
+import java.util.Map ;
+
+import org.junit.Test ;
+
+@SuppressWarnings( "rawtypes" )
+public class NesterStatisticsTest
+{
+
+	@Test
+	public void testNestAcrossRuns()
+	throws Exception
+	{
+		NesterStatistics statistics = new NesterStatistics();
+		assertEquals( -1, statistics.expectedSize( 0 ) );
+
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() )
+			.detailFieldName( "detail" ).statistics( statistics );
+		Map expected = nester.nest( NesterTest.idRows() );
+		assertEquals( 1, statistics.getRuns() );
+		assertEquals( 2, statistics.getDepth() );
+		assertEquals( 20, statistics.getNodes( 0 ) );
+		assertEquals( 20 * 50, statistics.getNodes( 1 ) );
+		assertEquals( 20 * 50 * 3, statistics.getNodes( 2 ) );
+		assertEquals( 50.0, statistics.getMeanFanOut( 1 ), 0 );
+		assertEquals( 3, statistics.getMaxFanOut( 2 ) );
+		assertEquals( 20, statistics.getDistinct( 0 ) );
+		assertEquals( 50, statistics.getDistinct( 1 ) ); // the same accounts under every region
+		assertEquals( 50, statistics.expectedSize( 1 ) );
+		assertEquals( 3, statistics.expectedSize( 2 ) );
+
+		// presized from the first run; same result
+		Map second = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() )
+			.detailFieldName( "detail" ).statistics( statistics ).nest( NesterTest.idRows() );
+		assertEquals( expected, second );
+		assertEquals( 2, statistics.getRuns() );
+
+		List<Map<String, Object>> summary = statistics.summary();
+		assertEquals( 3, summary.size() );
+		assertEquals( "details", summary.get( 2 ).get( "level" ) );
+		assertEquals( 50L, summary.get( 1 ).get( "distinct" ) );
+	}
+
+	@Test
+	public void testAppendNotObserved()
+	throws Exception
+	{
+		NesterStatistics statistics = new NesterStatistics();
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() )
+			.detailFieldName( "detail" ).statistics( statistics );
+		nester.nest( NesterTest.idRows() );
+		nester.append( List.of( new NesterTest.IdRow( 20, 0, "20/0/0" ) ) );
+		assertEquals( 1, statistics.getRuns() );
+		assertEquals( 20, statistics.getNodes( 0 ) );
+		assertEquals( 20 * 50 * 3, statistics.getNodes( 2 ) );
+
+		nester.nameValueNest( NesterTest.idRows() );
+		nester.nameValueAppend( List.of( new NesterTest.IdRow( 20, 0, "20/0/0" ) ) );
+		assertEquals( 2, statistics.getRuns() );
+		assertEquals( 20, statistics.getNodes( 0 ) );
+	}
+
+	@Test
+	public void testNameValue()
+	throws Exception
+	{
+		NesterStatistics statistics = new NesterStatistics();
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() )
+			.statistics( statistics );
+		Map expected = nester.nameValueNest( NesterTest.idRows() );
+		assertEquals( 20, statistics.getNodes( 0 ) );
+		assertEquals( 1000, statistics.getNodes( 1 ) );
+		assertEquals( 0, statistics.getNodes( 2 ) ); // no detail collection
+		assertEquals( 50, statistics.getDistinct( 1 ) );
+
+		Map second = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() )
+			.statistics( statistics ).nameValueNest( NesterTest.idRows() );
+		assertEquals( expected, second );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testOtherConfiguration()
+	throws Exception
+	{
+		NesterStatistics statistics = new NesterStatistics();
+		Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() ).statistics( statistics )
+			.nest( NesterTest.idRows() );
+		Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors().subList( 0, 1 ) )
+			.statistics( statistics ).nest( NesterTest.idRows() );
+	}
+}
@@ -21,8 +21,10 @@ import java.io.File ;
 import java.io.FileWriter ;
 import java.io.IOException ;
 import java.util.ArrayList ;
+import java.util.LinkedHashMap ;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool ;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -259,6 +261,758 @@ public class NesterTest
 		dumpToJsonFile(result, jsonDump);
 	}
 	
+	@Test
+	public void nesterTestParallel()
+	throws Exception
+	{
+		Map sequential = Nester.newInstance( TestStruct.class )
+		.categoryDescriptors( categoryDescriptors )
+		.nest( testListNoNulls );
+
+		Nester<TestStruct> nester = Nester.newInstance( TestStruct.class )
+		.categoryDescriptors( categoryDescriptors )
+		.detailFieldName( "detail" )
+		.parallel()
+		.parallelBatchSize( 500 );
+		Map result = nester.nest( testListNoNulls );
+		log.info( "nesterTestParallel Nester=[parallel,detailFieldName], execution_time={}", nester.getNanos() );
+
+		commonAssertions(result, TestStruct.Detail.class, null);
+
+		nester = Nester.newInstance( TestStruct.class )
+		.categoryDescriptors( categoryDescriptors )
+		.parallel()
+		.parallelBatchSize( 500 );
+		result = nester.nest( testListNoNulls );
+
+		Assert.assertEquals( sequential, result );
+		Assert.assertEquals( new ArrayList<>( sequential.keySet() ), new ArrayList<>( result.keySet() ) );
+		Map ny = (Map)result.get( "NY" );
+		Assert.assertEquals( new ArrayList<>( ((Map)sequential.get( "NY" )).keySet() ), new ArrayList<>( ny.keySet() ) );
+
+		nester = Nester.newInstance( TestStruct.class )
+		.categoryDescriptors( categoryDescriptors )
+		.parallel( ForkJoinPool.commonPool(), false )
+		.parallelBatchSize( 500 );
+		result = nester.nest( testListNoNulls );
+
+		commonAssertions(result, TestStruct.class, null);
+	}
+
+	@Test
+	public void nesterTestStreaming()
+	throws Exception
+	{
+		Map fromList = Nester.newInstance( TestStruct.class )
+		.categoryDescriptors( categoryDescriptors )
+		.nest( testListNoNulls );
+
+		Nester<TestStruct> nester = Nester.newInstance( TestStruct.class )
+		.categoryDescriptors( categoryDescriptors );
+		Map result = nester.nest( testListNoNulls.iterator() );
+		commonAssertions(result, TestStruct.class, null);
+		Assert.assertEquals( fromList, result );
+
+		nester = Nester.newInstance( TestStruct.class )
+		.categoryDescriptors( categoryDescriptors )
+		.ordered();
+		result = nester.nest( testListNoNulls.stream() );
+		commonAssertions(result, TestStruct.class, null);
+		Assert.assertEquals( fromList, result );
+
+		nester = Nester.newInstance( TestStruct.class )
+		.categoryDescriptors( categoryDescriptors )
+		.parallel()
+		.parallelBatchSize( 1000 );
+		result = nester.nest( testListNoNulls.iterator() );
+		commonAssertions(result, TestStruct.class, null);
+		Assert.assertEquals( fromList, result );
+	}
+
+	@Test
+	public void nesterTestFlushSubtrees()
+	throws Exception
+	{
+		List<Object[]> paths = new ArrayList<>();
+		Map<String, Object> flushed = new LinkedHashMap<>();
+
+		Nester<TestStruct> nester = Nester.newInstance( TestStruct.class )
+		.categoryDescriptors( categoryDescriptors )
+		.detailFieldName( "detail" )
+		.flushSubtrees( 1, (path, subtree) -> {
+			paths.add( path );
+			flushed.put( path[0] + "/" + path[1], subtree );
+		} );
+		Map result = nester.nest( testListNoNulls );
+
+		Assert.assertTrue( result.isEmpty() );
+		Assert.assertEquals( 1 + (states.length - 1) * cities.length, paths.size() );
+		Assert.assertEquals( 2, paths.get( 0 ).length );
+		Map city01 = (Map)flushed.get( "NY/NY|CITY01" );
+		Assert.assertEquals( zips.length, city01.size() );
+		List zip00001 = (List)city01.get( "00001" );
+		Assert.assertEquals( secs.length, zip00001.size() );
+		Assert.assertEquals( TestStruct.Detail.class, zip00001.get( 0 ).getClass() );
+
+		List<Object> states = new ArrayList<>();
+		nester = Nester.newInstance( TestStruct.class )
+		.categoryDescriptors( categoryDescriptors )
+		.flushSubtrees( 0, (path, subtree) -> states.add( path[0] ) );
+		nester.nest( testListNoNulls );
+		Assert.assertEquals( NesterTest.states.length, states.size() );
+		Assert.assertTrue( states.contains( "NY" ) );
+
+		// parallel() does not apply: the subtrees are still flushed
+		List<Object> parallelStates = new ArrayList<>();
+		result = Nester.newInstance( TestStruct.class )
+		.categoryDescriptors( categoryDescriptors )
+		.parallel( ForkJoinPool.commonPool(), true )
+		.parallelBatchSize( 100 )
+		.flushSubtrees( 0, (path, subtree) -> parallelStates.add( path[0] ) )
+		.nest( testListNoNulls );
+		Assert.assertTrue( result.isEmpty() );
+		Assert.assertEquals( states, parallelStates );
+	}
+
+	@Test
+	public void nesterTestFlushSubtreesAggregates()
+	throws Exception
+	{
+		Map<Object, Aggregates<?>> regions = new LinkedHashMap<>();
+		List<Object> accounts = new ArrayList<>();
+		Map result = Nester.newInstance( IdRow.class )
+		.categoryDescriptors( aggregateDescriptors() )
+		.flushSubtrees( 1, new SubtreeSink()
+		{
+			@Override
+			public void accept( Object[] path, Object subtree )
+			{
+				Assert.assertEquals( 3, Aggregates.of( subtree ).getCount() );
+				accounts.add( path[1] );
+			}
+
+			@Override
+			public void acceptAggregates( Object[] path, Aggregates<?> aggregates )
+			{
+				Assert.assertEquals( 1, path.length );
+				Assert.assertEquals( 0, accounts.size() % 50 ); // after the region's last account
+				regions.put( path[0], aggregates );
+			}
+		} ).nest( idRows() );
+
+		Assert.assertTrue( result.isEmpty() );
+		Assert.assertEquals( 20 * 50, accounts.size() );
+		Assert.assertEquals( 20, regions.size() );
+		assertRegionAggregates( regions.get( 7 ) );
+	}
+
+	/*
+	 * Integral ids as categories
+	 */
+	static class IdRow
+	implements java.io.Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		int region;
+		long account;
+		String detail;
+		double amount;
+		Integer units;
+
+		IdRow( int region, long account, String detail )
+		{
+			this.region = region;
+			this.account = account;
+			this.detail = detail;
+			this.amount = account % 100 + 0.5;
+			this.units = account % 2 == 0 ? null : (int)(account % 10);
+		}
+	}
+
+	List<CategoryDescriptor<IdRow>> idDescriptors( boolean primitiveKeys )
+	{
+		CategoryDescriptor<IdRow> region = CategoryDescriptor.newInstance( IdRow.class ).withCategoryFieldName( "region" );
+		CategoryDescriptor<IdRow> account = CategoryDescriptor.newInstance( IdRow.class ).withCategoryFieldName( "account" );
+		if ( primitiveKeys )
+		{
+			region.withPrimitiveKeys();
+			account.withPrimitiveKeys();
+		}
+		List<CategoryDescriptor<IdRow>> descs = new ArrayList<>();
+		descs.add( region );
+		descs.add( account );
+		return descs;
+	}
+
+	@Test
+	public void nesterTestPrimitiveKeys()
+	throws Exception
+	{
+		List<IdRow> rows = new ArrayList<>();
+		for ( int r = 0; r < 20; r++ )
+		{
+			for ( long a = 0; a < 50; a++ )
+			{
+				rows.add( new IdRow( r, 10_000_000_000L + a, r + "/" + a ) );
+			}
+		}
+
+		Map expected = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( false ) ).detailFieldName( "detail" ).nest( rows );
+		Map result = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( true ) ).detailFieldName( "detail" ).nest( rows );
+		Assert.assertTrue( result instanceof LongKeyedMap );
+		Assert.assertTrue( result.get( 3 ) instanceof LongKeyedMap );
+		Assert.assertEquals( expected, result );
+		Assert.assertEquals( expected.keySet().iterator().next().getClass(), result.keySet().iterator().next().getClass() );
+		Assert.assertEquals( List.of( "3/7" ), ((Map)result.get( 3 )).get( 10_000_000_007L ) );
+
+		Map ordered = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( true ) ).detailFieldName( "detail" ).ordered().nest( rows );
+		Assert.assertEquals( expected, ordered );
+
+		Map parallel = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( true ) ).detailFieldName( "detail" )
+			.parallel( ForkJoinPool.commonPool(), true ).parallelBatchSize( 64 ).nest( rows );
+		Assert.assertEquals( expected, parallel );
+
+		// supplied Accessor: values are unboxed
+		Map supplied = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( true ) )
+			.accessor( new Accessor<IdRow>()
+			{
+				@Override
+				public Object[] getCategoryValues( IdRow row )
+				{
+					return new Object[] { row.region, row.account };
+				}
+
+				@Override
+				public Object getDetail( IdRow row )
+				{
+					return row.detail;
+				}
+			} ).nest( rows );
+		Assert.assertEquals( expected, supplied );
+
+		List<Object[]> paths = new ArrayList<>();
+		Map flushedResult = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( true ) ).detailFieldName( "detail" )
+			.flushSubtrees( 0, (path, subtree) -> paths.add( path ) ).nest( rows );
+		Assert.assertTrue( flushedResult.isEmpty() );
+		Assert.assertEquals( 20, paths.size() );
+		Assert.assertEquals( Integer.valueOf( 19 ), paths.get( 19 )[0] );
+	}
+
+	static List<IdRow> idRows()
+	{
+		List<IdRow> rows = new ArrayList<>();
+		for ( int r = 0; r < 20; r++ )
+		{
+			for ( long a = 0; a < 50; a++ )
+			{
+				for ( int n = 0; n < 3; n++ )
+				{
+					rows.add( new IdRow( r, a, r + "/" + a + "/" + n ) );
+				}
+			}
+		}
+		return rows;
+	}
+
+	static List<CategoryDescriptor<IdRow>> aggregateDescriptors()
+	{
+		List<CategoryDescriptor<IdRow>> descs = new ArrayList<>();
+		descs.add( CategoryDescriptor.newInstance( IdRow.class ).withCategoryFieldName( "region" ).withCollectionLabel( "regions" )
+			.withAggregateFieldNames( new String[] { "amount", "units" } ) );
+		descs.add( CategoryDescriptor.newInstance( IdRow.class ).withCategoryFieldName( "account" ).withCollectionLabel( "accounts" )
+			.withAggregateFieldNames( new String[0] ) );
+		return descs;
+	}
+
+	static void assertRegionAggregates( Aggregates<?> region7 )
+	{
+		Assert.assertEquals( 150, region7.getCount() );
+		Assert.assertEquals( 150, region7.getCount( "amount" ) );
+		Assert.assertEquals( 3 * (49 * 50 / 2 + 50 * 0.5), region7.getSum( "amount" ), 1e-9 );
+		Assert.assertEquals( 0.5, region7.getMin( "amount" ), 0 );
+		Assert.assertEquals( 49.5, region7.getMax( "amount" ), 0 );
+		Assert.assertEquals( 75, region7.getCount( "units" ) ); // nulls skipped
+		Assert.assertEquals( 5.0, region7.getAverage( "units" ), 1e-9 );
+	}
+
+	/*
+	 * Rows with a null category are rollup rows: nested under their null keys, but in no Aggregates
+	 */
+	@Test
+	public void nesterTestRollupAggregates()
+	throws Exception
+	{
+		List<CategoryDescriptor<TestStruct>> descs = new ArrayList<>();
+		for ( String name : categories )
+		{
+			descs.add( CategoryDescriptor.newInstance( TestStruct.class ).withCategoryFieldName( name ).withAggregateFieldNames( new String[0] ) );
+		}
+		TestStruct rollup = new TestStruct( "NY", null, null, "NY|STATE_ROLLUP" );
+		List<TestStruct> rows = List.of( rollup, new TestStruct( "NY", "C1", "Z1", "SEC-001" ), new TestStruct( "NY", "C1", "Z2", "SEC-002" ) );
+
+		for ( Nester<TestStruct> nester : List.of( Nester.newInstance( TestStruct.class ).categoryDescriptors( descs ), 
+			Nester.newInstance( TestStruct.class ).categoryDescriptors( descs ).ordered(), 
+			Nester.newInstance( TestStruct.class ).categoryDescriptors( descs ).parallel().parallelBatchSize( 1 ) ) )
+		{
+			Map result = nester.nest( rows );
+			Assert.assertEquals( 2, Aggregates.of( result.get( "NY" ) ).getCount() );
+			Assert.assertEquals( 2, Aggregates.of( ((Map)result.get( "NY" )).get( "C1" ) ).getCount() );
+			Assert.assertEquals( 0, Aggregates.of( ((Map)result.get( "NY" )).get( null ) ).getCount() );
+			Assert.assertEquals( List.of( rollup ), ((Map)((Map)result.get( "NY" )).get( null )).get( null ) );
+		}
+
+		Nester<TestStruct> nester = Nester.newInstance( TestStruct.class ).categoryDescriptors( descs );
+		Map result = nester.nest( rows );
+		Assert.assertTrue( nester.delete( rollup ) );
+		Assert.assertEquals( 2, Aggregates.of( result.get( "NY" ) ).getCount() );
+		Assert.assertNull( ((Map)result.get( "NY" )).get( null ) );
+	}
+
+	static final Codec<IdRow> ID_ROW_CODEC = new Codec<IdRow>()
+	{
+		@Override
+		public void encode( IdRow row, java.io.DataOutput out ) throws IOException
+		{
+			out.writeInt( row.region );
+			out.writeLong( row.account );
+			Codec.STRING.encode( row.detail, out );
+		}
+
+		@Override
+		public IdRow decode( java.io.DataInput in ) throws IOException
+		{
+			int region = in.readInt();
+			long account = in.readLong();
+			return new IdRow( region, account, Codec.STRING.decode( in ) );
+		}
+	};
+
+	@Test
+	public void nesterTestExternalSort()
+	throws Exception
+	{
+		List<IdRow> rows = idRows();
+		List<IdRow> shuffled = new ArrayList<>( rows );
+		java.util.Collections.shuffle( shuffled, new java.util.Random( 7 ) );
+		List<IdRow> presorted = new ArrayList<>( shuffled );
+		presorted.sort( java.util.Comparator.<IdRow>comparingInt( row -> row.region ).thenComparingLong( row -> row.account ) );
+		Map expected = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( false ) ).detailFieldName( "detail" )
+			.ordered().nest( presorted ); // details stay in input order: the sort is stable
+
+		for ( boolean primitiveKeys : new boolean[] { false, true } )
+		{
+			Nester<IdRow> nester = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( primitiveKeys ) )
+				.detailFieldName( "detail" );
+			Map sorted = nester.externalSortNest( shuffled.stream(), ID_ROW_CODEC, 25 ); // 120 runs: two merge passes
+			Assert.assertEquals( expected, sorted );
+			Assert.assertEquals( new ArrayList<>( expected.keySet() ), new ArrayList<>( sorted.keySet() ) );
+			Assert.assertEquals( Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( false ) ).detailFieldName( "detail" )
+				.nest( shuffled ), sorted );
+		}
+
+		Map inMemory = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( false ) ).detailFieldName( "detail" )
+			.externalSortNest( shuffled.iterator(), ID_ROW_CODEC, rows.size() );
+		Assert.assertEquals( new ArrayList<>( expected.keySet() ), new ArrayList<>( inMemory.keySet() ) );
+	}
+
+	@Test
+	public void nesterTestAutoOrdered()
+	throws Exception
+	{
+		List<IdRow> shuffled = new ArrayList<>( idRows() );
+		java.util.Collections.shuffle( shuffled, new java.util.Random( 11 ) );
+		List<IdRow> presorted = new ArrayList<>( shuffled );
+		presorted.sort( java.util.Comparator.<IdRow>comparingInt( row -> row.region ).thenComparingLong( row -> row.account ) );
+		Map sorted = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( false ) ).detailFieldName( "detail" )
+			.ordered().nest( presorted );
+		Map hashed = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( false ) ).detailFieldName( "detail" )
+			.nest( shuffled );
+
+		for ( boolean primitiveKeys : new boolean[] { false, true } )
+		{
+			// 1000 leaves: sorted
+			Map result = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( primitiveKeys ) ).detailFieldName( "detail" )
+				.autoOrdered( 1000, 500 ).nest( shuffled );
+			Assert.assertEquals( sorted, result );
+			Assert.assertEquals( new ArrayList<>( sorted.keySet() ), new ArrayList<>( result.keySet() ) );
+			Assert.assertEquals( new ArrayList<>( ((Map)sorted.get( 3 )).keySet() ), new ArrayList<>( ((Map)result.get( 3 )).keySet() ) );
+
+			// too few leaves, or too few rows: hashed
+			for ( Nester<IdRow> nester : new Nester[] {
+				Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( primitiveKeys ) ).detailFieldName( "detail" )
+					.autoOrdered( 1000, 5000 ),
+				Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( primitiveKeys ) ).detailFieldName( "detail" )
+					.autoOrdered( 5000, 500 ) } )
+			{
+				result = nester.nest( shuffled );
+				Assert.assertEquals( hashed, result );
+				Assert.assertEquals( new ArrayList<>( hashed.keySet() ), new ArrayList<>( result.keySet() ) );
+			}
+		}
+
+		// already in order: nested as it is, however few the leaves
+		Map inOrder = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( false ) ).detailFieldName( "detail" )
+			.autoOrdered( 1000, 1 << 20 ).nest( presorted );
+		Assert.assertEquals( sorted, inOrder );
+
+		// leaves from statistics: the first run estimates, the second uses the 1000 observed
+		NesterStatistics statistics = new NesterStatistics();
+		for ( int run = 0; run < 2; run++ )
+		{
+			Map result = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( false ) ).detailFieldName( "detail" )
+				.statistics( statistics ).autoOrdered( 1000, 800 ).nest( shuffled );
+			Assert.assertEquals( new ArrayList<>( sorted.keySet() ), new ArrayList<>( result.keySet() ) );
+		}
+		Assert.assertEquals( 1000, statistics.getNodes( 1 ) );
+		Map result = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( false ) ).detailFieldName( "detail" )
+			.statistics( statistics ).autoOrdered( 1000, 1001 ).nest( shuffled );
+		Assert.assertEquals( new ArrayList<>( hashed.keySet() ), new ArrayList<>( result.keySet() ) );
+
+		Map aggregated = Nester.newInstance( IdRow.class ).categoryDescriptors( aggregateDescriptors() ).detailFieldName( "detail" )
+			.autoOrdered( 1000, 500 ).nest( shuffled );
+		assertRegionAggregates( Aggregates.of( aggregated.get( 7 ) ) );
+		Assert.assertEquals( 3, Aggregates.of( ((Map)aggregated.get( 7 )).get( 12L ) ).getCount() );
+	}
+
+	@Test
+	public void nesterTestAutoOrderedLarge()
+	throws Exception
+	{
+		// enough rows that the index sort forks; details of a leaf keep their row order
+		List<IdRow> shuffled = new ArrayList<>();
+		for ( int r = 0; r < 20; r++ )
+		{
+			for ( long a = 0; a < 100; a++ )
+			{
+				for ( int n = 0; n < 10; n++ )
+				{
+					shuffled.add( new IdRow( r, a, r + "/" + a + "/" + n ) );
+				}
+			}
+		}
+		java.util.Collections.shuffle( shuffled, new java.util.Random( 13 ) );
+		List<IdRow> presorted = new ArrayList<>( shuffled );
+		presorted.sort( java.util.Comparator.<IdRow>comparingInt( row -> row.region ).thenComparingLong( row -> row.account ) );
+		Map sorted = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( false ) ).detailFieldName( "detail" )
+			.ordered().nest( presorted );
+		for ( boolean primitiveKeys : new boolean[] { false, true } )
+		{
+			Map result = Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( primitiveKeys ) ).detailFieldName( "detail" )
+				.autoOrdered( 1000, 500 ).nest( shuffled );
+			Assert.assertEquals( sorted, result );
+			Assert.assertEquals( new ArrayList<>( ((Map)sorted.get( 3 )).keySet() ), new ArrayList<>( ((Map)result.get( 3 )).keySet() ) );
+		}
+	}
+
+	@Test( expected = RuntimeException.class )
+	public void nesterTestAutoOrderedError()
+	throws Exception
+	{
+		List<IdRow> shuffled = new ArrayList<>( idRows() );
+		java.util.Collections.shuffle( shuffled, new java.util.Random( 11 ) );
+		Nester.newInstance( IdRow.class ).categoryDescriptors( idDescriptors( false ) )
+			.accessor( new Accessor<IdRow>()
+			{
+				@Override
+				public Object[] getCategoryValues( IdRow row )
+				{
+					return new Object[] { row.region, row.account };
+				}
+
+				@Override
+				public Object getDetail( IdRow row )
+				{
+					if ( row.region == 7 )
+					{
+						throw new IllegalStateException( "bad row" );
+					}
+					return row.detail;
+				}
+			} ).autoOrdered( 1000, 500 ).nest( shuffled );
+	}
+
+	@Test
+	public void nesterTestAggregates()
+	throws Exception
+	{
+		List<IdRow> rows = idRows();
+		for ( boolean ordered : new boolean[] { false, true } )
+		{
+			Nester<IdRow> nester = Nester.newInstance( IdRow.class ).categoryDescriptors( aggregateDescriptors() ).detailFieldName( "detail" );
+			if ( ordered )
+			{
+				nester.ordered();
+			}
+			Map result = nester.nest( rows );
+			Map region7 = (Map)result.get( 7 );
+			assertRegionAggregates( Aggregates.of( region7 ) );
+			Assert.assertEquals( 3, Aggregates.of( region7.get( 12L ) ).getCount() );
+			Assert.assertEquals( 3, ((List)region7.get( 12L )).size() );
+		}
+
+		Map parallel = Nester.newInstance( IdRow.class ).categoryDescriptors( aggregateDescriptors() ).detailFieldName( "detail" )
+			.parallel( ForkJoinPool.commonPool(), false ).parallelBatchSize( 64 ).nest( rows );
+		assertRegionAggregates( Aggregates.of( parallel.get( 7 ) ) );
+		Assert.assertEquals( 3, Aggregates.of( ((Map)parallel.get( 7 )).get( 12L ) ).getCount() );
+
+		List<CategoryDescriptor<IdRow>> primitive = aggregateDescriptors();
+		primitive.get( 0 ).withPrimitiveKeys();
+		primitive.get( 1 ).withPrimitiveKeys();
+		Map primitiveResult = Nester.newInstance( IdRow.class ).categoryDescriptors( primitive ).nest( rows );
+		assertRegionAggregates( Aggregates.of( primitiveResult.get( 7 ) ) );
+	}
+
+	@Test
+	public void nesterTestAppend()
+	throws Exception
+	{
+		/*
+		 * The delta both adds to existing accounts and brings new regions
+		 */
+		List<IdRow> rows = idRows();
+		List<IdRow> base = new ArrayList<>();
+		List<IdRow> delta = new ArrayList<>();
+		for ( IdRow row : rows )
+		{
+			(row.region >= 18 || row.detail.endsWith( "/2" ) ? delta : base).add( row );
+		}
+		List<IdRow> all = new ArrayList<>( base );
+		all.addAll( delta );
+
+		for ( int mode = 0; mode < 4; mode++ )
+		{
+			List<CategoryDescriptor<IdRow>> descs = aggregateDescriptors();
+			if ( mode == 3 )
+			{
+				descs.get( 0 ).withPrimitiveKeys();
+				descs.get( 1 ).withPrimitiveKeys();
+			}
+			Nester<IdRow> nester = Nester.newInstance( IdRow.class ).categoryDescriptors( descs ).detailFieldName( "detail" );
+			if ( mode == 1 )
+			{
+				nester.ordered();
+			}
+			if ( mode == 2 )
+			{
+				nester.parallel( ForkJoinPool.commonPool(), true ).parallelBatchSize( 64 );
+			}
+			Map result = nester.nest( base );
+			Assert.assertEquals( 2, ((List)((Map)result.get( 7 )).get( 12L )).size() );
+			Map appended = nester.append( delta );
+			Assert.assertSame( result, appended );
+
+			Map expected = Nester.newInstance( IdRow.class ).categoryDescriptors( aggregateDescriptors() ).detailFieldName( "detail" ).nest( all );
+			Assert.assertEquals( expected, appended );
+			assertRegionAggregates( Aggregates.of( appended.get( 7 ) ) );
+			Assert.assertEquals( 3, Aggregates.of( ((Map)appended.get( 7 )).get( 12L ) ).getCount() );
+			Assert.assertEquals( 150, Aggregates.of( appended.get( 19 ) ).getCount() );
+		}
+	}
+
+	@Test
+	public void nesterTestDelete()
+	throws Exception
+	{
+		for ( boolean primitiveKeys : new boolean[] { false, true } )
+		{
+			List<IdRow> rows = idRows();
+			List<CategoryDescriptor<IdRow>> descs = aggregateDescriptors();
+			if ( primitiveKeys )
+			{
+				descs.get( 0 ).withPrimitiveKeys();
+				descs.get( 1 ).withPrimitiveKeys();
+			}
+			Nester<IdRow> nester = Nester.newInstance( IdRow.class ).categoryDescriptors( descs ).detailFieldName( "detail" );
+			Map result = nester.nest( rows );
+
+			List<IdRow> deleted = new ArrayList<>();
+			for ( IdRow row : rows )
+			{
+				if ( (row.region == 7 && row.account == 12) || row.region == 19 || row.detail.equals( "3/5/1" ) )
+				{
+					deleted.add( row );
+				}
+			}
+			for ( IdRow row : deleted )
+			{
+				Assert.assertTrue( nester.delete( row ) );
+			}
+			Assert.assertFalse( nester.delete( deleted.get( 0 ) ) );
+			Assert.assertFalse( nester.delete( new IdRow( 99, 1, "99/1/0" ) ) );
+
+			List<IdRow> remaining = new ArrayList<>( rows );
+			remaining.removeAll( deleted );
+			Map expected = Nester.newInstance( IdRow.class ).categoryDescriptors( aggregateDescriptors() ).detailFieldName( "detail" )
+				.nest( remaining );
+			Assert.assertEquals( expected, result );
+			Assert.assertNull( result.get( 19 ) );
+			Assert.assertNull( ((Map)result.get( 7 )).get( 12L ) );
+			Assert.assertEquals( 2, ((List)((Map)result.get( 3 )).get( 5L )).size() );
+
+			Aggregates<?> region7 = Aggregates.of( result.get( 7 ) );
+			Assert.assertEquals( 147, region7.getCount() );
+			Assert.assertEquals( 3 * (49 * 50 / 2 + 50 * 0.5) - 3 * 12.5, region7.getSum( "amount" ), 1e-9 );
+			Assert.assertEquals( 75, region7.getCount( "units" ) );
+			Assert.assertEquals( 2, Aggregates.of( ((Map)result.get( 3 )).get( 5L ) ).getCount() );
+
+			// min and max stay exact while neither is retracted; a retracted max becomes unknown and is not rendered
+			Assert.assertEquals( 0.5, region7.getMin( "amount" ), 0 );
+			Assert.assertEquals( 49.5, region7.getMax( "amount" ), 0 );
+			for ( IdRow row : rows )
+			{
+				if ( row.region == 7 && row.account == 49 )
+				{
+					Assert.assertTrue( nester.delete( row ) );
+				}
+			}
+			Assert.assertEquals( 0.5, region7.getMin( "amount" ), 0 );
+			Assert.assertTrue( Double.isNaN( region7.getMax( "amount" ) ) );
+			Map amount = (Map)region7.get( "amount" );
+			Assert.assertEquals( 0.5, amount.get( Aggregates.MIN ) );
+			Assert.assertFalse( amount.containsKey( Aggregates.MAX ) );
+		}
+	}
+
+	@Test
+	public void nesterTestUpsert()
+	throws Exception
+	{
+		List<IdRow> rows = idRows();
+		Nester<IdRow> nester = Nester.newInstance( IdRow.class ).categoryDescriptors( aggregateDescriptors() )
+			.detailIdentity( detail -> ((IdRow)detail).detail );
+		Map result = nester.nest( rows );
+
+		IdRow changed = new IdRow( 7, 12, "7/12/1" );
+		changed.amount = 100.5;
+		Assert.assertTrue( nester.upsert( changed ) );
+		List account12 = (List)((Map)result.get( 7 )).get( 12L );
+		Assert.assertEquals( 3, account12.size() );
+		Assert.assertSame( changed, account12.get( 1 ) );
+		Aggregates<?> region7 = Aggregates.of( result.get( 7 ) );
+		Assert.assertEquals( 150, region7.getCount() );
+		Assert.assertEquals( 3 * (49 * 50 / 2 + 50 * 0.5) + 88, region7.getSum( "amount" ), 1e-9 );
+		Assert.assertEquals( 100.5, region7.getMax( "amount" ), 0 );
+
+		Assert.assertFalse( nester.upsert( new IdRow( 7, 12, "7/12/3" ) ) );
+		Assert.assertEquals( 4, account12.size() );
+		Assert.assertFalse( nester.upsert( new IdRow( 20, 0, "20/0/0" ) ) );
+		Assert.assertEquals( 1, Aggregates.of( result.get( 20 ) ).getCount() );
+	}
+
+	@Test( expected = UnsupportedOperationException.class )
+	public void nesterTestUpsertAggregatedDetailField()
+	throws Exception
+	{
+		Nester<IdRow> nester = Nester.newInstance( IdRow.class ).categoryDescriptors( aggregateDescriptors() ).detailFieldName( "detail" );
+		nester.nest( idRows() );
+		nester.upsert( new IdRow( 7, 12, "7/12/1" ) );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void nesterTestAppendWithoutNest()
+	throws Exception
+	{
+		Nester.newInstance( IdRow.class ).categoryDescriptors( aggregateDescriptors() ).append( idRows() );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void nesterTestDeleteWithoutNest()
+	throws Exception
+	{
+		Nester.newInstance( IdRow.class ).categoryDescriptors( aggregateDescriptors() ).delete( idRows().get( 0 ) );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void nesterTestUpsertWithoutNest()
+	throws Exception
+	{
+		Nester.newInstance( IdRow.class ).categoryDescriptors( aggregateDescriptors() ).upsert( idRows().get( 0 ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void nesterTestAggregateNotNumeric()
+	throws Exception
+	{
+		CategoryDescriptor.newInstance( IdRow.class ).withCategoryFieldName( "region" )
+			.withAggregateFieldNames( new String[] { "detail" } ).initializeFields();
+	}
+
+	@Test
+	public void nesterTestDictionaryKeys()
+	throws Exception
+	{
+		List<TestNameValueStruct> rows = new ArrayList<>();
+		for ( String state : NesterNameValueTest.states )
+		{
+			for ( String city : NesterNameValueTest.cities )
+			{
+				rows.add( new TestNameValueStruct( new String( state ), new String( city ), "00001", state + city ) );
+			}
+		}
+		Map expected = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( stateCityDescriptors( false ) ).nest( rows );
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( stateCityDescriptors( true ) );
+		Map result = nester.nest( rows );
+		Assert.assertTrue( result instanceof LongKeyedMap );
+		Assert.assertEquals( expected, result );
+		Assert.assertEquals( NesterNameValueTest.cities.length, nester.getDictionary( 1 ).size() );
+		Assert.assertSame( ((Map)result.get( "NY" )).keySet().iterator().next(), ((Map)result.get( "VT" )).keySet().iterator().next() );
+
+		Map ordered = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( stateCityDescriptors( true ) ).ordered().nest( rows );
+		Assert.assertEquals( expected, ordered );
+		Map parallel = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( stateCityDescriptors( true ) )
+			.parallel( ForkJoinPool.commonPool(), true ).parallelBatchSize( 16 ).nest( rows );
+		Assert.assertEquals( expected, parallel );
+
+		List<Map> states = (List)Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( stateCityDescriptors( true ) )
+			.nameValueNest( rows ).get( "states" );
+		Assert.assertSame( ((Map)((List)states.get( 0 ).get( "cities" )).get( 0 )).get( "city" ),
+			((Map)((List)states.get( 1 ).get( "cities" )).get( 0 )).get( "city" ) );
+	}
+
+	/*
+	 * Each run starts fresh dictionaries, so they hold one run's values; earlier results still decode
+	 */
+	@Test
+	public void nesterTestDictionaryPerRun()
+	throws Exception
+	{
+		Nester<TestNameValueStruct> nester = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( stateCityDescriptors( true ) );
+		Map first = nester.nest( List.of( new TestNameValueStruct( "NY", "CITY01", "00001", "a" ) ) );
+		CategoryDictionary firstCities = nester.getDictionary( 1 );
+		nester.append( List.of( new TestNameValueStruct( "NY", "CITY02", "00001", "b" ) ) );
+		Assert.assertSame( firstCities, nester.getDictionary( 1 ) );
+		Assert.assertEquals( 2, firstCities.size() );
+
+		Map second = nester.nest( List.of( new TestNameValueStruct( "VT", "CITY03", "00001", "c" ) ) );
+		Assert.assertNotSame( firstCities, nester.getDictionary( 1 ) );
+		Assert.assertEquals( 1, nester.getDictionary( 1 ).size() );
+		Assert.assertEquals( 2, firstCities.size() );
+		Assert.assertEquals( List.of( "CITY01", "CITY02" ), new ArrayList<>( ((Map)first.get( "NY" )).keySet() ) );
+		Assert.assertEquals( List.of( "CITY03" ), new ArrayList<>( ((Map)second.get( "VT" )).keySet() ) );
+		Assert.assertEquals( -1, nester.getDictionary( 0 ).lookup( "NY" ) );
+	}
+
+	static List<CategoryDescriptor<TestNameValueStruct>> stateCityDescriptors( boolean dictionaryKeys )
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> descs = new ArrayList<>();
+		descs.add( CategoryDescriptor.newInstance( TestNameValueStruct.class ).withCategoryFieldName( "state" ).withCollectionLabel( "states" ) );
+		descs.add( CategoryDescriptor.newInstance( TestNameValueStruct.class ).withCategoryFieldName( "city" ).withCollectionLabel( "cities" )
+			.withAncillaryFieldNames( new String[] { "zip" } ) );
+		if ( dictionaryKeys )
+		{
+			descs.forEach( CategoryDescriptor::withDictionaryKeys );
+		}
+		return descs;
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void nesterTestPrimitiveKeysNotIntegral()
+	throws Exception
+	{
+		CategoryDescriptor.newInstance( IdRow.class ).withCategoryFieldName( "detail" ).withPrimitiveKeys().initializeFields();
+	}
+
     @Test
     public void nesterTestShort()
     throws Exception
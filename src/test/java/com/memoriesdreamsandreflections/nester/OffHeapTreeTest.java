@@ -0,0 +1,142 @@
+package com.memoriesdreamsandreflections.nester;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertTrue ;
+
+import java.io.IOException ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.util.Arrays ;
+import java.util.List ;
+import java.util.Map ;
+
+import org.junit.Test ;
+
+public class OffHeapTreeTest
+{
+
+	static final Codec<?>[] KEY_CODECS = { Codec.INT, Codec.LONG };
+
+	@Test
+	public void testDirect()
+	throws Exception
+	{
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( CompactTreeTest.descriptors( false ) )
+			.detailFieldName( "detail" );
+		Map nested = nester.nest( NesterTest.idRows() );
+		OffHeapTree tree = OffHeapTree.of( CompactTree.of( nested, 2 ), KEY_CODECS, Codec.STRING );
+
+		assertEquals( nested, tree.asMap() );
+		assertEquals( 20 * 50, tree.size( 1 ) );
+		assertEquals( Arrays.asList( "7/12/0", "7/12/1", "7/12/2" ), tree.query( 7, 12L ) );
+		assertEquals( 50, ((Map)tree.query( 7 )).size() );
+		assertEquals( -1, tree.findPath( 7, 99L ) );
+		assertEquals( -1, tree.findPath( "7" ) ); // not an Integer
+		assertNull( tree.query( 21 ) );
+		assertEquals( 12L, tree.getKey( 1, tree.findPath( 7, 12L ) ) );
+		assertNull( tree.getAggregates( 0, 0 ) );
+
+		OffHeapTree fromNester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( CompactTreeTest.descriptors( false ) )
+			.detailFieldName( "detail" ).offHeapNest( NesterTest.idRows(), KEY_CODECS, Codec.STRING );
+		assertEquals( nested, fromNester.asMap() );
+	}
+
+	@Test
+	public void testMappedFile()
+	throws Exception
+	{
+		Map nested = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( CompactTreeTest.descriptors( true ) )
+			.nest( NesterTest.idRows() );
+		Path file = Files.createTempFile( "nester", ".tree" );
+		try ( OffHeapTree tree = OffHeapTree.of( CompactTree.of( nested, 2 ), new Codec<?>[] { Codec.INT, Codec.STRING }, Codec.SERIALIZABLE, file ) )
+		{
+			assertTrue( Files.size( file ) > 0 );
+			List<Object> details = tree.getDetails( 3, "3/17/2" );
+			assertEquals( 1, details.size() );
+			assertEquals( 17L, ((NesterTest.IdRow)details.get( 0 )).account );
+			assertEquals( nested.keySet(), tree.asMap().keySet() );
+			assertEquals( ((Map)nested.get( 19 )).keySet(), ((Map)tree.query( 19 )).keySet() );
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	@Test
+	public void testAggregates()
+	throws Exception
+	{
+		Nester<NesterTest.IdRow> nester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() )
+			.detailFieldName( "detail" );
+		Map nested = nester.nest( NesterTest.idRows() );
+		assertTrue( nester.delete( NesterTest.idRows().stream().filter( row -> row.region == 7 && row.account == 49 ).findFirst().get() ) );
+		OffHeapTree tree = OffHeapTree.of( nested, 2, KEY_CODECS, Codec.STRING );
+
+		Aggregates<?> region7 = Aggregates.of( tree.query( 7 ) );
+		assertEquals( Aggregates.of( nested.get( 7 ) ), region7 );
+		assertEquals( 149, region7.getCount() );
+		assertEquals( 0.5, region7.getMin( "amount" ), 0 );
+		assertTrue( Double.isNaN( region7.getMax( "amount" ) ) ); // retracted, so unknown
+		assertEquals( 3, Aggregates.of( tree.query( 7, 12L ) ).getCount() );
+		assertNull( Aggregates.of( tree.asMap() ) );
+
+		OffHeapTree fromNester = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() )
+			.detailFieldName( "detail" ).offHeapNest( NesterTest.idRows(), KEY_CODECS, Codec.STRING );
+		assertEquals( 150, Aggregates.of( fromNester.query( 7 ) ).getCount() );
+	}
+
+	@Test
+	public void testOpen()
+	throws Exception
+	{
+		Path file = Files.createTempFile( "nester", ".tree" );
+		try
+		{
+			Map nested;
+			try ( OffHeapTree tree = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() )
+				.detailFieldName( "detail" ).offHeapNest( NesterTest.idRows(), KEY_CODECS, Codec.STRING, file ) )
+			{
+				nested = Nester.newInstance( NesterTest.IdRow.class ).categoryDescriptors( NesterTest.aggregateDescriptors() )
+					.detailFieldName( "detail" ).nest( NesterTest.idRows() );
+				assertEquals( nested, tree.asMap() );
+			}
+			try ( OffHeapTree tree = OffHeapTree.open( file, KEY_CODECS, Codec.STRING ) )
+			{
+				assertEquals( nested, tree.asMap() );
+				assertEquals( Arrays.asList( "7/12/0", "7/12/1", "7/12/2" ), tree.query( 7, 12L ) );
+				assertEquals( -1, tree.findPath( 7, 99L ) );
+				assertEquals( Aggregates.of( nested.get( 19 ) ), Aggregates.of( tree.query( 19 ) ) );
+			}
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	@Test( expected = IOException.class )
+	public void testOpenNotATree()
+	throws Exception
+	{
+		Path file = Files.createTempFile( "nester", ".tree" );
+		try
+		{
+			Files.write( file, new byte[] { 1, 2, 3 } );
+			OffHeapTree.open( file, KEY_CODECS, Codec.STRING );
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		OffHeapTree tree = OffHeapTree.of( CompactTree.of( new java.util.LinkedHashMap<>(), 2 ), KEY_CODECS, Codec.STRING );
+		assertTrue( tree.asMap().isEmpty() );
+		assertEquals( -1, tree.findPath( 1 ) );
+	}
+}
@@ -0,0 +1,122 @@
+package com.memoriesdreamsandreflections.nester;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertSame ;
+import static org.junit.Assert.assertTrue ;
+
+import java.util.ArrayList ;
+import java.util.Iterator ;
+import java.util.LinkedHashMap ;
+import java.util.List ;
+import java.util.Map ;
+
+import org.junit.Test ;
+
+import com.fasterxml.jackson.databind.ObjectMapper ;
+
+public class SchemaMapTest
+{
+
+	@Test
+	public void testSharedSchema()
+	{
+		SchemaMap.Schema schema = new SchemaMap.Schema();
+		SchemaMap first = new SchemaMap( schema );
+		first.put( "state", "NY" );
+		first.put( "emblem", "vulture" );
+		SchemaMap second = new SchemaMap( schema );
+		second.put( "state", "NJ" );
+		second.put( "cities", new ArrayList<>() );
+		assertEquals( 3, schema.size() );
+		assertEquals( 2, second.size() );
+		assertNull( second.get( "emblem" ) );
+		assertFalse( second.containsKey( "emblem" ) );
+		assertTrue( first.containsKey( "emblem" ) );
+		assertNull( first.get( "cities" ) );
+		assertEquals( "vulture", first.put( "emblem", "owl" ) );
+
+		Map<String, Object> expected = new LinkedHashMap<>();
+		expected.put( "state", "NY" );
+		expected.put( "emblem", "owl" );
+		assertEquals( expected, first );
+		assertEquals( first, expected );
+		assertEquals( expected.hashCode(), first.hashCode() );
+		assertEquals( new ArrayList<>( expected.keySet() ), new ArrayList<>( first.keySet() ) );
+	}
+
+	@Test
+	public void testRemoveAndIterator()
+	{
+		SchemaMap subject = new SchemaMap( new SchemaMap.Schema() );
+		for ( int i = 0; i < 5; i++ )
+		{
+			subject.put( "k" + i, i );
+		}
+		assertEquals( 2, subject.remove( "k2" ) );
+		assertNull( subject.remove( "k2" ) );
+		assertNull( subject.remove( "other" ) );
+		Iterator<Map.Entry<String, Object>> entries = subject.entrySet().iterator();
+		entries.next().setValue( 10 );
+		entries.next();
+		entries.remove();
+		assertEquals( "{k0=10, k3=3, k4=4}", subject.toString() );
+		subject.put( "k1", 1 );
+		assertEquals( "{k0=10, k1=1, k3=3, k4=4}", subject.toString() ); // schema order
+	}
+
+	@Test
+	public void testNullKey()
+	{
+		SchemaMap subject = new SchemaMap( new SchemaMap.Schema() );
+		Map<String, Object> expected = new LinkedHashMap<>();
+		for ( Map<String, Object> map : List.of( subject, expected ) )
+		{
+			map.put( "state", "NY" );
+			assertNull( map.put( null, "nothing" ) );
+			assertEquals( "nothing", map.put( null, "something" ) );
+		}
+		assertEquals( expected, subject );
+		assertEquals( expected.hashCode(), subject.hashCode() );
+		assertTrue( subject.containsKey( null ) );
+		assertEquals( "something", subject.get( null ) );
+		assertEquals( new ArrayList<>( expected.keySet() ), new ArrayList<>( subject.keySet() ) );
+		assertEquals( "something", subject.remove( null ) );
+		assertFalse( subject.containsKey( null ) );
+	}
+
+	/*
+	 * Unlike LinkedHashMap, iteration follows the level's schema, not each node's insertion order
+	 */
+	@Test
+	public void testSchemaOrder()
+	{
+		SchemaMap.Schema schema = new SchemaMap.Schema();
+		SchemaMap first = new SchemaMap( schema );
+		first.put( "state", "NY" );
+		first.put( "emblem", "vulture" );
+		SchemaMap second = new SchemaMap( schema );
+		second.put( "emblem", "owl" );
+		second.put( "state", "NJ" );
+		assertEquals( List.of( "state", "emblem" ), new ArrayList<>( second.keySet() ) );
+		first.remove( "state" );
+		first.put( "state", "NY" );
+		assertEquals( List.of( "state", "emblem" ), new ArrayList<>( first.keySet() ) );
+	}
+
+	@Test
+	public void testNameValueNodes()
+	throws Exception
+	{
+		List<CategoryDescriptor<TestNameValueStruct>> descs = NesterTest.stateCityDescriptors( false );
+		Map root = Nester.newInstance( TestNameValueStruct.class ).categoryDescriptors( descs )
+			.nameValueNest( List.of( new TestNameValueStruct( "NY", "CITY01", "00001", "SEC-001" ),
+				new TestNameValueStruct( "NJ", "CITY02", "00002", "SEC-002" ) ) );
+		List<?> states = (List<?>)root.get( "states" );
+		SchemaMap ny = (SchemaMap)states.get( 0 );
+		SchemaMap nj = (SchemaMap)states.get( 1 );
+		assertSame( ny.schema, nj.schema );
+		assertEquals( "{\"state\":\"NY\",\"cities\":[{\"city\":\"CITY01\",\"zip\":\"00001\"}]}", new ObjectMapper().writeValueAsString( ny ) );
+	}
+}